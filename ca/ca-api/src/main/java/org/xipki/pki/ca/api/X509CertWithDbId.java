@@ -36,6 +36,7 @@ package org.xipki.pki.ca.api;
 
 import java.security.cert.X509Certificate;
 
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.xipki.commons.security.X509Cert;
 
 /**
@@ -55,6 +56,16 @@ public class X509CertWithDbId extends X509Cert {
         super(cert, encodedCert);
     }
 
+    /**
+     * Constructor. The JCA {@link X509Certificate} is created on the first call of
+     * {@link #getCert()}.
+     *
+     * @since 2.1.1
+     */
+    public X509CertWithDbId(final X509CertificateHolder certHolder, final byte[] encodedCert) {
+        super(certHolder, encodedCert);
+    }
+
     public Long getCertId() {
         return certId;
     }
@@ -83,6 +83,17 @@ public abstract class X509CertPublisher {
     public abstract boolean certificateRemoved(@NonNull X509Cert caCert,
             @NonNull X509CertWithDbId cert);
 
+    /**
+     * Whether this publisher processes CRLs. If not, {@link #crlAdded(X509Cert, X509CRL)} is
+     * not called, and the CA does not need to parse the generated CRL.
+     *
+     * @return whether the CRLs are published.
+     * @since 2.1.1
+     */
+    public boolean publishsCrl() {
+        return true;
+    }
+
     public abstract boolean crlAdded(@NonNull X509Cert caCert, @NonNull X509CRL crl);
 
     public abstract boolean caRevoked(@NonNull X509Cert caCert,
@@ -34,12 +34,9 @@
 
 package org.xipki.pki.ca.api.publisher.x509;
 
-import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.ASN1StreamParser;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.xipki.commons.common.util.ParamUtil;
@@ -91,17 +88,13 @@ public class X509CertificateInfo {
         this.cert = ParamUtil.requireNonNull("cert", cert);
         this.subjectPublicKey = ParamUtil.requireNonNull("subjectPublicKey", subjectPublicKey);
         this.issuerCert = ParamUtil.requireNonNull("issuerCert", issuerCert);
-        ASN1ObjectIdentifier oid = new ASN1ObjectIdentifier(cert.getCert().getSigAlgOID());
-        byte[] params = cert.getCert().getSigAlgParams();
+        // the BouncyCastle form avoids the conversion to the JCA X509Certificate
+        AlgorithmIdentifier algId = cert.getCertHolder().getSignatureAlgorithm();
 
         try {
-            AlgorithmIdentifier algId;
-            algId = (params == null) ? new AlgorithmIdentifier(oid)
-                    : new AlgorithmIdentifier(oid, new ASN1StreamParser(params).readObject());
-
             AlgorithmIdentifier hashId = AlgorithmUtil.extractDigesetAlgId(algId);
             this.hashAlgo = HashAlgoType.getNonNullHashAlgoType(hashId.getAlgorithm().getId());
-        } catch (IllegalArgumentException | IOException | NoSuchAlgorithmException ex) {
+        } catch (IllegalArgumentException | NoSuchAlgorithmException ex) {
             throw new CertificateEncodingException(
                     "could not retrieve hash algorithm used to sign the certificate: "
                             + ex.getMessage(), ex);
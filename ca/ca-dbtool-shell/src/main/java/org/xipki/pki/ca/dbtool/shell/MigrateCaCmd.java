@@ -0,0 +1,72 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.dbtool.shell;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.xipki.commons.console.karaf.completer.FilePathCompleter;
+import org.xipki.pki.ca.dbtool.port.CaDbMigrateWorker;
+import org.xipki.pki.ca.dbtool.port.DbPortWorker;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+@Command(scope = "xipki-db", name = "migrate-ca",
+        description = "migrate the Base64 encoded certificates and requests in the CA database"
+                + " to binary\n(the CA may keep running)")
+@Service
+public class MigrateCaCmd extends DbPortCommandSupport {
+
+    private static final String DFLT_DBCONF_FILE = "xipki/ca-config/ca-db.properties";
+
+    @Option(name = "--db-conf",
+            description = "database configuration file")
+    @Completion(FilePathCompleter.class)
+    private String dbconfFile = DFLT_DBCONF_FILE;
+
+    @Option(name = "-k",
+            description = "number of rows per commit")
+    private Integer numRowsPerCommit = 100;
+
+    @Override
+    protected DbPortWorker getDbPortWorker() throws Exception {
+        return new CaDbMigrateWorker(datasourceFactory, passwordResolver, dbconfFile,
+                numRowsPerCommit.intValue());
+    }
+
+}
@@ -54,6 +54,14 @@ import org.xipki.commons.datasource.springframework.dao.DataAccessException;
 
 public class DbSchemaInfo {
 
+    /**
+     * Minimal version of the CA database schema which stores certificates and requests in
+     * binary instead of Base64 text.
+     *
+     * @since 2.1.1
+     */
+    public static final int CA_BINARY_VERSION = 3;
+
     private final Map<String, String> variables = new HashMap<>();
 
     public DbSchemaInfo(final DataSourceWrapper datasource) throws DataAccessException {
@@ -91,6 +99,19 @@ public class DbSchemaInfo {
         return Collections.unmodifiableSet(variables.keySet());
     }
 
+    /**
+     * Returns the value of the variable VERSION.
+     *
+     * @since 2.1.1
+     */
+    public int getVersion() {
+        String str = variables.get("VERSION");
+        if (str == null) {
+            throw new IllegalStateException("VERSION is not set in table DBSCHEMA");
+        }
+        return Integer.parseInt(str.trim());
+    }
+
     public String getVariableValue(final String variableName) {
         ParamUtil.requireNonNull("variableName", variableName);
         return variables.get(variableName);
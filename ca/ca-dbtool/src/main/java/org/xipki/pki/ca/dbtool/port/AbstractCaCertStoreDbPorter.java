@@ -34,10 +34,18 @@
 
 package org.xipki.pki.ca.dbtool.port;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.bouncycastle.util.encoders.Base64;
+import org.xipki.commons.common.util.IoUtil;
 import org.xipki.commons.datasource.DataSourceWrapper;
 import org.xipki.commons.datasource.springframework.dao.DataAccessException;
+import org.xipki.pki.ca.dbtool.DbSchemaInfo;
 
 /**
  * @author Lijun Liao
@@ -46,9 +54,52 @@ import org.xipki.commons.datasource.springframework.dao.DataAccessException;
 
 class AbstractCaCertStoreDbPorter extends DbPorter {
 
+    /**
+     * Whether the certificates and requests are stored in the binary columns CRAW.CERT_BIN and
+     * REQUEST.DATA_BIN.
+     *
+     * @since 2.1.1
+     */
+    protected final boolean binaryCerts;
+
     AbstractCaCertStoreDbPorter(final DataSourceWrapper datasource, final String baseDir,
             final AtomicBoolean stopMe, final boolean evaluateOnly) throws DataAccessException {
         super(datasource, baseDir, stopMe, evaluateOnly);
+        this.binaryCerts = dbSchemaVersion >= DbSchemaInfo.CA_BINARY_VERSION;
+    }
+
+    /**
+     * Reads the binary column if the schema stores binary data, and falls back to the Base64
+     * encoded column for the schema version 2 and for the rows which are not migrated yet.
+     *
+     * @since 2.1.1
+     */
+    protected byte[] getBinary(final ResultSet rs, final String binaryColumn,
+            final String base64Column) throws SQLException, IOException {
+        if (binaryCerts) {
+            InputStream is = rs.getBinaryStream(binaryColumn);
+            if (is != null) {
+                return IoUtil.read(is);
+            }
+        }
+
+        String b64 = rs.getString(base64Column);
+        return (b64 == null) ? null : Base64.decode(b64);
+    }
+
+    /**
+     * Sets the binary data, in the binary form if the schema stores binary data, otherwise
+     * Base64 encoded.
+     *
+     * @since 2.1.1
+     */
+    protected void setBinary(final PreparedStatement ps, final int index, final byte[] data)
+    throws SQLException {
+        if (binaryCerts) {
+            ps.setBytes(index, data);
+        } else {
+            ps.setString(index, Base64.toBase64String(data));
+        }
     }
 
 }
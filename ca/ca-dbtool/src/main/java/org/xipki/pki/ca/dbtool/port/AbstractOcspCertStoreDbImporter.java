@@ -109,6 +109,7 @@ abstract class AbstractOcspCertStoreDbImporter extends DbPorter {
         System.out.println("dropping indexes");
         long start = System.currentTimeMillis();
 
+        datasource.dropIndex(null, "CERT", "IDX_IID_LUPDATE");
         datasource.dropForeignKeyConstraint(null, "FK_CERT_ISSUER1", "CERT");
         datasource.dropUniqueConstrain(null, "CONST_ISSUER_SN", "CERT");
 
@@ -134,6 +135,7 @@ abstract class AbstractOcspCertStoreDbImporter extends DbPorter {
         datasource.addForeignKeyConstraint(null, "FK_CERT_ISSUER1", "CERT",
                 "IID", "ISSUER", "ID", "CASCADE", "NO ACTION");
         datasource.addUniqueConstrain(null, "CONST_ISSUER_SN", "CERT", "IID", "SN");
+        datasource.createIndex(null, "IDX_IID_LUPDATE", "CERT", "IID", "LUPDATE");
 
         datasource.addForeignKeyConstraint(null, "FK_CRAW_CERT1", "CRAW", "CID", "CERT", "ID",
                 "CASCADE", "NO ACTION");
@@ -379,8 +379,8 @@ class CaCertStoreDbExporter extends AbstractCaCertStoreDbPorter {
         case CERT:
             numProcessedBefore = certstore.getCountCerts();
             coreSql = "ID,SN,CA_ID,PID,RID,ART,RTYPE,TID,UNAME,LUPDATE,REV,RR,RT,RIT,FP_RS,"
-                    + "REQ_SUBJECT,CERT FROM CERT INNER JOIN CRAW ON CERT.ID>=? "
-                    + "AND CERT.ID=CRAW.CID";
+                    + "REQ_SUBJECT," + (binaryCerts ? "CERT,CERT_BIN" : "CERT")
+                    + " FROM CERT INNER JOIN CRAW ON CERT.ID>=? AND CERT.ID=CRAW.CID";
             break;
         case CRL:
             numProcessedBefore = certstore.getCountCrls();
@@ -392,7 +392,8 @@ class CaCertStoreDbExporter extends AbstractCaCertStoreDbPorter {
             break;
         case REQUEST:
             numProcessedBefore = certstore.getCountRequests();
-            coreSql = "ID,LUPDATE,DATA FROM REQUEST WHERE ID>=?";
+            coreSql = "ID,LUPDATE," + (binaryCerts ? "DATA,DATA_BIN" : "DATA")
+                    + " FROM REQUEST WHERE ID>=?";
             break;
         case REQCERT:
             numProcessedBefore = certstore.getCountReqCerts();
@@ -476,8 +477,7 @@ class CaCertStoreDbExporter extends AbstractCaCertStoreDbPorter {
                     }
 
                     if (CaDbEntryType.CERT == type) {
-                        String b64Cert = rs.getString("CERT");
-                        byte[] certBytes = Base64.decode(b64Cert);
+                        byte[] certBytes = getBinary(rs, "CERT_BIN", "CERT");
 
                         String sha1 = HashAlgoType.SHA1.hexHash(certBytes);
                         String certFileName = sha1 + ".der";
@@ -613,8 +613,7 @@ class CaCertStoreDbExporter extends AbstractCaCertStoreDbPorter {
                         ((CaUsersWriter) entriesInCurrentFile).add(user);
                     } else if (CaDbEntryType.REQUEST == type) {
                         long update = rs.getLong("LUPDATE");
-                        String b64Data = rs.getString("DATA");
-                        byte[] dataBytes = Base64.decode(b64Data);
+                        byte[] dataBytes = getBinary(rs, "DATA_BIN", "DATA");
                         String sha1 = HashAlgoType.SHA1.hexHash(dataBytes);
                         final String dataFilename = sha1 + ".req";
                         if (!evaulateOnly) {
@@ -113,9 +113,6 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
             + "PID,CA_ID,RID,UNAME,FP_K,EE,RTYPE,TID)"
             + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
-    private static final String SQL_ADD_CRAW =
-            "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT) VALUES (?,?,?,?)";
-
     private static final String SQL_ADD_CRL =
             "INSERT INTO CRL (ID,CA_ID,CRL_NO,THISUPDATE,NEXTUPDATE,DELTACRL,BASECRL_NO,CRL)"
             + " VALUES (?,?,?,?,?,?,?,?)";
@@ -123,12 +120,13 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
     private static final String SQL_ADD_USER =
             "INSERT INTO USERNAME (ID,NAME,PASSWORD,CN_REGEX) VALUES (?,?,?,?)";
 
-    private static final String SQL_ADD_REQUEST =
-            "INSERT INTO REQUEST (ID,LUPDATE,DATA) VALUES (?,?,?)";
-
     private static final String SQL_ADD_REQCERT =
             "INSERT INTO REQCERT (ID,RID,CID) VALUES (?,?,?)";
 
+    private final String sqlAddCraw;
+
+    private final String sqlAddRequest;
+
     private final Unmarshaller unmarshaller;
 
     private final boolean resume;
@@ -143,6 +141,12 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
         this.unmarshaller = ParamUtil.requireNonNull("unmarshaller", unmarshaller);
         this.numCertsPerCommit = ParamUtil.requireMin("numCertsPerCommit", numCertsPerCommit, 1);
         this.resume = resume;
+        this.sqlAddCraw = binaryCerts
+                ? "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT_BIN) VALUES (?,?,?,?)"
+                : "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT) VALUES (?,?,?,?)";
+        this.sqlAddRequest = binaryCerts
+                ? "INSERT INTO REQUEST (ID,LUPDATE,DATA_BIN) VALUES (?,?,?)"
+                : "INSERT INTO REQUEST (ID,LUPDATE,DATA) VALUES (?,?,?)";
 
         File processLogFile = new File(baseDir, DbPorter.IMPORT_PROCESS_LOG_FILENAME);
         if (resume) {
@@ -472,7 +476,7 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
             switch (type) {
             case CERT:
                 total = certstore.getCountCerts();
-                sqls = new String[] {SQL_ADD_CERT, SQL_ADD_CRAW};
+                sqls = new String[] {SQL_ADD_CERT, sqlAddCraw};
                 break;
             case CRL:
                 total = certstore.getCountCrls();
@@ -484,7 +488,7 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
                 break;
             case REQUEST:
                 total = certstore.getCountRequests();
-                sqls = new String[] {SQL_ADD_REQUEST};
+                sqls = new String[] {sqlAddRequest};
                 break;
             case REQCERT:
                 total = certstore.getCountReqCerts();
@@ -704,10 +708,10 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
                         psRawcert.setLong(idx++, cert.getId());
                         psRawcert.setString(idx++, b64Sha1FpCert);
                         psRawcert.setString(idx++, cert.getRs());
-                        psRawcert.setString(idx++, Base64.toBase64String(encodedCert));
+                        setBinary(psRawcert, idx++, encodedCert);
                         psRawcert.addBatch();
                     } catch (SQLException ex) {
-                        throw translate(SQL_ADD_CRAW, ex);
+                        throw translate(sqlAddCraw, ex);
                     }
                 } else if (CaDbEntryType.CRL == type) {
                     PreparedStatement psAddCrl = statements[0];
@@ -812,7 +816,7 @@ class CaCertStoreDbImporter extends AbstractCaCertStoreDbPorter {
                         int idx = 1;
                         psAddRequest.setLong(idx++, request.getId());
                         psAddRequest.setLong(idx++, request.getUpdate());
-                        psAddRequest.setString(idx++, Base64.toBase64String(encodedRequest));
+                        setBinary(psAddRequest, idx++, encodedRequest);
                         psAddRequest.addBatch();
                     } catch (SQLException ex) {
                         System.err.println("could not import REQUEST with ID=" + request.getId()
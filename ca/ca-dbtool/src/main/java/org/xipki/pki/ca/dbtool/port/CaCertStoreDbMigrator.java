@@ -0,0 +1,187 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.dbtool.port;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.ProcessLog;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.datasource.DataSourceWrapper;
+import org.xipki.commons.datasource.springframework.dao.DataAccessException;
+
+/**
+ * Migrates the Base64 encoded certificates and requests of the tables CRAW and REQUEST to the
+ * binary columns. The rows are migrated in chunks, each within its own transaction, so that
+ * the CA can keep running: it reads both forms, and writes the new rows in binary.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CaCertStoreDbMigrator extends AbstractCaCertStoreDbPorter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaCertStoreDbMigrator.class);
+
+    private final int numRowsPerCommit;
+
+    CaCertStoreDbMigrator(final DataSourceWrapper datasource, final int numRowsPerCommit,
+            final AtomicBoolean stopMe) throws DataAccessException {
+        // no files are read or written
+        super(datasource, ".", stopMe, false);
+        this.numRowsPerCommit = ParamUtil.requireMin("numRowsPerCommit", numRowsPerCommit, 1);
+    }
+
+    public void migrate() throws Exception {
+        if (!binaryCerts) {
+            throw new Exception("database schema version " + dbSchemaVersion
+                    + " does not support binary certificates, please update the database first");
+        }
+
+        System.out.println("migrating CA certstore to binary columns");
+        migrateTable("CRAW", "CID", "CERT", "CERT_BIN");
+        migrateTable("REQUEST", "ID", "DATA", "DATA_BIN");
+        System.out.println(" migrated CA certstore to binary columns");
+    }
+
+    private void migrateTable(final String table, final String idColumn,
+            final String base64Column, final String binaryColumn) throws Exception {
+        final String condition = base64Column + " IS NOT NULL";
+        final long total = getCount(table, condition);
+        System.out.println("migrating " + total + " rows of table " + table);
+        if (total == 0) {
+            return;
+        }
+
+        final String selectSql = datasource.buildSelectFirstSql(
+                idColumn + "," + base64Column + " FROM " + table + " WHERE " + idColumn
+                + ">? AND " + condition, numRowsPerCommit, idColumn + " ASC");
+        // the row may have been removed or migrated in the meantime
+        final String updateSql = "UPDATE " + table + " SET " + binaryColumn + "=?,"
+                + base64Column + "=NULL WHERE " + idColumn + "=? AND " + condition;
+
+        ProcessLog processLog = new ProcessLog(total);
+        processLog.printHeader();
+
+        PreparedStatement psSelect = prepareStatement(selectSql);
+        PreparedStatement psUpdate = null;
+        String sql = selectSql;
+
+        disableAutoCommit();
+        try {
+            psUpdate = prepareStatement(updateSql);
+
+            long lastId = getMin(table, idColumn, condition) - 1;
+            List<Long> ids = new ArrayList<>(numRowsPerCommit);
+            List<String> b64Values = new ArrayList<>(numRowsPerCommit);
+
+            while (true) {
+                if (stopMe.get()) {
+                    throw new InterruptedException("interrupted by the user");
+                }
+
+                sql = selectSql;
+                psSelect.setLong(1, lastId);
+                ResultSet rs = psSelect.executeQuery();
+                try {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(idColumn));
+                        b64Values.add(rs.getString(base64Column));
+                    }
+                } finally {
+                    releaseResources(null, rs);
+                }
+
+                final int size = ids.size();
+                if (size == 0) {
+                    break;
+                }
+
+                sql = updateSql;
+                for (int i = 0; i < size; i++) {
+                    psUpdate.setBytes(1, Base64.decode(b64Values.get(i)));
+                    psUpdate.setLong(2, ids.get(i));
+                    psUpdate.addBatch();
+                }
+                psUpdate.executeBatch();
+                commit("(commit migrate " + table + ")");
+
+                lastId = ids.get(size - 1);
+                ids.clear();
+                b64Values.clear();
+
+                processLog.addNumProcessed(size);
+                processLog.printStatus();
+            }
+        } catch (SQLException ex) {
+            try {
+                rollback();
+            } catch (DataAccessException ex2) {
+                LOG.error("could not rollback: {}", ex2.getMessage());
+            }
+            throw translate(sql, ex);
+        } finally {
+            recoverAutoCommit();
+            releaseResources(psSelect, null);
+            releaseResources(psUpdate, null);
+        }
+
+        processLog.printTrailer();
+        System.out.println(" migrated " + processLog.getNumProcessed() + " rows of table "
+                + table);
+    } // method migrateTable
+
+    private long getCount(final String table, final String condition)
+    throws DataAccessException {
+        final String sql = "SELECT COUNT(*) FROM " + table + " WHERE " + condition;
+        PreparedStatement ps = prepareStatement(sql);
+        ResultSet rs = null;
+        try {
+            rs = ps.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException ex) {
+            throw translate(sql, ex);
+        } finally {
+            releaseResources(ps, rs);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.dbtool.port;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.IoUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.common.util.StringUtil;
+import org.xipki.commons.datasource.DataSourceFactory;
+import org.xipki.commons.datasource.DataSourceWrapper;
+import org.xipki.commons.datasource.springframework.dao.DataAccessException;
+import org.xipki.commons.password.PasswordResolver;
+import org.xipki.commons.password.PasswordResolverException;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CaDbMigrateWorker extends DbPortWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaDbMigrateWorker.class);
+
+    private final DataSourceWrapper datasource;
+
+    private final int numRowsPerCommit;
+
+    public CaDbMigrateWorker(final DataSourceFactory datasourceFactory,
+            final PasswordResolver passwordResolver, final String dbConfFile,
+            final int numRowsPerCommit)
+    throws DataAccessException, PasswordResolverException, IOException {
+        ParamUtil.requireNonNull("datasourceFactory", datasourceFactory);
+        ParamUtil.requireNonBlank("dbConfFile", dbConfFile);
+
+        Properties props = DbPorter.getDbConfProperties(
+                new FileInputStream(IoUtil.expandFilepath(dbConfFile)));
+        this.datasource = datasourceFactory.createDataSource("ds-" + dbConfFile, props,
+                passwordResolver);
+        this.numRowsPerCommit = numRowsPerCommit;
+    }
+
+    @Override
+    public void doRun() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            CaCertStoreDbMigrator migrator = new CaCertStoreDbMigrator(datasource,
+                    numRowsPerCommit, stopMe);
+            migrator.migrate();
+            migrator.shutdown();
+        } finally {
+            try {
+                datasource.shutdown();
+            } catch (Throwable th) {
+                LOG.error("datasource.shutdown()", th);
+            }
+            long end = System.currentTimeMillis();
+            System.out.println("Finished in " + StringUtil.formatTime((end - start) / 1000, false));
+        }
+    } // method doRun
+
+}
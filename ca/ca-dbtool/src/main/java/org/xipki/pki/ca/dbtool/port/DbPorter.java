@@ -159,9 +159,8 @@ public class DbPorter extends DbToolBase {
         this.evaulateOnly = evaluateOnly;
 
         DbSchemaInfo dbSchemaInfo = new DbSchemaInfo(datasource);
-        String str = dbSchemaInfo.getVariableValue("VERSION");
-        this.dbSchemaVersion = Integer.parseInt(str);
-        str = dbSchemaInfo.getVariableValue("X500NAME_MAXLEN");
+        this.dbSchemaVersion = dbSchemaInfo.getVersion();
+        String str = dbSchemaInfo.getVariableValue("X500NAME_MAXLEN");
         this.maxX500nameLen = Integer.parseInt(str);
     }
 
@@ -0,0 +1,134 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.mgmt.api.x509;
+
+import org.xipki.commons.common.ConfPairs;
+import org.xipki.commons.common.util.ParamUtil;
+
+/**
+ * Controls how often the CA verifies the signature of the certificates it has just issued.
+ * Example configuration
+ *<pre>
+ * certVerify.policy=&lt;always|sample|firstAfterRefresh&gt;, \
+ *   [certVerify.sampleRate=&lt;N&gt;]
+ *</pre>
+ * where with policy sample only every N-th certificate is verified.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CertVerifyControl {
+
+    public enum Policy {
+
+        ALWAYS("always"),
+        SAMPLE("sample"),
+        FIRST_AFTER_REFRESH("firstAfterRefresh");
+
+        private final String text;
+
+        Policy(final String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public static Policy forText(final String text) {
+            ParamUtil.requireNonNull("text", text);
+            for (Policy value : values()) {
+                if (value.text.equalsIgnoreCase(text) || value.name().equalsIgnoreCase(text)) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("invalid Policy " + text);
+        }
+
+    } // enum Policy
+
+    public static final String KEY_POLICY = "certVerify.policy";
+
+    public static final String KEY_SAMPLE_RATE = "certVerify.sampleRate";
+
+    public static final int DFLT_SAMPLE_RATE = 100;
+
+    public static final CertVerifyControl ALWAYS = new CertVerifyControl(Policy.ALWAYS, 1);
+
+    private final Policy policy;
+
+    private final int sampleRate;
+
+    public CertVerifyControl(final Policy policy, final int sampleRate) {
+        this.policy = ParamUtil.requireNonNull("policy", policy);
+        this.sampleRate = (policy == Policy.SAMPLE)
+                ? ParamUtil.requireMin("sampleRate", sampleRate, 1) : 1;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public String toString() {
+        ConfPairs pairs = new ConfPairs();
+        pairs.putPair(KEY_POLICY, policy.getText());
+        if (policy == Policy.SAMPLE) {
+            pairs.putPair(KEY_SAMPLE_RATE, Integer.toString(sampleRate));
+        }
+        return pairs.getEncoded();
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof CertVerifyControl)) {
+            return false;
+        }
+
+        CertVerifyControl obj2 = (CertVerifyControl) obj;
+        return (policy == obj2.policy) && (sampleRate == obj2.sampleRate);
+    }
+
+}
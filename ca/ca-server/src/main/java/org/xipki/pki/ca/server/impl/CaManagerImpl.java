@@ -59,9 +59,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -168,6 +173,7 @@ import org.xipki.pki.ca.server.mgmt.api.conf.jaxb.ScepType;
 import org.xipki.pki.ca.server.mgmt.api.conf.jaxb.StringsType;
 import org.xipki.pki.ca.server.mgmt.api.conf.jaxb.X509CaInfoType;
 import org.xipki.pki.ca.server.mgmt.api.x509.CertWithStatusInfo;
+import org.xipki.pki.ca.server.mgmt.api.x509.CertVerifyControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.RevokeSuspendedCertsControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.ScepEntry;
 import org.xipki.pki.ca.server.mgmt.api.x509.X509CaEntry;
@@ -280,6 +286,14 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
 
     private static final String EVENT_CACHAGNE = "CA_CHANGE";
 
+    private static final int DFLT_CERT_WRITER_THREADS = 2;
+
+    private static final int DFLT_CERT_WRITER_MAX_BATCH_SIZE = 100;
+
+    private static final int CERT_GEN_QUEUE_SIZE_PER_THREAD = 10;
+
+    private static final int DFLT_SERIAL_POOL_BATCH_SIZE = 100;
+
     private final String lockInstanceId;
 
     private Map<String, CmpResponderEntry> responderDbEntries = new ConcurrentHashMap<>();
@@ -290,6 +304,10 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
 
     private boolean masterMode;
 
+    private String crlSnapshotDir;
+
+    private int serialPoolBatchSize;
+
     private Map<String, DataSourceWrapper> datasources;
 
     private final Map<String, X509CaInfo> caInfos = new ConcurrentHashMap<>();
@@ -333,6 +351,8 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
 
     private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+    private ThreadPoolExecutor certGenExecutor;
+
     private final Map<String, X509CaCmpResponder> x509Responders = new ConcurrentHashMap<>();
 
     private final Map<String, X509Ca> x509cas = new ConcurrentHashMap<>();
@@ -478,6 +498,29 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
             throw new CaMgmtException("ca.shardId is not in [0, 127]");
         }
 
+        int certWriterThreads = getIntProperty(caConfProps, "ca.certWriter.threads",
+                DFLT_CERT_WRITER_THREADS, 0);
+        int certWriterMaxBatchSize = getIntProperty(caConfProps, "ca.certWriter.maxBatchSize",
+                DFLT_CERT_WRITER_MAX_BATCH_SIZE, 1);
+
+        int certGenThreads = getIntProperty(caConfProps, "ca.certGen.threads",
+                Runtime.getRuntime().availableProcessors(), 0);
+        if (certGenExecutor != null) {
+            // the running tasks are completed
+            certGenExecutor.shutdown();
+            certGenExecutor = null;
+        }
+        if (certGenThreads > 0) {
+            certGenExecutor = newCertGenExecutor(certGenThreads);
+        }
+
+        serialPoolBatchSize = getIntProperty(caConfProps, "ca.serialPool.batchSize",
+                DFLT_SERIAL_POOL_BATCH_SIZE, 0);
+
+        String crlSnapshotDirStr = caConfProps.getProperty("ca.crlSnapshotDir");
+        crlSnapshotDir = StringUtil.isBlank(crlSnapshotDirStr) ? null : crlSnapshotDirStr.trim();
+        LOG.info("ca.crlSnapshotDir: {}", crlSnapshotDir);
+
         if (this.datasources == null) {
             this.datasources = new ConcurrentHashMap<>();
             for (Object objKey : caConfProps.keySet()) {
@@ -548,8 +591,13 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
 
         UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
 
+        if (this.certstore != null) {
+            this.certstore.shutdown();
+        }
+
         try {
-            this.certstore = new CertificateStore(datasource, idGen);
+            this.certstore = new CertificateStore(datasource, idGen, certWriterThreads,
+                    certWriterMaxBatchSize);
         } catch (DataAccessException ex) {
             throw new CaMgmtException(ex.getMessage(), ex);
         }
@@ -820,6 +868,23 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
                         unchangedSince);
                 caEntry.setRevokeSuspendedCertsControl(control);
             }
+
+            str = cp.getValue(CertVerifyControl.KEY_POLICY);
+            if (str != null) {
+                CertVerifyControl.Policy policy;
+                int sampleRate = CertVerifyControl.DFLT_SAMPLE_RATE;
+                try {
+                    policy = CertVerifyControl.Policy.forText(str);
+                    str = cp.getValue(CertVerifyControl.KEY_SAMPLE_RATE);
+                    if (str != null) {
+                        sampleRate = Integer.parseInt(str.trim());
+                    }
+                    caEntry.setCertVerifyControl(new CertVerifyControl(policy, sampleRate));
+                } catch (IllegalArgumentException ex) {
+                    LogUtil.error(LOG, ex, "invalid certVerify control (ca=" + caName + ")");
+                    return false;
+                }
+            }
         }
 
         boolean signerRequired = caEntry.isSignerRequired();
@@ -880,6 +945,16 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
             persistentScheduledThreadPoolExecutor = null;
         }
 
+        if (certGenExecutor != null) {
+            certGenExecutor.shutdown();
+            try {
+                certGenExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                LOG.error("interrupted: {}", ex.getMessage());
+            }
+            certGenExecutor = null;
+        }
+
         for (String caName : x509cas.keySet()) {
             X509Ca ca = x509cas.get(caName);
             try {
@@ -889,6 +964,10 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
             }
         }
 
+        if (certstore != null) {
+            certstore.shutdown();
+        }
+
         if (caLockedByMe) {
             unlockCa();
         }
@@ -921,6 +1000,16 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
         return scheduledThreadPoolExecutor;
     }
 
+    /**
+     * Returns the executor to generate the certificates of one request in parallel.
+     *
+     * @return the executor, or {@code null} if the certificates are generated in sequence.
+     * @since 2.1.1
+     */
+    public ExecutorService getCertGenExecutor() {
+        return certGenExecutor;
+    }
+
     @Override
     public Set<String> getCertprofileNames() {
         return certprofileDbEntries.keySet();
@@ -2036,6 +2125,25 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
         return caConfFile;
     }
 
+    /**
+     * Returns the directory of the CRL snapshots, or {@code null} if not configured.
+     *
+     * @since 2.1.1
+     */
+    String getCrlSnapshotDir() {
+        return crlSnapshotDir;
+    }
+
+    /**
+     * Returns the number of serial numbers pre-generated at once for each CA, or 0 if the
+     * serial numbers are generated while issuing the certificates.
+     *
+     * @since 2.1.1
+     */
+    int getSerialPoolBatchSize() {
+        return serialPoolBatchSize;
+    }
+
     public void setCaConfFile(final String caConfFile) {
         this.caConfFile = caConfFile;
     }
@@ -2792,6 +2900,52 @@ public class CaManagerImpl implements CaManager, CmpResponderManager, ScepManage
         return (scepDbEntries == null) ? null : Collections.unmodifiableSet(scepDbEntries.keySet());
     }
 
+    /**
+     * Bounded executor: if all threads are busy and the queue is full, the task is rejected and
+     * the caller generates the certificate itself.
+     */
+    private static ThreadPoolExecutor newCertGenExecutor(final int threads) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "certgen-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * CERT_GEN_QUEUE_SIZE_PER_THREAD),
+                threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        LOG.info("started certificate generation executor with {} threads", threads);
+        return executor;
+    }
+
+    private static int getIntProperty(final Properties props, final String name,
+            final int defaultValue, final int min) throws CaMgmtException {
+        String str = props.getProperty(name);
+        if (StringUtil.isBlank(str)) {
+            return defaultValue;
+        }
+        LOG.info("{}: {}", name, str);
+
+        int value;
+        try {
+            value = Integer.parseInt(str.trim());
+        } catch (NumberFormatException ex) {
+            throw new CaMgmtException("invalid " + name + " '" + str + "'");
+        }
+
+        if (value < min) {
+            throw new CaMgmtException(name + " is less than " + min);
+        }
+        return value;
+    }
+
     private static void assertNotNull(final String parameterName, final String parameterValue) {
         if (CaManager.NULL.equalsIgnoreCase(parameterValue)) {
             throw new IllegalArgumentException(parameterName + " must not be " + CaManager.NULL);
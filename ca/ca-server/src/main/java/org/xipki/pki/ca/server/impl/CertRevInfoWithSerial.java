@@ -52,6 +52,8 @@ public class CertRevInfoWithSerial extends CertRevocationInfo {
 
     private final BigInteger serial;
 
+    private Date notAfter;
+
     public CertRevInfoWithSerial(final long id, final BigInteger serial, final CrlReason reason,
             final Date revocationTime, final Date invalidityTime) {
         super(reason, revocationTime, invalidityTime);
@@ -74,4 +76,18 @@ public class CertRevInfoWithSerial extends CertRevocationInfo {
         return id;
     }
 
+    /**
+     * @since 2.1.1
+     */
+    public Date getNotAfter() {
+        return notAfter;
+    }
+
+    /**
+     * @since 2.1.1
+     */
+    public void setNotAfter(final Date notAfter) {
+        this.notAfter = notAfter;
+    }
+
 }
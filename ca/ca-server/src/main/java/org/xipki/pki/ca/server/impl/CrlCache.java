@@ -0,0 +1,145 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.server.impl;
+
+import java.math.BigInteger;
+
+import org.xipki.commons.common.LruCache;
+import org.xipki.commons.common.util.ParamUtil;
+
+/**
+ * Per-CA cache of the current and the recently requested CRLs.
+ *
+ * <p>A reader loading the current CRL from the certstore may race with the publication of a
+ * new CRL. Therefore the reader remembers the generation before it queries the certstore, and
+ * the loaded CRL is only cached if no invalidation happened in the meantime.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CrlCache {
+
+    private static final int MAX_CACHED_CRLS = 5;
+
+    private final LruCache<BigInteger, EncodedCrl> crls = new LruCache<>(MAX_CACHED_CRLS);
+
+    private final long maxAge;
+
+    private EncodedCrl currentCrl;
+
+    private long currentCrlLoadTime;
+
+    private long generation;
+
+    /**
+     * @param maxAge
+     *          Maximal time in milliseconds the current CRL is served from cache, or
+     *          {@code 0} if it is served until the CRL is invalidated or expires.
+     */
+    CrlCache(final long maxAge) {
+        this.maxAge = ParamUtil.requireMin("maxAge", maxAge, 0);
+    }
+
+    synchronized EncodedCrl getCurrentCrl() {
+        if (currentCrl == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if ((maxAge > 0 && now - currentCrlLoadTime > maxAge)
+                || (currentCrl.getNextUpdate() != null
+                        && now > currentCrl.getNextUpdate().getTime())) {
+            currentCrl = null;
+        }
+        return currentCrl;
+    }
+
+    /**
+     * Caches the CRL loaded from the certstore as the current one.
+     *
+     * @param crl
+     *          CRL loaded from the certstore. Must not be {@code null}.
+     * @param loadGeneration
+     *          The generation returned by {@link #getGeneration()} before the CRL is loaded.
+     */
+    synchronized void setCurrentCrl(final EncodedCrl crl, final long loadGeneration) {
+        ParamUtil.requireNonNull("crl", crl);
+        if (loadGeneration != generation) {
+            return;
+        }
+
+        currentCrl = crl;
+        currentCrlLoadTime = System.currentTimeMillis();
+        if (crl.getCrlNumber() != null) {
+            crls.put(crl.getCrlNumber(), crl);
+        }
+    }
+
+    synchronized EncodedCrl getCrl(final BigInteger crlNumber) {
+        ParamUtil.requireNonNull("crlNumber", crlNumber);
+        if (currentCrl != null && crlNumber.equals(currentCrl.getCrlNumber())) {
+            return currentCrl;
+        }
+        return crls.get(crlNumber);
+    }
+
+    synchronized void putCrl(final EncodedCrl crl) {
+        ParamUtil.requireNonNull("crl", crl);
+        if (crl.getCrlNumber() != null) {
+            crls.put(crl.getCrlNumber(), crl);
+        }
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Invalidates the current CRL, e.g. after a new CRL has been published.
+     */
+    synchronized void invalidateCurrentCrl() {
+        generation++;
+        currentCrl = null;
+    }
+
+    /**
+     * Invalidates all cached CRLs, e.g. after the old CRLs have been removed from the certstore.
+     */
+    synchronized void invalidateAll() {
+        invalidateCurrentCrl();
+        crls.evictAll();
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.server.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+
+/**
+ * Persisted snapshot of the revoked certificates contained in the last full CRL of a CA,
+ * sorted by the database id of the certificates.
+ *
+ * <p>The next full CRL is generated by merging this snapshot with the certificates listed in
+ * the table DELTACRL_CACHE, instead of reading all revoked certificates from the table CERT.
+ * The snapshot is only used if its CRL number equals the highest CRL number of the CA in the
+ * database, namely if no CRL has been generated by others since.
+ *
+ * <p>Format: MAGIC (int), VERSION (byte), CRL number (long), flags (byte), followed by the
+ * entries, and terminated by the id {@code 0}. Each entry consists of id (long), length of
+ * serial number (short), serial number, notAfter (long), reason (byte), revocation time
+ * (long) and invalidity time (long, {@code 0} if absent). All times are in seconds since
+ * the epoch.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CrlSnapshot {
+
+    class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        private Reader(final DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns the next entry, or {@code null} if all entries have been read.
+         */
+        CertRevInfoWithSerial next() throws IOException {
+            long id = in.readLong();
+            if (id == 0) {
+                return null;
+            }
+
+            byte[] serialBytes = new byte[in.readShort()];
+            in.readFully(serialBytes);
+            long notAfter = in.readLong();
+            int reason = in.readByte();
+            long revTime = in.readLong();
+            long invalidityTime = in.readLong();
+
+            CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(id,
+                    new BigInteger(serialBytes), reason, new Date(1000 * revTime),
+                    (invalidityTime == 0) ? null : new Date(1000 * invalidityTime));
+            revInfo.setNotAfter(new Date(1000 * notAfter));
+            return revInfo;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LogUtil.warn(LOG, ex, "could not close CRL snapshot " + file.getPath());
+            }
+        }
+
+    } // class Reader
+
+    class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private boolean committed;
+
+        private Writer(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(final CertRevInfoWithSerial revInfo) throws IOException {
+            ParamUtil.requireNonNull("revInfo", revInfo);
+            out.writeLong(revInfo.getId());
+            byte[] serialBytes = revInfo.getSerial().toByteArray();
+            out.writeShort(serialBytes.length);
+            out.write(serialBytes);
+            out.writeLong(revInfo.getNotAfter().getTime() / 1000);
+            out.writeByte(revInfo.getReason().getCode());
+            out.writeLong(revInfo.getRevocationTime().getTime() / 1000);
+            Date invalidityTime = revInfo.getInvalidityTime();
+            out.writeLong((invalidityTime == null) ? 0 : invalidityTime.getTime() / 1000);
+        }
+
+        /**
+         * Replaces the current snapshot by the written one.
+         *
+         * @param crlNumber
+         *          Number of the CRL the written snapshot belongs to.
+         */
+        void commit(final long crlNumber) throws IOException {
+            out.writeLong(0);
+            out.close();
+
+            setCrlNumber(tmpFile, crlNumber);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("could not delete file " + file.getPath());
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("could not rename file " + tmpFile.getPath() + " to "
+                        + file.getPath());
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() {
+            if (committed) {
+                return;
+            }
+
+            try {
+                out.close();
+            } catch (IOException ex) {
+                LogUtil.warn(LOG, ex, "could not close CRL snapshot " + tmpFile.getPath());
+            }
+
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                LOG.warn("could not delete file {}", tmpFile.getPath());
+            }
+        }
+
+    } // class Writer
+
+    static final int FLAG_ONLY_CA_CERTS = 1;
+
+    static final int FLAG_ONLY_USER_CERTS = 2;
+
+    static final int FLAG_INCLUDE_EXPIRED_CERTS = 4;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CrlSnapshot.class);
+
+    private static final int MAGIC = 0x58435253;
+
+    private static final byte VERSION = 1;
+
+    // MAGIC (4 bytes) and VERSION (1 byte) precede the CRL number
+    private static final long OFFSET_CRLNUMBER = 5;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final File tmpFile;
+
+    CrlSnapshot(final File dir, final String caName) {
+        ParamUtil.requireNonNull("dir", dir);
+        ParamUtil.requireNonBlank("caName", caName);
+        this.file = new File(dir, caName.toLowerCase() + ".crlsnapshot");
+        this.tmpFile = new File(dir, caName.toLowerCase() + ".crlsnapshot.tmp");
+    }
+
+    /**
+     * Opens the snapshot for read.
+     *
+     * @param crlNumber
+     *          Highest CRL number of the CA in the database.
+     * @param flags
+     *          Combination of the FLAG_* constants of the current CRL control.
+     * @return the reader, or {@code null} if there is no snapshot usable for the given
+     *         CRL number and flags.
+     */
+    Reader openReader(final long crlNumber, final int flags) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                LOG.warn("invalid CRL snapshot {}, ignore it", file.getPath());
+                in.close();
+                return null;
+            }
+
+            long snapshotCrlNumber = in.readLong();
+            int snapshotFlags = in.readByte();
+            if (snapshotCrlNumber != crlNumber || snapshotFlags != flags) {
+                LOG.info("CRL snapshot {} is outdated (crlNumber={}, flags={}), ignore it",
+                        file.getPath(), snapshotCrlNumber, snapshotFlags);
+                in.close();
+                return null;
+            }
+
+            return new Reader(in);
+        } catch (IOException ex) {
+            LogUtil.warn(LOG, ex, "could not read CRL snapshot " + file.getPath());
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex2) {
+                    LOG.debug("could not close CRL snapshot {}: {}", file.getPath(),
+                            ex2.getMessage());
+                }
+            }
+            return null;
+        }
+    } // method openReader
+
+    /**
+     * Opens a new snapshot for write. It replaces the current one only after it is committed.
+     *
+     * @param flags
+     *          Combination of the FLAG_* constants of the current CRL control.
+     */
+    Writer openWriter(final int flags) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("could not create directory " + dir.getPath());
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        // the CRL number is set by Writer.commit()
+        out.writeLong(0);
+        out.writeByte(flags);
+        return new Writer(out);
+    }
+
+    /**
+     * Assigns the snapshot to the new CRL number, e.g. after a delta CRL has been generated.
+     * The snapshot is deleted if it does not belong to the previous CRL number.
+     */
+    void updateCrlNumber(final long previousCrlNumber, final long crlNumber) {
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean successful = false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(OFFSET_CRLNUMBER);
+                if (raf.readLong() == previousCrlNumber) {
+                    raf.seek(OFFSET_CRLNUMBER);
+                    raf.writeLong(crlNumber);
+                    successful = true;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ex) {
+            LogUtil.warn(LOG, ex, "could not update CRL snapshot " + file.getPath());
+        }
+
+        if (!successful) {
+            delete();
+        }
+    } // method updateCrlNumber
+
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("could not delete file {}", file.getPath());
+        }
+    }
+
+    static int getFlags(final boolean onlyCaCerts, final boolean onlyUserCerts,
+            final boolean includeExpiredCerts) {
+        int flags = 0;
+        if (onlyCaCerts) {
+            flags |= FLAG_ONLY_CA_CERTS;
+        }
+        if (onlyUserCerts) {
+            flags |= FLAG_ONLY_USER_CERTS;
+        }
+        if (includeExpiredCerts) {
+            flags |= FLAG_INCLUDE_EXPIRED_CERTS;
+        }
+        return flags;
+    }
+
+    private static void setCrlNumber(final File file, final long crlNumber) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(OFFSET_CRLNUMBER);
+            raf.writeLong(crlNumber);
+        } finally {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.Time;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * DER encoded CRL as stored in the certstore, together with the meta data required to serve it
+ * via HTTP.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class EncodedCrl {
+
+    private final byte[] encoded;
+
+    private final BigInteger crlNumber;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final String etag;
+
+    private volatile byte[] gzipEncoded;
+
+    public EncodedCrl(final byte[] encoded) {
+        this.encoded = ParamUtil.requireNonNull("encoded", encoded);
+
+        CertificateList crl = CertificateList.getInstance(encoded);
+        this.thisUpdate = crl.getThisUpdate().getDate();
+        Time time = crl.getNextUpdate();
+        this.nextUpdate = (time == null) ? null : time.getDate();
+
+        Extensions extns = crl.getTBSCertList().getExtensions();
+        ASN1Integer asn1CrlNumber = (extns == null) ? null
+                : ASN1Integer.getInstance(extns.getExtensionParsedValue(Extension.cRLNumber));
+        this.crlNumber = (asn1CrlNumber == null) ? null : asn1CrlNumber.getPositiveValue();
+        this.etag = HashAlgoType.SHA1.hexHash(encoded);
+    }
+
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Returns the GZIP compressed encoded CRL. It is computed once on the first call.
+     */
+    public byte[] getGzipEncoded() throws IOException {
+        byte[] result = gzipEncoded;
+        if (result == null) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(encoded.length / 2 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(bout);
+            gzip.write(encoded);
+            gzip.close();
+            result = bout.toByteArray();
+            gzipEncoded = result;
+        }
+        return result;
+    }
+
+    public BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 fingerprint of the encoded CRL.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+}
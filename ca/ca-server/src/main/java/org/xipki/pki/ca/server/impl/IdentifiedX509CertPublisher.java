@@ -88,6 +88,10 @@ class IdentifiedX509CertPublisher {
         return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
     }
 
+    public boolean publishsCrl() {
+        return certPublisher.publishsCrl();
+    }
+
     public boolean crlAdded(final X509Cert caCert, final X509CRL crl) {
         return certPublisher.crlAdded(caCert, crl);
     }
@@ -0,0 +1,246 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.X509Cert;
+import org.xipki.pki.ca.api.OperationException;
+import org.xipki.pki.ca.server.impl.store.CertificateStore;
+
+/**
+ * Pool of random serial numbers which are not used by any certificate of the CA.
+ * The pool is refilled in the background with batches of random serial numbers, each batch
+ * is checked against the database with one query.
+ *
+ * <p>The certificate of a serial number handed out is stored only later. Hence the last
+ * {@value #RECENT_SIZE_FACTOR} * batchSize serial numbers handed out are remembered and
+ * excluded from the refills.
+ *
+ * <p>If the pool is empty, a serial number is generated directly without the check, the
+ * unique constraint of the database is then the last line of defense.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class SerialNumberPool {
+
+    /**
+     * Finds the serial numbers which are already used by certificates of the CA.
+     */
+    interface SerialNumberChecker {
+
+        Set<BigInteger> getExistingSerialNumbers(Collection<BigInteger> serialNumbers)
+        throws OperationException;
+
+    } // interface SerialNumberChecker
+
+    private class Refiller implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                refill();
+            } catch (Throwable th) {
+                LogUtil.error(LOG, th, "could not refill the serial number pool of CA " + caName);
+            } finally {
+                refilling.set(false);
+            }
+        }
+
+    } // class Refiller
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerialNumberPool.class);
+
+    private static final int RECENT_SIZE_FACTOR = 10;
+
+    private final String caName;
+
+    private final SerialNumberChecker checker;
+
+    private final int serialNumberBitLen;
+
+    private final int batchSize;
+
+    private final Executor executor;
+
+    private final RandomSerialNumberGenerator generator;
+
+    private final ConcurrentLinkedQueue<BigInteger> serialNumbers = new ConcurrentLinkedQueue<>();
+
+    // serial numbers in the queue, used to avoid duplicates across the batches
+    private final Set<BigInteger> pooledSerialNumbers =
+            Collections.newSetFromMap(new ConcurrentHashMap<BigInteger, Boolean>());
+
+    // serial numbers handed out recently, their certificates may not be stored yet
+    private final ConcurrentLinkedQueue<BigInteger> recentSerialNumbers =
+            new ConcurrentLinkedQueue<>();
+
+    private final Set<BigInteger> recentSerialNumberSet =
+            Collections.newSetFromMap(new ConcurrentHashMap<BigInteger, Boolean>());
+
+    private final int maxRecentSerialNumbers;
+
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    private final Refiller refiller = new Refiller();
+
+    SerialNumberPool(final String caName, final X509Cert caCert,
+            final CertificateStore certStore, final int serialNumberBitLen, final int batchSize,
+            final Executor executor) {
+        this(caName, newChecker(caCert, certStore), serialNumberBitLen, batchSize, executor);
+    }
+
+    SerialNumberPool(final String caName, final SerialNumberChecker checker,
+            final int serialNumberBitLen, final int batchSize, final Executor executor) {
+        this.caName = ParamUtil.requireNonBlank("caName", caName);
+        this.checker = ParamUtil.requireNonNull("checker", checker);
+        this.serialNumberBitLen = ParamUtil.requireMin("serialNumberBitLen",
+                serialNumberBitLen, 1);
+        this.batchSize = ParamUtil.requireMin("batchSize", batchSize, 1);
+        this.maxRecentSerialNumbers = RECENT_SIZE_FACTOR * batchSize;
+        this.executor = ParamUtil.requireNonNull("executor", executor);
+        this.generator = RandomSerialNumberGenerator.getInstance();
+        triggerRefill();
+    }
+
+    BigInteger nextSerialNumber() {
+        BigInteger serialNumber = serialNumbers.poll();
+        if (serialNumber != null) {
+            // remember before removing, a concurrent refill checks in the reverse order
+            addRecentSerialNumber(serialNumber);
+            pooledSerialNumbers.remove(serialNumber);
+        }
+
+        if (pooledSerialNumbers.size() <= batchSize / 2) {
+            triggerRefill();
+        }
+
+        if (serialNumber == null) {
+            LOG.debug("serial number pool of CA {} is empty", caName);
+            serialNumber = generator.nextSerialNumber(serialNumberBitLen);
+            addRecentSerialNumber(serialNumber);
+        }
+        return serialNumber;
+    }
+
+    int size() {
+        return pooledSerialNumbers.size();
+    }
+
+    private void triggerRefill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(refiller);
+        } catch (RejectedExecutionException ex) {
+            refilling.set(false);
+            LOG.warn("could not schedule the refill of the serial number pool of CA {}", caName);
+        }
+    }
+
+    private void refill() throws OperationException {
+        Set<BigInteger> batch = new HashSet<>();
+        // bounded, the number space may be small for a short bit length
+        int maxTries = 4 * batchSize;
+        for (int i = 0; i < maxTries && batch.size() < batchSize; i++) {
+            BigInteger serialNumber = generator.nextSerialNumber(serialNumberBitLen);
+            if (serialNumber.signum() != 0 && !pooledSerialNumbers.contains(serialNumber)
+                    && !recentSerialNumberSet.contains(serialNumber)) {
+                batch.add(serialNumber);
+            }
+        }
+
+        Set<BigInteger> existing = checker.getExistingSerialNumbers(batch);
+        if (!existing.isEmpty()) {
+            LOG.info("removed {} already used serial numbers from the pool of CA {}",
+                    existing.size(), caName);
+            batch.removeAll(existing);
+        }
+
+        for (BigInteger serialNumber : batch) {
+            if (pooledSerialNumbers.add(serialNumber)) {
+                serialNumbers.offer(serialNumber);
+            }
+        }
+        LOG.debug("refilled serial number pool of CA {}: {} entries", caName,
+                pooledSerialNumbers.size());
+    } // method refill
+
+    private void addRecentSerialNumber(final BigInteger serialNumber) {
+        if (!recentSerialNumberSet.add(serialNumber)) {
+            return;
+        }
+
+        recentSerialNumbers.offer(serialNumber);
+        while (recentSerialNumberSet.size() > maxRecentSerialNumbers) {
+            BigInteger oldest = recentSerialNumbers.poll();
+            if (oldest == null) {
+                break;
+            }
+            recentSerialNumberSet.remove(oldest);
+        }
+    }
+
+    private static SerialNumberChecker newChecker(final X509Cert caCert,
+            final CertificateStore certStore) {
+        ParamUtil.requireNonNull("caCert", caCert);
+        ParamUtil.requireNonNull("certStore", certStore);
+        return new SerialNumberChecker() {
+            @Override
+            public Set<BigInteger> getExistingSerialNumbers(
+                    final Collection<BigInteger> serialNumbers) throws OperationException {
+                return certStore.getExistingSerialNumbers(caCert, serialNumbers);
+            }
+        };
+    }
+
+}
@@ -34,6 +34,7 @@
 
 package org.xipki.pki.ca.server.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
@@ -53,16 +54,26 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1GeneralizedTime;
@@ -89,11 +100,10 @@ import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.ReasonFlags;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.Time;
-import org.bouncycastle.cert.CertIOException;
-import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.CertException;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentVerifierProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.audit.AuditEvent;
@@ -105,6 +115,7 @@ import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.common.util.CollectionUtil;
 import org.xipki.commons.common.util.CompareUtil;
 import org.xipki.commons.common.util.DateUtil;
+import org.xipki.commons.common.util.IoUtil;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.common.util.StringUtil;
@@ -119,6 +130,7 @@ import org.xipki.commons.security.X509Cert;
 import org.xipki.commons.security.XiSecurityConstants;
 import org.xipki.commons.security.exception.NoIdleSignerException;
 import org.xipki.commons.security.exception.XiSecurityException;
+import org.xipki.commons.security.util.AlgorithmUtil;
 import org.xipki.commons.security.util.X509Util;
 import org.xipki.pki.ca.api.BadCertTemplateException;
 import org.xipki.pki.ca.api.BadFormatException;
@@ -146,6 +158,7 @@ import org.xipki.pki.ca.server.mgmt.api.CaStatus;
 import org.xipki.pki.ca.server.mgmt.api.CertListInfo;
 import org.xipki.pki.ca.server.mgmt.api.CertListOrderBy;
 import org.xipki.pki.ca.server.mgmt.api.ValidityMode;
+import org.xipki.pki.ca.server.mgmt.api.x509.CertVerifyControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.CrlControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.CrlControl.HourMinute;
 import org.xipki.pki.ca.server.mgmt.api.x509.CrlControl.UpdateMode;
@@ -197,6 +210,74 @@ public class X509Ca {
 
     }
 
+    /**
+     * State to verify the signatures of the generated certificates. It is bound to the CA
+     * certificate it has been created for, and is replaced once the CA certificate changes.
+     */
+    private static class CaVerifier {
+
+        private final X509Cert caCert;
+
+        private volatile Boolean tryNss;
+
+        private volatile ContentVerifierProvider verifierProvider;
+
+        CaVerifier(final X509Cert caCert) {
+            this.caCert = caCert;
+        }
+
+    } // class CaVerifier
+
+    private class CertGenerationTask implements Runnable {
+
+        private final int index;
+
+        private final GrantedCertTemplate gct;
+
+        private final boolean requestedByRa;
+
+        private final RequestorInfo requestor;
+
+        private final String user;
+
+        private final RequestType reqType;
+
+        private final byte[] transactionId;
+
+        private final String msgId;
+
+        private final X509CertificateInfo[] certInfos;
+
+        private final OperationException[] exceptions;
+
+        private final AtomicBoolean failed;
+
+        CertGenerationTask(final int index, final GrantedCertTemplate gct,
+                final boolean requestedByRa, final RequestorInfo requestor, final String user,
+                final RequestType reqType, final byte[] transactionId, final String msgId,
+                final X509CertificateInfo[] certInfos, final OperationException[] exceptions,
+                final AtomicBoolean failed) {
+            this.index = index;
+            this.gct = gct;
+            this.requestedByRa = requestedByRa;
+            this.requestor = requestor;
+            this.user = user;
+            this.reqType = reqType;
+            this.transactionId = transactionId;
+            this.msgId = msgId;
+            this.certInfos = certInfos;
+            this.exceptions = exceptions;
+            this.failed = failed;
+        }
+
+        @Override
+        public void run() {
+            generateCertificate(index, gct, requestedByRa, requestor, user, reqType,
+                    transactionId, msgId, certInfos, exceptions, failed);
+        }
+
+    } // class CertGenerationTask
+
     private class ScheduledExpiredCertsRemover implements Runnable {
 
         private boolean inProcess;
@@ -367,6 +448,11 @@ public class X509Ca {
                 return;
             }
 
+            if (deltaCrl) {
+                // the delta CRL lists all changes since the last full CRL
+                return;
+            }
+
             try {
                 certstore.clearDeltaCrlCache(caInfo.getCertificate(), maxIdOfDeltaCrlCache);
             } catch (Throwable th) {
@@ -420,6 +506,9 @@ public class X509Ca {
 
     private static final long MAX_CERT_TIME_MS = 253402300799982L; //9999-12-31-23-59-59
 
+    // CRLs are generated by the master, the slave cannot be notified of new CRLs.
+    private static final long SLAVE_CRL_CACHE_MAX_AGE_MS = 5 * MS_PER_MINUTE;
+
     private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
     private final X509CaInfo caInfo;
@@ -430,7 +519,19 @@ public class X509Ca {
 
     private final CaManagerImpl caManager;
 
-    private Boolean tryNssToVerify;
+    private final CrlCache crlCache;
+
+    private final CrlSnapshot crlSnapshot;
+
+    private volatile CaVerifier caVerifier;
+
+    private final AtomicLong numSignedCerts = new AtomicLong(0);
+
+    private final AtomicLong numVerifiedCerts = new AtomicLong(0);
+
+    // weak keys: signers replaced by a refresh are not kept
+    private final Set<ConcurrentContentSigner> verifiedSigners = Collections.newSetFromMap(
+            Collections.synchronizedMap(new WeakHashMap<ConcurrentContentSigner, Boolean>()));
 
     private AtomicBoolean crlGenInProcess = new AtomicBoolean(false);
 
@@ -455,6 +556,12 @@ public class X509Ca {
         this.caInfo = ParamUtil.requireNonNull("caInfo", caInfo);
         this.certstore = ParamUtil.requireNonNull("certstore", certstore);
         this.masterMode = masterMode;
+        this.crlCache = new CrlCache(masterMode ? 0 : SLAVE_CRL_CACHE_MAX_AGE_MS);
+        // only the master generates CRLs
+        String crlSnapshotDir = caManager.getCrlSnapshotDir();
+        this.crlSnapshot = (masterMode && crlSnapshotDir != null)
+                ? new CrlSnapshot(new File(IoUtil.expandFilepath(crlSnapshotDir)), getCaName())
+                : null;
 
         if (caInfo.isSignerRequired()) {
             try {
@@ -465,6 +572,12 @@ public class X509Ca {
             }
         }
 
+        int serialPoolBatchSize = caManager.getSerialPoolBatchSize();
+        if (serialPoolBatchSize > 0) {
+            caInfo.initSerialNumberPool(serialPoolBatchSize,
+                    caManager.getScheduledThreadPoolExecutor());
+        }
+
         X509Cert caCert = caInfo.getCertificate();
 
         X509CrlSignerEntryWrapper crlSigner = getCrlSigner();
@@ -565,13 +678,13 @@ public class X509Ca {
         boolean successful = false;
 
         try {
-            byte[] encodedCrl = certstore.getEncodedCrl(caInfo.getCertificate(), crlNumber);
+            EncodedCrl encodedCrl = getEncodedCrl(crlNumber);
             if (encodedCrl == null) {
                 return null;
             }
 
             try {
-                X509CRL crl = X509Util.parseCrl(encodedCrl);
+                X509CRL crl = X509Util.parseCrl(encodedCrl.getEncoded());
                 successful = true;
                 if (LOG.isInfoEnabled()) {
                     String timeStr = new Time(crl.getThisUpdate()).getTime();
@@ -602,13 +715,13 @@ public class X509Ca {
         boolean successful = false;
 
         try {
-            byte[] encodedCrl = certstore.getEncodedCrl(caInfo.getCertificate(), crlNumber);
+            EncodedCrl encodedCrl = getEncodedCrl(crlNumber);
             if (encodedCrl == null) {
                 return null;
             }
 
             try {
-                CertificateList crl = CertificateList.getInstance(encodedCrl);
+                CertificateList crl = CertificateList.getInstance(encodedCrl.getEncoded());
                 successful = true;
                 if (LOG.isInfoEnabled()) {
                     LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caName,
@@ -625,6 +738,42 @@ public class X509Ca {
         }
     } // method getCrl
 
+    /**
+     * Returns the CRL with given CRL number, or the current CRL if {@code crlNumber} is
+     * {@code null}. The CRLs are cached, the cache of the current CRL is invalidated once a new
+     * CRL is published.
+     *
+     * @since 2.1.1
+     */
+    public EncodedCrl getEncodedCrl(final BigInteger crlNumber)
+    throws OperationException {
+        EncodedCrl crl = (crlNumber == null) ? crlCache.getCurrentCrl()
+                : crlCache.getCrl(crlNumber);
+        if (crl != null) {
+            LOG.debug("got CRL from cache: ca={}, crlNumber={}", getCaName(), crlNumber);
+            return crl;
+        }
+
+        long generation = crlCache.getGeneration();
+        byte[] encoded = certstore.getEncodedCrl(caInfo.getCertificate(), crlNumber);
+        if (encoded == null) {
+            return null;
+        }
+
+        try {
+            crl = new EncodedCrl(encoded);
+        } catch (RuntimeException ex) {
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
+        }
+
+        if (crlNumber == null) {
+            crlCache.setCurrentCrl(crl, generation);
+        } else {
+            crlCache.putCrl(crl);
+        }
+        return crl;
+    } // method getEncodedCrl
+
     private void cleanupCrlsWithoutException(final String msgId)
     throws OperationException {
         try {
@@ -645,6 +794,9 @@ public class X509Ca {
         try {
             int num = (numCrls <= 0) ? 0
                     : certstore.cleanupCrls(caInfo.getCertificate(), caInfo.getNumCrls());
+            if (num > 0) {
+                crlCache.invalidateAll();
+            }
             successful = true;
             event.addEventData(CaAuditConstants.NAME_num, num);
             LOG.info("SUCCESSFUL cleanupCrls: ca={}, num={}", caName, num);
@@ -678,8 +830,8 @@ public class X509Ca {
             }
 
             long maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caInfo.getCertificate());
-            X509CRL crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
-            if (crl == null) {
+            BigInteger crlNumber = generateCrl(false, thisUpdate, nextUpdate, msgId);
+            if (crlNumber == null) {
                 return null;
             }
 
@@ -688,26 +840,31 @@ public class X509Ca {
             } catch (Throwable th) {
                 LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + getCaName());
             }
-            return crl;
+            return getCrl(crlNumber);
         } finally {
             crlGenInProcess.set(false);
         }
     } // method generateCrlOnDemand
 
-    private X509CRL generateCrl(final boolean deltaCrl, final Date thisUpdate,
+    /**
+     * Generates, stores and publishes a CRL.
+     *
+     * @return the number of the generated CRL.
+     */
+    private BigInteger generateCrl(final boolean deltaCrl, final Date thisUpdate,
             final Date nextUpdate, final String msgId) throws OperationException {
         boolean successful = false;
         AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_CRL, msgId);
         try {
-            X509CRL crl = doGenerateCrl(deltaCrl, thisUpdate, nextUpdate, event, msgId);
+            BigInteger crlNumber = doGenerateCrl(deltaCrl, thisUpdate, nextUpdate, event, msgId);
             successful = true;
-            return crl;
+            return crlNumber;
         } finally {
             finish(event, successful);
         }
     }
 
-    private X509CRL doGenerateCrl(final boolean deltaCrl, final Date thisUpdate,
+    private BigInteger doGenerateCrl(final boolean deltaCrl, final Date thisUpdate,
             final Date nextUpdate, final AuditEvent event, final String msgId)
     throws OperationException {
         X509CrlSignerEntryWrapper crlSigner = getCrlSigner();
@@ -735,6 +892,8 @@ public class X509Ca {
         CrlControl crlControl = crlSigner.getCrlControl();
         boolean successful = false;
 
+        X509CrlStreamBuilder crlBuilder = null;
+        CrlSnapshot.Writer snapshotWriter = null;
         try {
             ConcurrentContentSigner tmpCrlSigner = crlSigner.getSigner();
             CrlControl control = crlSigner.getCrlControl();
@@ -750,16 +909,15 @@ public class X509Ca {
                         tmpCrlSigner.getCertificate().getSubjectX500Principal().getEncoded());
             }
 
-            X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-            if (nextUpdate != null) {
-                crlBuilder.setNextUpdate(nextUpdate);
+            try {
+                crlBuilder = new X509CrlStreamBuilder(crlIssuer, thisUpdate);
+            } catch (IOException ex) {
+                throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+                        "could not create CRL builder: " + ex.getMessage());
             }
-
-            final int numEntries = 100;
+            crlBuilder.setNextUpdate(nextUpdate);
 
             X509Cert caCert = caInfo.getCertificate();
-            List<CertRevInfoWithSerial> revInfos;
-            boolean isFirstCrlEntry = true;
 
             Date notExpireAt;
             if (control.isIncludeExpiredCerts()) {
@@ -769,83 +927,13 @@ public class X509Ca {
                 notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
             }
 
-            long startId = 1;
-            do {
-                if (deltaCrl) {
-                    revInfos = certstore.getCertsForDeltaCrl(caCert, startId, numEntries,
-                            control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-                } else {
-                    revInfos = certstore.getRevokedCerts(caCert, notExpireAt, startId, numEntries,
-                            control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-                }
-
-                long maxId = 1;
-
-                for (CertRevInfoWithSerial revInfo : revInfos) {
-                    if (revInfo.getId() > maxId) {
-                        maxId = revInfo.getId();
-                    }
-
-                    CrlReason reason = revInfo.getReason();
-                    if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-                        reason = CrlReason.UNSPECIFIED;
-                    }
-
-                    Date revocationTime = revInfo.getRevocationTime();
-                    Date invalidityTime = revInfo.getInvalidityTime();
-
-                    switch (crlControl.getInvalidityDateMode()) {
-                    case FORBIDDEN:
-                        invalidityTime = null;
-                        break;
-                    case OPTIONAL:
-                        break;
-                    case REQUIRED:
-                        if (invalidityTime == null) {
-                            invalidityTime = revocationTime;
-                        }
-                        break;
-                    default:
-                        throw new RuntimeException("unknown TripleState: "
-                                + crlControl.getInvalidityDateMode());
-                    }
-
-                    BigInteger serial = revInfo.getSerial();
-                    LOG.debug("added cert ca={} serial={} to CRL", caName, serial);
-
-                    if (directCrl || !isFirstCrlEntry) {
-                        if (invalidityTime != null) {
-                            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                                    invalidityTime);
-                        } else {
-                            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
-                        }
-                        continue;
-                    }
-
-                    List<Extension> extensions = new ArrayList<>(3);
-                    if (reason != CrlReason.UNSPECIFIED) {
-                        Extension ext = createReasonExtension(reason.getCode());
-                        extensions.add(ext);
-                    }
-                    if (invalidityTime != null) {
-                        Extension ext = createInvalidityDateExtension(invalidityTime);
-                        extensions.add(ext);
-                    }
-
-                    Extension ext = createCertificateIssuerExtension(
-                            caInfo.getPublicCaInfo().getX500Subject());
-                    extensions.add(ext);
-
-                    crlBuilder.addCRLEntry(serial, revocationTime,
-                            new Extensions(extensions.toArray(new Extension[0])));
-                    isFirstCrlEntry = false;
-                } // end for
-
-                startId = maxId + 1;
-
-            } while (revInfos.size() >= numEntries);
-            // end do
+            long maxCrlNumber = (crlSnapshot == null) ? 0 : certstore.getMaxCrlNumber(caCert);
+            if (deltaCrl) {
+                addDeltaCrlEntries(crlBuilder, crlControl, directCrl);
+            } else {
+                snapshotWriter = addFullCrlEntries(crlBuilder, crlControl, directCrl,
+                        notExpireAt, maxCrlNumber);
+            }
 
             BigInteger crlNumber = caInfo.nextCrlNumber();
             event.addEventData(CaAuditConstants.NAME_crlNumber, crlNumber);
@@ -888,7 +976,7 @@ public class X509Ca {
                             caInfo.getPublicCaInfo().getX500Subject(), crlIssuer);
                     crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
                 }
-            } catch (CertIOException ex) {
+            } catch (IOException ex) {
                 LogUtil.error(LOG, ex, "crlBuilder.addExtension");
                 throw new OperationException(ErrorCode.INVALID_EXTENSION, ex);
             }
@@ -899,39 +987,298 @@ public class X509Ca {
             ConcurrentContentSigner concurrentSigner = (tmpCrlSigner == null)
                     ? caInfo.getSigner(null) : tmpCrlSigner;
 
-            X509CRLHolder crlHolder;
             try {
-                crlHolder = concurrentSigner.build(crlBuilder);
-            } catch (NoIdleSignerException ex) {
-                throw new OperationException(ErrorCode.SYSTEM_FAILURE, "NoIdleSignerException: "
-                        + ex.getMessage());
-            }
-
-            try {
-                X509CRL crl = X509Util.toX509Crl(crlHolder.toASN1Structure());
+                X509CrlFile crl = crlBuilder.build(concurrentSigner);
                 caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
                 caInfo.commitNextCrlNo();
-                publishCrl(crl);
+                boolean published = publishCrl(crl);
+                if (published && crlSnapshot != null) {
+                    if (snapshotWriter != null) {
+                        try {
+                            snapshotWriter.commit(crlNumber.longValue());
+                        } catch (IOException ex) {
+                            LogUtil.warn(LOG, ex, "could not save CRL snapshot of CA " + caName);
+                            crlSnapshot.delete();
+                        }
+                    } else if (deltaCrl) {
+                        crlSnapshot.updateCrlNumber(maxCrlNumber, crlNumber.longValue());
+                    }
+                }
 
                 successful = true;
-                LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caName,
-                        crlNumber, crl.getThisUpdate());
+                LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}, entries={}",
+                        caName, crlNumber, thisUpdate, crlBuilder.getNumberOfEntries());
 
                 if (!deltaCrl) {
                     // clean up the CRL
                     cleanupCrlsWithoutException(msgId);
                 }
-                return crl;
-            } catch (CRLException | CertificateException ex) {
+                return crlNumber;
+            } catch (NoIdleSignerException ex) {
+                throw new OperationException(ErrorCode.SYSTEM_FAILURE, "NoIdleSignerException: "
+                        + ex.getMessage());
+            } catch (IOException ex) {
                 throw new OperationException(ErrorCode.CRL_FAILURE, ex);
             }
         } finally {
+            if (crlBuilder != null) {
+                crlBuilder.close();
+            }
+
+            if (snapshotWriter != null) {
+                snapshotWriter.close();
+            }
+
             if (!successful) {
                 LOG.info("    FAILED generateCrl: ca={}", caName);
             }
         }
     } // method generateCrl
 
+    /**
+     * Adds the changes listed in the table DELTACRL_CACHE since the last full CRL.
+     */
+    private void addDeltaCrlEntries(final X509CrlStreamBuilder crlBuilder,
+            final CrlControl crlControl, final boolean directCrl) throws OperationException {
+        X509Cert caCert = caInfo.getCertificate();
+        final int numEntries = 100;
+
+        Set<BigInteger> serials = new HashSet<>();
+        List<SerialWithId> cacheEntries;
+        long startId = 1;
+        do {
+            cacheEntries = certstore.getDeltaCrlCacheEntries(caCert, startId, numEntries);
+            for (SerialWithId cacheEntry : cacheEntries) {
+                startId = Math.max(startId, cacheEntry.getId() + 1);
+                // a certificate may be listed more than once
+                if (!serials.add(cacheEntry.getSerial())) {
+                    continue;
+                }
+
+                CertRevInfoWithSerial revInfo = certstore.getRevInfoForCrl(caCert,
+                        cacheEntry.getSerial(), crlControl.isOnlyContainsCaCerts(),
+                        crlControl.isOnlyContainsUserCerts());
+                if (revInfo != null) {
+                    addCrlEntry(crlBuilder, revInfo, crlControl, directCrl);
+                }
+            }
+        } while (cacheEntries.size() >= numEntries);
+    } // method addDeltaCrlEntries
+
+    /**
+     * Adds the revoked certificates. If the CRL snapshot is configured, the snapshot of the
+     * last full CRL is merged with the changes listed in the table DELTACRL_CACHE if possible,
+     * otherwise all revoked certificates are read from the table CERT.
+     *
+     * @return the writer of the new CRL snapshot, or {@code null} if no snapshot is written.
+     */
+    private CrlSnapshot.Writer addFullCrlEntries(final X509CrlStreamBuilder crlBuilder,
+            final CrlControl crlControl, final boolean directCrl, final Date notExpireAt,
+            final long maxCrlNumber) throws OperationException {
+        if (crlSnapshot == null) {
+            try {
+                scanRevokedCerts(crlBuilder, crlControl, directCrl, notExpireAt, null);
+            } catch (IOException ex) {
+                // should not happen, no snapshot is written
+                throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
+            }
+            return null;
+        }
+
+        int flags = CrlSnapshot.getFlags(crlControl.isOnlyContainsCaCerts(),
+                crlControl.isOnlyContainsUserCerts(), crlControl.isIncludeExpiredCerts());
+
+        CrlSnapshot.Writer writer;
+        try {
+            writer = crlSnapshot.openWriter(flags);
+        } catch (IOException ex) {
+            LogUtil.warn(LOG, ex, "could not create CRL snapshot of CA " + getCaName());
+            crlSnapshot.delete();
+            writer = null;
+        }
+
+        CrlSnapshot.Reader reader = crlSnapshot.openReader(maxCrlNumber, flags);
+        boolean successful = false;
+        try {
+            if (reader == null) {
+                LOG.info("no CRL snapshot available, read all revoked certificates: ca={}",
+                        getCaName());
+                scanRevokedCerts(crlBuilder, crlControl, directCrl, notExpireAt, writer);
+            } else {
+                mergeCrlSnapshot(crlBuilder, crlControl, directCrl, notExpireAt, reader, writer);
+            }
+            successful = true;
+            return writer;
+        } catch (IOException ex) {
+            crlSnapshot.delete();
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+                    "could not process CRL snapshot: " + ex.getMessage());
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+
+            if (!successful && writer != null) {
+                writer.close();
+            }
+        }
+    } // method addFullCrlEntries
+
+    private void scanRevokedCerts(final X509CrlStreamBuilder crlBuilder,
+            final CrlControl crlControl, final boolean directCrl, final Date notExpireAt,
+            final CrlSnapshot.Writer snapshotWriter) throws OperationException, IOException {
+        X509Cert caCert = caInfo.getCertificate();
+        final int numEntries = 100;
+
+        List<CertRevInfoWithSerial> revInfos;
+        long startId = 1;
+        do {
+            revInfos = certstore.getRevokedCerts(caCert, notExpireAt, startId, numEntries,
+                    crlControl.isOnlyContainsCaCerts(), crlControl.isOnlyContainsUserCerts());
+
+            long maxId = 1;
+            for (CertRevInfoWithSerial revInfo : revInfos) {
+                if (revInfo.getId() > maxId) {
+                    maxId = revInfo.getId();
+                }
+
+                addCrlEntry(crlBuilder, revInfo, crlControl, directCrl);
+                if (snapshotWriter != null) {
+                    snapshotWriter.write(revInfo);
+                }
+            }
+
+            startId = maxId + 1;
+        } while (revInfos.size() >= numEntries);
+    } // method scanRevokedCerts
+
+    private void mergeCrlSnapshot(final X509CrlStreamBuilder crlBuilder,
+            final CrlControl crlControl, final boolean directCrl, final Date notExpireAt,
+            final CrlSnapshot.Reader snapshotReader, final CrlSnapshot.Writer snapshotWriter)
+    throws OperationException, IOException {
+        X509Cert caCert = caInfo.getCertificate();
+        final int numEntries = 100;
+
+        // current status of the changed certificates, sorted by the database id
+        TreeMap<Long, CertRevInfoWithSerial> changes = new TreeMap<>();
+        // serial numbers of changed certificates which do not exist any more
+        Set<BigInteger> removedSerials = new HashSet<>();
+
+        Set<BigInteger> serials = new HashSet<>();
+        List<SerialWithId> cacheEntries;
+        long startId = 1;
+        do {
+            cacheEntries = certstore.getDeltaCrlCacheEntries(caCert, startId, numEntries);
+            for (SerialWithId cacheEntry : cacheEntries) {
+                startId = Math.max(startId, cacheEntry.getId() + 1);
+                if (!serials.add(cacheEntry.getSerial())) {
+                    continue;
+                }
+
+                CertRevInfoWithSerial revInfo = certstore.getRevInfoForCrl(caCert,
+                        cacheEntry.getSerial(), crlControl.isOnlyContainsCaCerts(),
+                        crlControl.isOnlyContainsUserCerts());
+                if (revInfo == null) {
+                    removedSerials.add(cacheEntry.getSerial());
+                } else {
+                    changes.put(revInfo.getId(), revInfo);
+                }
+            }
+        } while (cacheEntries.size() >= numEntries);
+
+        LOG.info("merge CRL snapshot with {} changed certificates: ca={}", serials.size(),
+                getCaName());
+
+        // certificates with notAfter not after this time are excluded, as in
+        // CertificateStore.getRevokedCerts()
+        long expiredNotAfter = notExpireAt.getTime() / MS_PER_SECOND + 1;
+
+        Iterator<CertRevInfoWithSerial> changesIt = changes.values().iterator();
+        CertRevInfoWithSerial change = changesIt.hasNext() ? changesIt.next() : null;
+        CertRevInfoWithSerial entry = snapshotReader.next();
+
+        while (entry != null || change != null) {
+            CertRevInfoWithSerial revInfo;
+            if (change == null || (entry != null && entry.getId() < change.getId())) {
+                revInfo = removedSerials.contains(entry.getSerial()) ? null : entry;
+                entry = snapshotReader.next();
+            } else {
+                if (entry != null && entry.getId() == change.getId()) {
+                    // replaced by the change
+                    entry = snapshotReader.next();
+                }
+                revInfo = (change.getReason() == CrlReason.REMOVE_FROM_CRL) ? null : change;
+                change = changesIt.hasNext() ? changesIt.next() : null;
+            }
+
+            if (revInfo == null
+                    || revInfo.getNotAfter().getTime() / MS_PER_SECOND <= expiredNotAfter) {
+                continue;
+            }
+
+            addCrlEntry(crlBuilder, revInfo, crlControl, directCrl);
+            if (snapshotWriter != null) {
+                snapshotWriter.write(revInfo);
+            }
+        }
+    } // method mergeCrlSnapshot
+
+    private void addCrlEntry(final X509CrlStreamBuilder crlBuilder,
+            final CertRevInfoWithSerial revInfo, final CrlControl crlControl,
+            final boolean directCrl) throws OperationException {
+        CrlReason reason = revInfo.getReason();
+        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+            reason = CrlReason.UNSPECIFIED;
+        }
+
+        Date revocationTime = revInfo.getRevocationTime();
+        Date invalidityTime = revInfo.getInvalidityTime();
+
+        switch (crlControl.getInvalidityDateMode()) {
+        case FORBIDDEN:
+            invalidityTime = null;
+            break;
+        case OPTIONAL:
+            break;
+        case REQUIRED:
+            if (invalidityTime == null) {
+                invalidityTime = revocationTime;
+            }
+            break;
+        default:
+            throw new RuntimeException("unknown TripleState: "
+                    + crlControl.getInvalidityDateMode());
+        }
+
+        BigInteger serial = revInfo.getSerial();
+        LOG.debug("added cert ca={} serial={} to CRL", getCaName(), serial);
+
+        List<Extension> extensions = new ArrayList<>(3);
+        if (reason != CrlReason.UNSPECIFIED) {
+            Extension ext = createReasonExtension(reason.getCode());
+            extensions.add(ext);
+        }
+        if (invalidityTime != null) {
+            Extension ext = createInvalidityDateExtension(invalidityTime);
+            extensions.add(ext);
+        }
+
+        // the indirect CRL specifies the certificate issuer in the first entry
+        if (!directCrl && crlBuilder.getNumberOfEntries() == 0) {
+            Extension ext = createCertificateIssuerExtension(
+                    caInfo.getPublicCaInfo().getX500Subject());
+            extensions.add(ext);
+        }
+
+        try {
+            crlBuilder.addCrlEntry(serial, revocationTime, extensions.isEmpty() ? null
+                    : new Extensions(extensions.toArray(new Extension[0])));
+        } catch (IOException ex) {
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+                    "could not add CRL entry: " + ex.getMessage());
+        }
+    } // method addCrlEntry
+
     /**
      * Add XiPKI extension CrlCertSet.
      *
@@ -945,7 +1292,7 @@ public class X509Ca {
      *         }
      * </pre>
      */
-    private void addXipkiCertset(final X509v2CRLBuilder crlBuilder, final boolean deltaCrl,
+    private void addXipkiCertset(final X509CrlStreamBuilder crlBuilder, final boolean deltaCrl,
             final CrlControl control, final X509Cert caCert, final Date notExpireAt,
             final boolean onlyCaCerts, final boolean onlyUserCerts) throws OperationException {
         if (deltaCrl || !control.isXipkiCertsetIncluded()) {
@@ -1005,9 +1352,9 @@ public class X509Ca {
         try {
             crlBuilder.addExtension(ObjectIdentifiers.id_xipki_ext_crlCertset, false,
                     new DERSet(vector));
-        } catch (CertIOException ex) {
+        } catch (IOException ex) {
             throw new OperationException(ErrorCode.INVALID_EXTENSION,
-                    "CertIOException: " + ex.getMessage());
+                    "IOException: " + ex.getMessage());
         }
     }
 
@@ -1237,15 +1584,27 @@ public class X509Ca {
         return true;
     } // method publishCertsInQueue
 
-    private boolean publishCrl(final X509CRL crl) {
+    /**
+     * Stores the CRL and passes it to the publishers. The CRL is only parsed if at least one
+     * publisher processes CRLs.
+     */
+    private boolean publishCrl(final X509CrlFile crlFile) {
         X509Cert caCert = caInfo.getCertificate();
-        if (!certstore.addCrl(caCert, crl)) {
+        if (!certstore.addCrl(caCert, crlFile)) {
             return false;
         }
+        crlCache.invalidateCurrentCrl();
 
         for (IdentifiedX509CertPublisher publisher : getPublishers()) {
+            if (!publisher.publishsCrl()) {
+                continue;
+            }
+
             try {
-                publisher.crlAdded(caCert, crl);
+                publisher.crlAdded(caCert, crlFile.getCrl());
+            } catch (IOException | CRLException | CertificateException ex) {
+                LogUtil.error(LOG, ex, "could not parse the CRL for the publisher "
+                        + publisher.getName());
             } catch (RuntimeException ex) {
                 LogUtil.error(LOG, ex, "could not publish CRL to the publisher "
                         + publisher.getName());
@@ -1376,7 +1735,8 @@ public class X509Ca {
             return null;
         }
 
-        certstore.removeCertificate(caInfo.getCertificate(), serialNumber);
+        certstore.removeCertificate(caInfo.getCertificate(), serialNumber,
+                certWithRevInfo.isRevoked() && shouldPublishToDeltaCrlCache());
         return certToRemove;
     } // method doRemoveCertificate
 
@@ -1567,6 +1927,11 @@ public class X509Ca {
             return false;
         }
 
+        // the next full CRL is merged from the snapshot and the DELTACRL_CACHE
+        if (crlSnapshot != null) {
+            return true;
+        }
+
         CrlControl control = crlSigner.getCrlControl();
         if (control.getUpdateMode() == UpdateMode.onDemand) {
             return false;
@@ -1691,45 +2056,44 @@ public class X509Ca {
             }
         }
 
-        List<X509CertificateInfo> certInfos = new ArrayList<>(n);
-        OperationExceptionWithIndex exception = null;
-        String caName = getCaName();
+        final X509CertificateInfo[] certInfos = new X509CertificateInfo[n];
+        final OperationException[] exceptions = new OperationException[n];
+        final AtomicBoolean failed = new AtomicBoolean(false);
 
-        for (int i = 0; i < n; i++) {
-            if (exception != null) {
-                break;
+        ExecutorService executor = (n > 1 && isParallelizable(gcts))
+                ? caManager.getCertGenExecutor() : null;
+        if (executor == null) {
+            for (int i = 0; i < n && !failed.get(); i++) {
+                generateCertificate(i, gcts.get(i), requestedByRa, requestor, user, reqType,
+                        transactionId, msgId, certInfos, exceptions, failed);
+            }
+        } else {
+            // the signatures are computed concurrently by the ConcurrentContentSigner, and the
+            // certificates are written with group commits by the CertificateStore
+            List<FutureTask<Void>> tasks = new ArrayList<>(n - 1);
+            for (int i = 1; i < n; i++) {
+                FutureTask<Void> task = new FutureTask<>(new CertGenerationTask(i, gcts.get(i),
+                        requestedByRa, requestor, user, reqType, transactionId, msgId, certInfos,
+                        exceptions, failed), null);
+                tasks.add(task);
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    // executor is busy or shutdown
+                    task.run();
+                }
             }
-            GrantedCertTemplate gct = gcts.get(i);
-            final String certprofileName = gct.certprofile.getName();
-            final String subjectText = gct.grantedSubjectText;
-            LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'", caName,
-                    certprofileName, subjectText);
 
-            boolean successful = false;
-            try {
-                X509CertificateInfo certInfo = generateCertificate(gct, requestedByRa, requestor,
-                    user, false, reqType, transactionId, msgId);
-                successful = true;
-                certInfos.add(certInfo);
+            generateCertificate(0, gcts.get(0), requestedByRa, requestor, user, reqType,
+                    transactionId, msgId, certInfos, exceptions, failed);
+            awaitTasks(tasks);
+        }
 
-                if (LOG.isInfoEnabled()) {
-                    String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-                    X509CertWithDbId cert = certInfo.getCert();
-                    LOG.info(
-                        "{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-                        prefix, caName, certprofileName, cert.getSubject(),
-                        LogUtil.formatCsn(cert.getCert().getSerialNumber()));
-                }
-            } catch (OperationException ex) {
-                exception = new OperationExceptionWithIndex(i, ex);
-            } catch (Throwable th) {
-                exception = new OperationExceptionWithIndex(i,
-                        new OperationException(ErrorCode.SYSTEM_FAILURE, th));
-            } finally {
-                if (!successful) {
-                    LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-                            caName, certprofileName, subjectText);
-                }
+        OperationExceptionWithIndex exception = null;
+        for (int i = 0; i < n; i++) {
+            if (exceptions[i] != null) {
+                exception = new OperationExceptionWithIndex(i, exceptions[i]);
+                break;
             }
         }
 
@@ -1738,7 +2102,10 @@ public class X509Ca {
                     + " certificates", exception.getIndex());
             // delete generated certificates
             for (X509CertificateInfo m : certInfos) {
-                BigInteger serial = m.getCert().getCert().getSerialNumber();
+                if (m == null) {
+                    continue;
+                }
+                BigInteger serial = m.getCert().getCertHolder().getSerialNumber();
                 try {
                     removeCertificate(serial, msgId);
                 } catch (Throwable thr) {
@@ -1750,7 +2117,96 @@ public class X509Ca {
             throw exception;
         }
 
-        return certInfos;
+        return new ArrayList<>(Arrays.asList(certInfos));
+    } // method generateCertificates
+
+    /**
+     * Generates the certificate for the template at the given index. Skipped if the generation
+     * of another template of the same request has failed.
+     */
+    private void generateCertificate(final int index, final GrantedCertTemplate gct,
+            final boolean requestedByRa, final RequestorInfo requestor, final String user,
+            final RequestType reqType, final byte[] transactionId, final String msgId,
+            final X509CertificateInfo[] certInfos, final OperationException[] exceptions,
+            final AtomicBoolean failed) {
+        if (failed.get()) {
+            return;
+        }
+
+        final String caName = getCaName();
+        final String certprofileName = gct.certprofile.getName();
+        final String subjectText = gct.grantedSubjectText;
+        LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'", caName,
+                certprofileName, subjectText);
+
+        boolean successful = false;
+        try {
+            X509CertificateInfo certInfo = generateCertificate(gct, requestedByRa, requestor,
+                user, false, reqType, transactionId, msgId);
+            successful = true;
+            certInfos[index] = certInfo;
+
+            if (LOG.isInfoEnabled()) {
+                String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+                X509CertWithDbId cert = certInfo.getCert();
+                LOG.info(
+                    "{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+                    prefix, caName, certprofileName, cert.getSubject(),
+                    LogUtil.formatCsn(cert.getCertHolder().getSerialNumber()));
+            }
+        } catch (OperationException ex) {
+            exceptions[index] = ex;
+        } catch (Throwable th) {
+            exceptions[index] = new OperationException(ErrorCode.SYSTEM_FAILURE, th);
+        } finally {
+            if (!successful) {
+                failed.set(true);
+                LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
+                        caName, certprofileName, subjectText);
+            }
+        }
+    } // method generateCertificate
+
+    /**
+     * Waits until all tasks are completed, even if interrupted: the generated certificates
+     * must be known to revert them.
+     */
+    private static void awaitTasks(final List<FutureTask<Void>> tasks) {
+        boolean interrupted = false;
+        for (FutureTask<Void> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    // the exception is recorded by the task itself
+                    LogUtil.error(LOG, ex.getCause(), "could not generate certificate");
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The templates can be processed in parallel if they have different subjects and public
+     * keys. Otherwise they are processed in sequence as each template must see the certificates
+     * generated for the previous ones.
+     */
+    private static boolean isParallelizable(final List<GrantedCertTemplate> gcts) {
+        Set<Long> fpSubjects = new HashSet<>();
+        Set<Long> fpPublicKeys = new HashSet<>();
+        for (GrantedCertTemplate gct : gcts) {
+            if (!fpSubjects.add(gct.fpSubject) || !fpPublicKeys.add(gct.fpPublicKey)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public X509CertificateInfo generateCertificate(final CertTemplateData certTemplate,
@@ -1865,20 +2321,18 @@ public class X509Ca {
                     }
                 }
 
-                X509Certificate cert;
-                try {
-                    cert = X509Util.toX509Cert(bcCert);
-                } catch (CertificateException ex) {
-                    throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-                            "should not happen, could not parse generated certificate");
-                }
-
-                if (!verifySignature(cert)) {
-                    throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-                            "could not verify the signature of generated certificate");
+                long signedNo = numSignedCerts.incrementAndGet();
+                if (needsVerification(gct.signer, signedNo)) {
+                    numVerifiedCerts.incrementAndGet();
+                    if (!verifySignature(certHolder)) {
+                        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+                                "could not verify the signature of generated certificate");
+                    }
+                    verifiedSigners.add(gct.signer);
                 }
 
-                X509CertWithDbId certWithMeta = new X509CertWithDbId(cert, encodedCert);
+                // the JCA X509Certificate is parsed lazily, only if a consumer requires it
+                X509CertWithDbId certWithMeta = new X509CertWithDbId(certHolder, encodedCert);
                 ret = new X509CertificateInfo(certWithMeta, caInfo.getCertificate(),
                         gct.grantedPublicKeyData, gct.certprofile.getName());
                 ret.setUser(user);
@@ -2476,6 +2930,9 @@ public class X509Ca {
 
             HealthCheckResult signerHealth = new HealthCheckResult("Signer");
             signerHealth.setHealthy(caSignerHealthy);
+            signerHealth.putStatus("signedCerts", numSignedCerts.get());
+            signerHealth.putStatus("verifiedCerts", numVerifiedCerts.get());
+            signer.putStatuses(signerHealth);
             result.addChildCheck(signerHealth);
         }
 
@@ -2493,6 +2950,7 @@ public class X509Ca {
 
             HealthCheckResult crlSignerHealth = new HealthCheckResult("CRLSigner");
             crlSignerHealth.setHealthy(crlSignerHealthy);
+            crlSigner.getSigner().putStatuses(crlSignerHealth);
             result.addChildCheck(crlSignerHealth);
         }
 
@@ -2537,58 +2995,111 @@ public class X509Ca {
         return event;
     }
 
-    private boolean verifySignature(final X509Certificate cert) {
-        ParamUtil.requireNonNull("cert", cert);
-        PublicKey caPublicKey = caInfo.getCertificate().getCert().getPublicKey();
+    private boolean needsVerification(final ConcurrentContentSigner signer,
+            final long signedNo) {
+        CertVerifyControl control = caInfo.getCertVerifyControl();
+        switch (control.getPolicy()) {
+        case SAMPLE:
+            // the first certificate and then every sampleRate-th one
+            return (signedNo - 1) % control.getSampleRate() == 0;
+        case FIRST_AFTER_REFRESH:
+            // a refreshed signer is a new object, its first signature will be verified
+            return !verifiedSigners.contains(signer);
+        default:
+            return true;
+        }
+    } // method needsVerification
+
+    private boolean verifySignature(final X509CertificateHolder certHolder) {
+        ParamUtil.requireNonNull("certHolder", certHolder);
+        X509Cert caCert = caInfo.getCertificate();
+        CaVerifier verifier = caVerifier;
+        if (verifier == null || verifier.caCert != caCert) {
+            verifier = new CaVerifier(caCert);
+            caVerifier = verifier;
+        }
+
+        PublicKey caPublicKey = caCert.getCert().getPublicKey();
         try {
             final String provider = XiSecurityConstants.PROVIDER_NAME_NSS;
 
-            if (tryNssToVerify == null) {
+            if (verifier.tryNss == null) {
                 // Not for ECDSA
                 if (caPublicKey instanceof ECPublicKey) {
-                    tryNssToVerify = Boolean.FALSE;
+                    verifier.tryNss = Boolean.FALSE;
                 } else if (Security.getProvider(provider) == null) {
                     LOG.info("security provider {} is not registered", provider);
-                    tryNssToVerify = Boolean.FALSE;
+                    verifier.tryNss = Boolean.FALSE;
                 } else {
-                    byte[] tbs = cert.getTBSCertificate();
-                    byte[] signatureValue = cert.getSignature();
-                    String sigAlgName = cert.getSigAlgName();
+                    String sigAlgName = null;
                     try {
-                        Signature verifier = Signature.getInstance(sigAlgName, provider);
-                        verifier.initVerify(caPublicKey);
-                        verifier.update(tbs);
-                        boolean sigValid = verifier.verify(signatureValue);
+                        sigAlgName = AlgorithmUtil.getSignatureAlgoName(
+                                certHolder.getSignatureAlgorithm());
+                        boolean sigValid = verifySignature(certHolder, caPublicKey, sigAlgName,
+                                provider);
 
                         LOG.info("use {} to verify {} signature", provider, sigAlgName);
-                        tryNssToVerify = Boolean.TRUE;
+                        verifier.tryNss = Boolean.TRUE;
                         return sigValid;
                     } catch (Exception ex) {
                         LOG.info("could not use {} to verify {} signature", provider, sigAlgName);
-                        tryNssToVerify = Boolean.FALSE;
+                        verifier.tryNss = Boolean.FALSE;
                     }
                 }
             }
 
-            if (tryNssToVerify) {
-                byte[] tbs = cert.getTBSCertificate();
-                byte[] signatureValue = cert.getSignature();
-                String sigAlgName = cert.getSigAlgName();
-                Signature verifier = Signature.getInstance(sigAlgName, provider);
-                verifier.initVerify(caPublicKey);
-                verifier.update(tbs);
-                return verifier.verify(signatureValue);
+            if (verifier.tryNss) {
+                String sigAlgName = AlgorithmUtil.getSignatureAlgoName(
+                        certHolder.getSignatureAlgorithm());
+                return verifySignature(certHolder, caPublicKey, sigAlgName, provider);
             } else {
-                cert.verify(caPublicKey);
-                return true;
+                ContentVerifierProvider cvp = verifier.verifierProvider;
+                if (cvp == null) {
+                    cvp = caManager.getSecurityFactory().getContentVerifierProvider(caPublicKey);
+                    verifier.verifierProvider = cvp;
+                }
+                return certHolder.isSignatureValid(cvp);
             }
-        } catch (SignatureException | InvalidKeyException | CertificateException
-                | NoSuchAlgorithmException | NoSuchProviderException ex) {
+        } catch (SignatureException | InvalidKeyException | NoSuchAlgorithmException
+                | NoSuchProviderException | CertException ex) {
             LOG.debug("{} while verifying signature: {}", ex.getClass().getName(), ex.getMessage());
             return false;
         }
     } // method verifySignature
 
+    private static boolean verifySignature(final X509CertificateHolder certHolder,
+            final PublicKey publicKey, final String sigAlgName, final String provider)
+    throws SignatureException, InvalidKeyException, NoSuchAlgorithmException,
+            NoSuchProviderException {
+        Certificate bcCert = certHolder.toASN1Structure();
+        byte[] tbs;
+        try {
+            tbs = bcCert.getTBSCertificate().getEncoded();
+        } catch (IOException ex) {
+            throw new SignatureException("could not encode TBSCertificate", ex);
+        }
+        Signature verifier = Signature.getInstance(sigAlgName, provider);
+        verifier.initVerify(publicKey);
+        verifier.update(tbs);
+        return verifier.verify(bcCert.getSignature().getOctets());
+    }
+
+    /**
+     * Returns the number of certificates signed by this CA since its start.
+     * @since 2.1.1
+     */
+    public long getNumSignedCerts() {
+        return numSignedCerts.get();
+    }
+
+    /**
+     * Returns the number of signed certificates whose signature has been verified.
+     * @since 2.1.1
+     */
+    public long getNumVerifiedCerts() {
+        return numVerifiedCerts.get();
+    }
+
     private X509CrlSignerEntryWrapper getCrlSigner() {
         String crlSignerName = caInfo.getCrlSignerName();
         X509CrlSignerEntryWrapper crlSigner = (crlSignerName == null) ? null
@@ -43,6 +43,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.bouncycastle.asn1.cmp.CMPCertificate;
 import org.bouncycastle.asn1.x509.Certificate;
@@ -62,6 +63,7 @@ import org.xipki.pki.ca.server.mgmt.api.CaEntry;
 import org.xipki.pki.ca.server.mgmt.api.CaStatus;
 import org.xipki.pki.ca.server.mgmt.api.Permission;
 import org.xipki.pki.ca.server.mgmt.api.ValidityMode;
+import org.xipki.pki.ca.server.mgmt.api.x509.CertVerifyControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.RevokeSuspendedCertsControl;
 import org.xipki.pki.ca.server.mgmt.api.x509.X509CaEntry;
 
@@ -94,12 +96,16 @@ public class X509CaInfo {
 
     private RandomSerialNumberGenerator randomSnGenerator;
 
+    private volatile SerialNumberPool serialNumberPool;
+
     private Map<String, ConcurrentContentSigner> signers;
 
     private ConcurrentContentSigner dfltSigner;
 
     private RevokeSuspendedCertsControl revokeSuspendedCertsControl;
 
+    private CertVerifyControl certVerifyControl = CertVerifyControl.ALWAYS;
+
     public X509CaInfo(final X509CaEntry caEntry, final CertificateStore certStore)
     throws OperationException {
         this.caEntry = ParamUtil.requireNonNull("caEntry", caEntry);
@@ -331,7 +337,22 @@ public class X509CaInfo {
     }
 
     public BigInteger nextSerial() throws OperationException {
-        return randomSnGenerator.nextSerialNumber(caEntry.getSerialNoBitLen());
+        SerialNumberPool pool = serialNumberPool;
+        return (pool != null) ? pool.nextSerialNumber()
+                : randomSnGenerator.nextSerialNumber(caEntry.getSerialNoBitLen());
+    }
+
+    /**
+     * Takes the serial numbers from a pool of pre-generated serial numbers which have been
+     * checked to be unused, instead of generating each one while issuing the certificate.
+     *
+     * @param batchSize Number of serial numbers generated and checked at once.
+     * @param executor Executor to refill the pool in the background.
+     * @since 2.1.1
+     */
+    public void initSerialNumberPool(final int batchSize, final Executor executor) {
+        this.serialNumberPool = new SerialNumberPool(caEntry.getName(), getCertificate(),
+                certStore, caEntry.getSerialNoBitLen(), batchSize, executor);
     }
 
     public BigInteger nextCrlNumber() throws OperationException {
@@ -426,4 +447,13 @@ public class X509CaInfo {
         this.revokeSuspendedCertsControl = revokeSuspendedCertsControl;
     }
 
+    public CertVerifyControl getCertVerifyControl() {
+        return certVerifyControl;
+    }
+
+    public void setCertVerifyControl(final CertVerifyControl certVerifyControl) {
+        this.certVerifyControl = ParamUtil.requireNonNull("certVerifyControl",
+                certVerifyControl);
+    }
+
 }
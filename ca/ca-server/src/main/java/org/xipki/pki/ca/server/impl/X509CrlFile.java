@@ -0,0 +1,220 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.util.Date;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.util.X509Util;
+
+/**
+ * Signed CRL written to a file by {@link X509CrlStreamBuilder}, together with the meta data
+ * required to store it. The CRL is only parsed if {@link #getCrl()} is called. The file is
+ * deleted when the builder is closed.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class X509CrlFile {
+
+    private static class Base64InputStream extends InputStream {
+
+        private final InputStream in;
+
+        private final byte[] rawBuffer = new byte[3 * 4096];
+
+        private byte[] encoded = new byte[0];
+
+        private int pos;
+
+        Base64InputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == encoded.length && !fill()) {
+                return -1;
+            }
+            return encoded[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buf, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (pos == encoded.length && !fill()) {
+                return -1;
+            }
+
+            int num = Math.min(len, encoded.length - pos);
+            System.arraycopy(encoded, pos, buf, off, num);
+            pos += num;
+            return num;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Encodes the next block. All blocks except the last one are multiples of 3 bytes,
+         * hence only the last one is padded.
+         */
+        private boolean fill() throws IOException {
+            int num = 0;
+            while (num < rawBuffer.length) {
+                int read = in.read(rawBuffer, num, rawBuffer.length - num);
+                if (read == -1) {
+                    break;
+                }
+                num += read;
+            }
+
+            if (num == 0) {
+                return false;
+            }
+
+            encoded = Base64.encode(rawBuffer, 0, num);
+            pos = 0;
+            return true;
+        }
+
+    } // class Base64InputStream
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final long length;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final BigInteger crlNumber;
+
+    private final BigInteger baseCrlNumber;
+
+    private X509CRL crl;
+
+    X509CrlFile(final File file, final long length, final Date thisUpdate,
+            @Nullable final Date nextUpdate, @Nullable final BigInteger crlNumber,
+            @Nullable final BigInteger baseCrlNumber) {
+        this.file = ParamUtil.requireNonNull("file", file);
+        this.length = length;
+        this.thisUpdate = ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+        this.nextUpdate = nextUpdate;
+        this.crlNumber = crlNumber;
+        this.baseCrlNumber = baseCrlNumber;
+    }
+
+    /**
+     * Opens a stream of the DER encoded CRL.
+     */
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a stream of the Base64 encoded CRL, without line breaks.
+     */
+    public InputStream openBase64Stream() throws IOException {
+        return new Base64InputStream(openStream());
+    }
+
+    /**
+     * Returns the length of the DER encoded CRL.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the length of the Base64 encoded CRL.
+     */
+    public long getBase64Length() {
+        return (length + 2) / 3 * 4;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    public BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+
+    /**
+     * Returns the value of the extension deltaCRLIndicator, or {@code null} if the CRL is not
+     * a delta CRL.
+     */
+    public BigInteger getBaseCrlNumber() {
+        return baseCrlNumber;
+    }
+
+    /**
+     * Parses the CRL on the first call. The whole CRL is then held in memory.
+     */
+    public X509CRL getCrl() throws IOException, CRLException, CertificateException {
+        if (crl == null) {
+            try (InputStream in = openStream()) {
+                crl = X509Util.parseCrl(in);
+            }
+        }
+        return crl;
+    }
+
+}
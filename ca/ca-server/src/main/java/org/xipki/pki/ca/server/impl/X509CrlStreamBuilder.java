@@ -0,0 +1,269 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.ConcurrentContentSigner;
+import org.xipki.commons.security.exception.NoIdleSignerException;
+
+/**
+ * Builds a X.509 CRL without holding its entries in memory, in contrast to
+ * {@link org.bouncycastle.cert.X509v2CRLBuilder}. Each entry is DER-encoded and written to
+ * a spill file once it is added. After all entries have been added, the
+ * {@code TBSCertList} is assembled from the header, the spill file and the extensions, and
+ * streamed into the signer. The signed CRL is written to a second file, which is handed over
+ * as {@link X509CrlFile} and deleted when this builder is closed.
+ *
+ * <p>The structure of the CRL is the same as the one generated by X509v2CRLBuilder.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class X509CrlStreamBuilder implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(X509CrlStreamBuilder.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final X500Name issuer;
+
+    private final Date thisUpdate;
+
+    private Date nextUpdate;
+
+    private final List<Extension> extensions = new ArrayList<>();
+
+    private final File entriesFile;
+
+    private final OutputStream entriesOut;
+
+    private File crlFile;
+
+    private long entriesLength;
+
+    private int numEntries;
+
+    X509CrlStreamBuilder(final X500Name issuer, final Date thisUpdate) throws IOException {
+        this.issuer = ParamUtil.requireNonNull("issuer", issuer);
+        this.thisUpdate = ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+        this.entriesFile = File.createTempFile("xipki-crl-entries-", ".der");
+        this.entriesOut = new BufferedOutputStream(new FileOutputStream(entriesFile),
+                BUFFER_SIZE);
+    }
+
+    void setNextUpdate(@Nullable final Date nextUpdate) {
+        this.nextUpdate = nextUpdate;
+    }
+
+    void addCrlEntry(final BigInteger serialNumber, final Date revocationDate,
+            @Nullable final Extensions entryExtensions) throws IOException {
+        ASN1EncodableVector vec = new ASN1EncodableVector();
+        vec.add(new ASN1Integer(serialNumber));
+        vec.add(new Time(revocationDate));
+        if (entryExtensions != null) {
+            vec.add(entryExtensions);
+        }
+
+        byte[] encoded = new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+        entriesOut.write(encoded);
+        entriesLength += encoded.length;
+        numEntries++;
+    }
+
+    void addExtension(final ASN1ObjectIdentifier oid, final boolean critical,
+            final ASN1Encodable value) throws IOException {
+        extensions.add(new Extension(oid, critical, value.toASN1Primitive().getEncoded(
+                ASN1Encoding.DER)));
+    }
+
+    int getNumberOfEntries() {
+        return numEntries;
+    }
+
+    X509CrlFile build(final ConcurrentContentSigner signer)
+    throws NoIdleSignerException, IOException {
+        ParamUtil.requireNonNull("signer", signer);
+        entriesOut.close();
+
+        AlgorithmIdentifier sigAlgId = signer.getAlgorithmIdentifier();
+
+        // TBSCertList until nextUpdate
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER));
+        bout.write(sigAlgId.getEncoded(ASN1Encoding.DER));
+        bout.write(issuer.getEncoded(ASN1Encoding.DER));
+        bout.write(new Time(thisUpdate).getEncoded(ASN1Encoding.DER));
+        if (nextUpdate != null) {
+            bout.write(new Time(nextUpdate).getEncoded(ASN1Encoding.DER));
+        }
+        final byte[] tbsHead = bout.toByteArray();
+
+        // revokedCertificates is absent if there is no entry
+        final byte[] entriesHeader = (numEntries == 0) ? new byte[0]
+                : encodeSequenceHeader(entriesLength);
+
+        final byte[] encodedExtensions = extensions.isEmpty() ? new byte[0]
+                : new DERTaggedObject(true, 0, new Extensions(
+                        extensions.toArray(new Extension[0]))).getEncoded(ASN1Encoding.DER);
+
+        final long tbsLength = tbsHead.length + entriesHeader.length + entriesLength
+                + encodedExtensions.length;
+        final byte[] tbsHeader = encodeSequenceHeader(tbsLength);
+
+        byte[] signature;
+        try (InputStream tbsStream = openTbsStream(tbsHeader, tbsHead, entriesHeader,
+                encodedExtensions)) {
+            signature = signer.sign(tbsStream);
+        }
+
+        final byte[] encodedSigAlgId = sigAlgId.getEncoded(ASN1Encoding.DER);
+        final byte[] encodedSignature = new DERBitString(signature).getEncoded(ASN1Encoding.DER);
+        final long crlLength = tbsHeader.length + tbsLength + encodedSigAlgId.length
+                + encodedSignature.length;
+        final byte[] crlHeader = encodeSequenceHeader(crlLength);
+
+        crlFile = File.createTempFile("xipki-crl-", ".crl");
+        try (OutputStream crlOut = new BufferedOutputStream(new FileOutputStream(crlFile),
+                BUFFER_SIZE);
+                InputStream tbsStream = openTbsStream(tbsHeader, tbsHead, entriesHeader,
+                        encodedExtensions)) {
+            crlOut.write(crlHeader);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = tbsStream.read(buffer)) != -1) {
+                crlOut.write(buffer, 0, read);
+            }
+            crlOut.write(encodedSigAlgId);
+            crlOut.write(encodedSignature);
+        }
+
+        return new X509CrlFile(crlFile, crlHeader.length + crlLength,
+                thisUpdate, nextUpdate, getIntegerExtension(Extension.cRLNumber),
+                getIntegerExtension(Extension.deltaCRLIndicator));
+    } // method build
+
+    @Override
+    public void close() {
+        try {
+            entriesOut.close();
+        } catch (IOException ex) {
+            LOG.warn("could not close the stream of file {}: {}", entriesFile, ex.getMessage());
+        }
+
+        deleteFile(entriesFile);
+        if (crlFile != null) {
+            deleteFile(crlFile);
+        }
+    }
+
+    private BigInteger getIntegerExtension(final ASN1ObjectIdentifier oid) {
+        for (Extension extension : extensions) {
+            if (extension.getExtnId().equals(oid)) {
+                return ASN1Integer.getInstance(extension.getParsedValue()).getPositiveValue();
+            }
+        }
+        return null;
+    }
+
+    private InputStream openTbsStream(final byte[] tbsHeader, final byte[] tbsHead,
+            final byte[] entriesHeader, final byte[] encodedExtensions) throws IOException {
+        List<InputStream> streams = new ArrayList<>(4);
+        streams.add(new ByteArrayInputStream(tbsHeader));
+        streams.add(new ByteArrayInputStream(tbsHead));
+        streams.add(new ByteArrayInputStream(entriesHeader));
+        streams.add(new BufferedInputStream(new FileInputStream(entriesFile), BUFFER_SIZE));
+        streams.add(new ByteArrayInputStream(encodedExtensions));
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private static byte[] encodeSequenceHeader(final long contentLength) {
+        if (contentLength < 128) {
+            return new byte[]{0x30, (byte) contentLength};
+        }
+
+        byte[] lengthBytes = BigInteger.valueOf(contentLength).toByteArray();
+        int off = (lengthBytes[0] == 0) ? 1 : 0;
+        int numLengthBytes = lengthBytes.length - off;
+
+        byte[] header = new byte[2 + numLengthBytes];
+        header[0] = 0x30;
+        header[1] = (byte) (0x80 | numLengthBytes);
+        System.arraycopy(lengthBytes, off, header, 2, numLengthBytes);
+        return header;
+    }
+
+    private static void deleteFile(final File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("could not delete temporary file {}", file.getPath());
+        }
+    }
+
+}
@@ -140,6 +140,7 @@ import org.xipki.pki.ca.common.cmp.CmpUtil;
 import org.xipki.pki.ca.server.impl.CaAuditConstants;
 import org.xipki.pki.ca.server.impl.CaManagerImpl;
 import org.xipki.pki.ca.server.impl.CertTemplateData;
+import org.xipki.pki.ca.server.impl.EncodedCrl;
 import org.xipki.pki.ca.server.impl.X509Ca;
 import org.xipki.pki.ca.server.impl.store.X509CertWithRevocationInfo;
 import org.xipki.pki.ca.server.impl.util.CaUtil;
@@ -238,12 +239,14 @@ public class X509CaCmpResponder extends CmpResponder {
 
         boolean healthy = result.isHealthy();
 
-        boolean responderHealthy = caManager.getCmpResponderWrapper(
-                getResponderName()).getSigner().isHealthy();
+        ConcurrentContentSigner responderSigner = caManager.getCmpResponderWrapper(
+                getResponderName()).getSigner();
+        boolean responderHealthy = responderSigner.isHealthy();
         healthy &= responderHealthy;
 
         HealthCheckResult responderHealth = new HealthCheckResult("Responder");
         responderHealth.setHealthy(responderHealthy);
+        responderSigner.putStatuses(responderHealth);
         result.addChildCheck(responderHealth);
 
         result.setHealthy(healthy);
@@ -1633,6 +1636,20 @@ public class X509CaCmpResponder extends CmpResponder {
         return (crlNumber == null) ? ca.getBcCurrentCrl() : ca.getBcCrl(crlNumber);
     }
 
+    /**
+     * @since 2.1.1
+     */
+    public EncodedCrl getEncodedCrl(final CmpRequestorInfo requestor, final BigInteger crlNumber)
+    throws OperationException {
+        ParamUtil.requireNonNull("requestor", requestor);
+        try {
+            checkPermission(requestor, Permission.GET_CRL);
+        } catch (InsuffientPermissionException ex) {
+            throw new OperationException(ErrorCode.NOT_PERMITTED, ex.getMessage());
+        }
+        return getCa().getEncodedCrl(crlNumber);
+    }
+
     /**
      * @since 2.1.0
      */
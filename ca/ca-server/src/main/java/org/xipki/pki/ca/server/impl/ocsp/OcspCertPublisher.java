@@ -199,6 +199,11 @@ public class OcspCertPublisher extends X509CertPublisher {
         auditServiceRegister.getAuditService().logEvent(event);
     } // method logAndAudit
 
+    @Override
+    public boolean publishsCrl() {
+        return false;
+    }
+
     @Override
     public boolean crlAdded(final X509Cert caCert, final X509CRL crl) {
         return true;
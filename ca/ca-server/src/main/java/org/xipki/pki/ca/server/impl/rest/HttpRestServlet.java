@@ -41,13 +41,13 @@ import java.net.URLDecoder;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.StringTokenizer;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.bouncycastle.asn1.x509.CertificateList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.audit.AuditEvent;
@@ -68,6 +68,7 @@ import org.xipki.pki.ca.api.RequestType;
 import org.xipki.pki.ca.api.RestfulAPIConstants;
 import org.xipki.pki.ca.server.impl.CaAuditConstants;
 import org.xipki.pki.ca.server.impl.ClientCertCache;
+import org.xipki.pki.ca.server.impl.EncodedCrl;
 import org.xipki.pki.ca.server.impl.HttpRespAuditException;
 import org.xipki.pki.ca.server.impl.cmp.CmpRequestorInfo;
 import org.xipki.pki.ca.server.impl.cmp.CmpResponderManager;
@@ -83,6 +84,30 @@ public class HttpRestServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_EXPIRES = "Expires";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String HEADER_RANGE = "Range";
+
+    private static final String HEADER_VARY = "Vary";
+
     private CmpResponderManager responderManager;
 
     private AuditServiceRegister auditServiceRegister;
@@ -286,7 +311,7 @@ public class HttpRestServlet extends HttpServlet {
                     }
                 }
 
-                CertificateList crl = responder.getCrl(requestor, crlNumber);
+                EncodedCrl crl = responder.getEncodedCrl(requestor, crlNumber);
                 if (crl == null) {
                     String message = "could not get CRL";
                     LOG.warn(message);
@@ -294,8 +319,8 @@ public class HttpRestServlet extends HttpServlet {
                             null, message, AuditLevel.INFO, AuditStatus.FAILED);
                 }
 
-                respCt = RestfulAPIConstants.CT_pkix_crl;
-                respBytes = crl.getEncoded();
+                sendCrl(request, response, crl);
+                return;
             } else if (RestfulAPIConstants.CMD_new_crl.equalsIgnoreCase(command)) {
                 X509CRL crl = responder.generateCrlOnDemand(requestor, RequestType.REST, msgId);
                 if (crl == null) {
@@ -466,6 +491,217 @@ public class HttpRestServlet extends HttpServlet {
         auditService.logEvent(event);
     } // method audit
 
+    /**
+     * Sends the CRL. Supports the conditional GET via the headers If-None-Match and
+     * If-Modified-Since, the single byte range via the headers Range and If-Range, and the
+     * GZIP content encoding.
+     */
+    static void sendCrl(final HttpServletRequest request,
+            final HttpServletResponse response, final EncodedCrl crl) throws IOException {
+        String range = request.getHeader(HEADER_RANGE);
+        // the byte range is applied only to the identity encoding
+        boolean gzip = (range == null) && acceptsGzip(request.getHeader(HEADER_ACCEPT_ENCODING));
+        String etag = "\"" + crl.getEtag() + (gzip ? "-gzip\"" : "\"");
+
+        response.setHeader(RestfulAPIConstants.HEADER_PKISTATUS,
+                RestfulAPIConstants.PKISTATUS_accepted);
+        response.setHeader(HEADER_ETAG, etag);
+        response.setDateHeader(HEADER_LAST_MODIFIED, crl.getThisUpdate().getTime());
+        if (crl.getNextUpdate() != null) {
+            response.setDateHeader(HEADER_EXPIRES, crl.getNextUpdate().getTime());
+        }
+        response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+        response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+
+        if (isNotModified(request, etag, crl.getThisUpdate().getTime())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] content = crl.getEncoded();
+        int offset = 0;
+        int len = content.length;
+        int status = HttpServletResponse.SC_OK;
+
+        if (range != null && matchesIfRange(request.getHeader(HEADER_IF_RANGE), etag)) {
+            long[] byteRange = parseRange(range, content.length);
+            if (byteRange == null) {
+                // ignore the invalid or unsupported range
+                LOG.debug("ignore range '{}'", range);
+            } else if (byteRange.length == 0) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + content.length);
+                response.setContentLength(0);
+                return;
+            } else {
+                offset = (int) byteRange[0];
+                len = (int) (byteRange[1] - byteRange[0] + 1);
+                status = HttpServletResponse.SC_PARTIAL_CONTENT;
+                response.setHeader(HEADER_CONTENT_RANGE, "bytes " + byteRange[0] + "-"
+                        + byteRange[1] + "/" + content.length);
+            }
+        }
+
+        if (gzip) {
+            content = crl.getGzipEncoded();
+            len = content.length;
+            response.setHeader(HEADER_CONTENT_ENCODING, "gzip");
+        }
+
+        response.setStatus(status);
+        response.setContentType(RestfulAPIConstants.CT_pkix_crl);
+        response.setContentLength(len);
+        if (!"HEAD".equals(request.getMethod())) {
+            response.getOutputStream().write(content, offset, len);
+        }
+    } // method sendCrl
+
+    private static boolean isNotModified(final HttpServletRequest request, final String etag,
+            final long lastModified) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored if If-None-Match is present, see RFC 7232 3.3
+            return matchesEtag(ifNoneMatch, etag);
+        }
+
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException ex) {
+            LOG.debug("invalid header {}: {}", HEADER_IF_MODIFIED_SINCE, ex.getMessage());
+            return false;
+        }
+
+        // HTTP dates have a precision of one second
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean matchesIfRange(final String ifRange, final String etag) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        // only strong entity tags are accepted, the date form is treated as not matching
+        return ifRange.trim().equals(etag);
+    }
+
+    private static boolean matchesEtag(final String etags, final String etag) {
+        StringTokenizer tokens = new StringTokenizer(etags, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if ("*".equals(token)) {
+                return true;
+            }
+
+            if (token.startsWith("W/")) {
+                token = token.substring(2);
+            }
+
+            if (token.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        StringTokenizer tokens = new StringTokenizer(acceptEncoding, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            String coding = token;
+            String qvalue = null;
+            int idx = token.indexOf(';');
+            if (idx != -1) {
+                coding = token.substring(0, idx).trim();
+                String param = token.substring(idx + 1).trim();
+                if (param.startsWith("q=")) {
+                    qvalue = param.substring(2).trim();
+                }
+            }
+
+            if (!"gzip".equalsIgnoreCase(coding)) {
+                continue;
+            }
+
+            if (qvalue == null) {
+                return true;
+            }
+
+            try {
+                return Double.parseDouble(qvalue) > 0;
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the single byte range.
+     *
+     * @return the first and last byte position, an empty array if the range is not
+     *         satisfiable, or {@code null} if the range is invalid or not supported.
+     */
+    private static long[] parseRange(final String range, final int contentLength) {
+        String prefix = "bytes=";
+        if (!range.startsWith(prefix)) {
+            return null;
+        }
+
+        String spec = range.substring(prefix.length()).trim();
+        // multiple ranges are not supported
+        if (spec.indexOf(',') != -1) {
+            return null;
+        }
+
+        int idx = spec.indexOf('-');
+        if (idx == -1) {
+            return null;
+        }
+
+        String strFirst = spec.substring(0, idx).trim();
+        String strLast = spec.substring(idx + 1).trim();
+
+        long first;
+        long last;
+        try {
+            if (strFirst.isEmpty()) {
+                // suffix range
+                if (strLast.isEmpty()) {
+                    return null;
+                }
+
+                long suffixLength = Long.parseLong(strLast);
+                if (suffixLength < 0) {
+                    return null;
+                } else if (suffixLength == 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, contentLength - suffixLength);
+                last = contentLength - 1;
+            } else {
+                first = Long.parseLong(strFirst);
+                // open-ended range, limited to the content below
+                last = strLast.isEmpty() ? Long.MAX_VALUE : Long.parseLong(strLast);
+                if (first < 0 || last < first) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        if (first >= contentLength) {
+            return new long[0];
+        }
+
+        return new long[]{first, Math.min(last, contentLength - 1)};
+    } // method parseRange
+
     private static BigInteger toBigInt(final String str) {
         String tmpStr = str.trim();
         if (tmpStr.startsWith("0x") || tmpStr.startsWith("0X")) {
@@ -0,0 +1,246 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+package org.xipki.pki.ca.server.impl.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.datasource.springframework.dao.DataAccessException;
+import org.xipki.pki.ca.api.OperationException;
+import org.xipki.pki.ca.api.OperationException.ErrorCode;
+import org.xipki.pki.ca.server.impl.store.CertStoreQueryExecutor.CertEntry;
+
+/**
+ * Group-commit writer of certificates. The certificates added by concurrent callers are
+ * collected and written by a few writer threads, each group within one transaction. A caller
+ * returns only after the transaction containing its certificate has been committed.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CertBatchWriter {
+
+    /**
+     * Writes a group of certificates within one transaction.
+     */
+    interface CertsWriter {
+
+        void addCerts(List<CertEntry> entries) throws DataAccessException, OperationException;
+
+    } // interface CertsWriter
+
+    private static final class PendingCert {
+
+        private final CertEntry entry;
+
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingCert(final CertEntry entry) {
+            this.entry = entry;
+        }
+
+    } // class PendingCert
+
+    private final class Flusher implements Runnable {
+
+        @Override
+        public void run() {
+            List<PendingCert> batch = new ArrayList<>(maxBatchSize);
+            while (running) {
+                try {
+                    PendingCert first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    // group all certificates queued while the previous group was written
+                    queue.drainTo(batch, maxBatchSize - 1);
+                } catch (InterruptedException ex) {
+                    LOG.info("certificate writer has been interrupted");
+                }
+
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+    } // class Flusher
+
+    private static final Logger LOG = LoggerFactory.getLogger(CertBatchWriter.class);
+
+    private static final long POLL_TIMEOUT = 100; // 100 milliseconds
+
+    private final CertsWriter certsWriter;
+
+    private final int maxBatchSize;
+
+    private final Thread[] flushers;
+
+    private final LinkedBlockingQueue<PendingCert> queue = new LinkedBlockingQueue<>();
+
+    private volatile boolean running;
+
+    CertBatchWriter(final CertsWriter certsWriter, final int threads, final int maxBatchSize) {
+        this.certsWriter = ParamUtil.requireNonNull("certsWriter", certsWriter);
+        this.flushers = new Thread[ParamUtil.requireMin("threads", threads, 1)];
+        this.maxBatchSize = ParamUtil.requireMin("maxBatchSize", maxBatchSize, 1);
+    }
+
+    void start() {
+        running = true;
+        for (int i = 0; i < flushers.length; i++) {
+            Thread thread = new Thread(new Flusher(), "certstore-writer-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            flushers[i] = thread;
+        }
+        LOG.info("started certificate writer with {} threads, maxBatchSize={}", flushers.length,
+                maxBatchSize);
+    }
+
+    void shutdown() {
+        running = false;
+        // the writer threads complete the groups in process
+        for (int i = 0; i < flushers.length; i++) {
+            if (flushers[i] != null) {
+                try {
+                    flushers[i].join();
+                } catch (InterruptedException ex) {
+                    LOG.warn("interrupted while waiting for {}", flushers[i].getName());
+                    Thread.currentThread().interrupt();
+                }
+                flushers[i] = null;
+            }
+        }
+
+        // the callers are waiting, write the remaining certificates in this thread
+        List<PendingCert> batch = new ArrayList<>(maxBatchSize);
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Adds the certificate within the next group and waits until the group is committed.
+     */
+    void addCert(final CertEntry entry) throws DataAccessException, OperationException {
+        ParamUtil.requireNonNull("entry", entry);
+        if (!running) {
+            certsWriter.addCerts(Collections.singletonList(entry));
+            return;
+        }
+
+        PendingCert pending = new PendingCert(entry);
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            // shutdown in the meantime, the remaining certificates may have been written
+            certsWriter.addCerts(Collections.singletonList(entry));
+            return;
+        }
+
+        // do not give up waiting: the certificate may be committed after the caller returns
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    pending.result.get();
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof DataAccessException) {
+                        throw (DataAccessException) cause;
+                    } else if (cause instanceof OperationException) {
+                        throw (OperationException) cause;
+                    } else {
+                        throw new OperationException(ErrorCode.SYSTEM_FAILURE, cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    } // method addCert
+
+    private void write(final List<PendingCert> batch) {
+        final int size = batch.size();
+        List<CertEntry> entries = new ArrayList<>(size);
+        for (PendingCert pending : batch) {
+            entries.add(pending.entry);
+        }
+
+        try {
+            certsWriter.addCerts(entries);
+            LOG.debug("added group of {} certificates", size);
+            for (PendingCert pending : batch) {
+                pending.result.complete(null);
+            }
+            return;
+        } catch (Throwable th) {
+            if (size == 1) {
+                batch.get(0).result.completeExceptionally(th);
+                return;
+            }
+            LogUtil.warn(LOG, th, "could not add group of " + size
+                    + " certificates, add them one by one");
+        }
+
+        // isolate the failed certificate(s)
+        for (PendingCert pending : batch) {
+            try {
+                certsWriter.addCerts(Collections.singletonList(pending.entry));
+                pending.result.complete(null);
+            } catch (Throwable th) {
+                pending.result.completeExceptionally(th);
+            }
+        }
+    } // method write
+
+}
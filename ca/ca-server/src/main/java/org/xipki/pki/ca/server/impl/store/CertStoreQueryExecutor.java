@@ -35,11 +35,10 @@
 package org.xipki.pki.ca.server.impl.store;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.sql.Connection;
@@ -49,28 +48,31 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.auth.x500.X500Principal;
 
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.Certificate;
-import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.util.encoders.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.common.LruCache;
 import org.xipki.commons.common.util.CollectionUtil;
+import org.xipki.commons.common.util.IoUtil;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.common.util.StringUtil;
@@ -95,6 +97,7 @@ import org.xipki.pki.ca.server.impl.DbSchemaInfo;
 import org.xipki.pki.ca.server.impl.KnowCertResult;
 import org.xipki.pki.ca.server.impl.SerialWithId;
 import org.xipki.pki.ca.server.impl.UniqueIdGenerator;
+import org.xipki.pki.ca.server.impl.X509CrlFile;
 import org.xipki.pki.ca.server.impl.util.CaUtil;
 import org.xipki.pki.ca.server.impl.util.PasswordHash;
 import org.xipki.pki.ca.server.mgmt.api.AddUserEntry;
@@ -110,17 +113,129 @@ import org.xipki.pki.ca.server.mgmt.api.UserEntry;
  * @since 2.0.0
  */
 
-class CertStoreQueryExecutor {
+class CertStoreQueryExecutor implements CertBatchWriter.CertsWriter {
 
     // CHECKSTYLE:SKIP
+    /**
+     * Row values of a certificate to be added to the tables CERT and CRAW.
+     *
+     * @since 2.1.1
+     */
+    static final class CertEntry {
+
+        private final long certId;
+
+        private final long currentTimeSeconds;
+
+        private final String serialNumber;
+
+        private final String subjectText;
+
+        private final long fpSubject;
+
+        private final Long fpReqSubject;
+
+        private final long notBeforeSeconds;
+
+        private final long notAfterSeconds;
+
+        private final int certprofileId;
+
+        private final int caId;
+
+        private final Integer requestorId;
+
+        private final String user;
+
+        private final long fpPk;
+
+        private final boolean eeCert;
+
+        private final int reqType;
+
+        private final String tid;
+
+        private final String b64FpCert;
+
+        private final String reqSubjectText;
+
+        private final byte[] encodedCert;
+
+        CertEntry(final long certId, final long currentTimeSeconds,
+                final String serialNumber, final String subjectText, final long fpSubject,
+                final Long fpReqSubject, final long notBeforeSeconds, final long notAfterSeconds,
+                final int certprofileId, final int caId, final Integer requestorId,
+                final String user, final long fpPk, final boolean eeCert, final int reqType,
+                final String tid, final String b64FpCert, final String reqSubjectText,
+                final byte[] encodedCert) {
+            this.certId = certId;
+            this.currentTimeSeconds = currentTimeSeconds;
+            this.serialNumber = serialNumber;
+            this.subjectText = subjectText;
+            this.fpSubject = fpSubject;
+            this.fpReqSubject = fpReqSubject;
+            this.notBeforeSeconds = notBeforeSeconds;
+            this.notAfterSeconds = notAfterSeconds;
+            this.certprofileId = certprofileId;
+            this.caId = caId;
+            this.requestorId = requestorId;
+            this.user = user;
+            this.fpPk = fpPk;
+            this.eeCert = eeCert;
+            this.reqType = reqType;
+            this.tid = tid;
+            this.b64FpCert = b64FpCert;
+            this.reqSubjectText = reqSubjectText;
+            this.encodedCert = encodedCert;
+        }
+
+        long getCertId() {
+            return certId;
+        }
+
+        private void setParameters(final PreparedStatement psAddcert,
+                final PreparedStatement psAddRawcert, final boolean binaryCert)
+        throws SQLException {
+            // cert
+            int idx = 1;
+            psAddcert.setLong(idx++, certId);
+            psAddcert.setInt(idx++, CertArt.X509PKC.getCode());
+            psAddcert.setLong(idx++, currentTimeSeconds);
+            psAddcert.setString(idx++, serialNumber);
+            psAddcert.setString(idx++, subjectText);
+            psAddcert.setLong(idx++, fpSubject);
+            setLong(psAddcert, idx++, fpReqSubject);
+            psAddcert.setLong(idx++, notBeforeSeconds);
+            psAddcert.setLong(idx++, notAfterSeconds);
+            setBoolean(psAddcert, idx++, false);
+            psAddcert.setInt(idx++, certprofileId);
+            psAddcert.setInt(idx++, caId);
+            setInt(psAddcert, idx++, requestorId);
+            psAddcert.setString(idx++, user);
+            psAddcert.setLong(idx++, fpPk);
+            psAddcert.setInt(idx++, eeCert ? 1 : 0);
+            psAddcert.setInt(idx++, reqType);
+            psAddcert.setString(idx++, tid);
+
+            // rawcert
+            idx = 1;
+            psAddRawcert.setLong(idx++, certId);
+            psAddRawcert.setString(idx++, b64FpCert);
+            psAddRawcert.setString(idx++, reqSubjectText);
+            if (binaryCert) {
+                psAddRawcert.setBytes(idx++, encodedCert);
+            } else {
+                psAddRawcert.setString(idx++, Base64.toBase64String(encodedCert));
+            }
+        }
+
+    } // class CertEntry
+
     private static class SQLs {
         private static final String SQL_ADD_CERT =
                 "INSERT INTO CERT (ID,ART,LUPDATE,SN,SUBJECT,FP_S,FP_RS,NBEFORE,NAFTER,REV,PID,"
                 + "CA_ID,RID,UNAME,FP_K,EE,RTYPE,TID) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
-        private static final String SQL_ADD_CRAW =
-                "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT) VALUES (?,?,?,?)";
-
         private static final String SQL_REVOKE_CERT =
                 "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
 
@@ -155,20 +270,6 @@ class CertStoreQueryExecutor {
         private static final String SQL_REMOVE_CERT =
                 "DELETE FROM CERT WHERE CA_ID=? AND SN=?";
 
-        private static final String CORESQL_CERT_FOR_ID =
-            "PID,REV,RR,RT,RIT,CERT FROM CERT INNER JOIN CRAW ON CERT.ID=? AND CRAW.CID=CERT.ID";
-
-        private static final String CORESQL_RAWCERT_FOR_ID =
-                "CERT FROM CRAW WHERE CID=?";
-
-        private static final String CORESQL_CERT_WITH_REVINFO =
-                "ID,REV,RR,RT,RIT,PID,CERT FROM CERT INNER JOIN CRAW ON CERT.CA_ID=? AND CERT.SN=?"
-                + " AND CRAW.CID=CERT.ID";
-
-        private static final String CORESQL_CERTINFO =
-                "PID,REV,RR,RT,RIT,CERT FROM CERT INNER JOIN CRAW ON CERT.CA_ID=? AND CERT.SN=?"
-                + " AND CRAW.CID=CERT.ID";
-
         private static final String CORESQL_CERT_FOR_SUBJECT_ISSUED =
                 "ID FROM CERT WHERE CA_ID=? AND FP_S=?";
 
@@ -178,9 +279,6 @@ class CertStoreQueryExecutor {
         private static final String SQL_DELETE_UNREFERENCED_REQUEST =
                 "DELETE FROM REQUEST WHERE ID NOT IN (SELECT req.RID FROM REQCERT req)";
 
-        private static final String SQL_ADD_REQUEST =
-                "INSERT INTO REQUEST (ID,LUPDATE,DATA) VALUES(?,?,?)";
-
         private static final String SQL_ADD_REQCERT =
                 "INSERT INTO REQCERT (ID,RID,CID) VALUES(?,?,?)";
 
@@ -188,6 +286,10 @@ class CertStoreQueryExecutor {
 
         private final String sqlContainsCertificates;
 
+        private final String sqlAddCraw;
+
+        private final String sqlAddRequest;
+
         private final String sqlCertForId;
 
         private final String sqlRawCertForId;
@@ -206,7 +308,7 @@ class CertStoreQueryExecutor {
 
         private final String sqlKnowsCertForSerial;
 
-        private final String sqlRevForId;
+        private final String sqlRevForSerial;
 
         private final String sqlCertStatusForSubjectFp;
 
@@ -238,7 +340,7 @@ class CertStoreQueryExecutor {
 
         private final LruCache<Integer, String> cacheSqlSuspendedSerials = new LruCache<>(5);
 
-        private final LruCache<Integer, String> cacheSqlDeltaCrlCacheIds = new LruCache<>(5);
+        private final LruCache<Integer, String> cacheSqlDeltaCrlCache = new LruCache<>(5);
 
         private final LruCache<Integer, String> cacheSqlRevokedCerts = new LruCache<>(5);
 
@@ -248,16 +350,33 @@ class CertStoreQueryExecutor {
 
         private final LruCache<Integer, String> cacheSqlSerialsRevoked = new LruCache<>(5);
 
-        SQLs(final DataSourceWrapper datasource) {
+        SQLs(final DataSourceWrapper datasource, final boolean binaryCerts) {
             this.datasource = ParamUtil.requireNonNull("datasource", datasource);
 
+            // rows not migrated to the binary columns yet still have the Base64 columns
+            final String certColumns = binaryCerts ? "CERT,CERT_BIN" : "CERT";
+            final String reqColumns = binaryCerts ? "DATA,DATA_BIN" : "DATA";
+
+            this.sqlAddCraw = binaryCerts
+                    ? "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT_BIN) VALUES (?,?,?,?)"
+                    : "INSERT INTO CRAW (CID,SHA1,REQ_SUBJECT,CERT) VALUES (?,?,?,?)";
+            this.sqlAddRequest = binaryCerts
+                    ? "INSERT INTO REQUEST (ID,LUPDATE,DATA_BIN) VALUES(?,?,?)"
+                    : "INSERT INTO REQUEST (ID,LUPDATE,DATA) VALUES(?,?,?)";
+
             this.sqlCaHasCrl = datasource.buildSelectFirstSql("ID FROM CRL WHERE CA_ID=?", 1);
             this.sqlContainsCertificates = datasource.buildSelectFirstSql(
                     "ID FROM CERT WHERE CA_ID=? AND EE=?", 1);
-            this.sqlCertForId = datasource.buildSelectFirstSql(CORESQL_CERT_FOR_ID, 1);
-            this.sqlRawCertForId = datasource.buildSelectFirstSql(CORESQL_RAWCERT_FOR_ID, 1);
-            this.sqlCertWithRevInfo = datasource.buildSelectFirstSql(CORESQL_CERT_WITH_REVINFO, 1);
-            this.sqlCertInfo = datasource.buildSelectFirstSql(CORESQL_CERTINFO, 1);
+            this.sqlCertForId = datasource.buildSelectFirstSql("PID,REV,RR,RT,RIT," + certColumns
+                    + " FROM CERT INNER JOIN CRAW ON CERT.ID=? AND CRAW.CID=CERT.ID", 1);
+            this.sqlRawCertForId = datasource.buildSelectFirstSql(
+                    certColumns + " FROM CRAW WHERE CID=?", 1);
+            this.sqlCertWithRevInfo = datasource.buildSelectFirstSql("ID,REV,RR,RT,RIT,PID,"
+                    + certColumns + " FROM CERT INNER JOIN CRAW ON CERT.CA_ID=? AND CERT.SN=?"
+                    + " AND CRAW.CID=CERT.ID", 1);
+            this.sqlCertInfo = datasource.buildSelectFirstSql("PID,REV,RR,RT,RIT," + certColumns
+                    + " FROM CERT INNER JOIN CRAW ON CERT.CA_ID=? AND CERT.SN=?"
+                    + " AND CRAW.CID=CERT.ID", 1);
             this.sqlCertprofileForId = datasource.buildSelectFirstSql(
                     "PID,CA_ID FROM CERT WHERE ID=?", 1);
             this.sqlCertprofileForSerial = datasource.buildSelectFirstSql(
@@ -268,8 +387,8 @@ class CertStoreQueryExecutor {
                     "CN_REGEX FROM USERNAME WHERE NAME=?", 1);
             this.sqlKnowsCertForSerial = datasource.buildSelectFirstSql(
                     "UNAME FROM CERT WHERE SN=? AND CA_ID=?", 1);
-            this.sqlRevForId = datasource.buildSelectFirstSql(
-                    "SN,EE,REV,RR,RT,RIT FROM CERT WHERE ID=?", 1);
+            this.sqlRevForSerial = datasource.buildSelectFirstSql(
+                    "ID,EE,REV,RR,RT,RIT,LUPDATE,NAFTER FROM CERT WHERE CA_ID=? AND SN=?", 1);
             this.sqlCertStatusForSubjectFp = datasource.buildSelectFirstSql(
                     "REV FROM CERT WHERE FP_S=? AND CA_ID=?", 1);
             this.sqlCertforSubjectIssued = datasource.buildSelectFirstSql(
@@ -291,7 +410,7 @@ class CertStoreQueryExecutor {
                     "REQCERT.RID as REQ_ID FROM REQCERT INNER JOIN CERT ON CERT.CA_ID=? "
                     + "AND CERT.SN=? AND REQCERT.CID=CERT.ID", 1);
             this.sqlReqForId = datasource.buildSelectFirstSql(
-                    "DATA FROM REQUEST WHERE ID=?", 1);
+                    reqColumns + " FROM REQUEST WHERE ID=?", 1);
         } // constructor
 
         String getSqlCidFromPublishQueue(final int numEntries) {
@@ -324,12 +443,12 @@ class CertStoreQueryExecutor {
             return sql;
         }
 
-        String getSqlDeltaCrlCacheIds(final int numEntries) {
-            String sql = cacheSqlDeltaCrlCacheIds.get(numEntries);
+        String getSqlDeltaCrlCache(final int numEntries) {
+            String sql = cacheSqlDeltaCrlCache.get(numEntries);
             if (sql == null) {
                 sql = datasource.buildSelectFirstSql(
-                        "ID FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?", numEntries, "ID ASC");
-                cacheSqlDeltaCrlCacheIds.put(numEntries, sql);
+                        "ID,SN FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?", numEntries, "ID ASC");
+                cacheSqlDeltaCrlCache.put(numEntries, sql);
             }
             return sql;
         }
@@ -339,8 +458,8 @@ class CertStoreQueryExecutor {
                     : cacheSqlRevokedCerts;
             String sql = cache.get(numEntries);
             if (sql == null) {
-                String coreSql =
-                        "ID,SN,RR,RT,RIT FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
+                String coreSql = "ID,SN,RR,RT,RIT,NAFTER FROM CERT"
+                        + " WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
                 if (withEe) {
                     coreSql += " AND EE=?";
                 }
@@ -384,11 +503,14 @@ class CertStoreQueryExecutor {
 
     private static final Logger LOG = LoggerFactory.getLogger(CertStoreQueryExecutor.class);
 
+    private static final int MAX_SERIALS_PER_QUERY = 100;
+
     private final DataSourceWrapper datasource;
 
-    @SuppressWarnings("unused")
     private final int dbSchemaVersion;
 
+    private final boolean binaryCerts;
+
     private final int maxX500nameLen;
 
     private final CertBasedIdentityStore caInfoStore;
@@ -403,6 +525,8 @@ class CertStoreQueryExecutor {
 
     private final SQLs sqls;
 
+    private volatile CertBatchWriter certWriter;
+
     CertStoreQueryExecutor(final DataSourceWrapper datasource, final UniqueIdGenerator idGenerator)
     throws DataAccessException {
         this.datasource = ParamUtil.requireNonNull("datasource", datasource);
@@ -413,14 +537,48 @@ class CertStoreQueryExecutor {
         this.publisherStore = initNameIdStore("CS_PUBLISHER");
 
         DbSchemaInfo dbSchemaInfo = new DbSchemaInfo(datasource);
-        String str = dbSchemaInfo.getVariableValue("VERSION");
-        this.dbSchemaVersion = Integer.parseInt(str);
-        str = dbSchemaInfo.getVariableValue("X500NAME_MAXLEN");
+        this.dbSchemaVersion = dbSchemaInfo.getVersion();
+        this.binaryCerts = dbSchemaVersion >= DbSchemaInfo.CA_BINARY_VERSION;
+        String str = dbSchemaInfo.getVariableValue("X500NAME_MAXLEN");
         this.maxX500nameLen = Integer.parseInt(str);
+        LOG.info("database schema version {}, certificates are stored {}", dbSchemaVersion,
+                binaryCerts ? "in binary" : "Base64 encoded");
 
-        this.sqls = new SQLs(datasource);
+        this.sqls = new SQLs(datasource, binaryCerts);
     } // constructor
 
+    /**
+     * Starts the group-commit writer of certificates.
+     *
+     * @param threads
+     *          Number of writer threads. {@code 0} to write each certificate in the calling
+     *          thread.
+     * @param maxBatchSize
+     *          Maximal number of certificates written within one transaction.
+     * @since 2.1.1
+     */
+    void startCertWriter(final int threads, final int maxBatchSize) {
+        ParamUtil.requireMin("threads", threads, 0);
+        if (threads == 0) {
+            return;
+        }
+
+        CertBatchWriter writer = new CertBatchWriter(this, threads, maxBatchSize);
+        writer.start();
+        this.certWriter = writer;
+    }
+
+    /**
+     * @since 2.1.1
+     */
+    void shutdown() {
+        CertBatchWriter writer = certWriter;
+        certWriter = null;
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
     private CertBasedIdentityStore initCertBasedIdentyStore(final String table)
     throws DataAccessException {
         ParamUtil.requireNonNull("table", table);
@@ -480,9 +638,10 @@ class CertStoreQueryExecutor {
 
         long certId = idGenerator.nextId();
         int caId = getCaId(issuer);
-        X509Certificate cert = certificate.getCert();
+        // the JCA X509Certificate is not required, and not created for generated certificates
+        X509CertificateHolder cert = certificate.getCertHolder();
         // the profile name of self signed CA certificate may not be contained in table CS_PROFILE
-        if (cert.getIssuerDN().equals(cert.getSubjectDN())) {
+        if (cert.getIssuer().equals(cert.getSubject())) {
             addCertprofileName(certprofileName);
         }
         int certprofileId = getCertprofileId(certprofileName);
@@ -490,7 +649,7 @@ class CertStoreQueryExecutor {
 
         long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
         String subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
-        long fpSubject = X509Util.fpCanonicalizedName(cert.getSubjectX500Principal());
+        long fpSubject = X509Util.fpCanonicalizedName(cert.getSubject());
 
         String reqSubjectText = null;
         Long fpReqSubject = null;
@@ -505,78 +664,96 @@ class CertStoreQueryExecutor {
         }
 
         String b64FpCert = base64Fp(certificate.getEncodedCert());
-        String b64Cert = Base64.toBase64String(certificate.getEncodedCert());
         String tid = (transactionId == null) ? null : Base64.toBase64String(transactionId);
 
         long currentTimeSeconds = System.currentTimeMillis() / 1000;
         BigInteger serialNumber = cert.getSerialNumber();
         long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
         long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
+        BasicConstraints basicConstraints = BasicConstraints.fromExtensions(cert.getExtensions());
+        boolean isEeCert = basicConstraints == null || !basicConstraints.isCA();
+
+        CertEntry entry = new CertEntry(certId, currentTimeSeconds, serialNumber.toString(16),
+                subjectText, fpSubject, fpReqSubject, notBeforeSeconds, notAfterSeconds,
+                certprofileId, caId, requestorId, user, fpPk, isEeCert, reqType.getCode(), tid,
+                b64FpCert, reqSubjectText, certificate.getEncodedCert());
+
+        certificate.setCertId(certId);
+
+        CertBatchWriter writer = certWriter;
+        if (writer == null) {
+            addCerts(Collections.singletonList(entry));
+        } else {
+            writer.addCert(entry);
+        }
+    } // method addCert
+
+    /**
+     * Adds the certificates within one transaction.
+     *
+     * @since 2.1.1
+     */
+    @Override
+    public void addCerts(final List<CertEntry> entries)
+    throws DataAccessException, OperationException {
+        ParamUtil.requireNonEmpty("entries", entries);
 
         Connection conn = null;
-        PreparedStatement[] pss = borrowPreparedStatements(SQLs.SQL_ADD_CERT, SQLs.SQL_ADD_CRAW);
+        PreparedStatement[] pss = borrowPreparedStatements(SQLs.SQL_ADD_CERT, sqls.sqlAddCraw);
 
         try {
             PreparedStatement psAddcert = pss[0];
+            PreparedStatement psAddRawcert = pss[1];
             // all statements have the same connection
             conn = psAddcert.getConnection();
 
-            // cert
-            int idx = 2;
-            psAddcert.setInt(idx++, CertArt.X509PKC.getCode());
-            psAddcert.setLong(idx++, currentTimeSeconds);
-            psAddcert.setString(idx++, serialNumber.toString(16));
-            psAddcert.setString(idx++, subjectText);
-            psAddcert.setLong(idx++, fpSubject);
-            setLong(psAddcert, idx++, fpReqSubject);
-            psAddcert.setLong(idx++, notBeforeSeconds);
-            psAddcert.setLong(idx++, notAfterSeconds);
-            setBoolean(psAddcert, idx++, false);
-            psAddcert.setInt(idx++, certprofileId);
-            psAddcert.setInt(idx++, caId);
-            setInt(psAddcert, idx++, requestorId);
-            psAddcert.setString(idx++, user);
-            psAddcert.setLong(idx++, fpPk);
-            boolean isEeCert = cert.getBasicConstraints() == -1;
-            psAddcert.setInt(idx++, isEeCert ? 1 : 0);
-            psAddcert.setInt(idx++, reqType.getCode());
-            psAddcert.setString(idx++, tid);
-
-            // rawcert
-            PreparedStatement psAddRawcert = pss[1];
-
-            idx = 2;
-            psAddRawcert.setString(idx++, b64FpCert);
-            psAddRawcert.setString(idx++, reqSubjectText);
-            psAddRawcert.setString(idx++, b64Cert);
-
-            certificate.setCertId(certId);
-
-            psAddcert.setLong(1, certId);
-            psAddRawcert.setLong(1, certId);
-
             final boolean origAutoCommit = conn.getAutoCommit();
             conn.setAutoCommit(false);
 
+            final boolean batch = entries.size() > 1;
             String sql = null;
             try {
+                for (CertEntry entry : entries) {
+                    entry.setParameters(psAddcert, psAddRawcert, binaryCerts);
+                    if (batch) {
+                        psAddcert.addBatch();
+                        psAddRawcert.addBatch();
+                    }
+                }
+
                 sql = SQLs.SQL_ADD_CERT;
-                psAddcert.executeUpdate();
+                if (batch) {
+                    psAddcert.executeBatch();
+                } else {
+                    psAddcert.executeUpdate();
+                }
 
-                sql = SQLs.SQL_ADD_CRAW;
-                psAddRawcert.executeUpdate();
+                sql = sqls.sqlAddCraw;
+                if (batch) {
+                    psAddRawcert.executeBatch();
+                } else {
+                    psAddRawcert.executeUpdate();
+                }
 
                 sql = "(commit add cert to CA certstore)";
                 conn.commit();
             } catch (Throwable th) {
                 conn.rollback();
                 // more secure
-                datasource.deleteFromTable(null, "CRAW", "CID", certId);
-                datasource.deleteFromTable(null, "CERT", "ID", certId);
+                for (CertEntry entry : entries) {
+                    datasource.deleteFromTable(null, "CRAW", "CID", entry.certId);
+                    datasource.deleteFromTable(null, "CERT", "ID", entry.certId);
+                }
 
                 if (th instanceof SQLException) {
-                    LOG.error("datasource {} could not add certificate with id {}: {}",
-                        datasource.getDatasourceName(), certId, th.getMessage());
+                    if (batch) {
+                        LOG.error("datasource {} could not add {} certificates: {}",
+                            datasource.getDatasourceName(), entries.size(), th.getMessage());
+                    } else {
+                        LOG.error("datasource {} could not add certificate with id {}: {}",
+                            datasource.getDatasourceName(), entries.get(0).certId,
+                            th.getMessage());
+                    }
                     throw datasource.translate(sql, (SQLException) th);
                 } else {
                     throw new OperationException(ErrorCode.SYSTEM_FAILURE, th);
@@ -597,7 +774,7 @@ class CertStoreQueryExecutor {
                 }
             }
         }
-    } // method addCert
+    } // method addCerts
 
     void addToPublishQueue(final String publisherName, final long certId, final X509Cert caCert)
     throws DataAccessException, OperationException {
@@ -782,36 +959,29 @@ class CertStoreQueryExecutor {
         }
     }
 
-    void addCrl(final X509Cert caCert, final X509CRL crl)
-    throws DataAccessException, CRLException, OperationException {
+    /**
+     * Adds the CRL. Its Base64 encoding is streamed from the file to the database.
+     */
+    void addCrl(final X509Cert caCert, final X509CrlFile crl)
+    throws DataAccessException, IOException, OperationException {
         ParamUtil.requireNonNull("caCert", caCert);
         ParamUtil.requireNonNull("crl", crl);
 
-        byte[] encodedExtnValue = crl.getExtensionValue(Extension.cRLNumber.getId());
-        Long crlNumber = null;
-        if (encodedExtnValue != null) {
-            byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-            crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-        }
-
-        encodedExtnValue = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-        Long baseCrlNumber = null;
-        if (encodedExtnValue != null) {
-            byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-            baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-        }
+        Long crlNumber = (crl.getCrlNumber() == null) ? null : crl.getCrlNumber().longValue();
+        Long baseCrlNumber = (crl.getBaseCrlNumber() == null) ? null
+                : crl.getBaseCrlNumber().longValue();
 
         final String sql = SQLs.SQL_ADD_CRL;
         long currentMaxCrlId = datasource.getMax(null, "CRL", "ID");
         long crlId = currentMaxCrlId + 1;
 
-        String b64Crl = Base64.toBase64String(crl.getEncoded());
-
         PreparedStatement ps = null;
+        InputStream b64Crl = null;
 
         try {
             int caId = getCaId(caCert);
             ps = borrowPreparedStatement(sql);
+            b64Crl = crl.openBase64Stream();
 
             int idx = 1;
             ps.setLong(idx++, crlId);
@@ -822,13 +992,16 @@ class CertStoreQueryExecutor {
             setDateSeconds(ps, idx++, crl.getNextUpdate());
             setBoolean(ps, idx++, (baseCrlNumber != null));
             setLong(ps, idx++, baseCrlNumber);
-            ps.setString(idx++, b64Crl);
+            ps.setAsciiStream(idx++, b64Crl, crl.getBase64Length());
 
             ps.executeUpdate();
         } catch (SQLException ex) {
             throw datasource.translate(sql, ex);
         } finally {
             releaseDbResources(ps, null);
+            if (b64Crl != null) {
+                b64Crl.close();
+            }
         }
     } // method addCrl
 
@@ -1053,8 +1226,8 @@ class CertStoreQueryExecutor {
         return (crtWithRevInfo == null) ? null : crtWithRevInfo.getCert();
     }
 
-    void removeCertificate(final X509Cert caCert, final BigInteger serialNumber)
-    throws OperationException, DataAccessException {
+    void removeCertificate(final X509Cert caCert, final BigInteger serialNumber,
+            final boolean publishToDeltaCrlCache) throws OperationException, DataAccessException {
         ParamUtil.requireNonNull("caCert", caCert);
         ParamUtil.requireNonNull("serialNumber", serialNumber);
 
@@ -1079,6 +1252,10 @@ class CertStoreQueryExecutor {
         } finally {
             releaseDbResources(ps, null);
         }
+
+        if (publishToDeltaCrlCache) {
+            publishToDeltaCrlCache(caId, serialNumber);
+        }
     } // method removeCertificate
 
     List<Long> getPublishQueueEntries(final X509Cert caCert, final String publisherName,
@@ -1399,7 +1576,7 @@ class CertStoreQueryExecutor {
 
         final String sql = sqls.sqlCertForId;
 
-        String b64Cert;
+        byte[] encodedCert;
         int certprofileId;
         boolean revoked;
         int revReason = 0;
@@ -1414,7 +1591,7 @@ class CertStoreQueryExecutor {
             if (!rs.next()) {
                 return null;
             }
-            b64Cert = rs.getString("CERT");
+            encodedCert = getEncodedCert(rs);
             certprofileId = rs.getInt("PID");
             revoked = rs.getBoolean("REV");
             if (revoked) {
@@ -1428,7 +1605,6 @@ class CertStoreQueryExecutor {
             releaseDbResources(ps, rs);
         }
 
-        byte[] encodedCert = Base64.decode(b64Cert);
         X509Certificate cert = X509Util.parseCert(encodedCert);
         String certprofileName = certprofileStore.getName(certprofileId);
         X509CertWithDbId certWithMeta = new X509CertWithDbId(cert, encodedCert);
@@ -1450,7 +1626,7 @@ class CertStoreQueryExecutor {
     throws DataAccessException, OperationException {
         final String sql = sqls.sqlRawCertForId;
 
-        String b64Cert;
+        byte[] encodedCert;
         ResultSet rs = null;
         PreparedStatement ps = borrowPreparedStatement(sql);
         try {
@@ -1459,17 +1635,16 @@ class CertStoreQueryExecutor {
             if (!rs.next()) {
                 return null;
             }
-            b64Cert = rs.getString("CERT");
+            encodedCert = getEncodedCert(rs);
         } catch (SQLException ex) {
             throw datasource.translate(sql, ex);
         } finally {
             releaseDbResources(ps, rs);
         }
 
-        if (b64Cert == null) {
+        if (encodedCert == null) {
             return null;
         }
-        byte[] encodedCert = Base64.decode(b64Cert);
         X509Certificate cert;
         try {
             cert = X509Util.parseCert(encodedCert);
@@ -1488,7 +1663,7 @@ class CertStoreQueryExecutor {
         final String sql = sqls.sqlCertWithRevInfo;
 
         long certId;
-        String b64Cert;
+        byte[] certBytes;
         boolean revoked;
         int revReason = 0;
         long revTime = 0;
@@ -1507,7 +1682,7 @@ class CertStoreQueryExecutor {
                 return null;
             }
             certId = rs.getLong("ID");
-            b64Cert = rs.getString("CERT");
+            certBytes = getEncodedCert(rs);
             certprofileId = rs.getInt("PID");
 
             revoked = rs.getBoolean("REV");
@@ -1522,7 +1697,6 @@ class CertStoreQueryExecutor {
             releaseDbResources(ps, null);
         }
 
-        byte[] certBytes = Base64.decode(b64Cert);
         X509Certificate cert;
         try {
             cert = X509Util.parseCert(certBytes);
@@ -1555,7 +1729,7 @@ class CertStoreQueryExecutor {
         int caId = getCaId(caCert);
         final String sql = sqls.sqlCertInfo;
 
-        String b64Cert;
+        byte[] encodedCert;
         boolean revoked;
         int revReason = 0;
         long revTime = 0;
@@ -1573,7 +1747,7 @@ class CertStoreQueryExecutor {
             if (!rs.next()) {
                 return null;
             }
-            b64Cert = rs.getString("CERT");
+            encodedCert = getEncodedCert(rs);
             certprofileId = rs.getInt("PID");
             revoked = rs.getBoolean("REV");
             if (revoked) {
@@ -1588,7 +1762,6 @@ class CertStoreQueryExecutor {
         }
 
         try {
-            byte[] encodedCert = Base64.decode(b64Cert);
             X509Certificate cert = X509Util.parseCert(encodedCert);
 
             String certprofileName = certprofileStore.getName(certprofileId);
@@ -1757,14 +1930,14 @@ class CertStoreQueryExecutor {
             return null;
         }
 
-        String b64Req = null;
+        byte[] encodedReq = null;
         sql = sqls.sqlReqForId;
         ps = borrowPreparedStatement(sql);
         try {
             ps.setLong(1, reqId);
             rs = ps.executeQuery();
             if (rs.next()) {
-                b64Req = rs.getString("DATA");
+                encodedReq = getBinary(rs, "DATA_BIN", "DATA");
             }
         } catch (SQLException ex) {
             throw datasource.translate(sql, ex);
@@ -1772,7 +1945,7 @@ class CertStoreQueryExecutor {
             releaseDbResources(ps, rs);
         }
 
-        return (b64Req == null) ? null : Base64.decode(b64Req);
+        return encodedReq;
     }
 
     List<CertListInfo> listCertificates(final X509Cert caCert, final X500Name subjectPattern,
@@ -1951,6 +2124,52 @@ class CertStoreQueryExecutor {
         }
     }
 
+    Set<BigInteger> getExistingSerialNumbers(final X509Cert caCert,
+            final Collection<BigInteger> serialNumbers)
+    throws DataAccessException, OperationException {
+        ParamUtil.requireNonNull("serialNumbers", serialNumbers);
+        Set<BigInteger> ret = new HashSet<>();
+        if (serialNumbers.isEmpty()) {
+            return ret;
+        }
+
+        int caId = getCaId(caCert);
+        List<BigInteger> serialList = new ArrayList<>(serialNumbers);
+        final int size = serialList.size();
+        for (int from = 0; from < size; from += MAX_SERIALS_PER_QUERY) {
+            int to = Math.min(size, from + MAX_SERIALS_PER_QUERY);
+
+            StringBuilder sb = new StringBuilder(50 + 2 * (to - from));
+            sb.append("SELECT SN FROM CERT WHERE CA_ID=? AND SN IN (");
+            for (int i = from; i < to; i++) {
+                sb.append((i == from) ? "?" : ",?");
+            }
+            sb.append(")");
+            final String sql = sb.toString();
+
+            ResultSet rs = null;
+            PreparedStatement ps = borrowPreparedStatement(sql);
+            try {
+                int idx = 1;
+                ps.setInt(idx++, caId);
+                for (int i = from; i < to; i++) {
+                    ps.setString(idx++, serialList.get(i).toString(16));
+                }
+
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    ret.add(new BigInteger(rs.getString("SN"), 16));
+                }
+            } catch (SQLException ex) {
+                throw datasource.translate(sql, ex);
+            } finally {
+                releaseDbResources(ps, rs);
+            }
+        }
+
+        return ret;
+    } // method getExistingSerialNumbers
+
     KnowCertResult knowsCertForSerial(final X509Cert caCert, final BigInteger serial)
     throws DataAccessException, OperationException {
         ParamUtil.requireNonNull("serial", serial);
@@ -2017,12 +2236,14 @@ class CertStoreQueryExecutor {
                 int revReason = rs.getInt("RR");
                 long revTime = rs.getLong("RT");
                 long revInvalidityTime = rs.getLong("RIT");
+                long notAfter = rs.getLong("NAFTER");
 
                 Date invalidityTime = (revInvalidityTime == 0) ? null
                         : new Date(1000 * revInvalidityTime);
                 CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(id,
                         new BigInteger(serial, 16), revReason, new Date(1000 * revTime),
                         invalidityTime);
+                revInfo.setNotAfter(new Date(1000 * notAfter));
                 ret.add(revInfo);
             }
 
@@ -2034,87 +2255,102 @@ class CertStoreQueryExecutor {
         }
     } // method getRevokedCertificates
 
-    List<CertRevInfoWithSerial> getCertificatesForDeltaCrl(final X509Cert caCert,
-            final long startId, final int numEntries, final boolean onlyCaCerts,
-            final boolean onlyUserCerts)
-    throws DataAccessException, OperationException {
+    List<SerialWithId> getDeltaCrlCacheEntries(final X509Cert caCert, final long startId,
+            final int numEntries) throws DataAccessException, OperationException {
         ParamUtil.requireNonNull("caCert", caCert);
         ParamUtil.requireMin("numEntries", numEntries, 1);
 
         int caId = getCaId(caCert);
 
-        String sql = sqls.getSqlDeltaCrlCacheIds(numEntries);
-        List<Long> ids = new LinkedList<>();
+        String sql = sqls.getSqlDeltaCrlCache(numEntries);
         ResultSet rs = null;
-
         PreparedStatement ps = borrowPreparedStatement(sql);
         try {
             int idx = 1;
             ps.setLong(idx++, startId - 1);
             ps.setInt(idx++, caId);
             rs = ps.executeQuery();
+
+            List<SerialWithId> ret = new LinkedList<>();
             while (rs.next()) {
                 long id = rs.getLong("ID");
-                ids.add(id);
+                String serial = rs.getString("SN");
+                ret.add(new SerialWithId(id, new BigInteger(serial, 16)));
             }
+            return ret;
         } catch (SQLException ex) {
             throw datasource.translate(sql, ex);
         } finally {
             releaseDbResources(ps, rs);
         }
+    } // method getDeltaCrlCacheEntries
 
-        sql = sqls.sqlRevForId;
-        ps = borrowPreparedStatement(sql);
-
-        List<CertRevInfoWithSerial> ret = new ArrayList<>();
-        for (Long id : ids) {
-            try {
-                ps.setLong(1, id);
-                rs = ps.executeQuery();
+    /**
+     * Returns the revocation information of the certificate for the CRL. If the certificate is
+     * not revoked, the reason {@link CrlReason#REMOVE_FROM_CRL} is returned.
+     *
+     * @return the revocation information, or {@code null} if the certificate does not exist or
+     *         does not match the filter onlyCaCerts / onlyUserCerts.
+     */
+    CertRevInfoWithSerial getRevInfoForCrl(final X509Cert caCert,
+            final BigInteger serialNumber, final boolean onlyCaCerts, final boolean onlyUserCerts)
+    throws DataAccessException, OperationException {
+        ParamUtil.requireNonNull("caCert", caCert);
+        ParamUtil.requireNonNull("serialNumber", serialNumber);
 
-                if (!rs.next()) {
-                    continue;
-                }
+        int caId = getCaId(caCert);
 
-                int ee = rs.getInt("EE");
-                if (onlyCaCerts) {
-                    if (ee != 0) {
-                        continue;
-                    }
-                } else if (onlyUserCerts) {
-                    if (ee != 1) {
-                        continue;
-                    }
-                }
+        final String sql = sqls.sqlRevForSerial;
+        ResultSet rs = null;
+        PreparedStatement ps = borrowPreparedStatement(sql);
+        try {
+            int idx = 1;
+            ps.setInt(idx++, caId);
+            ps.setString(idx++, serialNumber.toString(16));
+            rs = ps.executeQuery();
 
-                CertRevInfoWithSerial revInfo;
+            if (!rs.next()) {
+                return null;
+            }
 
-                String serial = rs.getString("SN");
-                boolean revoked = rs.getBoolean("REVOEKD");
-                if (revoked) {
-                    int revReason = rs.getInt("RR");
-                    long tmpRevTime = rs.getLong("RT");
-                    long revInvalidityTime = rs.getLong("RIT");
-
-                    Date invalidityTime = (revInvalidityTime == 0) ? null
-                            : new Date(1000 * revInvalidityTime);
-                    revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16), revReason,
-                            new Date(1000 * tmpRevTime), invalidityTime);
-                } else {
-                    long lastUpdate = rs.getLong("LUPDATE");
-                    revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
-                            CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * lastUpdate), null);
+            int ee = rs.getInt("EE");
+            if (onlyCaCerts) {
+                if (ee != 0) {
+                    return null;
+                }
+            } else if (onlyUserCerts) {
+                if (ee != 1) {
+                    return null;
                 }
-                ret.add(revInfo);
-            } catch (SQLException ex) {
-                throw datasource.translate(sql, ex);
-            } finally {
-                releaseDbResources(null, rs);
             }
-        } // end for
 
-        return ret;
-    } // method getCertificatesForDeltaCrl
+            long id = rs.getLong("ID");
+            long notAfter = rs.getLong("NAFTER");
+
+            CertRevInfoWithSerial revInfo;
+            boolean revoked = rs.getBoolean("REV");
+            if (revoked) {
+                int revReason = rs.getInt("RR");
+                long revTime = rs.getLong("RT");
+                long revInvalidityTime = rs.getLong("RIT");
+
+                Date invalidityTime = (revInvalidityTime == 0) ? null
+                        : new Date(1000 * revInvalidityTime);
+                revInfo = new CertRevInfoWithSerial(id, serialNumber, revReason,
+                        new Date(1000 * revTime), invalidityTime);
+            } else {
+                long lastUpdate = rs.getLong("LUPDATE");
+                revInfo = new CertRevInfoWithSerial(id, serialNumber,
+                        CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * lastUpdate), null);
+            }
+            revInfo.setNotAfter(new Date(1000 * notAfter));
+            return revInfo;
+        } catch (SQLException ex) {
+            throw datasource.translate(sql, ex);
+        } finally {
+            releaseDbResources(ps, rs);
+        }
+    } // method getRevInfoForCrl
 
     CertStatus getCertStatusForSubject(final X509Cert caCert, final X500Principal subject)
     throws DataAccessException {
@@ -2208,6 +2444,32 @@ class CertStoreQueryExecutor {
         }
     }
 
+    private byte[] getEncodedCert(final ResultSet rs) throws SQLException {
+        return getBinary(rs, "CERT_BIN", "CERT");
+    }
+
+    /**
+     * Reads the binary column if the schema stores binary data, and falls back to the Base64
+     * encoded column for the schema version 2 and for the rows which are not migrated yet.
+     */
+    private byte[] getBinary(final ResultSet rs, final String binaryColumn,
+            final String base64Column) throws SQLException {
+        if (binaryCerts) {
+            InputStream is = rs.getBinaryStream(binaryColumn);
+            if (is != null) {
+                try {
+                    return IoUtil.read(is);
+                } catch (IOException ex) {
+                    throw new SQLException("could not read column " + binaryColumn + ": "
+                            + ex.getMessage(), ex);
+                }
+            }
+        }
+
+        String b64 = rs.getString(base64Column);
+        return (b64 == null) ? null : Base64.decode(b64);
+    }
+
     private String base64Fp(final byte[] data) {
         return HashAlgoType.SHA1.base64Hash(data);
     }
@@ -2540,14 +2802,17 @@ class CertStoreQueryExecutor {
 
         long id = idGenerator.nextId();
         long currentTimeSeconds = System.currentTimeMillis() / 1000;
-        String b64Request = Base64.toBase64String(request);
-        final String sql = SQLs.SQL_ADD_REQUEST;
+        final String sql = sqls.sqlAddRequest;
         PreparedStatement ps = borrowPreparedStatement(sql);
         try {
             int index = 1;
             ps.setLong(index++, id);
             ps.setLong(index++, currentTimeSeconds);
-            ps.setString(index++, b64Request);
+            if (binaryCerts) {
+                ps.setBytes(index++, request);
+            } else {
+                ps.setString(index++, Base64.toBase64String(request));
+            }
             ps.executeUpdate();
         } catch (SQLException ex) {
             throw datasource.translate(sql, ex);
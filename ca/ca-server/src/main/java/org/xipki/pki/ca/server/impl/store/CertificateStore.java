@@ -36,10 +36,11 @@ package org.xipki.pki.ca.server.impl.store;
 
 import java.math.BigInteger;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -63,6 +64,7 @@ import org.xipki.pki.ca.server.impl.CertStatus;
 import org.xipki.pki.ca.server.impl.KnowCertResult;
 import org.xipki.pki.ca.server.impl.SerialWithId;
 import org.xipki.pki.ca.server.impl.UniqueIdGenerator;
+import org.xipki.pki.ca.server.impl.X509CrlFile;
 import org.xipki.pki.ca.server.mgmt.api.AddUserEntry;
 import org.xipki.pki.ca.server.mgmt.api.CaMgmtException;
 import org.xipki.pki.ca.server.mgmt.api.CertListInfo;
@@ -82,8 +84,32 @@ public class CertificateStore {
 
     public CertificateStore(final DataSourceWrapper datasource,
             final UniqueIdGenerator idGenerator) throws DataAccessException {
+        this(datasource, idGenerator, 0, 1);
+    }
+
+    /**
+     * @param certWriterThreads
+     *          Number of threads of the group-commit writer of certificates. {@code 0} to
+     *          write each certificate within its own transaction in the calling thread.
+     * @param certWriterMaxBatchSize
+     *          Maximal number of certificates written within one transaction.
+     * @since 2.1.1
+     */
+    public CertificateStore(final DataSourceWrapper datasource,
+            final UniqueIdGenerator idGenerator, final int certWriterThreads,
+            final int certWriterMaxBatchSize) throws DataAccessException {
         ParamUtil.requireNonNull("datasource", datasource);
         this.queryExecutor = new CertStoreQueryExecutor(datasource, idGenerator);
+        this.queryExecutor.startCertWriter(certWriterThreads, certWriterMaxBatchSize);
+    }
+
+    /**
+     * Writes the pending certificates and stops the group-commit writer.
+     *
+     * @since 2.1.1
+     */
+    public void shutdown() {
+        queryExecutor.shutdown();
     }
 
     public boolean addCertificate(final X509CertificateInfo certInfo) {
@@ -254,10 +280,10 @@ public class CertificateStore {
         }
     }
 
-    public void removeCertificate(final X509Cert caCert, final BigInteger serialNumber)
-    throws OperationException {
+    public void removeCertificate(final X509Cert caCert, final BigInteger serialNumber,
+            final boolean publishToDeltaCrlCache) throws OperationException {
         try {
-            queryExecutor.removeCertificate(caCert, serialNumber);
+            queryExecutor.removeCertificate(caCert, serialNumber, publishToDeltaCrlCache);
         } catch (DataAccessException ex) {
             LOG.debug("DataAccessException", ex);
             throw new OperationException(ErrorCode.DATABASE_FAILURE, ex.getMessage());
@@ -267,7 +293,7 @@ public class CertificateStore {
         }
     }
 
-    public boolean addCrl(final X509Cert caCert, final X509CRL crl) {
+    public boolean addCrl(final X509Cert caCert, final X509CrlFile crl) {
         try {
             queryExecutor.addCrl(caCert, crl);
             return true;
@@ -291,6 +317,23 @@ public class CertificateStore {
         }
     }
 
+    /**
+     * Returns which of the given serial numbers are already used by certificates of the CA.
+     * @since 2.1.1
+     */
+    public Set<BigInteger> getExistingSerialNumbers(final X509Cert caCert,
+            final Collection<BigInteger> serialNumbers) throws OperationException {
+        try {
+            return queryExecutor.getExistingSerialNumbers(caCert, serialNumbers);
+        } catch (DataAccessException ex) {
+            LOG.debug("DataAccessException", ex);
+            throw new OperationException(ErrorCode.DATABASE_FAILURE, ex.getMessage());
+        } catch (RuntimeException ex) {
+            LOG.debug("RuntimeException", ex);
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
+        }
+    }
+
     public long getMaxCrlNumber(final X509Cert caCert) throws OperationException {
         try {
             return queryExecutor.getMaxCrlNumber(caCert);
@@ -376,12 +419,25 @@ public class CertificateStore {
         }
     }
 
-    public List<CertRevInfoWithSerial> getCertsForDeltaCrl(final X509Cert caCert,
-            final long startId, final int numEntries, final boolean onlyCaCerts,
-            final boolean onlyUserCerts) throws OperationException {
+    public List<SerialWithId> getDeltaCrlCacheEntries(final X509Cert caCert,
+            final long startId, final int numEntries) throws OperationException {
+        try {
+            return queryExecutor.getDeltaCrlCacheEntries(caCert, startId, numEntries);
+        } catch (DataAccessException ex) {
+            LOG.debug("DataAccessException", ex);
+            throw new OperationException(ErrorCode.DATABASE_FAILURE, ex.getMessage());
+        } catch (RuntimeException ex) {
+            LOG.debug("RuntimeException", ex);
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
+        }
+    }
+
+    public CertRevInfoWithSerial getRevInfoForCrl(final X509Cert caCert,
+            final BigInteger serialNumber, final boolean onlyCaCerts, final boolean onlyUserCerts)
+    throws OperationException {
         try {
-            return queryExecutor.getCertificatesForDeltaCrl(caCert, startId, numEntries,
-                    onlyCaCerts, onlyUserCerts);
+            return queryExecutor.getRevInfoForCrl(caCert, serialNumber, onlyCaCerts,
+                    onlyUserCerts);
         } catch (DataAccessException ex) {
             LOG.debug("DataAccessException", ex);
             throw new OperationException(ErrorCode.DATABASE_FAILURE, ex.getMessage());
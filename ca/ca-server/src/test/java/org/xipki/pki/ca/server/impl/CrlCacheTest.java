@@ -0,0 +1,178 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CrlCacheTest {
+
+    /**
+     * Deterministic {@link ContentSigner} whose signature is the SHA-256 hash of the content.
+     */
+    private static class DigestContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                    DERNull.INSTANCE);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            byte[] content = outputStream.toByteArray();
+            outputStream.reset();
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+    } // class DigestContentSigner
+
+    private static final long HOUR = 3600L * 1000;
+
+    @Test
+    public void testCurrentCrl() throws Exception {
+        CrlCache cache = new CrlCache(0);
+        Assert.assertNull("current CRL of empty cache", cache.getCurrentCrl());
+
+        EncodedCrl crl = newCrl(1, HOUR);
+        cache.setCurrentCrl(crl, cache.getGeneration());
+        Assert.assertSame("current CRL", crl, cache.getCurrentCrl());
+        Assert.assertSame("CRL 1", crl, cache.getCrl(BigInteger.ONE));
+    }
+
+    @Test
+    public void testNoStaleCrlAfterNewCrl() throws Exception {
+        CrlCache cache = new CrlCache(0);
+
+        // a reader misses the cache and starts loading the current CRL 1
+        long loadGeneration = cache.getGeneration();
+        EncodedCrl crl1 = newCrl(1, HOUR);
+
+        // CRL 2 is generated while the reader loads CRL 1
+        cache.invalidateCurrentCrl();
+        cache.setCurrentCrl(crl1, loadGeneration);
+        Assert.assertNull("stale CRL 1 cached as current CRL", cache.getCurrentCrl());
+
+        EncodedCrl crl2 = newCrl(2, HOUR);
+        cache.setCurrentCrl(crl2, cache.getGeneration());
+        Assert.assertSame("current CRL", crl2, cache.getCurrentCrl());
+        Assert.assertSame("CRL 2", crl2, cache.getCrl(BigInteger.valueOf(2)));
+
+        // CRL 3 is generated
+        cache.invalidateCurrentCrl();
+        Assert.assertNull("current CRL after CRL 3", cache.getCurrentCrl());
+    }
+
+    @Test
+    public void testInvalidateCurrentCrl() throws Exception {
+        CrlCache cache = new CrlCache(0);
+        EncodedCrl crl = newCrl(1, HOUR);
+        cache.setCurrentCrl(crl, cache.getGeneration());
+
+        cache.invalidateCurrentCrl();
+        Assert.assertNull("current CRL after invalidation", cache.getCurrentCrl());
+        Assert.assertSame("CRL 1", crl, cache.getCrl(BigInteger.ONE));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        CrlCache cache = new CrlCache(0);
+        cache.putCrl(newCrl(1, HOUR));
+        cache.setCurrentCrl(newCrl(2, HOUR), cache.getGeneration());
+
+        cache.invalidateAll();
+        Assert.assertNull("current CRL after invalidation", cache.getCurrentCrl());
+        Assert.assertNull("CRL 1 after invalidation", cache.getCrl(BigInteger.ONE));
+        Assert.assertNull("CRL 2 after invalidation", cache.getCrl(BigInteger.valueOf(2)));
+    }
+
+    @Test
+    public void testExpiredCrl() throws Exception {
+        CrlCache cache = new CrlCache(0);
+        cache.setCurrentCrl(newCrl(1, -HOUR), cache.getGeneration());
+        Assert.assertNull("expired current CRL", cache.getCurrentCrl());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        CrlCache cache = new CrlCache(1);
+        cache.setCurrentCrl(newCrl(1, HOUR), cache.getGeneration());
+        Thread.sleep(10);
+        Assert.assertNull("current CRL older than maxAge", cache.getCurrentCrl());
+    }
+
+    private static EncodedCrl newCrl(final long crlNumber, final long nextUpdateOffset)
+    throws Exception {
+        long now = System.currentTimeMillis();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=CRL Cache Test CA"),
+                new Date(now - HOUR));
+        builder.setNextUpdate(new Date(now + nextUpdateOffset));
+        builder.addExtension(Extension.cRLNumber, false,
+                new ASN1Integer(BigInteger.valueOf(crlNumber)));
+        return new EncodedCrl(builder.build(new DigestContentSigner()).getEncoded());
+    }
+
+}
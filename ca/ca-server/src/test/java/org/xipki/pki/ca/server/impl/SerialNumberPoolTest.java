@@ -0,0 +1,152 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pki.ca.api.OperationException;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class SerialNumberPoolTest {
+
+    /**
+     * Certstore of the test: knows the given serial numbers and records the checked ones.
+     */
+    private static class DummySerialNumberChecker
+            implements SerialNumberPool.SerialNumberChecker {
+
+        private final Set<BigInteger> existing = new HashSet<>();
+
+        private final Set<BigInteger> checked = new HashSet<>();
+
+        private int maxBatchSize;
+
+        @Override
+        public synchronized Set<BigInteger> getExistingSerialNumbers(
+                final Collection<BigInteger> serialNumbers) throws OperationException {
+            maxBatchSize = Math.max(maxBatchSize, serialNumbers.size());
+            checked.addAll(serialNumbers);
+
+            Set<BigInteger> ret = new HashSet<>();
+            for (BigInteger serialNumber : serialNumbers) {
+                if (existing.contains(serialNumber)) {
+                    ret.add(serialNumber);
+                }
+            }
+            return ret;
+        }
+
+        synchronized void addExisting(final BigInteger serialNumber) {
+            existing.add(serialNumber);
+        }
+
+    } // class DummySerialNumberChecker
+
+    /**
+     * Refills the pool in the calling thread, so that the pool is never empty.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    // 4095 non-zero serial numbers, small enough that random collisions are frequent
+    private static final int BIT_LEN = 12;
+
+    private static final int BATCH_SIZE = 50;
+
+    @Test
+    public void testNoExistingOrDuplicateSerialNumber() throws Exception {
+        DummySerialNumberChecker checker = new DummySerialNumberChecker();
+        SecureRandom random = new SecureRandom();
+        Set<BigInteger> preExisting = new HashSet<>();
+        while (preExisting.size() < 1000) {
+            BigInteger serialNumber = BigInteger.valueOf(1 + random.nextInt((1 << BIT_LEN) - 1));
+            preExisting.add(serialNumber);
+            checker.addExisting(serialNumber);
+        }
+
+        SerialNumberPool pool = new SerialNumberPool("test-ca", checker, BIT_LEN, BATCH_SIZE,
+                DIRECT_EXECUTOR);
+
+        Set<BigInteger> issued = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue("pool is empty", pool.size() > 0);
+            BigInteger serialNumber = pool.nextSerialNumber();
+
+            Assert.assertEquals("zero serial number", 1, serialNumber.signum());
+            Assert.assertTrue("serial number too long", serialNumber.bitLength() <= BIT_LEN);
+            Assert.assertFalse("existing serial number " + serialNumber,
+                    preExisting.contains(serialNumber));
+            Assert.assertTrue("duplicated serial number " + serialNumber,
+                    issued.add(serialNumber));
+            // the certificate is stored
+            checker.addExisting(serialNumber);
+        }
+    }
+
+    @Test
+    public void testSerialNumbersCheckedInBatches() throws Exception {
+        DummySerialNumberChecker checker = new DummySerialNumberChecker();
+        SerialNumberPool pool = new SerialNumberPool("test-ca", checker, BIT_LEN, BATCH_SIZE,
+                DIRECT_EXECUTOR);
+
+        for (int i = 0; i < 500; i++) {
+            BigInteger serialNumber = pool.nextSerialNumber();
+            synchronized (checker) {
+                Assert.assertTrue("unchecked serial number " + serialNumber,
+                        checker.checked.contains(serialNumber));
+            }
+            checker.addExisting(serialNumber);
+        }
+
+        Assert.assertTrue("batch larger than " + BATCH_SIZE,
+                checker.maxBatchSize <= BATCH_SIZE);
+    }
+
+}
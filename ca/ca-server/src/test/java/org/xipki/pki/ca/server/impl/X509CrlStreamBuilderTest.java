@@ -0,0 +1,223 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.common.util.IoUtil;
+import org.xipki.commons.security.ConcurrentContentSigner;
+import org.xipki.commons.security.DefaultConcurrentContentSigner;
+
+/**
+ * Compares the CRLs generated by {@link X509CrlStreamBuilder} with those generated by
+ * {@link X509v2CRLBuilder} byte for byte.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class X509CrlStreamBuilderTest {
+
+    /**
+     * Deterministic {@link ContentSigner} whose signature is the SHA-256 hash of the content.
+     */
+    private static class DigestContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                    DERNull.INSTANCE);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            byte[] content = outputStream.toByteArray();
+            outputStream.reset();
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+    } // class DigestContentSigner
+
+    private static final X500Name ISSUER = new X500Name("CN=CRL Test CA, O=xipki, C=DE");
+
+    // whole seconds, the encoded times do not contain fractions
+    private static final Date THIS_UPDATE = new Date(1480000000L * 1000);
+
+    private static final Date NEXT_UPDATE = new Date(THIS_UPDATE.getTime() + 86400L * 1000);
+
+    @Test
+    public void testNoEntry() throws Exception {
+        assertSameCrl(0, true);
+    }
+
+    @Test
+    public void testNoEntryWithoutNextUpdate() throws Exception {
+        assertSameCrl(0, false);
+    }
+
+    @Test
+    public void testOneEntry() throws Exception {
+        assertSameCrl(1, true);
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        // the encoded entries are much larger than the buffer of 64 KB
+        assertSameCrl(20000, true);
+    }
+
+    @Test
+    public void testManyEntriesWithoutNextUpdate() throws Exception {
+        assertSameCrl(1000, false);
+    }
+
+    private static void assertSameCrl(final int numEntries, final boolean withNextUpdate)
+    throws Exception {
+        ConcurrentContentSigner signer = new DefaultConcurrentContentSigner(
+                Arrays.asList((ContentSigner) new DigestContentSigner()));
+        BigInteger crlNumber = BigInteger.valueOf(4711);
+        ASN1Encodable aki = new AuthorityKeyIdentifier(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        X509v2CRLBuilder expectedBuilder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        X509CrlStreamBuilder builder = new X509CrlStreamBuilder(ISSUER, THIS_UPDATE);
+        try {
+            if (withNextUpdate) {
+                expectedBuilder.setNextUpdate(NEXT_UPDATE);
+                builder.setNextUpdate(NEXT_UPDATE);
+            }
+
+            for (int i = 0; i < numEntries; i++) {
+                BigInteger serial = BigInteger.valueOf(i + 1).shiftLeft(64 + i % 7)
+                        .add(BigInteger.valueOf(i));
+                Date revocationDate = new Date(THIS_UPDATE.getTime() - (i + 1) * 1000L);
+                Extensions extensions = createEntryExtensions(i);
+                expectedBuilder.addCRLEntry(serial, revocationDate, extensions);
+                builder.addCrlEntry(serial, revocationDate, extensions);
+            }
+
+            expectedBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+            builder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+            expectedBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+            builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+            byte[] expected = expectedBuilder.build(new DigestContentSigner()).getEncoded();
+
+            X509CrlFile crlFile = builder.build(signer);
+            byte[] encoded;
+            try (InputStream in = crlFile.openStream()) {
+                encoded = IoUtil.read(in);
+            }
+
+            Assert.assertArrayEquals("encoded CRL", expected, encoded);
+            Assert.assertEquals("length", expected.length, crlFile.getLength());
+            Assert.assertEquals("crlNumber", crlNumber, crlFile.getCrlNumber());
+            Assert.assertNull("baseCrlNumber", crlFile.getBaseCrlNumber());
+            Assert.assertEquals("thisUpdate", THIS_UPDATE, crlFile.getThisUpdate());
+            Assert.assertEquals("nextUpdate", withNextUpdate ? NEXT_UPDATE : null,
+                    crlFile.getNextUpdate());
+            Assert.assertEquals("number of entries", numEntries, builder.getNumberOfEntries());
+
+            byte[] b64;
+            try (InputStream in = crlFile.openBase64Stream()) {
+                b64 = IoUtil.read(in);
+            }
+            Assert.assertEquals("Base64 encoded CRL", Base64.toBase64String(expected),
+                    new String(b64, "US-ASCII"));
+            Assert.assertEquals("Base64 length", b64.length, crlFile.getBase64Length());
+
+            int numParsedEntries = (crlFile.getCrl().getRevokedCertificates() == null) ? 0
+                    : crlFile.getCrl().getRevokedCertificates().size();
+            Assert.assertEquals("parsed entries", numEntries, numParsedEntries);
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Returns {@code null} for every third entry, and otherwise a reason code, partly
+     * with invalidity date.
+     */
+    private static Extensions createEntryExtensions(final int index) throws IOException {
+        if (index % 3 == 0) {
+            return null;
+        }
+
+        ExtensionsGenerator generator = new ExtensionsGenerator();
+        generator.addExtension(Extension.reasonCode, false,
+                CRLReason.lookup(CRLReason.keyCompromise));
+        if (index % 3 == 2) {
+            generator.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(
+                    new Date(THIS_UPDATE.getTime() - 86400L * 1000)));
+        }
+        return generator.generate();
+    }
+
+}
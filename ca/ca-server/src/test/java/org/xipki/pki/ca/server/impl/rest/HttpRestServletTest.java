@@ -0,0 +1,453 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.commons.common.util.IoUtil;
+import org.xipki.pki.ca.server.impl.EncodedCrl;
+
+/**
+ * Tests the conditional GET, the byte ranges and the content encoding of the CRL download.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class HttpRestServletTest {
+
+    /**
+     * Deterministic {@link ContentSigner} whose signature is the SHA-256 hash of the content.
+     */
+    private static class DigestContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                    DERNull.INSTANCE);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            byte[] content = outputStream.toByteArray();
+            outputStream.reset();
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+    } // class DigestContentSigner
+
+    /**
+     * {@link HttpServletRequest} with the given method and headers.
+     */
+    private static class RequestHandler implements InvocationHandler {
+
+        private final String method;
+
+        private final Map<String, String> headers = new HashMap<>();
+
+        RequestHandler(final String method) {
+            this.method = method;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            String name = method.getName();
+            if ("getMethod".equals(name)) {
+                return this.method;
+            } else if ("getHeader".equals(name)) {
+                return headers.get(args[0]);
+            } else if ("getDateHeader".equals(name)) {
+                String value = headers.get(args[0]);
+                if (value == null) {
+                    return -1L;
+                }
+                try {
+                    return newHttpDateFormat().parse(value).getTime();
+                } catch (ParseException ex) {
+                    throw new IllegalArgumentException("invalid date " + value);
+                }
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+    } // class RequestHandler
+
+    /**
+     * {@link HttpServletResponse} recording the status, the headers and the content.
+     */
+    private static class ResponseHandler implements InvocationHandler {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private final Map<String, String> headers = new HashMap<>();
+
+        private final Map<String, Long> dateHeaders = new HashMap<>();
+
+        private int status = HttpServletResponse.SC_OK;
+
+        private int contentLength = -1;
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            String name = method.getName();
+            if ("setStatus".equals(name)) {
+                status = (Integer) args[0];
+            } else if ("setHeader".equals(name)) {
+                headers.put((String) args[0], (String) args[1]);
+            } else if ("setDateHeader".equals(name)) {
+                dateHeaders.put((String) args[0], (Long) args[1]);
+            } else if ("setContentType".equals(name)) {
+                headers.put("Content-Type", (String) args[0]);
+            } else if ("setContentLength".equals(name)) {
+                contentLength = (Integer) args[0];
+            } else if ("getOutputStream".equals(name)) {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) {
+                        content.write(b);
+                    }
+                };
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+
+    } // class ResponseHandler
+
+    private static final long SECOND = 1000;
+
+    private static final Date THIS_UPDATE = new Date(1480000000L * SECOND);
+
+    private static final Date NEXT_UPDATE = new Date(THIS_UPDATE.getTime() + 86400L * SECOND);
+
+    private static EncodedCrl crl;
+
+    private static byte[] encoded;
+
+    private static String etag;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(
+                new X500Name("CN=CRL Download Test CA"), THIS_UPDATE);
+        builder.setNextUpdate(NEXT_UPDATE);
+        for (int i = 1; i <= 10; i++) {
+            builder.addCRLEntry(BigInteger.valueOf(i), THIS_UPDATE, CRLReason.keyCompromise);
+        }
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(BigInteger.ONE));
+        encoded = builder.build(new DigestContentSigner()).getEncoded();
+        crl = new EncodedCrl(encoded);
+        etag = "\"" + crl.getEtag() + "\"";
+    }
+
+    @Test
+    public void testFullContent() throws Exception {
+        ResponseHandler resp = sendCrl(new RequestHandler("GET"));
+        assertFullContent(resp);
+        Assert.assertEquals("ETag", etag, resp.headers.get("ETag"));
+        Assert.assertEquals("Accept-Ranges", "bytes", resp.headers.get("Accept-Ranges"));
+        Assert.assertEquals("Last-Modified", Long.valueOf(THIS_UPDATE.getTime()),
+                resp.dateHeaders.get("Last-Modified"));
+        Assert.assertEquals("Expires", Long.valueOf(NEXT_UPDATE.getTime()),
+                resp.dateHeaders.get("Expires"));
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        ResponseHandler resp = sendCrl(new RequestHandler("HEAD"));
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, resp.status);
+        Assert.assertEquals("content length", encoded.length, resp.contentLength);
+        Assert.assertEquals("content", 0, resp.content.size());
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        assertPartialContent("bytes=0-9", 0, 9);
+        assertPartialContent("bytes=10-10", 10, 10);
+        // the last byte position is limited to the content
+        assertPartialContent("bytes=5-1000000", 5, encoded.length - 1);
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception {
+        assertPartialContent("bytes=-10", encoded.length - 10, encoded.length - 1);
+        assertPartialContent("bytes=-1000000", 0, encoded.length - 1);
+    }
+
+    @Test
+    public void testOpenEndedRange() throws Exception {
+        assertPartialContent("bytes=10-", 10, encoded.length - 1);
+        assertPartialContent("bytes=" + (encoded.length - 1) + "-", encoded.length - 1,
+                encoded.length - 1);
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        // multiple ranges are not supported, the full content is sent
+        assertFullContent(sendCrlWithHeader("Range", "bytes=0-9,20-29"));
+    }
+
+    @Test
+    public void testInvalidRange() throws Exception {
+        assertFullContent(sendCrlWithHeader("Range", "bytes=9-0"));
+        assertFullContent(sendCrlWithHeader("Range", "bytes=a-b"));
+        assertFullContent(sendCrlWithHeader("Range", "bytes=-"));
+        assertFullContent(sendCrlWithHeader("Range", "items=0-9"));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        assertNotSatisfiable("bytes=" + encoded.length + "-");
+        assertNotSatisfiable("bytes=1000000-1000010");
+        assertNotSatisfiable("bytes=-0");
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        assertNotModified(sendCrlWithHeader("If-None-Match", etag));
+        assertNotModified(sendCrlWithHeader("If-None-Match", "\"other\", " + etag));
+        assertNotModified(sendCrlWithHeader("If-None-Match", "W/" + etag));
+        assertNotModified(sendCrlWithHeader("If-None-Match", "*"));
+
+        assertFullContent(sendCrlWithHeader("If-None-Match", "\"other\""));
+        // the entity tag of the GZIP variant does not match the identity variant
+        assertFullContent(sendCrlWithHeader("If-None-Match",
+                "\"" + crl.getEtag() + "-gzip\""));
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception {
+        assertNotModified(sendCrlWithHeader("If-Modified-Since", formatDate(THIS_UPDATE)));
+        assertNotModified(sendCrlWithHeader("If-Modified-Since",
+                formatDate(new Date(THIS_UPDATE.getTime() + SECOND))));
+
+        assertFullContent(sendCrlWithHeader("If-Modified-Since",
+                formatDate(new Date(THIS_UPDATE.getTime() - SECOND))));
+        assertFullContent(sendCrlWithHeader("If-Modified-Since", "invalid date"));
+    }
+
+    @Test
+    public void testIfNoneMatchPrecedesIfModifiedSince() throws Exception {
+        RequestHandler req = new RequestHandler("GET");
+        req.headers.put("If-None-Match", "\"other\"");
+        req.headers.put("If-Modified-Since", formatDate(THIS_UPDATE));
+        assertFullContent(sendCrl(req));
+
+        req = new RequestHandler("GET");
+        req.headers.put("If-None-Match", etag);
+        req.headers.put("If-Modified-Since",
+                formatDate(new Date(THIS_UPDATE.getTime() - SECOND)));
+        assertNotModified(sendCrl(req));
+    }
+
+    @Test
+    public void testIfRange() throws Exception {
+        RequestHandler req = new RequestHandler("GET");
+        req.headers.put("Range", "bytes=0-9");
+        req.headers.put("If-Range", etag);
+        assertPartialContent(sendCrl(req), 0, 9);
+
+        // the CRL has been changed, the full content is sent
+        req = new RequestHandler("GET");
+        req.headers.put("Range", "bytes=0-9");
+        req.headers.put("If-Range", "\"other\"");
+        assertFullContent(sendCrl(req));
+
+        // the date form is not supported, the full content is sent
+        req = new RequestHandler("GET");
+        req.headers.put("Range", "bytes=0-9");
+        req.headers.put("If-Range", formatDate(THIS_UPDATE));
+        assertFullContent(sendCrl(req));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        assertGzipContent(sendCrlWithHeader("Accept-Encoding", "gzip"));
+        assertGzipContent(sendCrlWithHeader("Accept-Encoding", "deflate, GZIP;q=0.5"));
+
+        assertFullContent(sendCrlWithHeader("Accept-Encoding", "gzip;q=0"));
+        assertFullContent(sendCrlWithHeader("Accept-Encoding", "gzip; q=0.0, deflate"));
+        assertFullContent(sendCrlWithHeader("Accept-Encoding", "deflate"));
+    }
+
+    @Test
+    public void testGzipWithRange() throws Exception {
+        // the byte range is applied to the identity encoding
+        RequestHandler req = new RequestHandler("GET");
+        req.headers.put("Accept-Encoding", "gzip");
+        req.headers.put("Range", "bytes=0-9");
+        ResponseHandler resp = sendCrl(req);
+        assertPartialContent(resp, 0, 9);
+        Assert.assertNull("Content-Encoding", resp.headers.get("Content-Encoding"));
+    }
+
+    @Test
+    public void testGzipIfNoneMatch() throws Exception {
+        RequestHandler req = new RequestHandler("GET");
+        req.headers.put("Accept-Encoding", "gzip");
+        req.headers.put("If-None-Match", "\"" + crl.getEtag() + "-gzip\"");
+        assertNotModified(sendCrl(req));
+
+        req = new RequestHandler("GET");
+        req.headers.put("Accept-Encoding", "gzip");
+        req.headers.put("If-None-Match", etag);
+        assertGzipContent(sendCrl(req));
+    }
+
+    private static ResponseHandler sendCrlWithHeader(final String name, final String value)
+    throws Exception {
+        RequestHandler req = new RequestHandler("GET");
+        req.headers.put(name, value);
+        return sendCrl(req);
+    }
+
+    private static ResponseHandler sendCrl(final RequestHandler req) throws Exception {
+        ResponseHandler resp = new ResponseHandler();
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, req);
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, resp);
+        HttpRestServlet.sendCrl(request, response, crl);
+        return resp;
+    }
+
+    private static void assertFullContent(final ResponseHandler resp) {
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, resp.status);
+        Assert.assertNull("Content-Range", resp.headers.get("Content-Range"));
+        Assert.assertNull("Content-Encoding", resp.headers.get("Content-Encoding"));
+        Assert.assertEquals("content length", encoded.length, resp.contentLength);
+        Assert.assertArrayEquals("content", encoded, resp.content.toByteArray());
+    }
+
+    private static void assertPartialContent(final String range, final int first,
+            final int last) throws Exception {
+        assertPartialContent(sendCrlWithHeader("Range", range), first, last);
+    }
+
+    private static void assertPartialContent(final ResponseHandler resp, final int first,
+            final int last) {
+        Assert.assertEquals("status", HttpServletResponse.SC_PARTIAL_CONTENT, resp.status);
+        Assert.assertEquals("Content-Range",
+                "bytes " + first + "-" + last + "/" + encoded.length,
+                resp.headers.get("Content-Range"));
+        Assert.assertEquals("content length", last - first + 1, resp.contentLength);
+        Assert.assertArrayEquals("content", Arrays.copyOfRange(encoded, first, last + 1),
+                resp.content.toByteArray());
+    }
+
+    private static void assertNotSatisfiable(final String range) throws Exception {
+        ResponseHandler resp = sendCrlWithHeader("Range", range);
+        Assert.assertEquals("status of " + range,
+                HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, resp.status);
+        Assert.assertEquals("Content-Range of " + range, "bytes */" + encoded.length,
+                resp.headers.get("Content-Range"));
+        Assert.assertEquals("content length of " + range, 0, resp.contentLength);
+        Assert.assertEquals("content of " + range, 0, resp.content.size());
+    }
+
+    private static void assertNotModified(final ResponseHandler resp) {
+        Assert.assertEquals("status", HttpServletResponse.SC_NOT_MODIFIED, resp.status);
+        Assert.assertEquals("content", 0, resp.content.size());
+    }
+
+    private static void assertGzipContent(final ResponseHandler resp) throws Exception {
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, resp.status);
+        Assert.assertEquals("Content-Encoding", "gzip", resp.headers.get("Content-Encoding"));
+        Assert.assertEquals("ETag", "\"" + crl.getEtag() + "-gzip\"", resp.headers.get("ETag"));
+        byte[] content = resp.content.toByteArray();
+        Assert.assertEquals("content length", content.length, resp.contentLength);
+        byte[] decompressed = IoUtil.read(new GZIPInputStream(new ByteArrayInputStream(content)));
+        Assert.assertArrayEquals("decompressed content", encoded, decompressed);
+    }
+
+    private static String formatDate(final Date date) {
+        return newHttpDateFormat().format(date);
+    }
+
+    private static SimpleDateFormat newHttpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ca.server.impl.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.datasource.springframework.dao.DataAccessException;
+import org.xipki.pki.ca.api.OperationException;
+import org.xipki.pki.ca.api.OperationException.ErrorCode;
+import org.xipki.pki.ca.server.impl.store.CertStoreQueryExecutor.CertEntry;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CertBatchWriterTest {
+
+    /**
+     * Records the written groups. The first group is blocked until {@link #release} is
+     * counted down, and every group containing {@link #failingCertId} fails.
+     */
+    private static class RecordingCertsWriter implements CertBatchWriter.CertsWriter {
+
+        private final List<List<Long>> groups = new ArrayList<>();
+
+        private final List<Long> committed = new ArrayList<>();
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final long failingCertId;
+
+        RecordingCertsWriter(final long failingCertId) {
+            this.failingCertId = failingCertId;
+        }
+
+        @Override
+        public void addCerts(final List<CertEntry> entries)
+        throws DataAccessException, OperationException {
+            if (entered.getCount() > 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
+                }
+            }
+
+            List<Long> ids = new ArrayList<>(entries.size());
+            for (CertEntry entry : entries) {
+                ids.add(entry.getCertId());
+            }
+
+            synchronized (this) {
+                groups.add(ids);
+                if (ids.contains(failingCertId)) {
+                    throw new OperationException(ErrorCode.DATABASE_FAILURE,
+                            "could not add certificate " + failingCertId);
+                }
+                committed.addAll(ids);
+            }
+        }
+
+        synchronized List<List<Long>> getGroups() {
+            return new ArrayList<>(groups);
+        }
+
+        synchronized List<Long> getCommitted() {
+            return new ArrayList<>(committed);
+        }
+
+    } // class RecordingCertsWriter
+
+    private static final long TIMEOUT = 10000; // 10 seconds
+
+    private static final String SUCCESSFUL = "successful";
+
+    @Test
+    public void testFailedGroup() throws Exception {
+        RecordingCertsWriter certsWriter = new RecordingCertsWriter(5);
+        CertBatchWriter writer = new CertBatchWriter(certsWriter, 1, 100);
+        writer.start();
+
+        Map<Long, String> results = new ConcurrentHashMap<>();
+        List<Thread> callers = new ArrayList<>();
+        try {
+            callers.add(addCert(writer, 0, results));
+            Assert.assertTrue("first group not written",
+                    certsWriter.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            // queued while the first group is written, hence the second group
+            for (long id = 1; id < 10; id++) {
+                callers.add(addCertAndWait(writer, id, results));
+            }
+            certsWriter.release.countDown();
+            joinAll(callers);
+        } finally {
+            writer.shutdown();
+        }
+
+        for (long id = 0; id < 10; id++) {
+            String expected = (id == 5) ? OperationException.class.getName() : SUCCESSFUL;
+            Assert.assertEquals("result of certificate " + id, expected, results.get(id));
+        }
+
+        // the failed group is written again one by one, in the original order
+        List<List<Long>> expectedGroups = new ArrayList<>();
+        expectedGroups.add(Arrays.asList(0L));
+        expectedGroups.add(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L));
+        for (long id = 1; id < 10; id++) {
+            expectedGroups.add(Collections.singletonList(id));
+        }
+        Assert.assertEquals("groups", expectedGroups, certsWriter.getGroups());
+        Assert.assertEquals("committed certificates",
+                Arrays.asList(0L, 1L, 2L, 3L, 4L, 6L, 7L, 8L, 9L), certsWriter.getCommitted());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        RecordingCertsWriter certsWriter = new RecordingCertsWriter(-1);
+        final CertBatchWriter writer = new CertBatchWriter(certsWriter, 1, 4);
+        writer.start();
+
+        Map<Long, String> results = new ConcurrentHashMap<>();
+        List<Thread> callers = new ArrayList<>();
+        callers.add(addCert(writer, 0, results));
+        Assert.assertTrue("first group not written",
+                certsWriter.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        for (long id = 1; id < 10; id++) {
+            callers.add(addCertAndWait(writer, id, results));
+        }
+
+        // shutdown waits for the writer thread, which is blocked in the first group
+        Thread shutdown = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer.shutdown();
+            }
+        }, "shutdown");
+        shutdown.start();
+        awaitWaiting(shutdown);
+
+        certsWriter.release.countDown();
+        shutdown.join(TIMEOUT);
+        Assert.assertFalse("shutdown not completed", shutdown.isAlive());
+        joinAll(callers);
+
+        for (long id = 0; id < 10; id++) {
+            Assert.assertEquals("result of certificate " + id, SUCCESSFUL, results.get(id));
+        }
+
+        // the queued certificates are written by the shutdown, in groups of at most 4
+        List<List<Long>> expectedGroups = new ArrayList<>();
+        expectedGroups.add(Arrays.asList(0L));
+        expectedGroups.add(Arrays.asList(1L, 2L, 3L, 4L));
+        expectedGroups.add(Arrays.asList(5L, 6L, 7L, 8L));
+        expectedGroups.add(Arrays.asList(9L));
+        Assert.assertEquals("groups", expectedGroups, certsWriter.getGroups());
+
+        // certificates added after the shutdown are written directly
+        writer.addCert(newCertEntry(10));
+        Assert.assertEquals("committed certificates",
+                Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L),
+                certsWriter.getCommitted());
+    }
+
+    private static Thread addCert(final CertBatchWriter writer, final long id,
+            final Map<Long, String> results) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.addCert(newCertEntry(id));
+                    results.put(id, SUCCESSFUL);
+                } catch (Exception ex) {
+                    results.put(id, ex.getClass().getName());
+                }
+            }
+        }, "caller-" + id);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Adds the certificate in a new thread, and waits until the thread waits for the result,
+     * so that the certificates are queued in the order of the calls.
+     */
+    private static Thread addCertAndWait(final CertBatchWriter writer, final long id,
+            final Map<Long, String> results) throws InterruptedException {
+        Thread thread = addCert(writer, id, results);
+        awaitWaiting(thread);
+        return thread;
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("thread " + thread.getName() + " is not waiting");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void joinAll(final List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+            Assert.assertFalse("thread " + thread.getName() + " not completed",
+                    thread.isAlive());
+        }
+    }
+
+    private static CertEntry newCertEntry(final long id) {
+        return new CertEntry(id, 0, Long.toHexString(id), "CN=test-" + id, 0, null, 0, 0, 1, 1,
+                null, null, 0, true, 0, null, "fp-" + id, null, new byte[0]);
+    }
+
+}
@@ -76,6 +76,18 @@ public class HealthCheckResult {
         this.statuses.clear();
     }
 
+    /**
+     *
+     * @param statusName Name of the status.
+     * @param statusValue Value of the status.
+     * @since 2.1.1
+     */
+    public void putStatus(final String statusName, final Object statusValue) {
+        ParamUtil.requireNonBlank("statusName", statusName);
+        ParamUtil.requireNonNull("statusValue", statusValue);
+        this.statuses.put(statusName, statusValue);
+    }
+
     public Object getStatus(final String statusName) {
         return (statusName == null) ? null : statuses.get(statusName);
     }
@@ -92,12 +92,14 @@ import org.xipki.commons.security.pkcs11.proxy.Asn1EntityIdAndCert;
 import org.xipki.commons.security.pkcs11.proxy.Asn1GenDSAKeypairParams;
 import org.xipki.commons.security.pkcs11.proxy.Asn1GenECKeypairParams;
 import org.xipki.commons.security.pkcs11.proxy.Asn1GenRSAKeypairParams;
+import org.xipki.commons.security.pkcs11.proxy.Asn1Mechanism;
 import org.xipki.commons.security.pkcs11.proxy.Asn1P11EntityIdentifier;
 import org.xipki.commons.security.pkcs11.proxy.Asn1P11ObjectIdentifier;
 import org.xipki.commons.security.pkcs11.proxy.Asn1P11Params;
 import org.xipki.commons.security.pkcs11.proxy.Asn1P11SlotIdentifier;
 import org.xipki.commons.security.pkcs11.proxy.Asn1RSAPkcsPssParams;
 import org.xipki.commons.security.pkcs11.proxy.Asn1RemoveObjectsParams;
+import org.xipki.commons.security.pkcs11.proxy.Asn1SignBatchTemplate;
 import org.xipki.commons.security.pkcs11.proxy.Asn1SignTemplate;
 import org.xipki.commons.security.pkcs11.proxy.Asn1Util;
 import org.xipki.commons.security.pkcs11.proxy.P11ProxyConstants;
@@ -194,29 +196,8 @@ class CmpResponder {
                     ex.getMessage());
         } catch (P11TokenException ex) {
             LogUtil.error(LOG, ex, "could not process CMP message " + tidStr);
-
-            String p11ErrorType;
-            if (ex instanceof P11UnknownEntityException) {
-                p11ErrorType = P11ProxyConstants.ERROR_UNKNOWN_ENTITY;
-            } else if (ex instanceof P11DuplicateEntityException) {
-                p11ErrorType = P11ProxyConstants.ERROR_DUPLICATE_ENTITY;
-            } else if (ex instanceof P11UnsupportedMechanismException) {
-                p11ErrorType = P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM;
-            } else {
-                p11ErrorType = P11ProxyConstants.ERROR_P11_TOKENERROR;
-            }
-
-            String errorMessage = ex.getMessage();
-
-            if (errorMessage == null) {
-                errorMessage = "NULL";
-            } else if (StringUtil.isBlank(errorMessage.trim())) {
-                errorMessage = "NULL";
-            }
-
-            ConfPairs confPairs = new ConfPairs(p11ErrorType, errorMessage);
             return createRejectionPkiMessage(respHeader, PKIFailureInfo.badRequest,
-                    confPairs.getEncoded());
+                    getFailureInfo(ex));
         } catch (Throwable th) {
             LogUtil.error(LOG, th, "could not process CMP message " + tidStr);
             return createRejectionPkiMessage(respHeader, PKIFailureInfo.systemFailure,
@@ -235,8 +216,32 @@ class CmpResponder {
         ASN1Encodable reqValue = seq.getObjectAt(2);
 
         P11CryptService p11CryptService = p11CryptServicePool.getP11CryptService(moduleName);
-        ASN1Encodable respItvInfoValue = null;
+        ASN1Encodable respItvInfoValue = processAction(p11CryptService, action, reqValue);
+
+        ASN1EncodableVector vec = new ASN1EncodableVector();
+        vec.add(new ASN1Integer(protocolVersion));
+        vec.add(new ASN1Integer(action));
+        if (respItvInfoValue != null) {
+            vec.add(respItvInfoValue);
+        }
 
+        InfoTypeAndValue respItv = new InfoTypeAndValue(
+                ObjectIdentifiers.id_xipki_cmp_cmpGenmsg,
+                new DERSequence(vec));
+        GenRepContent genRepContent = new GenRepContent(respItv);
+        PKIBody respBody = new PKIBody(PKIBody.TYPE_GEN_REP, genRepContent);
+        return new PKIMessage(respHeader, respBody);
+    }
+
+    /**
+     * Processes the action.
+     *
+     * @return value of the response, may be {@code null}.
+     */
+    ASN1Encodable processAction(final P11CryptService p11CryptService, final int action,
+            final ASN1Encodable reqValue)
+    throws BadAsn1ObjectException, P11TokenException, CertificateException, XiSecurityException,
+    InvalidKeyException {
         if (P11ProxyConstants.ACTION_addCert == action) {
             Asn1EntityIdAndCert asn1 = Asn1EntityIdAndCert.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1.getEntityId());
@@ -247,24 +252,24 @@ class CmpResponder {
             P11Slot slot = getSlot(p11CryptService, asn1.getSlotId());
             P11ObjectIdentifier keyId = slot.generateDSAKeypair(asn1.getP(), asn1.getQ(),
                     asn1.getG(), asn1.getLabel());
-            respItvInfoValue = new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
+            return new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
         } else if (P11ProxyConstants.ACTION_genKeypair_EC == action) {
             Asn1GenECKeypairParams asn1 = Asn1GenECKeypairParams.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1.getSlotId());
             P11ObjectIdentifier keyId = slot.generateECKeypair(asn1.getCurveId().getId(),
                     asn1.getLabel());
-            respItvInfoValue = new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
+            return new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
         } else if (P11ProxyConstants.ACTION_genKeypair_RSA == action) {
             Asn1GenRSAKeypairParams asn1 = Asn1GenRSAKeypairParams.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1.getSlotId());
             P11ObjectIdentifier keyId = slot.generateRSAKeypair(asn1.getKeysize(),
                     asn1.getPublicExponent(), asn1.getLabel());
-            respItvInfoValue = new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
+            return new Asn1P11EntityIdentifier(asn1.getSlotId().getSlotId(), keyId);
         } else if (P11ProxyConstants.ACTION_getCertificate == action) {
             P11EntityIdentifier entityId =
                     Asn1P11EntityIdentifier.getInstance(reqValue).getEntityId();
             X509Certificate cert = p11CryptService.getIdentity(entityId).getCertificate();
-            respItvInfoValue = Certificate.getInstance(cert.getEncoded());
+            return Certificate.getInstance(cert.getEncoded());
         } else if (P11ProxyConstants.ACTION_getCertIdentifiers == action
                 || P11ProxyConstants.ACTION_getIdentityIdentifiers == action) {
             Asn1P11SlotIdentifier slotId = Asn1P11SlotIdentifier.getInstance(reqValue);
@@ -279,7 +284,7 @@ class CmpResponder {
             for (P11ObjectIdentifier objectId : objectIds) {
                 vec.add(new Asn1P11ObjectIdentifier(objectId));
             }
-            respItvInfoValue = new DERSequence(vec);
+            return new DERSequence(vec);
         } else if (P11ProxyConstants.ACTION_getMechanisms == action) {
             P11SlotIdentifier slotId = Asn1P11SlotIdentifier.getInstance(reqValue).getSlotId();
             Set<Long> mechs = p11CryptService.getSlot(slotId).getMechanisms();
@@ -287,7 +292,7 @@ class CmpResponder {
             for (Long mech : mechs) {
                 vec.add(new ASN1Integer(mech));
             }
-            respItvInfoValue = new DERSequence(vec);
+            return new DERSequence(vec);
         } else if (P11ProxyConstants.ACTION_getPublicKey == action) {
             P11EntityIdentifier identityId =
                     Asn1P11EntityIdentifier.getInstance(reqValue).getEntityId();
@@ -296,7 +301,7 @@ class CmpResponder {
                 throw new P11UnknownEntityException(identityId);
             }
 
-            respItvInfoValue = KeyUtil.createSubjectPublicKeyInfo(pubKey);
+            return KeyUtil.createSubjectPublicKeyInfo(pubKey);
         } else if (P11ProxyConstants.ACTION_getSlotIds == action) {
             List<P11SlotIdentifier> slotIds = p11CryptService.getModule().getSlotIdentifiers();
 
@@ -304,7 +309,7 @@ class CmpResponder {
             for (P11SlotIdentifier slotId : slotIds) {
                 vector.add(new Asn1P11SlotIdentifier(slotId));
             }
-            respItvInfoValue = new DERSequence(vector);
+            return new DERSequence(vector);
         } else if (P11ProxyConstants.ACTION_removeCerts == action) {
             Asn1P11EntityIdentifier asn1 = Asn1P11EntityIdentifier.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1);
@@ -316,23 +321,27 @@ class CmpResponder {
         } else if (P11ProxyConstants.ACTION_sign == action) {
             Asn1SignTemplate signTemplate = Asn1SignTemplate.getInstance(reqValue);
             long mechanism = signTemplate.getMechanism().getMechanism();
-            Asn1P11Params tmpParams = signTemplate.getMechanism().getParams();
-            ASN1Encodable asn1Params = null;
-            if (tmpParams != null) {
-                asn1Params = tmpParams.getP11Params();
-            }
-            P11Params params = null;
-            if (asn1Params instanceof Asn1RSAPkcsPssParams) {
-                params = Asn1RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-            } else if (asn1Params != null) {
-                throw new BadAsn1ObjectException("unknown SignTemplate.params");
-            }
+            P11Params params = getP11Params(signTemplate.getMechanism());
 
             byte[] content = signTemplate.getMessage();
             P11Identity identity = p11CryptService.getIdentity(
                     signTemplate.getIdentityId().getEntityId());
             byte[] signature = identity.sign(mechanism, params, content);
-            respItvInfoValue = new DEROctetString(signature);
+            return new DEROctetString(signature);
+        } else if (P11ProxyConstants.ACTION_signBatch == action) {
+            Asn1SignBatchTemplate signTemplate = Asn1SignBatchTemplate.getInstance(reqValue);
+            long mechanism = signTemplate.getMechanism().getMechanism();
+            P11Params params = getP11Params(signTemplate.getMechanism());
+
+            byte[][] contents = signTemplate.getMessages();
+            P11Identity identity = p11CryptService.getIdentity(
+                    signTemplate.getIdentityId().getEntityId());
+            byte[][] signatures = identity.sign(mechanism, params, contents);
+            ASN1EncodableVector vec = new ASN1EncodableVector();
+            for (byte[] signature : signatures) {
+                vec.add(new DEROctetString(signature));
+            }
+            return new DERSequence(vec);
         } else if (P11ProxyConstants.ACTION_updateCerificate == action) {
             Asn1EntityIdAndCert asn1 = Asn1EntityIdAndCert.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1.getEntityId());
@@ -342,26 +351,56 @@ class CmpResponder {
             Asn1RemoveObjectsParams asn1 = Asn1RemoveObjectsParams.getInstance(reqValue);
             P11Slot slot = getSlot(p11CryptService, asn1.getSlotId());
             int num = slot.removeObjects(asn1.getObjectId(), asn1.getObjectLabel());
-            respItvInfoValue = new ASN1Integer(num);
+            return new ASN1Integer(num);
         } else {
-            final String statusMessage = "unsupported XiPKI action code '" + action + "'";
-            return createRejectionPkiMessage(respHeader,
-                    PKIFailureInfo.badRequest, statusMessage);
+            throw new BadAsn1ObjectException("unsupported XiPKI action code '" + action + "'");
         }
 
-        ASN1EncodableVector vec = new ASN1EncodableVector();
-        vec.add(new ASN1Integer(protocolVersion));
-        vec.add(new ASN1Integer(action));
-        if (respItvInfoValue != null) {
-            vec.add(respItvInfoValue);
+        return null;
+    } // method processAction
+
+    /**
+     * Encodes the exception as failure information which can be converted back to the
+     * exception by the client.
+     */
+    static String getFailureInfo(final P11TokenException ex) {
+        String p11ErrorType;
+        if (ex instanceof P11UnknownEntityException) {
+            p11ErrorType = P11ProxyConstants.ERROR_UNKNOWN_ENTITY;
+        } else if (ex instanceof P11DuplicateEntityException) {
+            p11ErrorType = P11ProxyConstants.ERROR_DUPLICATE_ENTITY;
+        } else if (ex instanceof P11UnsupportedMechanismException) {
+            p11ErrorType = P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM;
+        } else {
+            p11ErrorType = P11ProxyConstants.ERROR_P11_TOKENERROR;
         }
 
-        InfoTypeAndValue respItv = new InfoTypeAndValue(
-                ObjectIdentifiers.id_xipki_cmp_cmpGenmsg,
-                new DERSequence(vec));
-        GenRepContent genRepContent = new GenRepContent(respItv);
-        PKIBody respBody = new PKIBody(PKIBody.TYPE_GEN_REP, genRepContent);
-        return new PKIMessage(respHeader, respBody);
+        String errorMessage = ex.getMessage();
+
+        if (errorMessage == null) {
+            errorMessage = "NULL";
+        } else if (StringUtil.isBlank(errorMessage.trim())) {
+            errorMessage = "NULL";
+        }
+
+        return new ConfPairs(p11ErrorType, errorMessage).getEncoded();
+    }
+
+    private static P11Params getP11Params(final Asn1Mechanism mechanism)
+    throws BadAsn1ObjectException {
+        Asn1P11Params tmpParams = mechanism.getParams();
+        ASN1Encodable asn1Params = null;
+        if (tmpParams != null) {
+            asn1Params = tmpParams.getP11Params();
+        }
+
+        if (asn1Params instanceof Asn1RSAPkcsPssParams) {
+            return Asn1RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+        } else if (asn1Params != null) {
+            throw new BadAsn1ObjectException("unknown SignTemplate.params");
+        } else {
+            return null;
+        }
     }
 
     private PKIMessage createRejectionPkiMessage(final PKIHeader header, final int pkiFailureInfo,
@@ -115,7 +115,8 @@ public class HttpProxyServlet extends HttpServlet {
                     response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     return;
                 }
-                ServerCaps serverCaps = new ServerCaps(readOnly, CmpResponder.getVersions());
+                ServerCaps serverCaps = new ServerCaps(readOnly, true,
+                        CmpResponder.getVersions());
                 String respText = serverCaps.getCaps();
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.getOutputStream().write(respText.getBytes());
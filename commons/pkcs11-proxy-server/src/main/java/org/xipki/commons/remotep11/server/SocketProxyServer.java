@@ -0,0 +1,442 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.remotep11.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.IoUtil;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.StringUtil;
+import org.xipki.commons.security.exception.BadAsn1ObjectException;
+import org.xipki.commons.security.exception.P11TokenException;
+import org.xipki.commons.security.pkcs11.P11CryptService;
+import org.xipki.commons.security.pkcs11.proxy.Asn1SocketRequest;
+import org.xipki.commons.security.pkcs11.proxy.Asn1SocketResponse;
+import org.xipki.commons.security.pkcs11.proxy.Asn1Util;
+import org.xipki.commons.security.pkcs11.proxy.P11ProxyConstants;
+import org.xipki.commons.security.pkcs11.proxy.ServerCaps;
+import org.xipki.commons.security.pkcs11.proxy.SocketFrameUtil;
+
+/**
+ * Server of the binary socket transport, an alternative to {@link HttpProxyServlet}.
+ *
+ * <p>Each connection is served by one reader thread. The first request of a connection must
+ * be {@link P11ProxyConstants#ACTION_getServerCaps}, which selects the module. All other
+ * requests are processed by a pool of worker threads, and their responses are written as soon
+ * as they are available, not necessarily in the order of the requests.
+ *
+ * <p>The server is disabled if the port is not positive. Otherwise the connections are always
+ * protected by TLS with client authentication, hence both the keystore and the truststore must
+ * be configured. If no host is specified, the server listens only on the loopback address.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class SocketProxyServer {
+
+    private class Connection implements Runnable {
+
+        private final Socket socket;
+
+        private final OutputStream out;
+
+        private final String remote;
+
+        private P11CryptService p11CryptService;
+
+        Connection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.remote = String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public void run() {
+            LOG.info("accepted connection from {}", remote);
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                byte[] frame;
+                while ((frame = SocketFrameUtil.readFrame(in)) != null) {
+                    final Asn1SocketRequest request = Asn1SocketRequest.getInstance(frame);
+                    if (p11CryptService == null) {
+                        // only the first request is processed by the reader thread
+                        writeResponse(selectModule(request));
+                        if (p11CryptService == null) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    try {
+                        workers.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                writeResponse(processRequest(p11CryptService, request));
+                            }
+                        });
+                    } catch (RejectedExecutionException ex) {
+                        break;
+                    }
+                }
+            } catch (IOException | BadAsn1ObjectException ex) {
+                if (!socket.isClosed()) {
+                    LogUtil.warn(LOG, ex, "could not read request from " + remote);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        private Asn1SocketResponse selectModule(final Asn1SocketRequest request) {
+            final long requestId = request.getRequestId();
+            final int action = request.getAction();
+            if (action != P11ProxyConstants.ACTION_getServerCaps) {
+                return Asn1SocketResponse.getErrorInstance(requestId, action,
+                        "first request must be getServerCaps");
+            }
+
+            String moduleName;
+            try {
+                moduleName = Asn1Util.getUtf8String(request.getValue());
+            } catch (BadAsn1ObjectException ex) {
+                return Asn1SocketResponse.getErrorInstance(requestId, action, ex.getMessage());
+            }
+
+            P11CryptService service = localP11CryptServicePool.getP11CryptService(moduleName);
+            if (service == null) {
+                return Asn1SocketResponse.getErrorInstance(requestId, action,
+                        "unknown module " + moduleName);
+            }
+
+            boolean readOnly;
+            try {
+                readOnly = service.getModule().isReadOnly();
+            } catch (P11TokenException ex) {
+                LogUtil.error(LOG, ex, "could not get module " + moduleName);
+                return Asn1SocketResponse.getErrorInstance(requestId, action,
+                        CmpResponder.getFailureInfo(ex));
+            }
+
+            ServerCaps serverCaps = new ServerCaps(readOnly, true, CmpResponder.getVersions());
+            this.p11CryptService = service;
+            LOG.info("connection from {} uses module {}", remote, moduleName);
+            return Asn1SocketResponse.getSuccessInstance(requestId, action,
+                    new DERUTF8String(serverCaps.getCaps()));
+        }
+
+        private void writeResponse(final Asn1SocketResponse response) {
+            try {
+                byte[] frame = response.getEncoded();
+                synchronized (out) {
+                    SocketFrameUtil.writeFrame(out, frame);
+                    out.flush();
+                }
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    LogUtil.warn(LOG, ex, "could not write response to " + remote);
+                }
+                close();
+            }
+        }
+
+        void close() {
+            if (connections.remove(this)) {
+                LOG.info("closed connection from {}", remote);
+            }
+
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOG.debug("could not close socket: {}", ex.getMessage());
+            }
+        }
+
+    } // class Connection
+
+    private static final Logger LOG = LoggerFactory.getLogger(SocketProxyServer.class);
+
+    private final CmpResponder responder = new CmpResponder();
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private LocalP11CryptServicePool localP11CryptServicePool;
+
+    private String host;
+
+    private int port;
+
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private String keystoreFile;
+
+    private String keystoreType = "PKCS12";
+
+    private String keystorePassword;
+
+    private String truststoreFile;
+
+    private String truststoreType = "PKCS12";
+
+    private String truststorePassword;
+
+    private ServerSocket serverSocket;
+
+    private ExecutorService workers;
+
+    public SocketProxyServer() {
+    }
+
+    public void setLocalP11CryptServicePool(
+            final LocalP11CryptServicePool localP11CryptServicePool) {
+        this.localP11CryptServicePool = localP11CryptServicePool;
+    }
+
+    public void setHost(final String host) {
+        this.host = host;
+    }
+
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    public void setWorkerThreads(final int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setKeystoreFile(final String keystoreFile) {
+        this.keystoreFile = keystoreFile;
+    }
+
+    public void setKeystoreType(final String keystoreType) {
+        this.keystoreType = keystoreType;
+    }
+
+    public void setKeystorePassword(final String keystorePassword) {
+        this.keystorePassword = keystorePassword;
+    }
+
+    public void setTruststoreFile(final String truststoreFile) {
+        this.truststoreFile = truststoreFile;
+    }
+
+    public void setTruststoreType(final String truststoreType) {
+        this.truststoreType = truststoreType;
+    }
+
+    public void setTruststorePassword(final String truststorePassword) {
+        this.truststorePassword = truststorePassword;
+    }
+
+    public void init() throws IOException, GeneralSecurityException {
+        if (port <= 0) {
+            LOG.info("socket transport is disabled");
+            return;
+        }
+
+        if (localP11CryptServicePool == null) {
+            throw new IllegalStateException("localP11CryptServicePool is not configured");
+        }
+
+        if (workerThreads < 1) {
+            throw new IllegalStateException("invalid workerThreads " + workerThreads);
+        }
+
+        if (StringUtil.isBlank(keystoreFile)) {
+            throw new IllegalStateException("keystoreFile is not configured");
+        }
+
+        if (StringUtil.isBlank(truststoreFile)) {
+            throw new IllegalStateException("truststoreFile is not configured");
+        }
+
+        SSLServerSocket socket = (SSLServerSocket)
+                buildSslContext().getServerSocketFactory().createServerSocket();
+        socket.setNeedClientAuth(true);
+        socket.setReuseAddress(true);
+        socket.bind(StringUtil.isBlank(host)
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(host, port));
+        this.serverSocket = socket;
+
+        final AtomicInteger threadIndex = new AtomicInteger(1);
+        workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "p11proxy-socket-worker-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "p11proxy-socket-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.info("socket transport listens on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public void shutdown() {
+        if (serverSocket == null) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            LogUtil.warn(LOG, ex, "could not close server socket");
+        }
+
+        for (Connection conn : connections) {
+            conn.close();
+        }
+
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        serverSocket = null;
+        LOG.info("socket transport is shutdown");
+    }
+
+    private void accept() {
+        ServerSocket tmpServerSocket = serverSocket;
+        while (!tmpServerSocket.isClosed()) {
+            try {
+                Socket socket = tmpServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection conn = new Connection(socket);
+                connections.add(conn);
+                Thread reader = new Thread(conn, "p11proxy-socket-" + conn.remote);
+                reader.setDaemon(true);
+                reader.start();
+            } catch (SocketException ex) {
+                if (!tmpServerSocket.isClosed()) {
+                    LogUtil.error(LOG, ex, "could not accept connection");
+                }
+            } catch (IOException ex) {
+                LogUtil.error(LOG, ex, "could not accept connection");
+            }
+        }
+    }
+
+    private Asn1SocketResponse processRequest(final P11CryptService p11CryptService,
+            final Asn1SocketRequest request) {
+        final long requestId = request.getRequestId();
+        final int action = request.getAction();
+        try {
+            ASN1Encodable value = responder.processAction(p11CryptService, action,
+                    request.getValue());
+            return Asn1SocketResponse.getSuccessInstance(requestId, action, value);
+        } catch (BadAsn1ObjectException ex) {
+            LogUtil.error(LOG, ex, "could not process request " + requestId);
+            return Asn1SocketResponse.getErrorInstance(requestId, action, ex.getMessage());
+        } catch (P11TokenException ex) {
+            LogUtil.error(LOG, ex, "could not process request " + requestId);
+            return Asn1SocketResponse.getErrorInstance(requestId, action,
+                    CmpResponder.getFailureInfo(ex));
+        } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not process request " + requestId);
+            return Asn1SocketResponse.getErrorInstance(requestId, action, "SYSTEM_FAILURE");
+        }
+    }
+
+    private SSLContext buildSslContext() throws IOException, GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        char[] password = (keystorePassword == null) ? null : keystorePassword.toCharArray();
+        kmf.init(loadKeyStore(keystoreType, keystoreFile, password), password);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(loadKeyStore(truststoreType, truststoreFile,
+                (truststorePassword == null) ? null : truststorePassword.toCharArray()));
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    private static KeyStore loadKeyStore(final String type, final String file,
+            final char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keystore = KeyStore.getInstance(type);
+        InputStream in = new FileInputStream(IoUtil.expandFilepath(file));
+        try {
+            keystore.load(in, password);
+        } finally {
+            in.close();
+        }
+        return keystore;
+    }
+
+}
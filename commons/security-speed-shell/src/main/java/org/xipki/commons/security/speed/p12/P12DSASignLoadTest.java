@@ -51,11 +51,17 @@ public class P12DSASignLoadTest extends P12SignLoadTest {
     public P12DSASignLoadTest(final SecurityFactory securityFactory,
             final String signatureAlgorithm, final int plength, final int qlength)
     throws Exception {
+        this(securityFactory, signatureAlgorithm, plength, qlength, false);
+    }
+
+    public P12DSASignLoadTest(final SecurityFactory securityFactory,
+            final String signatureAlgorithm, final int plength, final int qlength,
+            final boolean threadAffinity) throws Exception {
         super(securityFactory, signatureAlgorithm,
                 generateKeystore(plength, qlength),
                 "PKCS#12 DSA signature creation\n"
                     + "plength: " + plength + "\n"
-                    + "qlength: " + qlength);
+                    + "qlength: " + qlength, threadAffinity);
     }
 
     private static byte[] generateKeystore(final int plength, final int qlength) throws Exception {
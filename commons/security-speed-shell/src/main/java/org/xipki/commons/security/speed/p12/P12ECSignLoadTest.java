@@ -50,8 +50,13 @@ public class P12ECSignLoadTest extends P12SignLoadTest {
 
     public P12ECSignLoadTest(final SecurityFactory securityFactory, final String signatureAlgorithm,
             final String curveNameOrOid) throws Exception {
+        this(securityFactory, signatureAlgorithm, curveNameOrOid, false);
+    }
+
+    public P12ECSignLoadTest(final SecurityFactory securityFactory, final String signatureAlgorithm,
+            final String curveNameOrOid, final boolean threadAffinity) throws Exception {
         super(securityFactory, signatureAlgorithm, generateKeystore(curveNameOrOid),
-                "PKCS#12 EC signature creation\ncurve: " + curveNameOrOid);
+                "PKCS#12 EC signature creation\ncurve: " + curveNameOrOid, threadAffinity);
     }
 
     private static byte[] generateKeystore(final String curveNameOrOid) throws Exception {
@@ -52,9 +52,15 @@ public class P12RSASignLoadTest extends P12SignLoadTest {
     public P12RSASignLoadTest(final SecurityFactory securityFactory,
             final String signatureAlgorithm, final int keysize, final BigInteger publicExponent)
     throws Exception {
+        this(securityFactory, signatureAlgorithm, keysize, publicExponent, false);
+    }
+
+    public P12RSASignLoadTest(final SecurityFactory securityFactory,
+            final String signatureAlgorithm, final int keysize, final BigInteger publicExponent,
+            final boolean threadAffinity) throws Exception {
         super(securityFactory, signatureAlgorithm, generateKeystore(keysize, publicExponent),
                 "PKCS#12 RSA signature creation\nkeysize: " + keysize + "\n"
-                        + "public exponent: " + publicExponent);
+                        + "public exponent: " + publicExponent, threadAffinity);
     }
 
     private static byte[] generateKeystore(final int keysize, final BigInteger publicExponent)
@@ -80,7 +80,13 @@ public abstract class P12SignLoadTest extends LoadExecutor {
 
     public P12SignLoadTest(final SecurityFactory securityFactory, final String signatureAlgorithm,
             final byte[] keystore, final String description) throws Exception {
-        super(description);
+        this(securityFactory, signatureAlgorithm, keystore, description, false);
+    }
+
+    public P12SignLoadTest(final SecurityFactory securityFactory, final String signatureAlgorithm,
+            final byte[] keystore, final String description, final boolean threadAffinity)
+    throws Exception {
+        super(threadAffinity ? description + "\nthread affinity: true" : description);
 
         ParamUtil.requireNonNull("securityFactory", securityFactory);
         ParamUtil.requireNonBlank("signatureAlgorithm", signatureAlgorithm);
@@ -88,6 +94,9 @@ public abstract class P12SignLoadTest extends LoadExecutor {
 
         SignerConf signerConf = SignerConf.getKeystoreSignerConf(
                 new ByteArrayInputStream(keystore), PASSWORD, signatureAlgorithm, 20);
+        if (threadAffinity) {
+            signerConf.putConfEntry("thread-affinity", "true");
+        }
         this.signer = securityFactory.createSigner("PKCS12", signerConf, (X509Certificate) null);
     }
 
@@ -64,7 +64,7 @@ public class SpeedP12DSASignCmd extends SpeedP12SignCommandSupport {
         if (qlen == null) {
             qlen = (plen >= 2048) ? 256 : 160;
         }
-        return new P12DSASignLoadTest(securityFactory, sigAlgo, plen, qlen);
+        return new P12DSASignLoadTest(securityFactory, sigAlgo, plen, qlen, threadAffinity);
     }
 
 }
@@ -61,7 +61,8 @@ public class SpeedP12RSASignCmd extends SpeedP12SignCommandSupport {
 
     @Override
     protected LoadExecutor getTester() throws Exception {
-        return new P12RSASignLoadTest(securityFactory, sigAlgo, keysize, toBigInt(publicExponent));
+        return new P12RSASignLoadTest(securityFactory, sigAlgo, keysize, toBigInt(publicExponent),
+                threadAffinity);
     }
 
 }
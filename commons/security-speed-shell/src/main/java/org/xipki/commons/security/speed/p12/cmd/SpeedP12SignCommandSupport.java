@@ -50,4 +50,8 @@ public abstract class SpeedP12SignCommandSupport extends SingleSpeedCommandSuppo
                     + "(required)")
     protected String sigAlgo;
 
+    @Option(name = "--thread-affinity",
+            description = "bind the signers to the threads")
+    protected Boolean threadAffinity = Boolean.FALSE;
+
 }
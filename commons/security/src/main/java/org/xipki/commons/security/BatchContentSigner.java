@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+import org.bouncycastle.operator.ContentSigner;
+
+/**
+ * {@link ContentSigner} which is able to sign several data blobs at once. Implementations
+ * backed by a token may sign all blobs within one round trip.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public interface BatchContentSigner extends ContentSigner {
+
+    /**
+     * Signs the given data blobs. The content written to {@link #getOutputStream()} is
+     * discarded.
+     *
+     * @param data
+     *          Data blobs to be signed. Must not be {@code null}.
+     * @return signatures, in the same order as the data blobs.
+     * @throws org.bouncycastle.crypto.RuntimeCryptoException
+     *         if any data blob could not be signed.
+     */
+    byte[][] getSignatures(@NonNull byte[][] data);
+
+    /**
+     * Whether {@link #getSignatures(byte[][])} signs the data blobs in fewer round trips to
+     * the token than one per blob. Only then signing in batches pays off.
+     *
+     * @return whether the data blobs are signed natively as one batch.
+     */
+    boolean supportsBatchSigning();
+
+}
@@ -35,6 +35,7 @@
 package org.xipki.commons.security;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
@@ -60,6 +61,7 @@ import org.bouncycastle.cert.ocsp.OCSPReq;
 import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
 import org.bouncycastle.pkcs.PKCS10CertificationRequest;
 import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.password.PasswordResolver;
 import org.xipki.commons.security.exception.NoIdleSignerException;
 import org.xipki.commons.security.exception.XiSecurityException;
@@ -116,13 +118,110 @@ public interface ConcurrentContentSigner {
             @Nullable X509CertificateHolder[] chain, @NonNull Date producedAt)
     throws NoIdleSignerException, OCSPException;
 
+    /**
+     * Builds the BasicOCSPResp, waits at most the given time for an idle signer.
+     *
+     * @param builder
+     *          Builder of the response. Must not be {@code null}.
+     * @param chain
+     *          Certificates to be embedded in the response. Could be {@code null}.
+     * @param producedAt
+     *          Time the response is produced at. Must not be {@code null}.
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, 0 to fail immediately
+     *          if no signer is idle, negative for the default timeout.
+     * @return the signed response.
+     * @throws NoIdleSignerException
+     *         if no signer is available within the timeout.
+     * @throws OCSPException
+     *         if error occurs while building the response.
+     */
+    BasicOCSPResp build(@NonNull BasicOCSPRespBuilder builder,
+            @Nullable X509CertificateHolder[] chain, @NonNull Date producedAt, int timeout)
+    throws NoIdleSignerException, OCSPException;
+
     PKCS10CertificationRequest build(@NonNull PKCS10CertificationRequestBuilder builder)
     throws NoIdleSignerException;
 
     byte[] sign(@NonNull byte[] data) throws NoIdleSignerException, IOException;
 
+    /**
+     * Signs the given part of the data, waits at most the given time for an idle signer.
+     *
+     * @param data
+     *          Buffer containing the data to be signed. Must not be {@code null}.
+     * @param off
+     *          Offset of the data in the buffer.
+     * @param len
+     *          Length of the data.
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, 0 to fail immediately
+     *          if no signer is idle, negative for the default timeout.
+     * @return the signature.
+     * @throws NoIdleSignerException
+     *         if no signer is available within the timeout.
+     * @throws IOException
+     *         if error occurs while signing.
+     */
+    byte[] sign(@NonNull byte[] data, int off, int len, int timeout)
+    throws NoIdleSignerException, IOException;
+
+    /**
+     * Signs the data read from the stream with one borrowed signer, without holding the
+     * whole data in memory. The stream is read until its end, but not closed.
+     *
+     * @param data
+     *          Stream of the data to be signed. Must not be {@code null}.
+     * @return the signature.
+     * @throws NoIdleSignerException
+     *         if no signer is available within the timeout.
+     * @throws IOException
+     *         if error occurs while reading the data or signing.
+     */
+    byte[] sign(@NonNull InputStream data) throws NoIdleSignerException, IOException;
+
+    /**
+     * Signs several data blobs with one borrowed signer. If the underlying signer is a
+     * {@link BatchContentSigner}, all blobs are passed to it at once.
+     *
+     * @param data
+     *          Data blobs to be signed. Must not be {@code null}.
+     * @return signatures, in the same order as the data blobs.
+     * @throws NoIdleSignerException
+     *         if no signer is available within the timeout.
+     * @throws IOException
+     *         if error occurs while signing.
+     */
+    byte[][] sign(@NonNull byte[][] data) throws NoIdleSignerException, IOException;
+
+    /**
+     * Whether {@link #sign(byte[][])} signs the data blobs in fewer round trips to the token
+     * than one per blob.
+     *
+     * @return whether the signers support native batch signing.
+     */
+    boolean supportsBatchSigning();
+
+    /**
+     * Gets the number of signers in the pool, which is the maximal number of concurrent
+     * signing operations.
+     *
+     * @return the number of signers.
+     */
+    int getNumberOfSigners();
+
     boolean isHealthy();
 
+    /**
+     * Puts the runtime statistics of this signer, and of the PKCS#11 slot holding its key if
+     * any, as statuses into the health check result.
+     *
+     * @param result
+     *          Health check result. Must not be {@code null}.
+     * @since 2.1.1
+     */
+    void putStatuses(@NonNull HealthCheckResult result);
+
     void shutdown();
 
 }
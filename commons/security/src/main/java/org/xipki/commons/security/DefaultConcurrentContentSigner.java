@@ -35,17 +35,24 @@
 package org.xipki.commons.security;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.asn1.crmf.POPOSigningKey;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
@@ -67,32 +74,117 @@ import org.bouncycastle.pkcs.PKCS10CertificationRequest;
 import org.bouncycastle.pkcs.PKCS10CertificationRequestBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.password.PasswordResolver;
 import org.xipki.commons.security.exception.NoIdleSignerException;
+import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.XiSecurityException;
+import org.xipki.commons.security.pkcs11.provider.P11PrivateKey;
 
 /**
+ * The pool of signers is lock-free in the uncontended case: each signer has an atomic
+ * ownership flag, and a borrower claims the first idle signer starting at a slot derived from
+ * its thread, so that concurrent borrowers in general do not compete for the same flag.
+ * The semaphore counts the idle signers and is used to wait for a signer.
+ *
+ * <p>In the thread affinity mode a thread binds the first signer it obtains, and uses it in
+ * subsequent calls without touching the shared pool. At most {@code n - 1} signers are bound,
+ * where {@code n} is the number of signers, all other threads fall back to the shared pool.
+ * A binding is a lease: when the shared pool is exhausted, the signers of terminated threads
+ * and the signers which have not been used for the maximal idle time of a binding return to
+ * the shared pool, and their threads bind a new signer on their next call. The maximal idle
+ * time is 100 ms and can be changed by the system property
+ * {@code org.xipki.commons.security.signservice.bindingMaxIdle} (in milliseconds).
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
 
+    /**
+     * Binding of a signer to a thread, only used in the thread affinity mode.
+     */
+    private static final class Binding {
+
+        private final int index;
+
+        private final WeakReference<Thread> owner;
+
+        Binding(final int index, final Thread owner) {
+            this.index = index;
+            this.owner = new WeakReference<>(owner);
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+    } // class Binding
+
     private static final Logger LOG = LoggerFactory.getLogger(DefaultConcurrentContentSigner.class);
 
     private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
 
     private static int defaultSignServiceTimeout = 10000; // 10 seconds
 
+    private static long bindingMaxIdleNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
     private final String name;
 
     private final AlgorithmIdentifier algorithmIdentifier;
 
-    private final BlockingDeque<ContentSigner> idleSigners = new LinkedBlockingDeque<>();
+    private static final int IDLE = 0;
+
+    private static final int BUSY = 1;
+
+    private static final int BOUND = 2;
+
+    private static final int BOUND_BUSY = 3;
+
+    private final ContentSigner[] signers;
+
+    private final Map<ContentSigner, Integer> signerIndexes;
+
+    /**
+     * Ownership flag ({@link #IDLE}, {@link #BUSY}, {@link #BOUND} or {@link #BOUND_BUSY})
+     * of the signer with the same index.
+     */
+    private final AtomicIntegerArray signerStates;
+
+    /**
+     * Number of idle signers, a permit is acquired before a signer is claimed.
+     */
+    private final Semaphore idlePermits;
 
-    private final BlockingDeque<ContentSigner> busySigners = new LinkedBlockingDeque<>();
+    private final boolean threadAffinity;
+
+    /**
+     * Binding of the current thread, only used in the thread affinity mode. It is stale if
+     * it is no longer the binding of its signer in {@link #bindings}.
+     */
+    private final ThreadLocal<Binding> currentBinding;
+
+    private final AtomicReferenceArray<Binding> bindings;
+
+    /**
+     * Time ({@link System#nanoTime()}) at which the bound signer with the same index has been
+     * returned the last time.
+     */
+    private final AtomicLongArray lastUses;
+
+    private final int maxBoundSigners;
+
+    private final AtomicInteger boundSigners = new AtomicInteger(0);
+
+    private final LongAdder borrowCount = new LongAdder();
+
+    private final LongAdder borrowTimeoutCount = new LongAdder();
+
+    private final LongAdder borrowWaitNanos = new LongAdder();
 
     private final PrivateKey privateKey;
 
@@ -115,6 +207,19 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
                 defaultSignServiceTimeout = vi;
             }
         }
+
+        final String idlePropKey = "org.xipki.commons.security.signservice.bindingMaxIdle";
+        str = System.getProperty(idlePropKey);
+        if (str != null) {
+            int vi = Integer.parseInt(str);
+            // valid value is between 1 millisecond and 60 seconds
+            if (vi < 1 || vi > 60 * 1000) {
+                LOG.error("invalid {}: {}", idlePropKey, vi);
+            } else {
+                LOG.info("use {}: {}", idlePropKey, vi);
+                bindingMaxIdleNanos = TimeUnit.MILLISECONDS.toNanos(vi);
+            }
+        }
     }
 
     public DefaultConcurrentContentSigner(final List<ContentSigner> signers) {
@@ -123,11 +228,49 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
 
     public DefaultConcurrentContentSigner(final List<ContentSigner> signers,
             final PrivateKey privateKey) {
+        this(signers, privateKey, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param signers
+     *          Signers in the pool. Must not be {@code null} or empty.
+     * @param privateKey
+     *          Private key of the signers. Could be {@code null}.
+     * @param threadAffinity
+     *          Whether the signers will be bound to the calling threads. The signers must not
+     *          depend on the thread which created them.
+     */
+    public DefaultConcurrentContentSigner(final List<ContentSigner> signers,
+            final PrivateKey privateKey, final boolean threadAffinity) {
         ParamUtil.requireNonEmpty("signers", signers);
 
         this.algorithmIdentifier = signers.get(0).getAlgorithmIdentifier();
-        for (ContentSigner signer : signers) {
-            idleSigners.addLast(signer);
+        final int n = signers.size();
+        this.signers = new ContentSigner[n];
+        this.signerIndexes = new IdentityHashMap<>(n);
+        for (int i = 0; i < n; i++) {
+            ContentSigner signer = ParamUtil.requireNonNull("signer", signers.get(i));
+            if (signerIndexes.put(signer, i) != null) {
+                throw new IllegalArgumentException("signers contains duplicated signer");
+            }
+            this.signers[i] = signer;
+        }
+        this.signerStates = new AtomicIntegerArray(n);
+        this.idlePermits = new Semaphore(n);
+
+        this.threadAffinity = threadAffinity && n > 1;
+        if (this.threadAffinity) {
+            this.currentBinding = new ThreadLocal<>();
+            this.bindings = new AtomicReferenceArray<>(n);
+            this.lastUses = new AtomicLongArray(n);
+            this.maxBoundSigners = n - 1;
+        } else {
+            this.currentBinding = null;
+            this.bindings = null;
+            this.lastUses = null;
+            this.maxBoundSigners = 0;
         }
 
         this.privateKey = privateKey;
@@ -143,37 +286,265 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
     }
 
     /**
-     * @param timeout timeout in milliseconds, 0 for infinitely.
+     * @param timeout timeout in milliseconds, 0 for infinitely, negative for not waiting.
      */
     private ContentSigner borrowContentSigner(final int soTimeout) throws NoIdleSignerException {
-        ContentSigner signer = null;
-        try {
-            signer = (soTimeout == 0) ? idleSigners.takeFirst()
-                    : idleSigners.pollFirst(soTimeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+        borrowCount.increment();
+        if (threadAffinity) {
+            ContentSigner signer = borrowBoundContentSigner();
+            if (signer != null) {
+                return signer;
+            }
+        }
+
+        if (!idlePermits.tryAcquire()) {
+            boolean acquired = false;
+            if (threadAffinity) {
+                acquired = releaseIdleBindings() && idlePermits.tryAcquire();
+            }
+
+            if (!acquired) {
+                if (soTimeout < 0) {
+                    borrowTimeoutCount.increment();
+                    throw new NoIdleSignerException("no idle signer available");
+                }
+
+                long start = System.nanoTime();
+                try {
+                    acquired = waitForIdleSigner(soTimeout);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    borrowWaitNanos.add(System.nanoTime() - start);
+                }
+
+                if (!acquired) {
+                    borrowTimeoutCount.increment();
+                    throw new NoIdleSignerException("no idle signer available");
+                }
+            }
+        }
+
+        return signers[claimIdleSigner(BUSY)];
+    }
+
+    /**
+     * Claims an idle signer, the caller must hold a permit of {@link #idlePermits}.
+     */
+    private int claimIdleSigner(final int newState) {
+        // at least one signer is idle and reserved for this thread by the permit
+        final int n = signers.length;
+        final int start = (int) (Thread.currentThread().getId() % n);
+        while (true) {
+            for (int i = 0; i < n; i++) {
+                int idx = start + i;
+                if (idx >= n) {
+                    idx -= n;
+                }
+
+                if (signerStates.get(idx) == IDLE
+                        && signerStates.compareAndSet(idx, IDLE, newState)) {
+                    return idx;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a permit of {@link #idlePermits}. In the thread affinity mode the waiting
+     * thread wakes up periodically to release the bindings which have become idle meanwhile.
+     *
+     * @param soTimeout timeout in milliseconds, 0 for infinitely.
+     */
+    private boolean waitForIdleSigner(final int soTimeout) throws InterruptedException {
+        if (!threadAffinity) {
+            if (soTimeout == 0) {
+                idlePermits.acquire();
+                return true;
+            }
+            return idlePermits.tryAcquire(soTimeout, TimeUnit.MILLISECONDS);
         }
 
-        if (signer == null) {
-            throw new NoIdleSignerException("no idle signer available");
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(soTimeout);
+        while (true) {
+            long waitNanos = bindingMaxIdleNanos;
+            if (soTimeout != 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                waitNanos = Math.min(waitNanos, remaining);
+            }
+
+            if (idlePermits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            releaseIdleBindings();
         }
+    }
+
+    /**
+     * Returns the signer bound to the current thread, binds one if possible.
+     *
+     * @return the bound signer, or {@code null} if the shared pool shall be used.
+     */
+    private ContentSigner borrowBoundContentSigner() {
+        Binding binding = currentBinding.get();
+        if (binding != null) {
+            final int idx = binding.index;
+            if (signerStates.compareAndSet(idx, BOUND, BOUND_BUSY)) {
+                if (bindings.get(idx) == binding) {
+                    return signers[idx];
+                }
+
+                // the signer has been released and bound to another thread meanwhile
+                signerStates.set(idx, BOUND);
+                currentBinding.remove();
+            } else if (bindings.get(idx) == binding) {
+                // the bound signer is in use by a nested call, use the shared pool
+                return null;
+            } else {
+                // the binding has been released
+                currentBinding.remove();
+            }
+        }
+
+        while (true) {
+            int bound = boundSigners.get();
+            if (bound >= maxBoundSigners) {
+                return null;
+            }
+
+            if (boundSigners.compareAndSet(bound, bound + 1)) {
+                break;
+            }
+        }
+
+        if (!idlePermits.tryAcquire()) {
+            boundSigners.decrementAndGet();
+            return null;
+        }
+
+        // the permit of a bound signer is released when the binding is released
+        int newIdx = claimIdleSigner(BOUND_BUSY);
+        Binding newBinding = new Binding(newIdx, Thread.currentThread());
+        bindings.set(newIdx, newBinding);
+        currentBinding.set(newBinding);
+        LOG.debug("bound signer {} of {} to thread {}", newIdx, name,
+                Thread.currentThread().getName());
+        return signers[newIdx];
+    }
+
+    /**
+     * Releases the bindings of terminated threads and the bindings which have not been used
+     * for {@link #bindingMaxIdleNanos}.
+     *
+     * @return whether any binding has been released.
+     */
+    private boolean releaseIdleBindings() {
+        boolean released = false;
+        final long now = System.nanoTime();
+        for (int i = 0; i < signers.length; i++) {
+            if (signerStates.get(i) != BOUND) {
+                continue;
+            }
+
+            Binding binding = bindings.get(i);
+            boolean ownerAlive = binding != null && binding.isOwnerAlive();
+            if (ownerAlive && now - lastUses.get(i) < bindingMaxIdleNanos) {
+                continue;
+            }
+
+            // lock the signer, so that its owner cannot use it meanwhile
+            if (!signerStates.compareAndSet(i, BOUND, BOUND_BUSY)) {
+                continue;
+            }
 
-        busySigners.addLast(signer);
-        return signer;
+            bindings.set(i, null);
+            signerStates.set(i, IDLE);
+            boundSigners.decrementAndGet();
+            idlePermits.release();
+            released = true;
+            LOG.debug("released signer {} of {} bound to {} thread", i, name,
+                    ownerAlive ? "an idle" : "a terminated");
+        }
+        return released;
     }
 
     private void returnContentSigner(final ContentSigner signer) {
         ParamUtil.requireNonNull("signer", signer);
 
-        boolean isBusySigner = busySigners.remove(signer);
-        if (isBusySigner) {
-            idleSigners.addLast(signer);
-        } else {
+        Integer idx = signerIndexes.get(signer);
+        if (idx != null && threadAffinity && signerStates.get(idx) == BOUND_BUSY) {
+            // only the owner holds a bound signer in use
+            lastUses.set(idx, System.nanoTime());
+            signerStates.set(idx, BOUND);
+            return;
+        }
+
+        if (idx == null || !signerStates.compareAndSet(idx, BUSY, IDLE)) {
             final String msg =
                     "signer has not been borrowed before or has been returned more than once: "
                     + signer;
             LOG.error(msg);
             throw new IllegalStateException(msg);
         }
+
+        idlePermits.release();
+    }
+
+    @Override
+    public int getNumberOfSigners() {
+        return signers.length;
+    }
+
+    /**
+     * Gets the number of signers which are currently in use or bound to a thread.
+     *
+     * @return the number of signers not available in the shared pool.
+     */
+    public int getNumberOfBusySigners() {
+        return signers.length - idlePermits.availablePermits();
+    }
+
+    /**
+     * Gets the number of signers which are bound to threads.
+     *
+     * @return the number of bound signers, always 0 if the thread affinity mode is disabled.
+     */
+    public int getNumberOfBoundSigners() {
+        return boundSigners.get();
+    }
+
+    public boolean isThreadAffinity() {
+        return threadAffinity;
+    }
+
+    /**
+     * Gets the number of borrowed signers since the creation of this signer.
+     *
+     * @return the number of borrows.
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * Gets the number of borrows which failed since no signer became idle within the timeout.
+     *
+     * @return the number of timed out borrows.
+     */
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.sum();
+    }
+
+    /**
+     * Gets the total time the borrowers waited for an idle signer.
+     *
+     * @return the total waiting time in nanoseconds.
+     */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.sum();
     }
 
     @Override
@@ -262,6 +633,23 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
         }
     }
 
+    @Override
+    public void putStatuses(final HealthCheckResult result) {
+        ParamUtil.requireNonNull("result", result);
+        result.putStatus("signers", signers.length);
+        result.putStatus("signerBorrows", getBorrowCount());
+        result.putStatus("signerBorrowTimeouts", getBorrowTimeoutCount());
+        result.putStatus("signerWaitMs", getBorrowWaitNanos() / 1000000);
+
+        if (privateKey instanceof P11PrivateKey) {
+            try {
+                ((P11PrivateKey) privateKey).putSlotStatuses(result);
+            } catch (P11TokenException ex) {
+                LogUtil.warn(LOG, ex, "could not get the statuses of the PKCS#11 slot");
+            }
+        }
+    }
+
     @Override
     public AlgorithmIdentifier getAlgorithmIdentifier() {
         return algorithmIdentifier;
@@ -337,6 +725,18 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
         }
     }
 
+    @Override
+    public BasicOCSPResp build(final BasicOCSPRespBuilder builder,
+            final X509CertificateHolder[] chain, final Date producedAt, final int timeout)
+    throws NoIdleSignerException, OCSPException {
+        ContentSigner contentSigner = borrowContentSigner(toSoTimeout(timeout));
+        try {
+            return builder.build(contentSigner, chain, producedAt);
+        } finally {
+            returnContentSigner(contentSigner);
+        }
+    }
+
     @Override
     public PKCS10CertificationRequest build(final PKCS10CertificationRequestBuilder builder)
     throws NoIdleSignerException {
@@ -360,4 +760,74 @@ public class DefaultConcurrentContentSigner implements ConcurrentContentSigner {
         }
     }
 
+    @Override
+    public byte[] sign(final byte[] data, final int off, final int len, final int timeout)
+    throws NoIdleSignerException, IOException {
+        ParamUtil.requireNonNull("data", data);
+        if (off < 0 || len < 0 || off + len > data.length) {
+            throw new IllegalArgumentException("invalid off " + off + " and len " + len);
+        }
+
+        ContentSigner contentSigner = borrowContentSigner(toSoTimeout(timeout));
+        try {
+            OutputStream signatureStream = contentSigner.getOutputStream();
+            signatureStream.write(data, off, len);
+            return contentSigner.getSignature();
+        } finally {
+            returnContentSigner(contentSigner);
+        }
+    }
+
+    @Override
+    public byte[] sign(final InputStream data) throws NoIdleSignerException, IOException {
+        ParamUtil.requireNonNull("data", data);
+        ContentSigner contentSigner = borrowContentSigner();
+        try {
+            OutputStream signatureStream = contentSigner.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                signatureStream.write(buffer, 0, read);
+            }
+            return contentSigner.getSignature();
+        } finally {
+            returnContentSigner(contentSigner);
+        }
+    }
+
+    @Override
+    public byte[][] sign(final byte[][] data) throws NoIdleSignerException, IOException {
+        ParamUtil.requireNonNull("data", data);
+        ContentSigner contentSigner = borrowContentSigner();
+        try {
+            if (contentSigner instanceof BatchContentSigner) {
+                return ((BatchContentSigner) contentSigner).getSignatures(data);
+            }
+
+            byte[][] signatures = new byte[data.length][];
+            for (int i = 0; i < data.length; i++) {
+                OutputStream signatureStream = contentSigner.getOutputStream();
+                signatureStream.write(data[i]);
+                signatures[i] = contentSigner.getSignature();
+            }
+            return signatures;
+        } finally {
+            returnContentSigner(contentSigner);
+        }
+    }
+
+    @Override
+    public boolean supportsBatchSigning() {
+        ContentSigner signer = signers[0];
+        return (signer instanceof BatchContentSigner)
+                && ((BatchContentSigner) signer).supportsBatchSigning();
+    }
+
+    private static int toSoTimeout(final int timeout) {
+        if (timeout < 0) {
+            return defaultSignServiceTimeout;
+        }
+        return (timeout == 0) ? -1 : timeout;
+    }
+
 }
@@ -157,6 +157,8 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
             }
         }
 
+        boolean threadAffinity = Boolean.parseBoolean(conf.getConfValue("thread-affinity"));
+
         String passwordHint = conf.getConfValue("password");
         char[] password;
         if (passwordHint == null) {
@@ -206,7 +208,7 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
             }
 
             return signerBuilder.createSigner(signatureAlgId, parallelism,
-                    securityFactory.getRandom4Sign());
+                    securityFactory.getRandom4Sign(), threadAffinity);
         } catch (NoSuchAlgorithmException | OperatorCreationException | NoSuchPaddingException
                 | XiSecurityException ex) {
             throw new ObjectCreationException(String.format("%s: %s", ex.getClass().getName(),
@@ -34,24 +34,33 @@
 
 package org.xipki.commons.security;
 
+import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
 import javax.security.auth.x500.X500Principal;
 
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.security.util.X509Util;
 
 /**
+ * Certificate together with its encoded form. It may be created either from the JCA
+ * {@link X509Certificate} or from the BouncyCastle {@link X509CertificateHolder}, the other
+ * form is created on the first request.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 public class X509Cert {
 
-    private final X509Certificate cert;
+    private volatile X509Certificate cert;
+
+    private volatile X509CertificateHolder certHolder;
 
     private final String subject;
 
@@ -91,8 +100,72 @@ public class X509Cert {
         }
     }
 
+    /**
+     * Constructor. The JCA {@link X509Certificate} is created on the first call of
+     * {@link #getCert()}.
+     *
+     * @param certHolder
+     *          Certificate. Must not be {@code null}.
+     * @param encodedCert
+     *          Encoded certificate. Could be {@code null}.
+     * @since 2.1.1
+     */
+    public X509Cert(final X509CertificateHolder certHolder, final byte[] encodedCert) {
+        this.certHolder = ParamUtil.requireNonNull("certHolder", certHolder);
+
+        this.subjectAsX500Name = certHolder.getSubject();
+        this.subject = X509Util.getRfc4519Name(subjectAsX500Name);
+        try {
+            this.subjectKeyIdentifer = (certHolder.getExtensions() == null) ? null
+                    : X509Util.extractSki(certHolder.toASN1Structure());
+        } catch (CertificateEncodingException ex) {
+            throw new RuntimeException(String.format(
+                    "CertificateEncodingException: %s", ex.getMessage()));
+        }
+
+        if (encodedCert != null) {
+            this.encodedCert = encodedCert;
+            return;
+        }
+
+        try {
+            this.encodedCert = certHolder.getEncoded();
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("IOException: %s", ex.getMessage()));
+        }
+    }
+
     public X509Certificate getCert() {
-        return cert;
+        X509Certificate tmpCert = cert;
+        if (tmpCert == null) {
+            try {
+                tmpCert = X509Util.toX509Cert(certHolder.toASN1Structure());
+            } catch (CertificateException ex) {
+                throw new RuntimeException(String.format(
+                        "CertificateException: %s", ex.getMessage()));
+            }
+            cert = tmpCert;
+        }
+        return tmpCert;
+    }
+
+    /**
+     * Returns the certificate as {@link X509CertificateHolder}, without the conversion to
+     * the JCA {@link X509Certificate}.
+     *
+     * @since 2.1.1
+     */
+    public X509CertificateHolder getCertHolder() {
+        X509CertificateHolder tmpCertHolder = certHolder;
+        if (tmpCertHolder == null) {
+            try {
+                tmpCertHolder = new X509CertificateHolder(encodedCert);
+            } catch (IOException ex) {
+                throw new RuntimeException(String.format("IOException: %s", ex.getMessage()));
+            }
+            certHolder = tmpCertHolder;
+        }
+        return tmpCertHolder;
     }
 
     public byte[] getEncodedCert() {
@@ -113,7 +186,7 @@ public class X509Cert {
 
     @Override
     public String toString() {
-        return cert.toString();
+        return getCert().toString();
     }
 
 }
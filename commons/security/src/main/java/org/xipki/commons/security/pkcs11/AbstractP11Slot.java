@@ -56,6 +56,7 @@ import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.security.HashAlgoType;
@@ -213,12 +214,20 @@ public abstract class AbstractP11Slot implements P11Slot {
         return null;
     }
 
+    @Override
+    public void putStatuses(final HealthCheckResult result) {
+        ParamUtil.requireNonNull("result", result);
+    }
+
     @Override
     public void refresh() throws P11TokenException {
         P11SlotRefreshResult res = doRefresh(); // CHECKSTYLE:SKIP
 
         mechanisms.clear();
         certificates.clear();
+        for (P11Identity identity : identities.values()) {
+            identity.invalidate();
+        }
         identities.clear();
 
         for (Long mech : res.getMechanisms()) {
@@ -417,7 +426,7 @@ public abstract class AbstractP11Slot implements P11Slot {
         if (identities.containsKey(objectId)) {
             certificates.remove(objectId);
             identities.get(objectId).setCertificates(null);
-            identities.remove(objectId);
+            identities.remove(objectId).invalidate();
             updateCaCertsOfIdentities();
         }
 
@@ -44,11 +44,11 @@ import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.RuntimeCryptoException;
-import org.bouncycastle.operator.ContentSigner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.BatchContentSigner;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.XiSecurityException;
@@ -59,17 +59,13 @@ import org.xipki.commons.security.util.SignerUtil;
  * @since 2.0.0
  */
 // CHECKSTYLE:SKIP
-class P11DSAContentSigner implements ContentSigner {
+class P11DSAContentSigner implements BatchContentSigner {
 
     private static final Logger LOG = LoggerFactory.getLogger(P11DSAContentSigner.class);
 
     private static final Map<String, HashAlgoType> sigAlgHashMap = new HashMap<>();
 
-    private static final Map<HashAlgoType, Long> hashMechMap = new HashMap<>();
-
-    private final P11CryptService cryptService;
-
-    private final P11EntityIdentifier identityId;
+    private final P11IdentityHolder identity;
 
     private final AlgorithmIdentifier algorithmIdentifier;
 
@@ -93,23 +89,14 @@ class P11DSAContentSigner implements ContentSigner {
                 HashAlgoType.SHA3_384);
         sigAlgHashMap.put(NISTObjectIdentifiers.id_dsa_with_sha3_512.getId(),
                 HashAlgoType.SHA3_512);
-
-        hashMechMap.put(HashAlgoType.SHA1, P11Constants.CKM_DSA_SHA1);
-        hashMechMap.put(HashAlgoType.SHA224, P11Constants.CKM_DSA_SHA224);
-        hashMechMap.put(HashAlgoType.SHA256, P11Constants.CKM_DSA_SHA256);
-        hashMechMap.put(HashAlgoType.SHA384, P11Constants.CKM_DSA_SHA384);
-        hashMechMap.put(HashAlgoType.SHA512, P11Constants.CKM_DSA_SHA512);
-        hashMechMap.put(HashAlgoType.SHA3_224, P11Constants.CKM_DSA_SHA3_224);
-        hashMechMap.put(HashAlgoType.SHA3_256, P11Constants.CKM_DSA_SHA3_256);
-        hashMechMap.put(HashAlgoType.SHA3_384, P11Constants.CKM_DSA_SHA3_384);
-        hashMechMap.put(HashAlgoType.SHA3_512, P11Constants.CKM_DSA_SHA3_512);
     }
 
     P11DSAContentSigner(final P11CryptService cryptService, final P11EntityIdentifier identityId,
             final AlgorithmIdentifier signatureAlgId, final boolean plain)
     throws XiSecurityException, P11TokenException {
-        this.identityId = ParamUtil.requireNonNull("identityId", identityId);
-        this.cryptService = ParamUtil.requireNonNull("cryptService", cryptService);
+        ParamUtil.requireNonNull("identityId", identityId);
+        this.identity = new P11IdentityHolder(cryptService, identityId);
+        ParamUtil.requireNonNull("cryptService", cryptService);
         this.algorithmIdentifier = ParamUtil.requireNonNull("signatureAlgId", signatureAlgId);
         this.plain = plain;
 
@@ -119,18 +106,12 @@ class P11DSAContentSigner implements ContentSigner {
             throw new XiSecurityException("unsupported signature algorithm " + algOid);
         }
 
-        P11SlotIdentifier slotId = identityId.getSlotId();
-        P11Slot slot = cryptService.getSlot(slotId);
-        if (slot.supportsMechanism(P11Constants.CKM_DSA)) {
-            this.mechanism = P11Constants.CKM_DSA;
+        P11Slot slot = cryptService.getSlot(identityId.getSlotId());
+        this.mechanism = P11SignerUtil.getDSAMechanism(slot, hashAlgo);
+        if (mechanism == P11Constants.CKM_DSA) {
             Digest digest = SignerUtil.getDigest(hashAlgo);
             this.outputStream = new DigestOutputStream(digest);
         } else {
-            this.mechanism = hashMechMap.get(hashAlgo).longValue();
-            if (!slot.supportsMechanism(this.mechanism)) {
-                throw new XiSecurityException("unsupported signature algorithm " + algOid);
-            }
-
             this.outputStream = new ByteArrayOutputStream();
         }
     }
@@ -164,7 +145,48 @@ class P11DSAContentSigner implements ContentSigner {
         }
     }
 
+    @Override
+    public boolean supportsBatchSigning() {
+        try {
+            return identity.get().supportsBatchSigning();
+        } catch (P11TokenException ex) {
+            LogUtil.warn(LOG, ex, "could not get identity");
+            return false;
+        }
+    }
+
+    @Override
+    public byte[][] getSignatures(final byte[][] data) {
+        ParamUtil.requireNonNull("data", data);
+        try {
+            byte[][] dataToSign = new byte[data.length][];
+            for (int i = 0; i < data.length; i++) {
+                getOutputStream().write(data[i]);
+                dataToSign[i] = getDataToSign();
+            }
+
+            byte[][] signatures = identity.get().sign(mechanism, null,
+                    dataToSign);
+            if (!plain) {
+                for (int i = 0; i < signatures.length; i++) {
+                    signatures[i] = SignerUtil.convertPlainDSASigToX962(signatures[i]);
+                }
+            }
+            return signatures;
+        } catch (XiSecurityException ex) {
+            LogUtil.warn(LOG, ex);
+            throw new RuntimeCryptoException("XiSecurityException: " + ex.getMessage());
+        } catch (Throwable th) {
+            LogUtil.warn(LOG, th);
+            throw new RuntimeCryptoException(th.getClass().getName() + ": " + th.getMessage());
+        }
+    }
+
     private byte[] getPlainSignature() throws XiSecurityException, P11TokenException {
+        return identity.get().sign(mechanism, null, getDataToSign());
+    }
+
+    private byte[] getDataToSign() {
         byte[] dataToSign;
         if (outputStream instanceof ByteArrayOutputStream) {
             dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
@@ -173,8 +195,7 @@ class P11DSAContentSigner implements ContentSigner {
             dataToSign = ((DigestOutputStream) outputStream).digest();
             ((DigestOutputStream) outputStream).reset();
         }
-
-        return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+        return dataToSign;
     }
 
 }
@@ -69,6 +69,8 @@ public abstract class P11Identity implements Comparable<P11Identity> {
 
     protected X509Certificate[] certificateChain;
 
+    private volatile boolean invalidated;
+
     public P11Identity(final P11Slot slot, final P11EntityIdentifier identityId,
             final PublicKey publicKey, final X509Certificate[] certificateChain) {
         this.slot = ParamUtil.requireNonNull("slot", slot);
@@ -121,6 +123,59 @@ public abstract class P11Identity implements Comparable<P11Identity> {
     protected abstract byte[] doSign(final long mechanism, @Nullable final P11Params parameters,
             @NonNull final byte[] content) throws P11TokenException, XiSecurityException;
 
+    /**
+     * Signs several contents with the same mechanism and parameters. The result is the same
+     * as signing them one by one with {@link #sign(long, P11Params, byte[])}, but backends
+     * may process all contents within one round trip to the token.
+     *
+     * @param mechanism
+     *          PKCS#11 mechanism.
+     * @param parameters
+     *          Parameters. Could be {@code null}.
+     * @param contents
+     *          Contents to be signed. Must not be {@code null}.
+     * @return signatures, in the same order as the contents.
+     * @throws P11TokenException
+     *         if PKCS#11 token error occurs.
+     * @throws XiSecurityException
+     *         if security error occurs.
+     */
+    public byte[][] sign(final long mechanism, final P11Params parameters,
+            final byte[][] contents) throws P11TokenException, XiSecurityException {
+        ParamUtil.requireNonNull("contents", contents);
+        for (byte[] content : contents) {
+            ParamUtil.requireNonNull("content", content);
+        }
+        slot.assertMechanismSupported(mechanism);
+        if (!supportsMechanism(mechanism, parameters)) {
+            throw new P11UnsupportedMechanismException(mechanism, identityId);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sign {} contents with mechanism {}", contents.length,
+                    P11Constants.getMechanismDesc(mechanism));
+        }
+        return doSign(mechanism, parameters, contents);
+    }
+
+    /**
+     * Whether {@link #sign(long, P11Params, byte[][])} signs the contents in fewer round trips
+     * to the token than one per content. Only then signing in batches pays off.
+     *
+     * @return whether the backend signs a batch of contents natively.
+     */
+    public boolean supportsBatchSigning() {
+        return false;
+    }
+
+    protected byte[][] doSign(final long mechanism, @Nullable final P11Params parameters,
+            @NonNull final byte[][] contents) throws P11TokenException, XiSecurityException {
+        byte[][] signatures = new byte[contents.length][];
+        for (int i = 0; i < contents.length; i++) {
+            signatures[i] = doSign(mechanism, parameters, contents[i]);
+        }
+        return signatures;
+    }
+
     public P11EntityIdentifier getIdentityId() {
         return identityId;
     }
@@ -159,6 +214,18 @@ public abstract class P11Identity implements Comparable<P11Identity> {
         return identityId.match(slotId, keyLabel);
     }
 
+    /**
+     * Marks this identity as no longer current, e.g. because the slot has been refreshed or
+     * the identity has been removed.
+     */
+    void invalidate() {
+        invalidated = true;
+    }
+
+    boolean isInvalidated() {
+        return invalidated;
+    }
+
     public int getSignatureKeyBitLength() {
         return signatureKeyBitLength;
     }
@@ -52,6 +52,7 @@ import org.xipki.commons.security.pkcs11.jaxb.ModuleType;
 import org.xipki.commons.security.pkcs11.jaxb.NativeLibraryType;
 import org.xipki.commons.security.pkcs11.jaxb.PasswordSetsType;
 import org.xipki.commons.security.pkcs11.jaxb.PasswordsType;
+import org.xipki.commons.security.pkcs11.jaxb.SessionPoolType;
 import org.xipki.commons.security.pkcs11.jaxb.SlotType;
 import org.xipki.commons.security.pkcs11.jaxb.SlotsType;
 
@@ -82,6 +83,14 @@ public class P11ModuleConf {
 
     private final long userType;
 
+    private final int minSessionCount;
+
+    private final int maxSessionCount;
+
+    private final long newSessionTimeout;
+
+    private final long maxSessionIdleTime;
+
     public P11ModuleConf(final ModuleType moduleType, final PasswordResolver passwordResolver)
     throws InvalidConfException {
         ParamUtil.requireNonNull("moduleType", moduleType);
@@ -93,6 +102,30 @@ public class P11ModuleConf {
             throw new InvalidConfException("invalid maxMessageSize (< 128): " + maxMessageSize);
         }
 
+        // Session pool
+        SessionPoolType sessionPool = moduleType.getSessionPool();
+        if (sessionPool == null) {
+            sessionPool = new SessionPoolType();
+        }
+        this.minSessionCount = sessionPool.getMinSessions().intValue();
+        this.maxSessionCount = sessionPool.getMaxSessions().intValue();
+        this.newSessionTimeout = sessionPool.getNewSessionTimeout().longValue();
+        this.maxSessionIdleTime = sessionPool.getMaxIdleTime().longValue();
+        if (minSessionCount < 1) {
+            throw new InvalidConfException("invalid minSessions (< 1): " + minSessionCount);
+        }
+        if (maxSessionCount != 0 && maxSessionCount < minSessionCount) {
+            throw new InvalidConfException("invalid maxSessions (< minSessions): "
+                    + maxSessionCount);
+        }
+        if (newSessionTimeout < 0) {
+            throw new InvalidConfException("invalid newSessionTimeout (< 0): "
+                    + newSessionTimeout);
+        }
+        if (maxSessionIdleTime < 0) {
+            throw new InvalidConfException("invalid maxIdleTime (< 0): " + maxSessionIdleTime);
+        }
+
         // Mechanism filter
         mechanismFilter = new P11MechanismFilter();
         MechanismSetsType mechsList = moduleType.getMechanismSets();
@@ -187,6 +220,26 @@ public class P11ModuleConf {
         return maxMessageSize;
     }
 
+    public int getMinSessionCount() {
+        return minSessionCount;
+    }
+
+    /**
+     *
+     * @return maximal number of sessions, 0 if it should be derived from the token.
+     */
+    public int getMaxSessionCount() {
+        return maxSessionCount;
+    }
+
+    public long getNewSessionTimeout() {
+        return newSessionTimeout;
+    }
+
+    public long getMaxSessionIdleTime() {
+        return maxSessionIdleTime;
+    }
+
     public boolean isReadOnly() {
         return readOnly;
     }
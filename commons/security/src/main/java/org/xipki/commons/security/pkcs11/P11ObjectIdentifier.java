@@ -55,10 +55,14 @@ public class P11ObjectIdentifier implements Comparable<P11ObjectIdentifier> {
 
     private final String label;
 
+    // the identifier is the key for the lookup of identities for each signature
+    private final int hashCode;
+
     public P11ObjectIdentifier(@NonNull final byte[] id, @NonNull final String label) {
         this.id = ParamUtil.requireNonNull("id", id);
         this.label = ParamUtil.requireNonNull("label", label);
         this.idHex = Hex.toHexString(id).toUpperCase();
+        this.hashCode = new BigInteger(1, id).hashCode() + 31 * label.hashCode();
     }
 
     public byte[] getId() {
@@ -90,8 +94,6 @@ public class P11ObjectIdentifier implements Comparable<P11ObjectIdentifier> {
 
     @Override
     public int hashCode() {
-        int hashCode = new BigInteger(1, id).hashCode();
-        hashCode += 31 * label.hashCode();
         return hashCode;
     }
 
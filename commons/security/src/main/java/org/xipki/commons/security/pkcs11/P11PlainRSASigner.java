@@ -50,6 +50,8 @@ public class P11PlainRSASigner implements AsymmetricBlockCipher {
 
     private P11RSAKeyParameter param;
 
+    private P11IdentityHolder identity;
+
     public P11PlainRSASigner() {
     }
 
@@ -64,6 +66,7 @@ public class P11PlainRSASigner implements AsymmetricBlockCipher {
                     "invalid param type " + cipherParam.getClass().getName());
         }
         this.param = (P11RSAKeyParameter) cipherParam;
+        this.identity = new P11IdentityHolder(param.getP11CryptService(), param.getIdentityId());
     }
 
     @Override
@@ -83,8 +86,7 @@ public class P11PlainRSASigner implements AsymmetricBlockCipher {
         System.arraycopy(in, inOff, content, content.length - len, len);
 
         try {
-            P11Identity identity = param.getP11CryptService().getIdentity(param.getIdentityId());
-            return identity.sign(P11Constants.CKM_RSA_X_509, null, content);
+            return identity.get().sign(P11Constants.CKM_RSA_X_509, null, content);
         } catch (XiSecurityException | P11TokenException ex) {
             throw new InvalidCipherTextException(ex.getMessage(), ex);
         }
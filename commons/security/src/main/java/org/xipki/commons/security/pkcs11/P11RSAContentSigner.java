@@ -35,6 +35,7 @@
 package org.xipki.commons.security.pkcs11;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.security.interfaces.RSAPublicKey;
 
@@ -44,11 +45,11 @@ import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.RuntimeCryptoException;
-import org.bouncycastle.operator.ContentSigner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.BatchContentSigner;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.XiSecurityException;
@@ -59,7 +60,7 @@ import org.xipki.commons.security.util.SignerUtil;
  * @since 2.0.0
  */
 //CHECKSTYLE:SKIP
-class P11RSAContentSigner implements ContentSigner {
+class P11RSAContentSigner implements BatchContentSigner {
 
     private static final Logger LOG = LoggerFactory.getLogger(P11RSAContentSigner.class);
 
@@ -69,9 +70,7 @@ class P11RSAContentSigner implements ContentSigner {
 
     private final OutputStream outputStream;
 
-    private final P11CryptService cryptService;
-
-    private final P11EntityIdentifier identityId;
+    private final P11IdentityHolder identity;
 
     private final byte[] digestPkcsPrefix;
 
@@ -80,8 +79,9 @@ class P11RSAContentSigner implements ContentSigner {
     P11RSAContentSigner(final P11CryptService cryptService, final P11EntityIdentifier identityId,
             final AlgorithmIdentifier signatureAlgId)
     throws XiSecurityException, P11TokenException {
-        this.cryptService = ParamUtil.requireNonNull("cryptService", cryptService);
-        this.identityId = ParamUtil.requireNonNull("identityId", identityId);
+        ParamUtil.requireNonNull("cryptService", cryptService);
+        ParamUtil.requireNonNull("identityId", identityId);
+        this.identity = new P11IdentityHolder(cryptService, identityId);
         this.algorithmIdentifier = ParamUtil.requireNonNull("signatureAlgId", signatureAlgId);
 
         ASN1ObjectIdentifier algOid = signatureAlgId.getAlgorithm();
@@ -108,52 +108,10 @@ class P11RSAContentSigner implements ContentSigner {
             throw new XiSecurityException("unsupported signature algorithm " + algOid.getId());
         }
 
-        P11SlotIdentifier slotId = identityId.getSlotId();
-        P11Slot slot = cryptService.getSlot(slotId);
-        if (slot.supportsMechanism(P11Constants.CKM_RSA_PKCS)) {
-            this.mechanism = P11Constants.CKM_RSA_PKCS;
-        } else if (slot.supportsMechanism(P11Constants.CKM_RSA_X_509)) {
-            this.mechanism = P11Constants.CKM_RSA_X_509;
-        } else {
-            switch (hashAlgo) {
-            case SHA1:
-                this.mechanism = P11Constants.CKM_SHA1_RSA_PKCS;
-                break;
-            case SHA224:
-                this.mechanism = P11Constants.CKM_SHA224_RSA_PKCS;
-                break;
-            case SHA256:
-                this.mechanism = P11Constants.CKM_SHA256_RSA_PKCS;
-                break;
-            case SHA384:
-                this.mechanism = P11Constants.CKM_SHA384_RSA_PKCS;
-                break;
-            case SHA512:
-                this.mechanism = P11Constants.CKM_SHA512_RSA_PKCS;
-                break;
-            case SHA3_224:
-                this.mechanism = P11Constants.CKM_SHA3_224_RSA_PKCS;
-                break;
-            case SHA3_256:
-                this.mechanism = P11Constants.CKM_SHA3_256_RSA_PKCS;
-                break;
-            case SHA3_384:
-                this.mechanism = P11Constants.CKM_SHA3_384_RSA_PKCS;
-                break;
-            case SHA3_512:
-                this.mechanism = P11Constants.CKM_SHA3_512_RSA_PKCS;
-                break;
-            default:
-                throw new RuntimeException("should not reach here, unknown HashAlgoType "
-                        + hashAlgo);
-            }
-
-            if (!slot.supportsMechanism(this.mechanism)) {
-                throw new XiSecurityException("unsupported signature algorithm " + algOid.getId());
-            }
-        }
+        P11Slot slot = cryptService.getSlot(identityId.getSlotId());
+        this.mechanism = P11SignerUtil.getRSAPkcsMechanism(slot, hashAlgo);
 
-        if (mechanism == P11Constants.CKM_RSA_PKCS || mechanism == P11Constants.CKM_RSA_X_509) {
+        if (P11SignerUtil.isHashOnHost(mechanism)) {
             this.digestPkcsPrefix = SignerUtil.getDigestPkcsPrefix(hashAlgo);
             Digest digest = SignerUtil.getDigest(hashAlgo);
             this.outputStream = new DigestOutputStream(digest);
@@ -162,7 +120,7 @@ class P11RSAContentSigner implements ContentSigner {
             this.outputStream = new ByteArrayOutputStream();
         }
 
-        RSAPublicKey rsaPubKey = (RSAPublicKey) cryptService.getIdentity(identityId).getPublicKey();
+        RSAPublicKey rsaPubKey = (RSAPublicKey) identity.get().getPublicKey();
         this.modulusBitLen = rsaPubKey.getModulus().bitLength();
     }
 
@@ -183,6 +141,42 @@ class P11RSAContentSigner implements ContentSigner {
 
     @Override
     public byte[] getSignature() {
+        try {
+            byte[] dataToSign = getDataToSign();
+            return identity.get().sign(mechanism, null, dataToSign);
+        } catch (XiSecurityException | P11TokenException ex) {
+            LogUtil.error(LOG, ex, "could not sign");
+            throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public boolean supportsBatchSigning() {
+        try {
+            return identity.get().supportsBatchSigning();
+        } catch (P11TokenException ex) {
+            LogUtil.warn(LOG, ex, "could not get identity");
+            return false;
+        }
+    }
+
+    @Override
+    public byte[][] getSignatures(final byte[][] data) {
+        ParamUtil.requireNonNull("data", data);
+        try {
+            byte[][] dataToSign = new byte[data.length][];
+            for (int i = 0; i < data.length; i++) {
+                getOutputStream().write(data[i]);
+                dataToSign[i] = getDataToSign();
+            }
+            return identity.get().sign(mechanism, null, dataToSign);
+        } catch (IOException | XiSecurityException | P11TokenException ex) {
+            LogUtil.error(LOG, ex, "could not sign");
+            throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
+        }
+    }
+
+    private byte[] getDataToSign() throws XiSecurityException {
         byte[] dataToSign;
         if (outputStream instanceof ByteArrayOutputStream) {
             dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
@@ -195,16 +189,10 @@ class P11RSAContentSigner implements ContentSigner {
             System.arraycopy(hashValue, 0, dataToSign, digestPkcsPrefix.length, hashValue.length);
         }
 
-        try {
-            if (mechanism == P11Constants.CKM_RSA_X_509) {
-                dataToSign = SignerUtil.EMSA_PKCS1_v1_5_encoding(dataToSign, modulusBitLen);
-            }
-
-            return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
-        } catch (XiSecurityException | P11TokenException ex) {
-            LogUtil.error(LOG, ex, "could not sign");
-            throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
+        if (mechanism == P11Constants.CKM_RSA_X_509) {
+            dataToSign = SignerUtil.EMSA_PKCS1_v1_5_encoding(dataToSign, modulusBitLen);
         }
+        return dataToSign;
     }
 
 }
@@ -51,11 +51,11 @@ import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.bouncycastle.crypto.params.ParametersWithRandom;
 import org.bouncycastle.crypto.signers.PSSSigner;
-import org.bouncycastle.operator.ContentSigner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.BatchContentSigner;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.XiSecurityException;
@@ -66,7 +66,7 @@ import org.xipki.commons.security.util.SignerUtil;
  * @since 2.0.0
  */
 // CHECKSTYLE:SKIP
-class P11RSAPSSContentSigner implements ContentSigner {
+class P11RSAPSSContentSigner implements BatchContentSigner {
     // CHECKSTYLE:SKIP
     private static class PSSSignerOutputStream extends OutputStream {
 
@@ -115,9 +115,7 @@ class P11RSAPSSContentSigner implements ContentSigner {
 
     private final AlgorithmIdentifier algorithmIdentifier;
 
-    private final P11CryptService cryptService;
-
-    private final P11EntityIdentifier identityId;
+    private final P11IdentityHolder identity;
 
     private final long mechanism;
 
@@ -128,8 +126,9 @@ class P11RSAPSSContentSigner implements ContentSigner {
     P11RSAPSSContentSigner(final P11CryptService cryptService, final P11EntityIdentifier identityId,
             final AlgorithmIdentifier signatureAlgId, final SecureRandom random)
     throws XiSecurityException, P11TokenException {
-        this.cryptService = ParamUtil.requireNonNull("cryptService", cryptService);
-        this.identityId = ParamUtil.requireNonNull("identityId", identityId);
+        ParamUtil.requireNonNull("cryptService", cryptService);
+        ParamUtil.requireNonNull("identityId", identityId);
+        this.identity = new P11IdentityHolder(cryptService, identityId);
         this.algorithmIdentifier = ParamUtil.requireNonNull("signatureAlgId", signatureAlgId);
         ParamUtil.requireNonNull("random", random);
 
@@ -145,15 +144,13 @@ class P11RSAPSSContentSigner implements ContentSigner {
             throw new XiSecurityException("unsupported hash algorithm " + digestAlgOid.getId());
         }
 
-        P11SlotIdentifier slotId = identityId.getSlotId();
-        P11Slot slot = cryptService.getSlot(slotId);
-        if (slot.supportsMechanism(P11Constants.CKM_RSA_PKCS_PSS)) {
-            this.mechanism = P11Constants.CKM_RSA_PKCS_PSS;
+        P11Slot slot = cryptService.getSlot(identityId.getSlotId());
+        this.mechanism = P11SignerUtil.getRSAPssMechanism(slot, hashAlgo);
+        if (mechanism == P11Constants.CKM_RSA_PKCS_PSS) {
             this.parameters = new P11RSAPkcsPssParams(asn1Params);
             Digest digest = SignerUtil.getDigest(hashAlgo);
             this.outputStream = new DigestOutputStream(digest);
-        } else if (slot.supportsMechanism(P11Constants.CKM_RSA_X_509)) {
-            this.mechanism = P11Constants.CKM_RSA_X_509;
+        } else if (mechanism == P11Constants.CKM_RSA_X_509) {
             this.parameters = null;
             AsymmetricBlockCipher cipher = new P11PlainRSASigner();
             P11RSAKeyParameter keyParam;
@@ -166,44 +163,6 @@ class P11RSAPSSContentSigner implements ContentSigner {
             pssSigner.init(true, new ParametersWithRandom(keyParam, random));
             this.outputStream = new PSSSignerOutputStream(pssSigner);
         } else {
-            switch (hashAlgo) {
-            case SHA1:
-                this.mechanism = P11Constants.CKM_SHA1_RSA_PKCS_PSS;
-                break;
-            case SHA224:
-                this.mechanism = P11Constants.CKM_SHA224_RSA_PKCS_PSS;
-                break;
-            case SHA256:
-                this.mechanism = P11Constants.CKM_SHA256_RSA_PKCS_PSS;
-                break;
-            case SHA384:
-                this.mechanism = P11Constants.CKM_SHA384_RSA_PKCS_PSS;
-                break;
-            case SHA512:
-                this.mechanism = P11Constants.CKM_SHA512_RSA_PKCS_PSS;
-                break;
-            case SHA3_224:
-                this.mechanism = P11Constants.CKM_SHA3_224_RSA_PKCS_PSS;
-                break;
-            case SHA3_256:
-                this.mechanism = P11Constants.CKM_SHA3_256_RSA_PKCS_PSS;
-                break;
-            case SHA3_384:
-                this.mechanism = P11Constants.CKM_SHA3_384_RSA_PKCS_PSS;
-                break;
-            case SHA3_512:
-                this.mechanism = P11Constants.CKM_SHA3_512_RSA_PKCS_PSS;
-                break;
-            default:
-                throw new RuntimeException("should not reach here, unknown HashAlgoType "
-                        + hashAlgo);
-            }
-
-            if (!slot.supportsMechanism(this.mechanism)) {
-                throw new XiSecurityException("unsupported signature algorithm "
-                        + PKCSObjectIdentifiers.id_RSASSA_PSS.getId() + " with " + hashAlgo);
-            }
-
             this.parameters = new P11RSAPkcsPssParams(asn1Params);
             this.outputStream = new ByteArrayOutputStream();
         }
@@ -238,20 +197,58 @@ class P11RSAPSSContentSigner implements ContentSigner {
             }
         }
 
-        byte[] dataToSign;
-        if (outputStream instanceof ByteArrayOutputStream) {
-            dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
-        } else {
-            dataToSign = ((DigestOutputStream) outputStream).digest();
+        byte[] dataToSign = getDataToSign();
+        try {
+            return identity.get().sign(mechanism, parameters, dataToSign);
+        } catch (XiSecurityException | P11TokenException ex) {
+            LogUtil.warn(LOG, ex, "could not sign");
+            throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
         }
 
+    }
+
+    @Override
+    public boolean supportsBatchSigning() {
         try {
-            return cryptService.getIdentity(identityId).sign(mechanism, parameters, dataToSign);
-        } catch (XiSecurityException | P11TokenException ex) {
+            return identity.get().supportsBatchSigning();
+        } catch (P11TokenException ex) {
+            LogUtil.warn(LOG, ex, "could not get identity");
+            return false;
+        }
+    }
+
+    @Override
+    public byte[][] getSignatures(final byte[][] data) {
+        ParamUtil.requireNonNull("data", data);
+        try {
+            if (outputStream instanceof PSSSignerOutputStream) {
+                // the padding is computed here, only the raw RSA operation is done by the token
+                byte[][] signatures = new byte[data.length][];
+                for (int i = 0; i < data.length; i++) {
+                    getOutputStream().write(data[i]);
+                    signatures[i] = getSignature();
+                }
+                return signatures;
+            }
+
+            byte[][] dataToSign = new byte[data.length][];
+            for (int i = 0; i < data.length; i++) {
+                getOutputStream().write(data[i]);
+                dataToSign[i] = getDataToSign();
+            }
+            return identity.get().sign(mechanism, parameters, dataToSign);
+        } catch (IOException | XiSecurityException | P11TokenException ex) {
             LogUtil.warn(LOG, ex, "could not sign");
             throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
         }
+    }
 
+    private byte[] getDataToSign() {
+        if (outputStream instanceof ByteArrayOutputStream) {
+            return ((ByteArrayOutputStream) outputStream).toByteArray();
+        } else {
+            return ((DigestOutputStream) outputStream).digest();
+        }
     }
 
 }
@@ -0,0 +1,191 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.commons.security.exception.XiSecurityException;
+
+/**
+ * Selects the PKCS#11 mechanism used by the P11 content signers. The mechanisms which sign
+ * a hash computed on the host (CKM_RSA_PKCS, CKM_RSA_X_509, CKM_RSA_PKCS_PSS, CKM_ECDSA and
+ * CKM_DSA) are preferred, so that only the DigestInfo or the raw hash is sent to the token.
+ * The mechanisms which hash on the token are used only if the slot does not advertise any
+ * hash-on-host mechanism for the key type.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+final class P11SignerUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(P11SignerUtil.class);
+
+    private static final Map<HashAlgoType, Long> rsaPkcsMechMap = new HashMap<>();
+
+    private static final Map<HashAlgoType, Long> rsaPssMechMap = new HashMap<>();
+
+    private static final Map<HashAlgoType, Long> dsaMechMap = new HashMap<>();
+
+    private static final Map<HashAlgoType, Long> ecdsaMechMap = new HashMap<>();
+
+    private static final Set<String> loggedModes = ConcurrentHashMap.newKeySet();
+
+    static {
+        rsaPkcsMechMap.put(HashAlgoType.SHA1, P11Constants.CKM_SHA1_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA224, P11Constants.CKM_SHA224_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA256, P11Constants.CKM_SHA256_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA384, P11Constants.CKM_SHA384_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA512, P11Constants.CKM_SHA512_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA3_224, P11Constants.CKM_SHA3_224_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA3_256, P11Constants.CKM_SHA3_256_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA3_384, P11Constants.CKM_SHA3_384_RSA_PKCS);
+        rsaPkcsMechMap.put(HashAlgoType.SHA3_512, P11Constants.CKM_SHA3_512_RSA_PKCS);
+
+        rsaPssMechMap.put(HashAlgoType.SHA1, P11Constants.CKM_SHA1_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA224, P11Constants.CKM_SHA224_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA256, P11Constants.CKM_SHA256_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA384, P11Constants.CKM_SHA384_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA512, P11Constants.CKM_SHA512_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA3_224, P11Constants.CKM_SHA3_224_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA3_256, P11Constants.CKM_SHA3_256_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA3_384, P11Constants.CKM_SHA3_384_RSA_PKCS_PSS);
+        rsaPssMechMap.put(HashAlgoType.SHA3_512, P11Constants.CKM_SHA3_512_RSA_PKCS_PSS);
+
+        dsaMechMap.put(HashAlgoType.SHA1, P11Constants.CKM_DSA_SHA1);
+        dsaMechMap.put(HashAlgoType.SHA224, P11Constants.CKM_DSA_SHA224);
+        dsaMechMap.put(HashAlgoType.SHA256, P11Constants.CKM_DSA_SHA256);
+        dsaMechMap.put(HashAlgoType.SHA384, P11Constants.CKM_DSA_SHA384);
+        dsaMechMap.put(HashAlgoType.SHA512, P11Constants.CKM_DSA_SHA512);
+        dsaMechMap.put(HashAlgoType.SHA3_224, P11Constants.CKM_DSA_SHA3_224);
+        dsaMechMap.put(HashAlgoType.SHA3_256, P11Constants.CKM_DSA_SHA3_256);
+        dsaMechMap.put(HashAlgoType.SHA3_384, P11Constants.CKM_DSA_SHA3_384);
+        dsaMechMap.put(HashAlgoType.SHA3_512, P11Constants.CKM_DSA_SHA3_512);
+
+        ecdsaMechMap.put(HashAlgoType.SHA1, P11Constants.CKM_ECDSA_SHA1);
+        ecdsaMechMap.put(HashAlgoType.SHA224, P11Constants.CKM_ECDSA_SHA224);
+        ecdsaMechMap.put(HashAlgoType.SHA256, P11Constants.CKM_ECDSA_SHA256);
+        ecdsaMechMap.put(HashAlgoType.SHA384, P11Constants.CKM_ECDSA_SHA384);
+        ecdsaMechMap.put(HashAlgoType.SHA512, P11Constants.CKM_ECDSA_SHA512);
+        ecdsaMechMap.put(HashAlgoType.SHA3_224, P11Constants.CKM_ECDSA_SHA3_224);
+        ecdsaMechMap.put(HashAlgoType.SHA3_256, P11Constants.CKM_ECDSA_SHA3_256);
+        ecdsaMechMap.put(HashAlgoType.SHA3_384, P11Constants.CKM_ECDSA_SHA3_384);
+        ecdsaMechMap.put(HashAlgoType.SHA3_512, P11Constants.CKM_ECDSA_SHA3_512);
+    }
+
+    private P11SignerUtil() {
+    }
+
+    static boolean isHashOnHost(final long mechanism) {
+        return mechanism == P11Constants.CKM_RSA_PKCS
+                || mechanism == P11Constants.CKM_RSA_X_509
+                || mechanism == P11Constants.CKM_RSA_PKCS_PSS
+                || mechanism == P11Constants.CKM_ECDSA
+                || mechanism == P11Constants.CKM_DSA;
+    }
+
+    // CHECKSTYLE:SKIP
+    static long getRSAPkcsMechanism(final P11Slot slot, final HashAlgoType hashAlgo)
+    throws XiSecurityException {
+        return getMechanism(slot, hashAlgo, rsaPkcsMechMap,
+                P11Constants.CKM_RSA_PKCS, P11Constants.CKM_RSA_X_509);
+    }
+
+    // CHECKSTYLE:SKIP
+    static long getRSAPssMechanism(final P11Slot slot, final HashAlgoType hashAlgo)
+    throws XiSecurityException {
+        return getMechanism(slot, hashAlgo, rsaPssMechMap,
+                P11Constants.CKM_RSA_PKCS_PSS, P11Constants.CKM_RSA_X_509);
+    }
+
+    // CHECKSTYLE:SKIP
+    static long getDSAMechanism(final P11Slot slot, final HashAlgoType hashAlgo)
+    throws XiSecurityException {
+        return getMechanism(slot, hashAlgo, dsaMechMap, P11Constants.CKM_DSA);
+    }
+
+    // CHECKSTYLE:SKIP
+    static long getECDSAMechanism(final P11Slot slot, final HashAlgoType hashAlgo)
+    throws XiSecurityException {
+        return getMechanism(slot, hashAlgo, ecdsaMechMap, P11Constants.CKM_ECDSA);
+    }
+
+    private static long getMechanism(final P11Slot slot, final HashAlgoType hashAlgo,
+            final Map<HashAlgoType, Long> hashOnTokenMechMap, final long... hashOnHostMechs)
+    throws XiSecurityException {
+        ParamUtil.requireNonNull("slot", slot);
+        ParamUtil.requireNonNull("hashAlgo", hashAlgo);
+
+        for (long mech : hashOnHostMechs) {
+            if (slot.supportsMechanism(mech)) {
+                logMode(slot, hashAlgo, mech, true);
+                return mech;
+            }
+        }
+
+        Long mech = hashOnTokenMechMap.get(hashAlgo);
+        if (mech == null || !slot.supportsMechanism(mech.longValue())) {
+            throw new XiSecurityException("slot " + slot.getSlotId()
+                    + " supports no mechanism to sign with " + hashAlgo);
+        }
+
+        logMode(slot, hashAlgo, mech.longValue(), false);
+        return mech.longValue();
+    }
+
+    private static void logMode(final P11Slot slot, final HashAlgoType hashAlgo,
+            final long mechanism, final boolean hashOnHost) {
+        String mechName = P11Constants.getMechanismName(mechanism);
+        if (!loggedModes.add(slot.getModuleName() + "/" + slot.getSlotId() + "/" + mechName)) {
+            return;
+        }
+
+        if (hashOnHost) {
+            LOG.info("slot {}: hash {} on host, sign with {} on token", slot.getSlotId(),
+                    hashAlgo, mechName);
+        } else {
+            LOG.warn("slot {}: no hash-on-host mechanism advertised, the whole content is sent"
+                    + " to the token and signed with {}", slot.getSlotId(), mechName);
+        }
+    }
+
+}
@@ -43,6 +43,7 @@ import java.util.Set;
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.P11UnknownEntityException;
 import org.xipki.commons.security.exception.P11UnsupportedMechanismException;
@@ -69,6 +70,16 @@ public interface P11Slot {
 
     void close();
 
+    /**
+     * Puts the runtime statistics of this slot, e.g. the sessions in use, the time waited for
+     * sessions and the signature latency, as statuses into the health check result.
+     *
+     * @param result
+     *          Health check result. Must not be {@code null}.
+     * @since 2.1.1
+     */
+    void putStatuses(@NonNull HealthCheckResult result);
+
     Set<Long> getMechanisms();
 
     boolean supportsMechanism(long mechanism);
@@ -115,9 +115,7 @@ public class IaikP11Module extends AbstractP11Module {
             } catch (PasswordResolverException ex) {
                 throw new P11TokenException("PasswordResolverException: " + ex.getMessage(), ex);
             }
-            P11Slot p11Slot = new IaikP11Slot(moduleConf.getName(), slotId, slot,
-                    moduleConf.isReadOnly(), moduleConf.getUserType(), pwd,
-                    moduleConf.getMaxMessageSize(), moduleConf.getP11MechanismFilter());
+            P11Slot p11Slot = new IaikP11Slot(moduleConf, slotId, slot, pwd);
 
             slots.add(p11Slot);
         }
@@ -43,13 +43,18 @@ import java.security.spec.DSAPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jdt.annotation.NonNull;
 
@@ -60,6 +65,7 @@ import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.common.util.CollectionUtil;
 import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
@@ -71,7 +77,7 @@ import org.xipki.commons.security.pkcs11.AbstractP11Slot;
 import org.xipki.commons.security.pkcs11.P11Constants;
 import org.xipki.commons.security.pkcs11.P11EntityIdentifier;
 import org.xipki.commons.security.pkcs11.P11Identity;
-import org.xipki.commons.security.pkcs11.P11MechanismFilter;
+import org.xipki.commons.security.pkcs11.P11ModuleConf;
 import org.xipki.commons.security.pkcs11.P11ObjectIdentifier;
 import org.xipki.commons.security.pkcs11.P11Params;
 import org.xipki.commons.security.pkcs11.P11RSAPkcsPssParams;
@@ -102,6 +108,7 @@ import iaik.pkcs.pkcs11.objects.RSAPublicKey;
 import iaik.pkcs.pkcs11.objects.Storage;
 import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
 import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 
 /**
@@ -112,8 +119,30 @@ class IaikP11Slot extends AbstractP11Slot {
 
     private static final Logger LOG = LoggerFactory.getLogger(IaikP11Slot.class);
 
+    private static class IdleSession {
+
+        private final Session session;
+
+        private final long idleSince;
+
+        IdleSession(final Session session) {
+            this.session = session;
+            this.idleSince = System.nanoTime();
+        }
+
+    } // class IdleSession
+
     private static final long DEFAULT_MAX_COUNT_SESSION = 32;
 
+    /*
+     * Error codes indicating that the session is no longer usable, e.g. after the restart or
+     * failover of the HSM.
+     */
+    private static final Set<Long> INVALID_SESSION_ERRORS = new HashSet<>(Arrays.asList(
+            PKCS11Constants.CKR_SESSION_HANDLE_INVALID, PKCS11Constants.CKR_SESSION_CLOSED,
+            PKCS11Constants.CKR_DEVICE_ERROR, PKCS11Constants.CKR_DEVICE_REMOVED,
+            PKCS11Constants.CKR_TOKEN_NOT_PRESENT, PKCS11Constants.CKR_USER_NOT_LOGGED_IN));
+
     private final int maxMessageSize;
 
     private Slot slot;
@@ -122,29 +151,51 @@ class IaikP11Slot extends AbstractP11Slot {
 
     private List<char[]> password;
 
-    private int maxSessionCount;
+    private final int minSessionCount;
+
+    private final int maxSessionCount;
+
+    private final long newSessionTimeout;
 
-    private long timeOutWaitNewSession = 10000; // maximal wait for 10 second
+    private final long maxSessionIdleTime;
 
-    private final AtomicLong countSessions = new AtomicLong(0);
+    private final AtomicInteger countSessions = new AtomicInteger(0);
 
-    private final BlockingDeque<Session> idleSessions = new LinkedBlockingDeque<>();
+    /*
+     * Recently returned sessions are at the head, so that the sessions at the tail can be
+     * closed once they have been idle for longer than maxSessionIdleTime.
+     */
+    private final BlockingDeque<IdleSession> idleSessions = new LinkedBlockingDeque<>();
 
-    private final BlockingDeque<Session> busySessions = new LinkedBlockingDeque<>();
+    private final Set<Session> busySessions = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder borrowCount = new LongAdder();
+
+    private final LongAdder borrowTimeoutCount = new LongAdder();
+
+    private final LongAdder borrowWaitNanos = new LongAdder();
+
+    private final LongAdder invalidSessionCount = new LongAdder();
+
+    private final LongAdder signCount = new LongAdder();
+
+    private final LongAdder signNanos = new LongAdder();
 
     private boolean writableSessionInUse;
 
     private Session writableSession;
 
-    IaikP11Slot(final String moduleName, final P11SlotIdentifier slotId, final Slot slot,
-            final boolean readOnly, final long userType, final List<char[]> password,
-            final int maxMessageSize, final P11MechanismFilter mechanismFilter)
-    throws P11TokenException {
-        super(moduleName, slotId, readOnly, mechanismFilter);
+    IaikP11Slot(final P11ModuleConf moduleConf, final P11SlotIdentifier slotId, final Slot slot,
+            final List<char[]> password) throws P11TokenException {
+        super(moduleConf.getName(), slotId, moduleConf.isReadOnly(),
+                moduleConf.getP11MechanismFilter());
         this.slot = ParamUtil.requireNonNull("slot", slot);
-        this.maxMessageSize = ParamUtil.requireMin("maxMessageSize", maxMessageSize, 1);
-        this.userType = ParamUtil.requireMin("userType", userType, 0);
+        this.maxMessageSize = ParamUtil.requireMin("maxMessageSize",
+                moduleConf.getMaxMessageSize(), 1);
+        this.userType = ParamUtil.requireMin("userType", moduleConf.getUserType(), 0);
         this.password = password;
+        this.newSessionTimeout = moduleConf.getNewSessionTimeout();
+        this.maxSessionIdleTime = moduleConf.getMaxSessionIdleTime();
 
         Session session;
         try {
@@ -183,10 +234,18 @@ class IaikP11Slot extends AbstractP11Slot {
             // 2 sessions as buffer, they may be used elsewhere.
             maxSessionCount2 = (maxSessionCount2 < 3) ? 1 : maxSessionCount2 - 2;
         }
+
+        if (moduleConf.getMaxSessionCount() > 0) {
+            maxSessionCount2 = Math.min(maxSessionCount2, moduleConf.getMaxSessionCount());
+        }
         this.maxSessionCount = (int) maxSessionCount2;
-        LOG.info("maxSessionCount: {}", this.maxSessionCount);
+        this.minSessionCount = Math.min(moduleConf.getMinSessionCount(), maxSessionCount);
+        LOG.info("slot {}: minSessionCount: {}, maxSessionCount: {}", slotId, minSessionCount,
+                maxSessionCount);
 
-        idleSessions.addLast(session);
+        countSessions.incrementAndGet();
+        idleSessions.addFirst(new IdleSession(session));
+        prewarmSessions();
         refresh();
     } // constructor
 
@@ -258,8 +317,8 @@ class IaikP11Slot extends AbstractP11Slot {
                     writableSession.closeSession();
                 }
 
-                for (Session session : idleSessions) {
-                    session.closeSession();
+                for (IdleSession idleSession : idleSessions) {
+                    idleSession.session.closeSession();
                 }
             } catch (Throwable th) {
                 LogUtil.error(LOG, th, "could not slot.getToken().closeAllSessions()");
@@ -271,6 +330,12 @@ class IaikP11Slot extends AbstractP11Slot {
         // clear the session pool
         idleSessions.clear();
         countSessions.lazySet(0);
+
+        LOG.info("slot {}: {} sessions borrowed ({} timeouts, waited {} ms), {} invalid sessions"
+                + " discarded, {} signatures (average {} us)", slotId, getBorrowCount(),
+                getBorrowTimeoutCount(), getBorrowWaitNanos() / 1000000,
+                invalidSessionCount.sum(), getSignCount(),
+                (getSignCount() == 0) ? 0 : getSignNanos() / 1000 / getSignCount());
     }
 
     private void analyseSingleKey(final PrivateKey privKey,
@@ -306,36 +371,47 @@ class IaikP11Slot extends AbstractP11Slot {
         ParamUtil.requireNonNull("content", content);
         assertMechanismSupported(mechanism);
 
-        int len = content.length;
-        if (len <= maxMessageSize) {
-            return singleSign(mechanism, parameters, content, identity);
+        long start = System.nanoTime();
+        try {
+            if (content.length <= maxMessageSize) {
+                return singleSign(mechanism, parameters, content, identity);
+            } else {
+                return multipartSign(mechanism, parameters, content, identity);
+            }
+        } finally {
+            signCount.increment();
+            signNanos.add(System.nanoTime() - start);
         }
+    }
 
+    private byte[] multipartSign(final long mechanism, final P11Params parameters,
+            final byte[] content, final IaikP11Identity identity) throws P11TokenException {
         PrivateKey signingKey = identity.getPrivateKey();
         Mechanism mechanismObj = getMechanism(mechanism, parameters);
         if (LOG.isTraceEnabled()) {
             LOG.debug("sign (init, update, then finish) with private key:\n{}", signingKey);
         }
 
-        Session session = borrowIdleSession();
-        if (session == null) {
-            throw new P11TokenException("no idle session available");
-        }
+        final int len = content.length;
+        for (int attempt = 1; ; attempt++) {
+            Session session = borrowIdleSession();
+            boolean invalidSession = false;
+            try {
+                session.signInit(mechanismObj, signingKey);
+                for (int i = 0; i < len; i += maxMessageSize) {
+                    int blockLen = Math.min(maxMessageSize, len - i);
+                    session.signUpdate(content, i, blockLen);
+                }
 
-        try {
-            session.signInit(mechanismObj, signingKey);
-            for (int i = 0; i < len; i += maxMessageSize) {
-                int blockLen = Math.min(maxMessageSize, len - i);
-                //byte[] block = new byte[blockLen];
-                //System.arraycopy(content, i, block, 0, blockLen);
-                session.signUpdate(content, i, blockLen);
+                return session.signFinal(identity.getExpectedSignatureLen());
+            } catch (TokenException ex) {
+                invalidSession = isInvalidSession(ex);
+                if (!invalidSession || attempt > 1) {
+                    throw new P11TokenException(ex);
+                }
+            } finally {
+                releaseSession(session, invalidSession);
             }
-
-            return session.signFinal(identity.getExpectedSignatureLen());
-        } catch (TokenException e) {
-            throw new P11TokenException(e);
-        } finally {
-            returnIdleSession(session);
         }
     }
 
@@ -347,27 +423,29 @@ class IaikP11Slot extends AbstractP11Slot {
             LOG.debug("sign with private key:\n{}", signingKey);
         }
 
-        Session session = borrowIdleSession();
-        if (session == null) {
-            throw new P11TokenException("no idle session available");
-        }
+        for (int attempt = 1; ; attempt++) {
+            Session session = borrowIdleSession();
+            boolean invalidSession = false;
+            try {
+                byte[] signature;
+                synchronized (session) {
+                    session.signInit(mechanismObj, signingKey);
+                    signature = session.sign(content);
+                }
 
-        byte[] signature;
-        try {
-            synchronized (session) {
-                session.signInit(mechanismObj, signingKey);
-                signature = session.sign(content);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("signature:\n{}", Hex.toHexString(signature));
+                }
+                return signature;
+            } catch (TokenException ex) {
+                invalidSession = isInvalidSession(ex);
+                if (!invalidSession || attempt > 1) {
+                    throw new P11TokenException(ex.getMessage(), ex);
+                }
+            } finally {
+                releaseSession(session, invalidSession);
             }
-        } catch (TokenException ex) {
-            throw new P11TokenException(ex.getMessage(), ex);
-        } finally {
-            returnIdleSession(session);
-        }
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("signature:\n{}", Hex.toHexString(signature));
         }
-        return signature;
     }
 
     private static Mechanism getMechanism(final long mechanism, final P11Params parameters)
@@ -397,33 +475,98 @@ class IaikP11Slot extends AbstractP11Slot {
         } catch (TokenException ex) {
             throw new P11TokenException(ex.getMessage(), ex);
         }
-        countSessions.incrementAndGet();
         return session;
     }
 
-    private Session borrowIdleSession() throws P11TokenException {
-        Session session = null;
-        if (countSessions.get() < maxSessionCount) {
-            session = idleSessions.poll();
-            if (session == null) {
-                // create new session
+    private void prewarmSessions() {
+        while (countSessions.get() < minSessionCount) {
+            countSessions.incrementAndGet();
+            Session session;
+            try {
                 session = openSession(false);
+                login(session);
+            } catch (P11TokenException ex) {
+                countSessions.decrementAndGet();
+                LogUtil.warn(LOG, ex, "could not pre-open session on slot " + slotId);
+                return;
             }
+            idleSessions.addLast(new IdleSession(session));
         }
+    }
 
-        if (session == null) {
+    /**
+     * Borrows an idle session, or opens a new one if the pool is not full. The session is
+     * validated via C_GetSessionInfo, invalid sessions are discarded and replaced.
+     */
+    private Session borrowIdleSession() throws P11TokenException {
+        borrowCount.increment();
+
+        // at most all sessions in the pool may be invalid, e.g. after the restart of the HSM.
+        final int maxAttempts = maxSessionCount + 1;
+        for (int i = 0; i < maxAttempts; i++) {
+            Session session = takeSession();
+            busySessions.add(session);
+
+            SessionInfo sessionInfo;
             try {
-                session = idleSessions.poll(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+                sessionInfo = session.getSessionInfo();
+            } catch (TokenException ex) {
+                discardSession(session, ex);
+                continue;
+            }
+
+            try {
+                login(session, sessionInfo);
+            } catch (P11TokenException ex) {
+                returnIdleSession(session);
+                throw ex;
             }
+            return session;
         }
 
-        if (session == null) {
+        throw new P11TokenException("could not borrow any valid session from slot " + slotId);
+    }
+
+    private Session takeSession() throws P11TokenException {
+        IdleSession idleSession = idleSessions.pollFirst();
+        if (idleSession != null) {
+            return idleSession.session;
+        }
+
+        // open new session if the pool is not full
+        int count;
+        while ((count = countSessions.get()) < maxSessionCount) {
+            if (countSessions.compareAndSet(count, count + 1)) {
+                try {
+                    return openSession(false);
+                } catch (P11TokenException ex) {
+                    countSessions.decrementAndGet();
+                    throw ex;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            idleSession = idleSessions.pollFirst(newSessionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+        } finally {
+            borrowWaitNanos.add(System.nanoTime() - start);
+        }
+
+        if (idleSession == null) {
+            borrowTimeoutCount.increment();
             throw new P11TokenException("no idle session");
         }
-        busySessions.addLast(session);
-        login(session);
-        return session;
+        return idleSession.session;
+    }
+
+    private void releaseSession(final Session session, final boolean invalidSession) {
+        if (invalidSession) {
+            discardSession(session, null);
+        } else {
+            returnIdleSession(session);
+        }
     }
 
     private void returnIdleSession(final Session session) {
@@ -433,7 +576,7 @@ class IaikP11Slot extends AbstractP11Slot {
 
         boolean isBusySession = busySessions.remove(session);
         if (isBusySession) {
-            idleSessions.addLast(session);
+            idleSessions.addFirst(new IdleSession(session));
         } else {
             final String msg =
                     "session has not been borrowed before or has been returned more than once: "
@@ -441,6 +584,150 @@ class IaikP11Slot extends AbstractP11Slot {
             LOG.error(msg);
             throw new IllegalStateException(msg);
         }
+
+        evictIdleSessions();
+    }
+
+    private void discardSession(final Session session, final TokenException cause) {
+        if (!busySessions.remove(session)) {
+            return;
+        }
+
+        countSessions.decrementAndGet();
+        invalidSessionCount.increment();
+        String msg = "discarded invalid session " + session.getSessionHandle() + " of slot "
+                + slotId;
+        if (cause == null) {
+            LOG.warn(msg);
+        } else {
+            LOG.warn(msg + ": " + cause.getMessage());
+        }
+        closeQuietly(session);
+    }
+
+    private void evictIdleSessions() {
+        if (maxSessionIdleTime <= 0) {
+            return;
+        }
+
+        final long idleSinceThreshold =
+                System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxSessionIdleTime);
+        while (countSessions.get() > minSessionCount) {
+            IdleSession oldest = idleSessions.peekLast();
+            if (oldest == null || oldest.idleSince - idleSinceThreshold > 0) {
+                return;
+            }
+
+            if (!idleSessions.removeLastOccurrence(oldest)) {
+                // borrowed in the meantime
+                return;
+            }
+            countSessions.decrementAndGet();
+            LOG.debug("close idle session {} of slot {}", oldest.session.getSessionHandle(),
+                    slotId);
+            closeQuietly(oldest.session);
+        }
+    }
+
+    private static void closeQuietly(final Session session) {
+        try {
+            session.closeSession();
+        } catch (Throwable th) {
+            LOG.debug("could not close session {}: {}", session.getSessionHandle(),
+                    th.getMessage());
+        }
+    }
+
+    private static boolean isInvalidSession(final TokenException ex) {
+        return (ex instanceof PKCS11Exception)
+                && INVALID_SESSION_ERRORS.contains(((PKCS11Exception) ex).getErrorCode());
+    }
+
+    @Override
+    public void putStatuses(final HealthCheckResult result) {
+        ParamUtil.requireNonNull("result", result);
+        result.putStatus("sessions", getNumberOfSessions());
+        result.putStatus("sessionsInUse", getNumberOfBusySessions());
+        result.putStatus("sessionBorrows", getBorrowCount());
+        result.putStatus("sessionBorrowTimeouts", getBorrowTimeoutCount());
+        result.putStatus("sessionWaitMs", getBorrowWaitNanos() / 1000000);
+        result.putStatus("invalidSessions", getInvalidSessionCount());
+        long count = getSignCount();
+        result.putStatus("signatures", count);
+        result.putStatus("signLatencyUs", (count == 0) ? 0 : getSignNanos() / 1000 / count);
+    }
+
+    /**
+     * Gets the number of open sessions, including the sessions in use.
+     *
+     * @return the number of open sessions.
+     */
+    public int getNumberOfSessions() {
+        return countSessions.get();
+    }
+
+    /**
+     * Gets the number of sessions currently borrowed.
+     *
+     * @return the number of sessions in use.
+     */
+    public int getNumberOfBusySessions() {
+        return busySessions.size();
+    }
+
+    /**
+     * Gets the number of borrowed sessions since the initialization of this slot.
+     *
+     * @return the number of borrows.
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * Gets the number of borrows which failed since no session became available within the
+     * timeout.
+     *
+     * @return the number of timed out borrows.
+     */
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.sum();
+    }
+
+    /**
+     * Gets the total time the borrowers waited for a session.
+     *
+     * @return the total waiting time in nanoseconds.
+     */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.sum();
+    }
+
+    /**
+     * Gets the number of sessions discarded since they were no longer valid.
+     *
+     * @return the number of discarded sessions.
+     */
+    public long getInvalidSessionCount() {
+        return invalidSessionCount.sum();
+    }
+
+    /**
+     * Gets the number of signatures created by this slot.
+     *
+     * @return the number of signatures.
+     */
+    public long getSignCount() {
+        return signCount.sum();
+    }
+
+    /**
+     * Gets the total time spent in creating signatures.
+     *
+     * @return the total signing time in nanoseconds.
+     */
+    public long getSignNanos() {
+        return signNanos.sum();
     }
 
     private void firstLogin(final Session session, final List<char[]> password)
@@ -470,7 +757,18 @@ class IaikP11Slot extends AbstractP11Slot {
     }
 
     private void login(final Session session) throws P11TokenException {
-        boolean isSessionLoggedIn = checkSessionLoggedIn(session);
+        SessionInfo sessionInfo;
+        try {
+            sessionInfo = session.getSessionInfo();
+        } catch (TokenException ex) {
+            throw new P11TokenException(ex.getMessage(), ex);
+        }
+        login(session, sessionInfo);
+    }
+
+    private void login(final Session session, final SessionInfo sessionInfo)
+    throws P11TokenException {
+        boolean isSessionLoggedIn = checkSessionLoggedIn(sessionInfo);
         if (isSessionLoggedIn) {
             return;
         }
@@ -580,13 +878,7 @@ class IaikP11Slot extends AbstractP11Slot {
         }
     }
 
-    private static boolean checkSessionLoggedIn(final Session session) throws P11TokenException {
-        SessionInfo info;
-        try {
-            info = session.getSessionInfo();
-        } catch (TokenException ex) {
-            throw new P11TokenException(ex.getMessage(), ex);
-        }
+    private static boolean checkSessionLoggedIn(final SessionInfo info) {
         if (LOG.isTraceEnabled()) {
             LOG.debug("SessionInfo: {}", info);
         }
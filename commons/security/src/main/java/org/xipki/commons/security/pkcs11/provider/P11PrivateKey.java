@@ -42,6 +42,7 @@ import java.security.interfaces.RSAPublicKey;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import org.xipki.commons.common.HealthCheckResult;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.security.exception.P11TokenException;
 import org.xipki.commons.security.exception.XiSecurityException;
@@ -119,6 +120,19 @@ public class P11PrivateKey implements PrivateKey {
         return p11CryptService.getIdentity(identityId).sign(mechanism, parameters, content);
     }
 
+    /**
+     * Puts the runtime statistics of the slot holding this key into the health check result.
+     *
+     * @param result
+     *          Health check result. Must not be {@code null}.
+     * @throws P11TokenException
+     *         if the slot is not available.
+     * @since 2.1.1
+     */
+    public void putSlotStatuses(final HealthCheckResult result) throws P11TokenException {
+        p11CryptService.getSlot(identityId.getSlotId()).putStatuses(result);
+    }
+
     P11CryptService getP11CryptService() {
         return p11CryptService;
     }
@@ -50,6 +50,7 @@ import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.NullDigest;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.commons.security.pkcs11.P11Constants;
+import org.xipki.commons.security.util.SignerUtil;
 
 /**
  * @author Lijun Liao
@@ -154,6 +155,8 @@ public class P11RSADigestSignatureSpi extends SignatureSpi {
 
     private P11PrivateKey signingKey;
 
+    private long mechanism;
+
     protected P11RSADigestSignatureSpi(final Digest digest) {
         this.digest = digest;
         this.digestAlgId = null;
@@ -181,8 +184,18 @@ public class P11RSADigestSignatureSpi extends SignatureSpi {
             throw new InvalidKeyException("privateKey is not an RSA private key: " + algo);
         }
 
+        P11PrivateKey p11Key = (P11PrivateKey) privateKey;
+        if (p11Key.supportsMechanism(P11Constants.CKM_RSA_PKCS)) {
+            mechanism = P11Constants.CKM_RSA_PKCS;
+        } else if (p11Key.supportsMechanism(P11Constants.CKM_RSA_X_509)) {
+            mechanism = P11Constants.CKM_RSA_X_509;
+        } else {
+            throw new InvalidKeyException(
+                    "privateKey supports neither CKM_RSA_PKCS nor CKM_RSA_X_509");
+        }
+
         digest.reset();
-        this.signingKey = (P11PrivateKey) privateKey;
+        this.signingKey = p11Key;
     }
 
     @Override
@@ -203,7 +216,10 @@ public class P11RSADigestSignatureSpi extends SignatureSpi {
 
         try {
             byte[] bytes = derEncode(hash);
-            return signingKey.sign(P11Constants.CKM_RSA_PKCS, null, bytes);
+            if (mechanism == P11Constants.CKM_RSA_X_509) {
+                bytes = SignerUtil.EMSA_PKCS1_v1_5_encoding(bytes, signingKey.getKeysize());
+            }
+            return signingKey.sign(mechanism, null, bytes);
         } catch (ArrayIndexOutOfBoundsException ex) {
             throw new SignatureException("key too small for signature type");
         } catch (Exception ex) {
@@ -0,0 +1,138 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11.proxy;
+
+import java.io.IOException;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.xipki.commons.security.exception.BadAsn1ObjectException;
+
+/**
+ * Request frame of the socket transport.
+ *
+ * <pre>
+ * SocketRequest ::= SEQUENCE {
+ *     requestId      INTEGER,
+ *     version        INTEGER,
+ *     action         INTEGER,
+ *     value          ANY OPTIONAL
+ *     }
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class Asn1SocketRequest extends ASN1Object {
+
+    private final long requestId;
+
+    private final int version;
+
+    private final int action;
+
+    private final ASN1Encodable value;
+
+    public Asn1SocketRequest(final long requestId, final int version, final int action,
+            final ASN1Encodable value) {
+        this.requestId = requestId;
+        this.version = version;
+        this.action = action;
+        this.value = value;
+    }
+
+    private Asn1SocketRequest(final ASN1Sequence seq) throws BadAsn1ObjectException {
+        Asn1Util.requireRange(seq, 3, 4);
+        int idx = 0;
+        this.requestId = Asn1Util.getInteger(seq.getObjectAt(idx++)).longValue();
+        this.version = Asn1Util.getInteger(seq.getObjectAt(idx++)).intValue();
+        this.action = Asn1Util.getInteger(seq.getObjectAt(idx++)).intValue();
+        this.value = (seq.size() > idx) ? seq.getObjectAt(idx++) : null;
+    }
+
+    public static Asn1SocketRequest getInstance(final Object obj) throws BadAsn1ObjectException {
+        if (obj == null || obj instanceof Asn1SocketRequest) {
+            return (Asn1SocketRequest) obj;
+        }
+
+        try {
+            if (obj instanceof ASN1Sequence) {
+                return new Asn1SocketRequest((ASN1Sequence) obj);
+            } else if (obj instanceof byte[]) {
+                return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+            } else {
+                throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+        ASN1EncodableVector vector = new ASN1EncodableVector();
+        vector.add(new ASN1Integer(requestId));
+        vector.add(new ASN1Integer(version));
+        vector.add(new ASN1Integer(action));
+        if (value != null) {
+            vector.add(value);
+        }
+        return new DERSequence(vector);
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    public ASN1Encodable getValue() {
+        return value;
+    }
+
+}
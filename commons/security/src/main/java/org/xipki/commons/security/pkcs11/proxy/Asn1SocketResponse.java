@@ -0,0 +1,175 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11.proxy;
+
+import java.io.IOException;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.exception.BadAsn1ObjectException;
+
+/**
+ * Response frame of the socket transport. The error has the same format as the status string
+ * of the rejected CMP responses, e.g. {@code P11_UNKNOWN_ENTITY=<message>}.
+ *
+ * <pre>
+ * SocketResponse ::= SEQUENCE {
+ *     requestId      INTEGER,
+ *     action         INTEGER,
+ *     result         CHOICE {
+ *         value          [0] EXPLICIT ANY,
+ *         error          [1] EXPLICIT UTF8String
+ *         } OPTIONAL
+ *     }
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class Asn1SocketResponse extends ASN1Object {
+
+    private static final int TAG_VALUE = 0;
+
+    private static final int TAG_ERROR = 1;
+
+    private final long requestId;
+
+    private final int action;
+
+    private final ASN1Encodable value;
+
+    private final String error;
+
+    private Asn1SocketResponse(final long requestId, final int action, final ASN1Encodable value,
+            final String error) {
+        this.requestId = requestId;
+        this.action = action;
+        this.value = value;
+        this.error = error;
+    }
+
+    private Asn1SocketResponse(final ASN1Sequence seq) throws BadAsn1ObjectException {
+        Asn1Util.requireRange(seq, 2, 3);
+        int idx = 0;
+        this.requestId = Asn1Util.getInteger(seq.getObjectAt(idx++)).longValue();
+        this.action = Asn1Util.getInteger(seq.getObjectAt(idx++)).intValue();
+        if (seq.size() > idx) {
+            ASN1TaggedObject result = ASN1TaggedObject.getInstance(seq.getObjectAt(idx++));
+            int tag = result.getTagNo();
+            if (tag == TAG_VALUE) {
+                this.value = result.getObject();
+                this.error = null;
+            } else if (tag == TAG_ERROR) {
+                this.value = null;
+                this.error = Asn1Util.getUtf8String(result.getObject());
+            } else {
+                throw new BadAsn1ObjectException("unknown tag of result: " + tag);
+            }
+        } else {
+            this.value = null;
+            this.error = null;
+        }
+    }
+
+    public static Asn1SocketResponse getSuccessInstance(final long requestId, final int action,
+            final ASN1Encodable value) {
+        return new Asn1SocketResponse(requestId, action, value, null);
+    }
+
+    public static Asn1SocketResponse getErrorInstance(final long requestId, final int action,
+            final String error) {
+        ParamUtil.requireNonNull("error", error);
+        return new Asn1SocketResponse(requestId, action, null, error);
+    }
+
+    public static Asn1SocketResponse getInstance(final Object obj) throws BadAsn1ObjectException {
+        if (obj == null || obj instanceof Asn1SocketResponse) {
+            return (Asn1SocketResponse) obj;
+        }
+
+        try {
+            if (obj instanceof ASN1Sequence) {
+                return new Asn1SocketResponse((ASN1Sequence) obj);
+            } else if (obj instanceof byte[]) {
+                return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+            } else {
+                throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+        ASN1EncodableVector vector = new ASN1EncodableVector();
+        vector.add(new ASN1Integer(requestId));
+        vector.add(new ASN1Integer(action));
+        if (error != null) {
+            vector.add(new DERTaggedObject(true, TAG_ERROR, new DERUTF8String(error)));
+        } else if (value != null) {
+            vector.add(new DERTaggedObject(true, TAG_VALUE, value));
+        }
+        return new DERSequence(vector);
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    public ASN1Encodable getValue() {
+        return value;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+}
@@ -73,8 +73,17 @@ public class P11ProxyConstants {
 
     public static final int ACTION_getMechanisms = 6;
 
+    /**
+     * Only used by the socket transport, must be the first request of a connection. The value
+     * of the request is the module name as UTF8String, the value of the response is the
+     * {@link ServerCaps} as UTF8String.
+     */
+    public static final int ACTION_getServerCaps = 7;
+
     public static final int ACTION_sign = 20;
 
+    public static final int ACTION_signBatch = 21;
+
     public static final int ACTION_genKeypair_RSA = 30;
 
     public static final int ACTION_genKeypair_DSA = 31;
@@ -36,11 +36,14 @@ package org.xipki.commons.security.pkcs11.proxy;
 
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DEROctetString;
 import org.xipki.commons.security.exception.P11TokenException;
+import org.xipki.commons.security.exception.XiSecurityException;
 import org.xipki.commons.security.pkcs11.P11EntityIdentifier;
 import org.xipki.commons.security.pkcs11.P11Identity;
 import org.xipki.commons.security.pkcs11.P11Params;
@@ -54,6 +57,9 @@ import org.xipki.commons.security.pkcs11.P11Slot;
 
 class ProxyP11Identity extends P11Identity {
 
+    private final ConcurrentHashMap<Long, ProxyP11SignPipeline> signPipelines =
+            new ConcurrentHashMap<>();
+
     ProxyP11Identity(final P11Slot slot, final P11EntityIdentifier entityId,
             final PublicKey publicKey, final X509Certificate[] certificateChain) {
         super(slot, entityId, publicKey, certificateChain);
@@ -62,16 +68,43 @@ class ProxyP11Identity extends P11Identity {
     @Override
     protected byte[] doSign(final long mechanism, final P11Params parameters, final byte[] content)
     throws P11TokenException {
-        Asn1P11EntityIdentifier asn1EntityId = new Asn1P11EntityIdentifier(identityId);
-        Asn1P11Params p11Param = null;
-        if (parameters instanceof P11RSAPkcsPssParams) {
-            p11Param = new Asn1P11Params(
-                    new Asn1RSAPkcsPssParams((P11RSAPkcsPssParams) parameters));
+        ProxyP11Module module = getModule();
+        if (parameters != null || !module.isSignBatch()) {
+            return sendSign(mechanism, parameters, content);
         }
-        Asn1SignTemplate signTemplate = new Asn1SignTemplate(asn1EntityId, mechanism, p11Param,
-                content);
-        ASN1Encodable result = ((ProxyP11Slot) slot).getModule().send(P11ProxyConstants.ACTION_sign,
-                signTemplate);
+
+        ProxyP11SignPipeline pipeline = signPipelines.get(mechanism);
+        if (pipeline == null) {
+            pipeline = new ProxyP11SignPipeline(this, mechanism, module.getPipelinePermits(),
+                    module.getBatchSize());
+            ProxyP11SignPipeline existing = signPipelines.putIfAbsent(mechanism, pipeline);
+            if (existing != null) {
+                pipeline = existing;
+            }
+        }
+        return pipeline.sign(content);
+    }
+
+    @Override
+    protected byte[][] doSign(final long mechanism, final P11Params parameters,
+            final byte[][] contents) throws P11TokenException, XiSecurityException {
+        if (contents.length < 2 || !getModule().isSignBatch()) {
+            return super.doSign(mechanism, parameters, contents);
+        }
+
+        return sendSignBatch(mechanism, parameters, contents);
+    }
+
+    @Override
+    public boolean supportsBatchSigning() {
+        return getModule().isSignBatch();
+    }
+
+    byte[] sendSign(final long mechanism, final P11Params parameters, final byte[] content)
+    throws P11TokenException {
+        Asn1SignTemplate signTemplate = new Asn1SignTemplate(getAsn1EntityId(), mechanism,
+                getAsn1Params(parameters), content);
+        ASN1Encodable result = getModule().send(P11ProxyConstants.ACTION_sign, signTemplate);
 
         ASN1OctetString octetString;
         try {
@@ -83,4 +116,49 @@ class ProxyP11Identity extends P11Identity {
         return (octetString == null) ? null : octetString.getOctets();
     }
 
+    byte[][] sendSignBatch(final long mechanism, final P11Params parameters,
+            final byte[][] contents) throws P11TokenException {
+        Asn1SignBatchTemplate signTemplate = new Asn1SignBatchTemplate(getAsn1EntityId(),
+                mechanism, getAsn1Params(parameters), contents);
+        ASN1Encodable result = getModule().send(P11ProxyConstants.ACTION_signBatch,
+                signTemplate);
+
+        if (!(result instanceof ASN1Sequence)) {
+            throw new P11TokenException("the returned result is not SEQUENCE");
+        }
+
+        ASN1Sequence seq = (ASN1Sequence) result;
+        final int n = seq.size();
+        if (n != contents.length) {
+            throw new P11TokenException("expected " + contents.length
+                    + " signatures, but received " + n);
+        }
+
+        byte[][] signatures = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            try {
+                signatures[i] = DEROctetString.getInstance(seq.getObjectAt(i)).getOctets();
+            } catch (IllegalArgumentException ex) {
+                throw new P11TokenException("the returned signature is not OCTET STRING");
+            }
+        }
+        return signatures;
+    }
+
+    private ProxyP11Module getModule() {
+        return ((ProxyP11Slot) slot).getModule();
+    }
+
+    private Asn1P11EntityIdentifier getAsn1EntityId() {
+        return new Asn1P11EntityIdentifier(identityId);
+    }
+
+    private static Asn1P11Params getAsn1Params(final P11Params parameters) {
+        if (parameters instanceof P11RSAPkcsPssParams) {
+            return new Asn1P11Params(
+                    new Asn1RSAPkcsPssParams((P11RSAPkcsPssParams) parameters));
+        }
+        return null;
+    }
+
 }
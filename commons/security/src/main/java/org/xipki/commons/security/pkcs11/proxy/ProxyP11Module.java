@@ -40,11 +40,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -88,6 +91,19 @@ import org.xipki.commons.security.pkcs11.P11SlotIdentifier;
 import org.xipki.commons.security.util.CmpFailureUtil;
 
 /**
+ * The module path has the form {@code proxy:url=<url>[,pipeline-depth=<n>][,batch-size=<n>]}.
+ * If the server supports {@link P11ProxyConstants#ACTION_signBatch}, concurrent sign
+ * operations of an identity with the same mechanism are sent as one request. At most
+ * {@code pipeline-depth} (default {@value #DFLT_PIPELINE_DEPTH}) of such requests are in flight
+ * at the same time, each with at most {@code batch-size} (default {@value #DFLT_BATCH_SIZE})
+ * contents. Since the HTTP connections are kept alive and reused by the JRE, the pipeline depth
+ * should not exceed the system property {@code http.maxConnections} (default 5).
+ *
+ * <p>Instead of CMP over HTTP(S), the binary socket transport over TLS with client
+ * authentication is used if the url has the form {@code tls://<host>:<port>/<module>}. All requests
+ * share one connection, the optional {@code timeout} specifies how long to wait for a response
+ * in milliseconds (default {@value #DFLT_SOCKET_TIMEOUT}).
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
@@ -102,6 +118,12 @@ public class ProxyP11Module extends AbstractP11Module {
 
     private static final String CMP_RESPONSE_MIMETYPE = "application/pkixcmp";
 
+    private static final int DFLT_PIPELINE_DEPTH = 5;
+
+    private static final int DFLT_BATCH_SIZE = 32;
+
+    private static final int DFLT_SOCKET_TIMEOUT = 60000; // 1 minute
+
     private final GeneralName sender = P11ProxyConstants.REMOTE_P11_CMP_CLIENT;
 
     private final GeneralName recipient = P11ProxyConstants.REMOTE_P11_CMP_SERVER;
@@ -114,8 +136,16 @@ public class ProxyP11Module extends AbstractP11Module {
 
     private URL getCapsUrl;
 
+    private ProxyP11SocketClient socketClient;
+
     private boolean readOnly;
 
+    private boolean signBatch;
+
+    private final Semaphore pipelinePermits;
+
+    private final int batchSize;
+
     private ProxyP11Module(final P11ModuleConf moduleConf) throws P11TokenException {
         super(moduleConf);
 
@@ -127,6 +157,18 @@ public class ProxyP11Module extends AbstractP11Module {
 
         ConfPairs confPairs = new ConfPairs(modulePath.substring(PREFIX.length()));
         String urlStr = confPairs.getValue("url");
+
+        int pipelineDepth = getPositiveInt(confPairs, "pipeline-depth", DFLT_PIPELINE_DEPTH);
+        this.pipelinePermits = new Semaphore(pipelineDepth);
+        this.batchSize = getPositiveInt(confPairs, "batch-size", DFLT_BATCH_SIZE);
+
+        if (StringUtil.startsWithIgnoreCase(urlStr, "tls://")) {
+            int timeout = getPositiveInt(confPairs, "timeout", DFLT_SOCKET_TIMEOUT);
+            socketClient = newSocketClient(urlStr, timeout);
+            refresh();
+            return;
+        }
+
         try {
             serverUrl = new URL(urlStr);
         } catch (MalformedURLException ex) {
@@ -142,6 +184,46 @@ public class ProxyP11Module extends AbstractP11Module {
         refresh();
     }
 
+    private static ProxyP11SocketClient newSocketClient(final String urlStr, final int timeout) {
+        URI uri;
+        try {
+            uri = new URI(urlStr);
+        } catch (URISyntaxException ex) {
+            throw new IllegalArgumentException("invalid url: " + urlStr);
+        }
+
+        String host = uri.getHost();
+        int port = uri.getPort();
+        String path = uri.getPath();
+        String moduleName = (path == null || path.length() < 2) ? null : path.substring(1);
+        if (host == null || port == -1 || StringUtil.isBlank(moduleName)
+                || moduleName.indexOf('/') != -1) {
+            throw new IllegalArgumentException("invalid url: " + urlStr);
+        }
+
+        return new ProxyP11SocketClient(host, port, moduleName, timeout);
+    }
+
+    private static int getPositiveInt(final ConfPairs confPairs, final String name,
+            final int defaultValue) {
+        String str = confPairs.getValue(name);
+        if (str == null) {
+            return defaultValue;
+        }
+
+        int value;
+        try {
+            value = Integer.parseInt(str);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid " + name + ": " + str);
+        }
+
+        if (value < 1) {
+            throw new IllegalArgumentException("invalid " + name + ": " + str);
+        }
+        return value;
+    }
+
     public static P11Module getInstance(final P11ModuleConf moduleConf) throws P11TokenException {
         ParamUtil.requireNonNull("moduleConf", moduleConf);
         return new ProxyP11Module(moduleConf);
@@ -161,6 +243,9 @@ public class ProxyP11Module extends AbstractP11Module {
                     "Server does not support any version supported by the client");
         }
         this.readOnly = caps.isReadOnly();
+        this.signBatch = caps.isSignBatch();
+        LOG.info("server {} supports signBatch: {}",
+                (socketClient == null) ? serverUrl : socketClient, signBatch);
 
         ASN1Encodable resp = send(P11ProxyConstants.ACTION_getSlotIds, null);
         if (!(resp instanceof ASN1Sequence)) {
@@ -207,6 +292,22 @@ public class ProxyP11Module extends AbstractP11Module {
                 LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
             }
         }
+
+        if (socketClient != null) {
+            socketClient.close();
+        }
+    }
+
+    boolean isSignBatch() {
+        return signBatch;
+    }
+
+    Semaphore getPipelinePermits() {
+        return pipelinePermits;
+    }
+
+    int getBatchSize() {
+        return batchSize;
     }
 
     byte[] send(final byte[] request) throws IOException {
@@ -219,7 +320,7 @@ public class ProxyP11Module extends AbstractP11Module {
 
         httpUrlConnection.setRequestMethod("POST");
         httpUrlConnection.setRequestProperty("Content-Type", CMP_REQUEST_MIMETYPE);
-        httpUrlConnection.setRequestProperty("Content-Length", java.lang.Integer.toString(size));
+        httpUrlConnection.setFixedLengthStreamingMode(size);
         OutputStream outputstream = httpUrlConnection.getOutputStream();
         outputstream.write(request);
         outputstream.flush();
@@ -230,7 +331,12 @@ public class ProxyP11Module extends AbstractP11Module {
         } catch (IOException ex) {
             InputStream errStream = httpUrlConnection.getErrorStream();
             if (errStream != null) {
-                errStream.close();
+                // read the error body completely, so that the connection can be reused
+                try {
+                    IoUtil.read(errStream);
+                } catch (IOException ex2) {
+                    LOG.debug("could not read the error stream: {}", ex2.getMessage());
+                }
             }
             throw ex;
         }
@@ -265,6 +371,10 @@ public class ProxyP11Module extends AbstractP11Module {
     } // method send
 
     ASN1Encodable send(final int action, final ASN1Encodable content) throws P11TokenException {
+        if (socketClient != null) {
+            return socketClient.send(version, action, content);
+        }
+
         ASN1EncodableVector vec = new ASN1EncodableVector();
         vec.add(new ASN1Integer(version));
         vec.add(new ASN1Integer(action));
@@ -331,6 +441,10 @@ public class ProxyP11Module extends AbstractP11Module {
     }
 
     private ServerCaps getServerCaps() throws P11TokenException {
+        if (socketClient != null) {
+            return socketClient.getServerCaps();
+        }
+
         byte[] respBytes;
         try {
             HttpURLConnection conn = IoUtil.openHttpConn(getCapsUrl);
@@ -366,22 +480,9 @@ public class ProxyP11Module extends AbstractP11Module {
                         + CmpFailureUtil.formatPkiStatusInfo(statusInfo));
             }
 
-            if (failureInfo.startsWith(P11ProxyConstants.ERROR_P11_TOKENERROR)) {
-                ConfPairs pairs = new ConfPairs(failureInfo);
-                String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_P11_TOKENERROR);
-                throw new P11TokenException(errorMesage);
-            } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_UNKNOWN_ENTITY)) {
-                ConfPairs pairs = new ConfPairs(failureInfo);
-                String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_UNKNOWN_ENTITY);
-                throw new P11UnknownEntityException(errorMesage);
-            } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM)) {
-                ConfPairs pairs = new ConfPairs(failureInfo);
-                String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM);
-                throw new P11UnsupportedMechanismException(errorMesage);
-            } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_DUPLICATE_ENTITY)) {
-                ConfPairs pairs = new ConfPairs(failureInfo);
-                String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM);
-                throw new P11DuplicateEntityException(errorMesage);
+            P11TokenException p11Ex = toP11TokenException(failureInfo);
+            if (p11Ex != null) {
+                throw p11Ex;
             } else {
                 throw new P11TokenException("server answered with ERROR: "
                         + CmpFailureUtil.formatPkiStatusInfo(statusInfo));
@@ -437,6 +538,35 @@ public class ProxyP11Module extends AbstractP11Module {
         }
     } // method extractItvInfoValue
 
+    /**
+     * Converts the failure information sent by the server to an exception.
+     *
+     * @param failureInfo
+     *          failure information, e.g. {@code P11_UNKNOWN_ENTITY=<message>}.
+     * @return the exception, or {@code null} if the failure information has no known type.
+     */
+    static P11TokenException toP11TokenException(final String failureInfo) {
+        if (failureInfo.startsWith(P11ProxyConstants.ERROR_P11_TOKENERROR)) {
+            ConfPairs pairs = new ConfPairs(failureInfo);
+            String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_P11_TOKENERROR);
+            return new P11TokenException(errorMesage);
+        } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_UNKNOWN_ENTITY)) {
+            ConfPairs pairs = new ConfPairs(failureInfo);
+            String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_UNKNOWN_ENTITY);
+            return new P11UnknownEntityException(errorMesage);
+        } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM)) {
+            ConfPairs pairs = new ConfPairs(failureInfo);
+            String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_UNSUPPORTED_MECHANISM);
+            return new P11UnsupportedMechanismException(errorMesage);
+        } else if (failureInfo.startsWith(P11ProxyConstants.ERROR_DUPLICATE_ENTITY)) {
+            ConfPairs pairs = new ConfPairs(failureInfo);
+            String errorMesage = pairs.getValue(P11ProxyConstants.ERROR_DUPLICATE_ENTITY);
+            return new P11DuplicateEntityException(errorMesage);
+        } else {
+            return null;
+        }
+    }
+
     private void checkResponseCode(final HttpURLConnection conn) throws P11TokenException {
         ParamUtil.requireNonNull("conn", conn);
         try {
@@ -0,0 +1,163 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.exception.P11TokenException;
+
+/**
+ * Combines concurrent sign operations of one identity and mechanism into
+ * {@link P11ProxyConstants#ACTION_signBatch} requests.
+ *
+ * <p>A caller queues its content and, if one of the pipeline permits of the module is free,
+ * sends the queued contents (its own and those of other callers) until the queue is empty.
+ * Otherwise it waits until another caller has sent its content. A caller always re-checks the
+ * queue after releasing its permit, so that no queued content is left behind.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class ProxyP11SignPipeline {
+
+    private static class PendingSign {
+
+        private final byte[] content;
+
+        private final CompletableFuture<byte[]> signature = new CompletableFuture<>();
+
+        PendingSign(final byte[] content) {
+            this.content = content;
+        }
+
+    } // class PendingSign
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyP11SignPipeline.class);
+
+    private final ProxyP11Identity identity;
+
+    private final long mechanism;
+
+    private final Semaphore permits;
+
+    private final int batchSize;
+
+    private final Queue<PendingSign> queue = new ConcurrentLinkedQueue<>();
+
+    ProxyP11SignPipeline(final ProxyP11Identity identity, final long mechanism,
+            final Semaphore permits, final int batchSize) {
+        this.identity = ParamUtil.requireNonNull("identity", identity);
+        this.mechanism = mechanism;
+        this.permits = ParamUtil.requireNonNull("permits", permits);
+        this.batchSize = ParamUtil.requireMin("batchSize", batchSize, 1);
+    }
+
+    byte[] sign(final byte[] content) throws P11TokenException {
+        PendingSign pending = new PendingSign(content);
+        queue.add(pending);
+
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            try {
+                sendQueued();
+            } finally {
+                permits.release();
+            }
+        }
+
+        try {
+            return pending.signature.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new P11TokenException("interrupted while waiting for the signature");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof P11TokenException) {
+                throw (P11TokenException) cause;
+            }
+            throw new P11TokenException(cause.getMessage(), cause);
+        }
+    }
+
+    private void sendQueued() {
+        List<PendingSign> batch = new ArrayList<>(batchSize);
+        while (true) {
+            PendingSign pending;
+            while (batch.size() < batchSize && (pending = queue.poll()) != null) {
+                batch.add(pending);
+            }
+
+            final int n = batch.size();
+            if (n == 0) {
+                return;
+            }
+
+            try {
+                byte[][] signatures;
+                if (n == 1) {
+                    signatures = new byte[][]{identity.sendSign(mechanism, null,
+                            batch.get(0).content)};
+                } else {
+                    byte[][] contents = new byte[n][];
+                    for (int i = 0; i < n; i++) {
+                        contents[i] = batch.get(i).content;
+                    }
+                    signatures = identity.sendSignBatch(mechanism, null, contents);
+                    LOG.debug("signed {} contents within one request", n);
+                }
+
+                for (int i = 0; i < n; i++) {
+                    batch.get(i).signature.complete(signatures[i]);
+                }
+            } catch (Throwable th) {
+                for (PendingSign m : batch) {
+                    m.signature.completeExceptionally(th);
+                }
+            }
+
+            batch.clear();
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.exception.BadAsn1ObjectException;
+import org.xipki.commons.security.exception.P11TokenException;
+
+/**
+ * Client of the socket transport. All requests share one long-lived connection, each request
+ * carries an identifier so that many requests can be in flight at the same time. The
+ * connection is re-established by the next request after it has been broken.
+ *
+ * <p>The connections are protected by TLS with the default {@link SSLSocketFactory}, the client
+ * key and the trusted certificates are configured by the system properties
+ * {@code javax.net.ssl.*} as for the HTTPS transport.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class ProxyP11SocketClient {
+
+    private class Connection implements Runnable {
+
+        private final Socket socket;
+
+        private final DataInputStream in;
+
+        private final OutputStream out;
+
+        private final ConcurrentHashMap<Long, CompletableFuture<Asn1SocketResponse>> pending =
+                new ConcurrentHashMap<>();
+
+        private volatile boolean closed;
+
+        Connection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] frame;
+                while ((frame = SocketFrameUtil.readFrame(in)) != null) {
+                    Asn1SocketResponse response = Asn1SocketResponse.getInstance(frame);
+                    CompletableFuture<Asn1SocketResponse> future =
+                            pending.remove(response.getRequestId());
+                    if (future == null) {
+                        LOG.warn("received response for unknown request {}",
+                                response.getRequestId());
+                    } else {
+                        future.complete(response);
+                    }
+                }
+                close(new IOException("connection closed by the server"));
+            } catch (IOException | BadAsn1ObjectException ex) {
+                if (!closed) {
+                    LogUtil.warn(LOG, ex, "could not read response from " + address);
+                }
+                close(ex);
+            }
+        }
+
+        Asn1SocketResponse send(final Asn1SocketRequest request)
+        throws IOException, P11TokenException {
+            CompletableFuture<Asn1SocketResponse> future = new CompletableFuture<>();
+            pending.put(request.getRequestId(), future);
+            try {
+                byte[] frame = request.getEncoded();
+                synchronized (out) {
+                    SocketFrameUtil.writeFrame(out, frame);
+                    out.flush();
+                }
+            } catch (IOException ex) {
+                pending.remove(request.getRequestId());
+                close(ex);
+                throw ex;
+            }
+
+            // the reader thread may have failed all pending requests before this one was added
+            if (closed) {
+                pending.remove(request.getRequestId());
+                throw new IOException("connection to " + address + " has been closed");
+            }
+
+            try {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                pending.remove(request.getRequestId());
+                Thread.currentThread().interrupt();
+                throw new P11TokenException("interrupted while waiting for the response");
+            } catch (TimeoutException ex) {
+                pending.remove(request.getRequestId());
+                throw new P11TokenException("no response received within " + timeout + " ms");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw (cause instanceof IOException) ? (IOException) cause
+                        : new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        void close(final Exception cause) {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOG.debug("could not close socket: {}", ex.getMessage());
+            }
+
+            IOException ioEx = (cause instanceof IOException) ? (IOException) cause
+                    : new IOException(cause.getMessage(), cause);
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<Asn1SocketResponse> future = pending.remove(requestId);
+                if (future != null) {
+                    future.completeExceptionally(ioEx);
+                }
+            }
+        }
+
+    } // class Connection
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyP11SocketClient.class);
+
+    private static final int CONNECT_TIMEOUT = 10000; // 10 seconds
+
+    private final InetSocketAddress address;
+
+    private final String moduleName;
+
+    private final int timeout;
+
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+
+    private Connection connection;
+
+    private ServerCaps serverCaps;
+
+    ProxyP11SocketClient(final String host, final int port, final String moduleName,
+            final int timeout) {
+        ParamUtil.requireNonBlank("host", host);
+        this.address = InetSocketAddress.createUnresolved(host, port);
+        this.moduleName = ParamUtil.requireNonBlank("moduleName", moduleName);
+        this.timeout = ParamUtil.requireMin("timeout", timeout, 1);
+    }
+
+    ServerCaps getServerCaps() throws P11TokenException {
+        getConnection();
+        return serverCaps;
+    }
+
+    ASN1Encodable send(final int version, final int action, final ASN1Encodable content)
+    throws P11TokenException {
+        Connection conn = getConnection();
+        Asn1SocketRequest request = new Asn1SocketRequest(nextRequestId.getAndIncrement(),
+                version, action, content);
+        Asn1SocketResponse response;
+        try {
+            response = conn.send(request);
+        } catch (IOException ex) {
+            throw new P11TokenException("could not send the request: " + ex.getMessage(), ex);
+        }
+        return getResponseValue(action, response);
+    }
+
+    synchronized void close() {
+        if (connection != null) {
+            connection.close(new IOException("client closed"));
+            connection = null;
+        }
+    }
+
+    private synchronized Connection getConnection() throws P11TokenException {
+        if (connection != null && !connection.closed) {
+            return connection;
+        }
+
+        Socket socket = null;
+        try {
+            socket = SSLSocketFactory.getDefault().createSocket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                    CONNECT_TIMEOUT);
+
+            Connection conn = new Connection(socket);
+            Thread reader = new Thread(conn, "p11proxy-socket-" + address);
+            reader.setDaemon(true);
+            reader.start();
+
+            // the version is not known before the server caps are received, 1 is the only one
+            Asn1SocketRequest request = new Asn1SocketRequest(nextRequestId.getAndIncrement(),
+                    1, P11ProxyConstants.ACTION_getServerCaps, new DERUTF8String(moduleName));
+            ASN1Encodable value = getResponseValue(P11ProxyConstants.ACTION_getServerCaps,
+                    conn.send(request));
+            String caps = Asn1Util.getUtf8String(value);
+            this.serverCaps = new ServerCaps(caps.getBytes(StandardCharsets.UTF_8));
+            this.connection = conn;
+            LOG.info("connected to {}, server caps: {}", address, caps.trim());
+            return conn;
+        } catch (IOException | BadAsn1ObjectException | P11TokenException ex) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ex2) {
+                    LOG.debug("could not close socket: {}", ex2.getMessage());
+                }
+            }
+            if (ex instanceof P11TokenException) {
+                throw (P11TokenException) ex;
+            }
+            throw new P11TokenException("could not connect to " + address + ": "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "tls://" + address.getHostString() + ":" + address.getPort()
+                + "/" + moduleName;
+    }
+
+    private static ASN1Encodable getResponseValue(final int action,
+            final Asn1SocketResponse response) throws P11TokenException {
+        String error = response.getError();
+        if (error != null) {
+            P11TokenException ex = ProxyP11Module.toP11TokenException(error);
+            throw (ex != null) ? ex : new P11TokenException("server answered with ERROR: " + error);
+        }
+
+        if (response.getAction() != action) {
+            throw new P11TokenException("action '" + response.getAction()
+                    + "' is not the expected '" + action + "'");
+        }
+        return response.getValue();
+    }
+
+}
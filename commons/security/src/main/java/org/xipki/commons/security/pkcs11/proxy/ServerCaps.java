@@ -55,12 +55,22 @@ public class ServerCaps {
 
     public static final String KEY_readOnly = "readOnly";
 
+    public static final String KEY_signBatch = "signBatch";
+
     private final Set<Integer> versions;
 
     private final boolean readOnly;
 
+    private final boolean signBatch;
+
     public ServerCaps(final boolean readOnly, final Set<Integer> versions) {
+        this(readOnly, false, versions);
+    }
+
+    public ServerCaps(final boolean readOnly, final boolean signBatch,
+            final Set<Integer> versions) {
         this.readOnly = readOnly;
+        this.signBatch = signBatch;
         this.versions = ParamUtil.requireNonEmpty("versions", versions);
     }
 
@@ -94,6 +104,9 @@ public class ServerCaps {
         } else {
             throw new IllegalArgumentException("invalid property readOnly '" + str + "'");
         }
+
+        // servers of older versions do not send this property
+        this.signBatch = "true".equalsIgnoreCase(props.getProperty(KEY_signBatch));
     }
 
     @Override
@@ -109,10 +122,20 @@ public class ServerCaps {
         return readOnly;
     }
 
+    /**
+     * Whether the server supports the action {@link P11ProxyConstants#ACTION_signBatch}.
+     *
+     * @return whether several contents can be signed within one request.
+     */
+    public boolean isSignBatch() {
+        return signBatch;
+    }
+
     public String getCaps() {
         Properties props = new Properties();
 
         props.put(KEY_readOnly, Boolean.toString(readOnly));
+        props.put(KEY_signBatch, Boolean.toString(signBatch));
         StringBuilder sb = new StringBuilder();
         for (Integer version : versions) {
             sb.append(version).append(",");
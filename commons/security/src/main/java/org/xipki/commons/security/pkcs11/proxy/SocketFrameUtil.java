@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.pkcs11.proxy;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.xipki.commons.common.util.ParamUtil;
+
+/**
+ * Frames of the socket transport: a 4-byte big-endian length followed by the DER-encoded
+ * {@link Asn1SocketRequest} or {@link Asn1SocketResponse}.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class SocketFrameUtil {
+
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private SocketFrameUtil() {
+    }
+
+    public static void writeFrame(final OutputStream out, final byte[] frame)
+    throws IOException {
+        ParamUtil.requireNonNull("out", out);
+        ParamUtil.requireNonNull("frame", frame);
+        final int len = frame.length;
+        if (len > MAX_FRAME_LENGTH) {
+            throw new IOException("frame too large: " + len);
+        }
+
+        byte[] header = new byte[] {(byte) (len >>> 24), (byte) (len >>> 16),
+            (byte) (len >>> 8), (byte) len};
+        out.write(header);
+        out.write(frame);
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param in
+     *          Input stream. Must not be {@code null}.
+     * @return the frame, or {@code null} if the stream has been closed at a frame boundary.
+     * @throws IOException
+     *         if the frame could not be read or is too large.
+     */
+    public static byte[] readFrame(final DataInputStream in) throws IOException {
+        ParamUtil.requireNonNull("in", in);
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        if ((b1 | b2 | b3) < 0) {
+            throw new EOFException("unexpected end of stream");
+        }
+
+        int len = (b << 24) | (b1 << 16) | (b2 << 8) | b3;
+        if (len < 0 || len > MAX_FRAME_LENGTH) {
+            throw new IOException("invalid frame length: " + len);
+        }
+
+        byte[] frame = new byte[len];
+        in.readFully(frame);
+        return frame;
+    }
+
+}
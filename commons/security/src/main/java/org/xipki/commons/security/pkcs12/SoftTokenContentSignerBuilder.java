@@ -288,6 +288,29 @@ public class SoftTokenContentSignerBuilder {
 
     public ConcurrentContentSigner createSigner(final AlgorithmIdentifier signatureAlgId,
             final int parallelism, final SecureRandom random)
+    throws OperatorCreationException, NoSuchPaddingException {
+        return createSigner(signatureAlgId, parallelism, random, false);
+    }
+
+    /**
+     * Creates a signer.
+     *
+     * @param signatureAlgId
+     *          Signature algorithm. Must not be {@code null}.
+     * @param parallelism
+     *          Number of underlying signers. Must be greater than 0.
+     * @param random
+     *          Random used by the signers. Could be {@code null}.
+     * @param threadAffinity
+     *          Whether the underlying signers will be bound to the calling threads.
+     * @return the signer.
+     * @throws OperatorCreationException
+     *         if the signer could not be created.
+     * @throws NoSuchPaddingException
+     *         if the padding of the signature algorithm is not supported.
+     */
+    public ConcurrentContentSigner createSigner(final AlgorithmIdentifier signatureAlgId,
+            final int parallelism, final SecureRandom random, final boolean threadAffinity)
     throws OperatorCreationException, NoSuchPaddingException {
         ParamUtil.requireNonNull("signatureAlgId", signatureAlgId);
         ParamUtil.requireMin("parallelism", parallelism, 1);
@@ -396,7 +419,8 @@ public class SoftTokenContentSignerBuilder {
             }
         }
 
-        ConcurrentContentSigner concurrentSigner = new DefaultConcurrentContentSigner(signers, key);
+        ConcurrentContentSigner concurrentSigner = new DefaultConcurrentContentSigner(signers, key,
+                threadAffinity);
         if (certificateChain != null) {
             concurrentSigner.setCertificateChain(certificateChain);
         } else {
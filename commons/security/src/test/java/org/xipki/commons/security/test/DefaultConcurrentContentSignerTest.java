@@ -0,0 +1,245 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.commons.security.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.security.DefaultConcurrentContentSigner;
+import org.xipki.commons.security.exception.NoIdleSignerException;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class DefaultConcurrentContentSignerTest {
+
+    /**
+     * {@link ContentSigner} which blocks the thread {@link #blockedThread} until
+     * {@link #unblock} is counted down.
+     */
+    private static class DummyContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        private final AtomicReference<Thread> blockedThread;
+
+        private final CountDownLatch blocked;
+
+        private final CountDownLatch unblock;
+
+        DummyContentSigner(final AtomicReference<Thread> blockedThread,
+                final CountDownLatch blocked, final CountDownLatch unblock) {
+            this.blockedThread = blockedThread;
+            this.blocked = blocked;
+            this.unblock = unblock;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption,
+                    DERNull.INSTANCE);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            outputStream.reset();
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            if (Thread.currentThread() == blockedThread.get()) {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return outputStream.toByteArray();
+        }
+
+    } // class DummyContentSigner
+
+    private static final byte[] DATA = new byte[] {1, 2, 3};
+
+    private final AtomicReference<Thread> blockedThread = new AtomicReference<>();
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Test
+    public void testReleaseIdleBinding() throws Exception {
+        final DefaultConcurrentContentSigner signer = newSigner(2);
+
+        // binds one signer to the current thread
+        signer.sign(DATA);
+        Assert.assertEquals("bound signers", 1, signer.getNumberOfBoundSigners());
+
+        // occupies the other signer
+        Thread blocker = startBlocker(signer);
+
+        Thread.sleep(300);
+
+        // the pool is exhausted, the idle binding must be released
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread borrower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signer.sign(DATA, 0, DATA.length, 0);
+                } catch (Throwable th) {
+                    error.set(th);
+                }
+            }
+        });
+        borrower.start();
+        borrower.join();
+        Assert.assertNull("borrow with released binding", error.get());
+        Assert.assertEquals("bound signers", 0, signer.getNumberOfBoundSigners());
+
+        // the current thread binds a signer again
+        signer.sign(DATA);
+        Assert.assertEquals("bound signers", 1, signer.getNumberOfBoundSigners());
+
+        unblock.countDown();
+        blocker.join();
+        Assert.assertEquals("busy signers", 1, signer.getNumberOfBusySigners());
+    }
+
+    @Test
+    public void testKeepUsedBinding() throws Exception {
+        final DefaultConcurrentContentSigner signer = newSigner(2);
+        signer.sign(DATA);
+
+        Thread blocker = startBlocker(signer);
+
+        // the binding has been used recently, other threads must not get its signer
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread borrower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signer.sign(DATA, 0, DATA.length, 0);
+                } catch (Throwable th) {
+                    error.set(th);
+                }
+            }
+        });
+        signer.sign(DATA);
+        borrower.start();
+        borrower.join();
+
+        try {
+            Assert.assertTrue("borrow without idle signer",
+                    error.get() instanceof NoIdleSignerException);
+            Assert.assertEquals("bound signers", 1, signer.getNumberOfBoundSigners());
+        } finally {
+            unblock.countDown();
+            blocker.join();
+        }
+    }
+
+    @Test
+    public void testWaitForIdleBinding() throws Exception {
+        final DefaultConcurrentContentSigner signer = newSigner(2);
+        signer.sign(DATA);
+
+        Thread blocker = startBlocker(signer);
+
+        // the waiting borrower gets the signer once the binding has become idle
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread borrower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signer.sign(DATA, 0, DATA.length, 5000);
+                } catch (Throwable th) {
+                    error.set(th);
+                }
+            }
+        });
+        borrower.start();
+        borrower.join();
+
+        try {
+            Assert.assertNull("borrow with released binding", error.get());
+            Assert.assertEquals("bound signers", 0, signer.getNumberOfBoundSigners());
+        } finally {
+            unblock.countDown();
+            blocker.join();
+        }
+    }
+
+    private DefaultConcurrentContentSigner newSigner(final int num) {
+        List<ContentSigner> signers = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            signers.add(new DummyContentSigner(blockedThread, blocked, unblock));
+        }
+        return new DefaultConcurrentContentSigner(signers, null, true);
+    }
+
+    private Thread startBlocker(final DefaultConcurrentContentSigner signer)
+    throws InterruptedException {
+        Thread blocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signer.sign(DATA);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        blockedThread.set(blocker);
+        blocker.start();
+        blocked.await();
+        return blocker;
+    }
+
+}
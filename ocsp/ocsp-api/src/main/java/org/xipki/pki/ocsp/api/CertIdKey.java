@@ -0,0 +1,83 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.api;
+
+import java.math.BigInteger;
+
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * Identifier of a certificate in an OCSP request, namely the content of CertID.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CertIdKey {
+
+    private final HashAlgoType hashAlgo;
+
+    private final byte[] issuerNameHash;
+
+    private final byte[] issuerKeyHash;
+
+    private final BigInteger serialNumber;
+
+    public CertIdKey(final HashAlgoType hashAlgo, final byte[] issuerNameHash,
+            final byte[] issuerKeyHash, final BigInteger serialNumber) {
+        this.hashAlgo = ParamUtil.requireNonNull("hashAlgo", hashAlgo);
+        this.issuerNameHash = ParamUtil.requireNonNull("issuerNameHash", issuerNameHash);
+        this.issuerKeyHash = ParamUtil.requireNonNull("issuerKeyHash", issuerKeyHash);
+        this.serialNumber = ParamUtil.requireNonNull("serialNumber", serialNumber);
+    }
+
+    public HashAlgoType getHashAlgo() {
+        return hashAlgo;
+    }
+
+    public byte[] getIssuerNameHash() {
+        return issuerNameHash;
+    }
+
+    public byte[] getIssuerKeyHash() {
+        return issuerKeyHash;
+    }
+
+    public BigInteger getSerialNumber() {
+        return serialNumber;
+    }
+
+}
@@ -35,14 +35,22 @@
 package org.xipki.pki.ocsp.api;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.xipki.commons.audit.AuditService;
 import org.xipki.commons.audit.AuditServiceRegister;
+import org.xipki.commons.common.util.CollectionUtil;
+import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.datasource.DataSourceWrapper;
 import org.xipki.commons.security.CertRevocationInfo;
@@ -57,6 +65,13 @@ public abstract class OcspStore {
 
     protected static final long DAY = 24L * 60 * 60 * 1000;
 
+    private static final Logger LOG = LoggerFactory.getLogger(OcspStore.class);
+
+    private final List<OcspStoreChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    private final List<OcspCertStatusChangeListener> certStatusChangeListeners =
+            new CopyOnWriteArrayList<>();
+
     protected String name;
 
     protected boolean unknownSerialAsGood;
@@ -87,6 +102,34 @@ public abstract class OcspStore {
             @Nullable HashAlgoType certHashAlg, @Nullable CertprofileOption certprofileOption)
     throws OcspStoreException;
 
+    /**
+     * Gets the status of several certificates. The default implementation calls
+     * {@link #getCertStatus(Date, HashAlgoType, byte[], byte[], BigInteger, boolean,
+     * HashAlgoType, CertprofileOption)} for each certificate. Stores which can look up
+     * several certificates at once more efficiently should override this method.
+     *
+     * @param time time of the request
+     * @param certIds identifiers of the certificates
+     * @param includeCertHash whether to include the hash of certificates
+     * @param certHashAlg hash algorithm of the certificates' hash
+     * @param certprofileOption option to filter the certificate profiles
+     * @return the status of the certificates in the same order as certIds.
+     * @throws OcspStoreException if the status of any certificate could not be retrieved.
+     */
+    public List<CertStatusInfo> getCertStatuses(@NonNull final Date time,
+            @NonNull final List<CertIdKey> certIds, final boolean includeCertHash,
+            @Nullable final HashAlgoType certHashAlg,
+            @Nullable final CertprofileOption certprofileOption) throws OcspStoreException {
+        ParamUtil.requireNonNull("certIds", certIds);
+        List<CertStatusInfo> ret = new ArrayList<>(certIds.size());
+        for (CertIdKey certId : certIds) {
+            ret.add(getCertStatus(time, certId.getHashAlgo(), certId.getIssuerNameHash(),
+                    certId.getIssuerKeyHash(), certId.getSerialNumber(), includeCertHash,
+                    certHashAlg, certprofileOption));
+        }
+        return ret;
+    }
+
     public abstract void init(@Nullable String conf, @Nullable DataSourceWrapper datasource,
             @NonNull Set<HashAlgoType> certHashAlgos) throws OcspStoreException;
 
@@ -113,6 +156,73 @@ public abstract class OcspStore {
         return auditServiceRegister.getAuditService();
     }
 
+    public void addChangeListener(final OcspStoreChangeListener listener) {
+        ParamUtil.requireNonNull("listener", listener);
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(final OcspStoreChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    public void addCertStatusChangeListener(final OcspCertStatusChangeListener listener) {
+        ParamUtil.requireNonNull("listener", listener);
+        certStatusChangeListeners.add(listener);
+    }
+
+    public void removeCertStatusChangeListener(final OcspCertStatusChangeListener listener) {
+        certStatusChangeListeners.remove(listener);
+    }
+
+    /**
+     * Returns the maximal time between a change of the status of a certificate and the
+     * notification of the change listeners. Responses derived from this store must not be
+     * cached longer than this time.
+     *
+     * @return the maximal delay in milliseconds, or 0 if not limited, e.g. since the store is
+     *     not changed between the notifications.
+     * @since 2.1.1
+     */
+    public long getChangeNotificationDelay() {
+        return 0;
+    }
+
+    /**
+     * Returns whether any listener is interested in the status changes of single certificates.
+     * Stores which have to poll for such changes should do so only if this method returns
+     * {@code true}.
+     *
+     * @return whether at least one {@link OcspCertStatusChangeListener} is registered.
+     * @since 2.1.1
+     */
+    protected boolean hasCertStatusChangeListeners() {
+        return !certStatusChangeListeners.isEmpty();
+    }
+
+    protected void notifyStoreChanged() {
+        for (OcspStoreChangeListener listener : changeListeners) {
+            try {
+                listener.storeChanged(this);
+            } catch (RuntimeException ex) {
+                LogUtil.warn(LOG, ex, "could not notify listener of store " + name);
+            }
+        }
+    }
+
+    protected void notifyCertStatusChanged(final Collection<BigInteger> serialNumbers) {
+        if (CollectionUtil.isEmpty(serialNumbers)) {
+            return;
+        }
+
+        for (OcspCertStatusChangeListener listener : certStatusChangeListeners) {
+            try {
+                listener.certStatusChanged(this, serialNumbers);
+            } catch (RuntimeException ex) {
+                LogUtil.warn(LOG, ex, "could not notify listener of store " + name);
+            }
+        }
+    }
+
     public boolean isUnknownSerialAsGood() {
         return unknownSerialAsGood;
     }
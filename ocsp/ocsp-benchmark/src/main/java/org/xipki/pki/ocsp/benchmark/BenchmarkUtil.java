@@ -0,0 +1,226 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.xipki.commons.common.util.IoUtil;
+
+/**
+ * Generates the keys, certificates and OCSP requests used by the benchmarks.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+final class BenchmarkUtil {
+
+    static final String KEYSTORE_PASSWORD = "1234";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    static {
+        // the XiPKI components parse certificates and CRLs with the BouncyCastle provider
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private BenchmarkUtil() {
+    }
+
+    static KeyPair generateKeyPair(final String keyType) throws GeneralSecurityException {
+        KeyPairGenerator kpGen;
+        if ("RSA".equalsIgnoreCase(keyType)) {
+            kpGen = KeyPairGenerator.getInstance("RSA");
+            kpGen.initialize(2048);
+        } else if ("EC".equalsIgnoreCase(keyType)) {
+            kpGen = KeyPairGenerator.getInstance("EC");
+            kpGen.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            throw new IllegalArgumentException("unknown keyType " + keyType);
+        }
+        return kpGen.generateKeyPair();
+    }
+
+    static String getSignatureAlgorithm(final String keyType) {
+        if ("RSA".equalsIgnoreCase(keyType)) {
+            return "SHA256withRSA";
+        } else if ("EC".equalsIgnoreCase(keyType)) {
+            return "SHA256withECDSA";
+        } else {
+            throw new IllegalArgumentException("unknown keyType " + keyType);
+        }
+    }
+
+    static X509Certificate generateCaCert(final KeyPair keyPair, final String keyType)
+    throws GeneralSecurityException, IOException {
+        X500Name subject = new X500Name("CN=Benchmark CA,O=xipki");
+        return generateCert(subject, keyPair.getPublic(), subject, keyPair.getPrivate(),
+                keyType, true);
+    }
+
+    static X509Certificate generateOcspSignerCert(final X509Certificate caCert,
+            final PrivateKey caKey, final String caKeyType, final PublicKey publicKey)
+    throws GeneralSecurityException, IOException {
+        X500Name issuer = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
+        return generateCert(new X500Name("CN=Benchmark OCSP Responder,O=xipki"), publicKey,
+                issuer, caKey, caKeyType, false);
+    }
+
+    private static X509Certificate generateCert(final X500Name subject,
+            final PublicKey publicKey, final X500Name issuer, final PrivateKey issuerKey,
+            final String issuerKeyType, final boolean ca)
+    throws GeneralSecurityException, IOException {
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer,
+                BigInteger.valueOf(now), new Date(now - DAY), new Date(now + 365 * DAY),
+                subject, publicKey);
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        if (ca) {
+            builder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        } else {
+            builder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.digitalSignature));
+            builder.addExtension(Extension.extendedKeyUsage, false,
+                    new ExtendedKeyUsage(KeyPurposeId.id_kp_OCSPSigning));
+        }
+
+        X509CertificateHolder certHolder;
+        try {
+            certHolder = builder.build(new JcaContentSignerBuilder(
+                    getSignatureAlgorithm(issuerKeyType)).build(issuerKey));
+        } catch (OperatorCreationException ex) {
+            throw new GeneralSecurityException(ex.getMessage(), ex);
+        }
+        return new JcaX509CertificateConverter().getCertificate(certHolder);
+    }
+
+    static void writePkcs12Keystore(final File file, final PrivateKey key,
+            final X509Certificate[] certChain) throws GeneralSecurityException, IOException {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        ks.setKeyEntry("main", key, KEYSTORE_PASSWORD.toCharArray(), certChain);
+        try (OutputStream out = new FileOutputStream(file)) {
+            ks.store(out, KEYSTORE_PASSWORD.toCharArray());
+        }
+    }
+
+    static void writeCert(final File file, final Certificate cert)
+    throws GeneralSecurityException, IOException {
+        IoUtil.save(file, cert.getEncoded());
+    }
+
+    /**
+     * Builds an unsigned OCSP request without nonce.
+     *
+     * @param caCert issuer of the certificates
+     * @param serialNumbers serial numbers of the certificates
+     * @return the DER-encoded OCSP request.
+     */
+    static byte[] buildOcspRequest(final X509Certificate caCert,
+            final BigInteger... serialNumbers) throws GeneralSecurityException, IOException {
+        try {
+            DigestCalculator digestCalculator = new JcaDigestCalculatorProviderBuilder().build()
+                    .get(CertificateID.HASH_SHA1);
+            X509CertificateHolder issuer = new X509CertificateHolder(caCert.getEncoded());
+            OCSPReqBuilder builder = new OCSPReqBuilder();
+            for (BigInteger serialNumber : serialNumbers) {
+                builder.addRequest(new CertificateID(digestCalculator, issuer, serialNumber));
+            }
+            return builder.build().getEncoded();
+        } catch (OperatorCreationException | OCSPException ex) {
+            throw new GeneralSecurityException(ex.getMessage(), ex);
+        }
+    }
+
+    static File createTempDir(final String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteDir(final File dir) {
+        if (dir == null) {
+            return;
+        }
+
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteDir(child);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+}
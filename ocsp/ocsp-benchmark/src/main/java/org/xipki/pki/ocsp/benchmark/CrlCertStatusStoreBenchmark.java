@@ -0,0 +1,155 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.Certificate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.commons.audit.internal.AuditServiceRegisterImpl;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.CertStatusInfo;
+import org.xipki.pki.ocsp.server.impl.store.crl.CrlCertStatusStore;
+
+/**
+ * Lookups in the {@link CrlCertStatusStore} with synthetic CRLs of different sizes. Parsing
+ * the CRL with 10M entries during the setup requires a large heap.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class CrlCertStatusStoreBenchmark {
+
+    @Param({"1000", "1000000", "10000000"})
+    private long numEntries;
+
+    private File dir;
+
+    private CrlCertStatusStore store;
+
+    private byte[] issuerNameHash;
+
+    private byte[] issuerKeyHash;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkUtil.createTempDir("ocsp-crl-benchmark");
+
+        KeyPair caKeyPair = BenchmarkUtil.generateKeyPair("RSA");
+        X509Certificate caCert = BenchmarkUtil.generateCaCert(caKeyPair, "RSA");
+        Certificate bcCaCert = Certificate.getInstance(caCert.getEncoded());
+        issuerNameHash = HashAlgoType.SHA1.hash(bcCaCert.getSubject().getEncoded("DER"));
+        issuerKeyHash = HashAlgoType.SHA1.hash(
+                bcCaCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes());
+
+        File caCertFile = new File(dir, "ca.der");
+        BenchmarkUtil.writeCert(caCertFile, caCert);
+        File crlFile = new File(dir, "ca.crl");
+        new CrlGenerator(caCert, caKeyPair.getPrivate(),
+                BenchmarkUtil.getSignatureAlgorithm("RSA"), numEntries,
+                BigInteger.ONE).generate(crlFile);
+        File crlIndexDir = new File(dir, "crlindex");
+        crlIndexDir.mkdirs();
+
+        StringBuilder conf = new StringBuilder();
+        conf.append("crl.file=").append(toPropertyValue(crlFile)).append("\n");
+        conf.append("caCert.file=").append(toPropertyValue(caCertFile)).append("\n");
+        conf.append("crlIndex.dir=").append(toPropertyValue(crlIndexDir)).append("\n");
+        conf.append("useUpdateDatesFromCrl=true\n");
+
+        store = new CrlCertStatusStore();
+        store.setName("crlstore");
+        store.setAuditServiceRegister(new AuditServiceRegisterImpl());
+        store.setUnknownSerialAsGood(true);
+        store.init(conf.toString(), null, new HashSet<HashAlgoType>());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.shutdown();
+        }
+        BenchmarkUtil.deleteDir(dir);
+    }
+
+    @Benchmark
+    public CertStatusInfo getCertStatusOfRevokedCert() throws Exception {
+        long index = nextLong(numEntries);
+        return store.getCertStatus(new Date(), HashAlgoType.SHA1, issuerNameHash,
+                issuerKeyHash, CrlGenerator.getRevokedSerial(index), false, null, null);
+    }
+
+    @Benchmark
+    public CertStatusInfo getCertStatusOfGoodCert() throws Exception {
+        long index = numEntries + nextLong(numEntries);
+        return store.getCertStatus(new Date(), HashAlgoType.SHA1, issuerNameHash,
+                issuerKeyHash, CrlGenerator.getRevokedSerial(index), false, null, null);
+    }
+
+    private static long nextLong(final long bound) {
+        return ThreadLocalRandom.current().nextLong(bound);
+    }
+
+    private static String toPropertyValue(final File file) {
+        // backslashes are escape characters in the properties format
+        return file.getAbsolutePath().replace('\\', '/');
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+
+/**
+ * Writes synthetic CRLs with an arbitrary number of entries. The CRL is streamed to the file,
+ * so that CRLs with millions of entries can be generated with little memory.
+ *
+ * <p>The revoked certificates have the serial numbers {@link #getRevokedSerial(long)} for
+ * 0 &lt;= index &lt; numEntries.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+final class CrlGenerator {
+
+    private static class SignatureOutputStream extends OutputStream {
+
+        private final Signature signature;
+
+        SignatureOutputStream(final Signature signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public void write(final int oneByte) throws IOException {
+            try {
+                signature.update((byte) oneByte);
+            } catch (SignatureException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int off, final int len) throws IOException {
+            try {
+                signature.update(bytes, off, len);
+            } catch (SignatureException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        }
+
+    } // class SignatureOutputStream
+
+    // all serial numbers have 8 bytes, hence all entries have the same length
+    private static final long FIRST_SERIAL = 0x4000000000000000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte[] version;
+
+    private final byte[] sigAlgId;
+
+    private final byte[] issuer;
+
+    private final byte[] thisUpdate;
+
+    private final byte[] nextUpdate;
+
+    private final byte[] extensions;
+
+    private final byte[] entryTemplate;
+
+    private final int serialOffset;
+
+    private final long numEntries;
+
+    private final String sigAlgo;
+
+    private final PrivateKey caKey;
+
+    CrlGenerator(final X509Certificate caCert, final PrivateKey caKey, final String sigAlgo,
+            final long numEntries, final BigInteger crlNumber) throws IOException {
+        if (numEntries < 0) {
+            throw new IllegalArgumentException("numEntries must not be negative");
+        }
+
+        this.caKey = caKey;
+        this.sigAlgo = sigAlgo;
+        this.numEntries = numEntries;
+
+        Date now = new Date();
+        this.version = new ASN1Integer(1).getEncoded();
+        this.sigAlgId = getAlgorithmIdentifier(sigAlgo).getEncoded();
+        this.issuer = caCert.getSubjectX500Principal().getEncoded();
+        this.thisUpdate = new Time(now).getEncoded();
+        this.nextUpdate = new Time(new Date(now.getTime() + 24L * 60 * 60 * 1000)).getEncoded();
+        Extension crlNumberExtn = new Extension(Extension.cRLNumber, false,
+                new ASN1Integer(crlNumber).getEncoded());
+        this.extensions = new DERTaggedObject(true, 0,
+                new Extensions(crlNumberExtn)).getEncoded();
+
+        // revokedCertificate: SEQUENCE {INTEGER serial, Time revocationDate}
+        byte[] revocationDate = new Time(new Date(now.getTime() - 60 * 1000)).getEncoded();
+        int entryBodyLen = 10 + revocationDate.length;
+        this.entryTemplate = new byte[2 + entryBodyLen];
+        entryTemplate[0] = 0x30;
+        entryTemplate[1] = (byte) entryBodyLen;
+        entryTemplate[2] = 0x02;
+        entryTemplate[3] = 8;
+        this.serialOffset = 4;
+        System.arraycopy(revocationDate, 0, entryTemplate, 12, revocationDate.length);
+    }
+
+    static BigInteger getRevokedSerial(final long index) {
+        return BigInteger.valueOf(FIRST_SERIAL + index);
+    }
+
+    void generate(final File file) throws GeneralSecurityException, IOException {
+        Signature signature = Signature.getInstance(sigAlgo);
+        signature.initSign(caKey);
+        try (OutputStream out = new BufferedOutputStream(new SignatureOutputStream(signature),
+                BUFFER_SIZE)) {
+            writeTbsCertList(out);
+        }
+        byte[] signatureValue = signature.sign();
+
+        long tbsLen = getTlvLength(getTbsCertListBodyLength());
+        int bitStringBodyLen = 1 + signatureValue.length;
+        long crlBodyLen = tbsLen + sigAlgId.length + getTlvLength(bitStringBodyLen);
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+                BUFFER_SIZE)) {
+            writeHeader(out, 0x30, crlBodyLen);
+            writeTbsCertList(out);
+            out.write(sigAlgId);
+            writeHeader(out, 0x03, bitStringBodyLen);
+            out.write(0);
+            out.write(signatureValue);
+        }
+    }
+
+    private long getRevokedCertsBodyLength() {
+        return numEntries * entryTemplate.length;
+    }
+
+    private long getTbsCertListBodyLength() {
+        long len = version.length + sigAlgId.length + issuer.length + thisUpdate.length
+                + nextUpdate.length + extensions.length;
+        if (numEntries > 0) {
+            len += getTlvLength(getRevokedCertsBodyLength());
+        }
+        return len;
+    }
+
+    private void writeTbsCertList(final OutputStream out) throws IOException {
+        writeHeader(out, 0x30, getTbsCertListBodyLength());
+        out.write(version);
+        out.write(sigAlgId);
+        out.write(issuer);
+        out.write(thisUpdate);
+        out.write(nextUpdate);
+
+        if (numEntries > 0) {
+            writeHeader(out, 0x30, getRevokedCertsBodyLength());
+            byte[] entry = entryTemplate.clone();
+            for (long i = 0; i < numEntries; i++) {
+                long serial = FIRST_SERIAL + i;
+                for (int j = 7; j >= 0; j--) {
+                    entry[serialOffset + j] = (byte) serial;
+                    serial >>>= 8;
+                }
+                out.write(entry);
+            }
+        }
+
+        out.write(extensions);
+    }
+
+    private static AlgorithmIdentifier getAlgorithmIdentifier(final String sigAlgo) {
+        return new DefaultSignatureAlgorithmIdentifierFinder().find(sigAlgo);
+    }
+
+    private static long getTlvLength(final long bodyLen) {
+        return getHeaderLength(bodyLen) + bodyLen;
+    }
+
+    private static int getHeaderLength(final long bodyLen) {
+        if (bodyLen < 0x80) {
+            return 2;
+        }
+
+        int numBytes = 0;
+        for (long tmp = bodyLen; tmp > 0; tmp >>>= 8) {
+            numBytes++;
+        }
+        return 2 + numBytes;
+    }
+
+    private static void writeHeader(final OutputStream out, final int tag, final long bodyLen)
+    throws IOException {
+        out.write(tag);
+        if (bodyLen < 0x80) {
+            out.write((int) bodyLen);
+            return;
+        }
+
+        int numBytes = 0;
+        for (long tmp = bodyLen; tmp > 0; tmp >>>= 8) {
+            numBytes++;
+        }
+
+        out.write(0x80 | numBytes);
+        for (int i = numBytes - 1; i >= 0; i--) {
+            out.write((int) (bodyLen >>> (8 * i)));
+        }
+    }
+
+}
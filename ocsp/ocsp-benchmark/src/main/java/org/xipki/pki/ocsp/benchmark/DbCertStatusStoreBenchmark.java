@@ -0,0 +1,232 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.util.encoders.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.commons.audit.internal.AuditServiceRegisterImpl;
+import org.xipki.commons.datasource.DataSourceFactory;
+import org.xipki.commons.datasource.DataSourceWrapper;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.CertStatusInfo;
+import org.xipki.pki.ocsp.server.impl.store.db.DbCertStatusStore;
+
+/**
+ * {@link DbCertStatusStore#getCertStatus(Date, HashAlgoType, byte[], byte[], BigInteger,
+ * boolean, HashAlgoType, org.xipki.pki.ocsp.api.CertprofileOption)} against an embedded
+ * in-memory H2 database, with and without the in-memory status snapshot.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DbCertStatusStoreBenchmark {
+
+    private static final String[] DDL = {
+        "CREATE TABLE ISSUER (ID INT NOT NULL PRIMARY KEY, SUBJECT VARCHAR(350) NOT NULL,"
+            + " NBEFORE BIGINT NOT NULL, NAFTER BIGINT NOT NULL, S1C CHAR(28) NOT NULL,"
+            + " REV SMALLINT DEFAULT 0, RR SMALLINT, RT BIGINT, RIT BIGINT,"
+            + " CERT VARCHAR(4000) NOT NULL)",
+        "CREATE TABLE CERT (ID BIGINT NOT NULL PRIMARY KEY, IID INT NOT NULL,"
+            + " SN VARCHAR(40) NOT NULL, LUPDATE BIGINT NOT NULL, NBEFORE BIGINT NOT NULL,"
+            + " NAFTER BIGINT NOT NULL, REV SMALLINT NOT NULL, RR SMALLINT, RT BIGINT,"
+            + " RIT BIGINT, PN VARCHAR(45), CONSTRAINT CONST_ISSUER_SN UNIQUE (IID, SN))",
+        "CREATE INDEX IDX_IID_LUPDATE ON CERT(IID,LUPDATE)",
+        "CREATE TABLE CHASH (CID BIGINT NOT NULL PRIMARY KEY, S1 CHAR(28) NOT NULL,"
+            + " S224 CHAR(40) NOT NULL, S256 CHAR(44) NOT NULL, S384 CHAR(64) NOT NULL,"
+            + " S512 CHAR(88) NOT NULL)"};
+
+    private static final long FIRST_SERIAL = 0x10000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"100000"})
+    private int numCerts;
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private DataSourceWrapper datasource;
+
+    private DbCertStatusStore store;
+
+    private byte[] issuerNameHash;
+
+    private byte[] issuerKeyHash;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair caKeyPair = BenchmarkUtil.generateKeyPair("RSA");
+        X509Certificate caCert = BenchmarkUtil.generateCaCert(caKeyPair, "RSA");
+        Certificate bcCaCert = Certificate.getInstance(caCert.getEncoded());
+        issuerNameHash = HashAlgoType.SHA1.hash(bcCaCert.getSubject().getEncoded("DER"));
+        issuerKeyHash = HashAlgoType.SHA1.hash(
+                bcCaCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes());
+
+        Properties props = new Properties();
+        props.setProperty("dataSourceClassName", "org.h2.jdbcx.JdbcDataSource");
+        props.setProperty("dataSource.url",
+                "jdbc:h2:mem:ocspbenchmark" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        props.setProperty("dataSource.user", "root");
+        props.setProperty("dataSource.password", "123456");
+        props.setProperty("autoCommit", "true");
+        props.setProperty("maximumPoolSize", "20");
+        props.setProperty("minimumIdle", "2");
+        datasource = new DataSourceFactory().createDataSource("ocspbenchmark", props, null);
+
+        populateDatabase(caCert);
+
+        store = new DbCertStatusStore();
+        store.setName("dbstore");
+        store.setAuditServiceRegister(new AuditServiceRegisterImpl());
+        store.init("snapshot.enabled=" + snapshot, datasource, new HashSet<HashAlgoType>());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.shutdown();
+        }
+
+        if (datasource != null) {
+            datasource.shutdown();
+        }
+    }
+
+    @Benchmark
+    public CertStatusInfo getCertStatus() throws Exception {
+        long serial = FIRST_SERIAL + ThreadLocalRandom.current().nextInt(numCerts);
+        return store.getCertStatus(new Date(), HashAlgoType.SHA1, issuerNameHash,
+                issuerKeyHash, BigInteger.valueOf(serial), false, null, null);
+    }
+
+    @Benchmark
+    public CertStatusInfo getCertStatusOfUnknownCert() throws Exception {
+        long serial = FIRST_SERIAL + numCerts + ThreadLocalRandom.current().nextInt(numCerts);
+        return store.getCertStatus(new Date(), HashAlgoType.SHA1, issuerNameHash,
+                issuerKeyHash, BigInteger.valueOf(serial), false, null, null);
+    }
+
+    private void populateDatabase(final X509Certificate caCert) throws Exception {
+        final long now = System.currentTimeMillis() / 1000;
+        final long notBefore = now - 24 * 3600;
+        final long notAfter = now + 365 * 24 * 3600;
+
+        Connection conn = datasource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                for (String ddl : DDL) {
+                    stmt.execute(ddl);
+                }
+            } finally {
+                stmt.close();
+            }
+
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO ISSUER"
+                    + " (ID,SUBJECT,NBEFORE,NAFTER,S1C,REV,CERT) VALUES (1,?,?,?,?,0,?)");
+            try {
+                byte[] encodedCert = caCert.getEncoded();
+                ps.setString(1, caCert.getSubjectX500Principal().getName());
+                ps.setLong(2, caCert.getNotBefore().getTime() / 1000);
+                ps.setLong(3, caCert.getNotAfter().getTime() / 1000);
+                ps.setString(4, Base64.toBase64String(HashAlgoType.SHA1.hash(encodedCert)));
+                ps.setString(5, Base64.toBase64String(encodedCert));
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+
+            // every tenth certificate is revoked
+            ps = conn.prepareStatement("INSERT INTO CERT"
+                    + " (ID,IID,SN,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,PN)"
+                    + " VALUES (?,1,?,?,?,?,?,?,?,?)");
+            try {
+                for (int i = 0; i < numCerts; i++) {
+                    boolean revoked = (i % 10 == 0);
+                    ps.setLong(1, i + 1);
+                    ps.setString(2, Long.toHexString(FIRST_SERIAL + i));
+                    ps.setLong(3, now);
+                    ps.setLong(4, notBefore);
+                    ps.setLong(5, notAfter);
+                    ps.setInt(6, revoked ? 1 : 0);
+                    ps.setInt(7, revoked ? 1 : 0);
+                    ps.setLong(8, revoked ? now - 3600 : 0);
+                    ps.setString(9, "tls");
+                    ps.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+        } finally {
+            datasource.returnConnection(conn);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.commons.audit.internal.AuditServiceRegisterImpl;
+import org.xipki.commons.common.util.IoUtil;
+import org.xipki.commons.security.SecurityFactoryImpl;
+import org.xipki.commons.security.SignerFactoryRegisterImpl;
+import org.xipki.pki.ocsp.api.internal.OcspStoreFactoryRegisterImpl;
+import org.xipki.pki.ocsp.server.impl.HttpOcspServlet;
+import org.xipki.pki.ocsp.server.impl.OcspServer;
+
+/**
+ * End-to-end generation of OCSP responses by {@link OcspServer#answer} with a CRL-based store
+ * and RSA or EC responder keys in PKCS#12 keystores. The response cache is not configured.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OcspServerBenchmark {
+
+    private static final String RESPONDER_NAME = "responder1";
+
+    private static final int NUM_CRL_ENTRIES = 1000;
+
+    private static final int NUM_REQUESTS = 256;
+
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    @Param({"1", "10"})
+    private int numCertIds;
+
+    private File dir;
+
+    private OcspServer server;
+
+    private byte[][] encodedRequests;
+
+    private OCSPReq[] requests;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkUtil.createTempDir("ocsp-server-benchmark");
+
+        KeyPair caKeyPair = BenchmarkUtil.generateKeyPair(keyType);
+        X509Certificate caCert = BenchmarkUtil.generateCaCert(caKeyPair, keyType);
+        KeyPair signerKeyPair = BenchmarkUtil.generateKeyPair(keyType);
+        X509Certificate signerCert = BenchmarkUtil.generateOcspSignerCert(caCert,
+                caKeyPair.getPrivate(), keyType, signerKeyPair.getPublic());
+
+        File caCertFile = new File(dir, "ca.der");
+        BenchmarkUtil.writeCert(caCertFile, caCert);
+        File keystoreFile = new File(dir, "ocsp-signer.p12");
+        BenchmarkUtil.writePkcs12Keystore(keystoreFile, signerKeyPair.getPrivate(),
+                new X509Certificate[]{signerCert, caCert});
+        File crlFile = new File(dir, "ca.crl");
+        new CrlGenerator(caCert, caKeyPair.getPrivate(),
+                BenchmarkUtil.getSignatureAlgorithm(keyType), NUM_CRL_ENTRIES,
+                BigInteger.ONE).generate(crlFile);
+        File crlIndexDir = new File(dir, "crlindex");
+        crlIndexDir.mkdirs();
+
+        File confFile = new File(dir, "ocsp-responder.xml");
+        String conf = buildConf(keystoreFile, crlFile, caCertFile, crlIndexDir);
+        IoUtil.save(confFile, conf.getBytes(StandardCharsets.UTF_8));
+
+        SecurityFactoryImpl securityFactory = new SecurityFactoryImpl();
+        securityFactory.setSignerFactoryRegister(new SignerFactoryRegisterImpl());
+
+        server = new OcspServer();
+        server.setConfFile(confFile.getPath());
+        server.setSecurityFactory(securityFactory);
+        server.setAuditServiceRegister(new AuditServiceRegisterImpl());
+        server.setOcspStoreFactoryRegister(new OcspStoreFactoryRegisterImpl());
+        server.init();
+
+        // half of the certificates are revoked
+        encodedRequests = new byte[NUM_REQUESTS][];
+        requests = new OCSPReq[NUM_REQUESTS];
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            BigInteger[] serialNumbers = new BigInteger[numCertIds];
+            for (int j = 0; j < numCertIds; j++) {
+                long index = ThreadLocalRandom.current().nextInt(2 * NUM_CRL_ENTRIES);
+                serialNumbers[j] = CrlGenerator.getRevokedSerial(index);
+            }
+            encodedRequests[i] = BenchmarkUtil.buildOcspRequest(caCert, serialNumbers);
+            requests[i] = new OCSPReq(encodedRequests[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (server != null) {
+            server.shutdown();
+        }
+        BenchmarkUtil.deleteDir(dir);
+    }
+
+    @Benchmark
+    public Object answer() throws Exception {
+        OCSPReq request = requests[ThreadLocalRandom.current().nextInt(NUM_REQUESTS)];
+        return server.answer(server.getResponder(RESPONDER_NAME), request, false, null);
+    }
+
+    @Benchmark
+    public Object parseAndAnswer() throws Exception {
+        byte[] encodedRequest = encodedRequests[ThreadLocalRandom.current().nextInt(NUM_REQUESTS)];
+        // as done by the servlet for each POST request
+        OCSPReq request = HttpOcspServlet.parseRequest(new ByteArrayInputStream(encodedRequest));
+        return server.answer(server.getResponder(RESPONDER_NAME), request, false, null);
+    }
+
+    private String buildConf(final File keystoreFile, final File crlFile, final File caCertFile,
+            final File crlIndexDir) {
+        StringBuilder sb = new StringBuilder(4000);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<OCSPServer xmlns=\"http://xipki.org/pki/ocsp/conf/v2\">\n");
+        sb.append("  <responders>\n");
+        sb.append("    <responder name=\"").append(RESPONDER_NAME).append("\">\n");
+        sb.append("      <mode>RFC6960</mode>\n");
+        sb.append("      <inheritCaRevocation>true</inheritCaRevocation>\n");
+        sb.append("      <signer>signer1</signer>\n");
+        sb.append("      <request>request1</request>\n");
+        sb.append("      <response>response1</response>\n");
+        sb.append("      <stores>\n");
+        sb.append("        <store>crlstore1</store>\n");
+        sb.append("      </stores>\n");
+        sb.append("    </responder>\n");
+        sb.append("  </responders>\n");
+        sb.append("  <signers>\n");
+        sb.append("    <signer name=\"signer1\">\n");
+        sb.append("      <type>PKCS12</type>\n");
+        sb.append("      <key>password=").append(BenchmarkUtil.KEYSTORE_PASSWORD);
+        sb.append(",keystore=file:").append(toXmlPath(keystoreFile)).append("</key>\n");
+        sb.append("      <algorithms>\n");
+        sb.append("        <algorithm>").append(BenchmarkUtil.getSignatureAlgorithm(keyType));
+        sb.append("</algorithm>\n");
+        sb.append("      </algorithms>\n");
+        sb.append("    </signer>\n");
+        sb.append("  </signers>\n");
+        sb.append("  <stores>\n");
+        sb.append("    <store name=\"crlstore1\">\n");
+        sb.append("      <source>\n");
+        sb.append("        <type>CRL</type>\n");
+        sb.append("        <conf>\n");
+        sb.append("crl.file=").append(toXmlPath(crlFile)).append("\n");
+        sb.append("caCert.file=").append(toXmlPath(caCertFile)).append("\n");
+        sb.append("crlIndex.dir=").append(toXmlPath(crlIndexDir)).append("\n");
+        sb.append("useUpdateDatesFromCrl=true\n");
+        sb.append("        </conf>\n");
+        sb.append("      </source>\n");
+        sb.append("      <unknownSerialAsGood>true</unknownSerialAsGood>\n");
+        sb.append("      <includeArchiveCutoff>false</includeArchiveCutoff>\n");
+        sb.append("      <includeCrlID>true</includeCrlID>\n");
+        sb.append("    </store>\n");
+        sb.append("  </stores>\n");
+        sb.append("  <requestOptions>\n");
+        sb.append("    <requestOption name=\"request1\">\n");
+        sb.append("      <supportsHttpGet>true</supportsHttpGet>\n");
+        sb.append("      <signatureRequired>false</signatureRequired>\n");
+        sb.append("      <validateSignature>false</validateSignature>\n");
+        sb.append("      <hashAlgorithms>\n");
+        sb.append("        <algorithm>SHA1</algorithm>\n");
+        sb.append("        <algorithm>SHA256</algorithm>\n");
+        sb.append("      </hashAlgorithms>\n");
+        sb.append("    </requestOption>\n");
+        sb.append("  </requestOptions>\n");
+        sb.append("  <responseOptions>\n");
+        sb.append("    <responseOption name=\"response1\">\n");
+        sb.append("      <responderIdByName>true</responderIdByName>\n");
+        sb.append("      <embedCertsMode>SIGNER</embedCertsMode>\n");
+        sb.append("      <includeRevReason>true</includeRevReason>\n");
+        sb.append("      <includeInvalidityDate>true</includeInvalidityDate>\n");
+        sb.append("      <includeCertHash>false</includeCertHash>\n");
+        sb.append("    </responseOption>\n");
+        sb.append("  </responseOptions>\n");
+        sb.append("</OCSPServer>\n");
+        return sb.toString();
+    }
+
+    private static String toXmlPath(final File file) {
+        return file.getAbsolutePath().replace('\\', '/');
+    }
+
+}
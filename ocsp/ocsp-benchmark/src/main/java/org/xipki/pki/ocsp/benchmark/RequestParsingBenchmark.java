@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.util.encoders.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.pki.ocsp.server.impl.HttpOcspServlet;
+
+/**
+ * Parsing of OCSP requests as done by the {@link HttpOcspServlet} for POST and GET requests.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    @Param({"1", "10"})
+    private int numCertIds;
+
+    private byte[] encodedRequest;
+
+    private String base64Request;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair caKeyPair = BenchmarkUtil.generateKeyPair("RSA");
+        X509Certificate caCert = BenchmarkUtil.generateCaCert(caKeyPair, "RSA");
+
+        BigInteger[] serialNumbers = new BigInteger[numCertIds];
+        for (int i = 0; i < numCertIds; i++) {
+            serialNumbers[i] = BigInteger.valueOf(1000 + i);
+        }
+
+        encodedRequest = BenchmarkUtil.buildOcspRequest(caCert, serialNumbers);
+        base64Request = Base64.toBase64String(encodedRequest);
+    }
+
+    @Benchmark
+    public OCSPReq parsePostRequest() throws Exception {
+        return HttpOcspServlet.parseRequest(new ByteArrayInputStream(encodedRequest));
+    }
+
+    @Benchmark
+    public OCSPReq parseGetRequest() throws Exception {
+        return HttpOcspServlet.parseRequest(new ByteArrayInputStream(
+                Base64.decode(base64Request)));
+    }
+
+}
@@ -39,7 +39,11 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -49,7 +53,6 @@ import org.bouncycastle.asn1.ASN1OutputStream;
 import org.bouncycastle.asn1.ASN1StreamParser;
 import org.bouncycastle.asn1.ocsp.OCSPRequest;
 import org.bouncycastle.cert.ocsp.OCSPReq;
-import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.util.encoders.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +66,7 @@ import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.common.util.StringUtil;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.pki.ocsp.server.impl.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.pki.ocsp.server.impl.RequestPipeline.Stage;
 
 /**
  * @author Lijun Liao
@@ -71,6 +75,219 @@ import org.xipki.pki.ocsp.server.impl.OcspRespWithCacheInfo.ResponseCacheInfo;
 
 public class HttpOcspServlet extends HttpServlet {
 
+    private static class RequestAudit {
+
+        private AuditLevel level = AuditLevel.INFO;
+
+        private AuditStatus status = AuditStatus.SUCCESSFUL;
+
+        private String message;
+
+    }
+
+    /**
+     * Request processed by the {@link RequestPipeline}. Each stage hands the request over
+     * to the next one, the request is answered with tryLater if a stage is saturated.
+     */
+    private final class AsyncRequest {
+
+        private final AsyncContext asyncContext;
+
+        private final HttpServletResponse response;
+
+        private final Responder responder;
+
+        private final boolean getMethod;
+
+        private final AuditEvent event;
+
+        private final RequestAudit audit;
+
+        private final RequestPipeline pipeline;
+
+        /**
+         * Set by the thread which answers the request first: the worker thread of the stage
+         * write or of a failed stage, or the container thread on timeout.
+         */
+        private final AtomicBoolean answered = new AtomicBoolean(false);
+
+        AsyncRequest(final AsyncContext asyncContext, final HttpServletResponse response,
+                final Responder responder, final boolean getMethod, final AuditEvent event,
+                final RequestAudit audit, final RequestPipeline pipeline) {
+            this.asyncContext = asyncContext;
+            this.response = response;
+            this.responder = responder;
+            this.getMethod = getMethod;
+            this.event = event;
+            this.audit = audit;
+            this.pipeline = pipeline;
+        }
+
+        void parse(final InputStream requestStream) {
+            if (isTimedOut()) {
+                return;
+            }
+
+            final OCSPReq ocspReq;
+            try {
+                ocspReq = parseRequest(requestStream);
+            } catch (Throwable th) {
+                LogUtil.error(LOG, th, "could not parse the request (OCSPRequest)");
+                if (answered.compareAndSet(false, true)) {
+                    response.setContentLength(0);
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    audit.status = AuditStatus.FAILED;
+                    audit.message = "bad request";
+                    complete();
+                }
+                return;
+            }
+
+            submit(Stage.LOOKUP, new Runnable() {
+                @Override
+                public void run() {
+                    lookup(ocspReq);
+                }
+            });
+        }
+
+        void lookup(final OCSPReq ocspReq) {
+            if (isTimedOut()) {
+                return;
+            }
+
+            final OcspServer.PreparedAnswer prepared;
+            try {
+                prepared = server.prepareAnswer(responder, ocspReq, getMethod, event);
+            } catch (Throwable th) {
+                fail(th);
+                return;
+            }
+
+            if (prepared.getResponse() != null) {
+                submitWrite(prepared.getResponse());
+                return;
+            }
+
+            submit(Stage.SIGN, new Runnable() {
+                @Override
+                public void run() {
+                    sign(prepared);
+                }
+            });
+        }
+
+        void sign(final OcspServer.PreparedAnswer prepared) {
+            if (isTimedOut()) {
+                return;
+            }
+
+            OcspRespWithCacheInfo ocspRespWithCacheInfo;
+            try {
+                ocspRespWithCacheInfo = server.signAnswer(prepared, pipeline.getSignTimeout());
+            } catch (Throwable th) {
+                fail(th);
+                return;
+            }
+
+            submitWrite(ocspRespWithCacheInfo);
+        }
+
+        void write(final OcspRespWithCacheInfo ocspRespWithCacheInfo) {
+            if (!answered.compareAndSet(false, true)) {
+                abandon();
+                return;
+            }
+
+            try {
+                response.setContentType(HttpOcspServlet.CT_RESPONSE);
+                writeResponse(response, responder, ocspRespWithCacheInfo, getMethod, audit);
+            } catch (Throwable th) {
+                LogUtil.error(LOG, th, "could not write the response");
+                audit.level = AuditLevel.ERROR;
+                audit.status = AuditStatus.FAILED;
+                audit.message = "internal error";
+            } finally {
+                complete();
+            }
+        }
+
+        private void submitWrite(final OcspRespWithCacheInfo ocspRespWithCacheInfo) {
+            submit(Stage.WRITE, new Runnable() {
+                @Override
+                public void run() {
+                    write(ocspRespWithCacheInfo);
+                }
+            });
+        }
+
+        /**
+         * Hands the request over to the given stage, answers it with tryLater if the stage
+         * is saturated.
+         */
+        void submit(final Stage stage, final Runnable task) {
+            if (pipeline.submit(stage, task)) {
+                return;
+            }
+
+            // fail fast instead of waiting for an idle worker
+            if (answered.compareAndSet(false, true)) {
+                audit.status = AuditStatus.FAILED;
+                audit.message = "request pipeline saturated in stage " + stage.getName();
+                try {
+                    writeTryLater(response);
+                } catch (IOException ex) {
+                    LogUtil.warn(LOG, ex, "could not send tryLater response");
+                } finally {
+                    complete();
+                }
+            }
+        }
+
+        private void fail(final Throwable th) {
+            final String message = "Throwable thrown, this should not happen!";
+            LogUtil.error(LOG, th, message);
+
+            audit.level = AuditLevel.ERROR;
+            audit.status = AuditStatus.FAILED;
+            audit.message = "internal error";
+
+            if (answered.compareAndSet(false, true)) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                response.setContentLength(0);
+                complete();
+            } else {
+                logAuditEvent(event, audit);
+            }
+        }
+
+        private boolean isTimedOut() {
+            if (answered.get()) {
+                abandon();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * The response has been sent by the container thread.
+         */
+        private void abandon() {
+            audit.status = AuditStatus.FAILED;
+            audit.message = "timeout";
+            logAuditEvent(event, audit);
+        }
+
+        private void complete() {
+            try {
+                finishRequest(response, event, audit);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+    } // class AsyncRequest
+
     private static final Logger LOG = LoggerFactory.getLogger(HttpOcspServlet.class);
 
     private static final long serialVersionUID = 1L;
@@ -129,12 +346,8 @@ public class HttpOcspServlet extends HttpServlet {
             final boolean getMethod) throws ServletException, IOException {
         Responder responder = respAndUri.getResponder();
         AuditEvent event = null;
-        AuditLevel auditLevel = AuditLevel.INFO;
-        AuditStatus auditStatus = AuditStatus.SUCCESSFUL;
-        String auditMessage = null;
-
-        AuditService auditService = (auditServiceRegister == null) ? null
-                : auditServiceRegister.getAuditService();
+        RequestAudit audit = new RequestAudit();
+        boolean asyncStarted = false;
 
         if (responder.getAuditOption() != null) {
             event = new AuditEvent(new Date());
@@ -149,9 +362,9 @@ public class HttpOcspServlet extends HttpServlet {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 response.setContentLength(0);
 
-                auditLevel = AuditLevel.ERROR;
-                auditStatus = AuditStatus.FAILED;
-                auditMessage = message;
+                audit.level = AuditLevel.ERROR;
+                audit.status = AuditStatus.FAILED;
+                audit.message = message;
                 return;
             }
 
@@ -165,8 +378,8 @@ public class HttpOcspServlet extends HttpServlet {
                     response.setContentLength(0);
                     response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
 
-                    auditStatus = AuditStatus.FAILED;
-                    auditMessage = "request too large";
+                    audit.status = AuditStatus.FAILED;
+                    audit.message = "request too large";
                     return;
                 }
 
@@ -177,8 +390,8 @@ public class HttpOcspServlet extends HttpServlet {
                     response.setContentLength(0);
                     response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
 
-                    auditStatus = AuditStatus.FAILED;
-                    auditMessage = "unsupported media type " + request.getContentType();
+                    audit.status = AuditStatus.FAILED;
+                    audit.message = "unsupported media type " + request.getContentType();
                     return;
                 }
 
@@ -187,99 +400,43 @@ public class HttpOcspServlet extends HttpServlet {
                     response.setContentLength(0);
                     response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
 
-                    auditStatus = AuditStatus.FAILED;
-                    auditMessage = "request too large";
+                    audit.status = AuditStatus.FAILED;
+                    audit.message = "request too large";
                     return;
                 } // if (CT_REQUEST)
 
                 requestStream = request.getInputStream();
             } // end if (getMethod)
 
-            OCSPRequest ocspRequest;
+            RequestPipeline pipeline = server.getRequestPipeline();
+            if (pipeline != null && request.isAsyncSupported()) {
+                // the remaining work is done by the pipeline and the container thread
+                // is released.
+                processRequestAsync(request, response, responder, requestStream, getMethod,
+                        event, audit, pipeline);
+                asyncStarted = true;
+                return;
+            }
+
+            OCSPReq ocspReq;
             try {
-                ASN1StreamParser parser = new ASN1StreamParser(requestStream);
-                ocspRequest = OCSPRequest.getInstance(parser.readObject());
+                ocspReq = parseRequest(requestStream);
             } catch (Exception ex) {
                 response.setContentLength(0);
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 
-                auditStatus = AuditStatus.FAILED;
-                auditMessage = "bad request";
+                audit.status = AuditStatus.FAILED;
+                audit.message = "bad request";
 
                 LogUtil.error(LOG, ex, "could not parse the request (OCSPRequest)");
                 return;
             }
 
-            OCSPReq ocspReq = new OCSPReq(ocspRequest);
-
             response.setContentType(HttpOcspServlet.CT_RESPONSE);
 
             OcspRespWithCacheInfo ocspRespWithCacheInfo =
                     server.answer(responder, ocspReq, getMethod, event);
-            if (ocspRespWithCacheInfo == null) {
-                auditMessage = "processRequest returned null, this should not happen";
-                LOG.error(auditMessage);
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                response.setContentLength(0);
-
-                auditLevel = AuditLevel.ERROR;
-                auditStatus = AuditStatus.FAILED;
-            } else {
-                OCSPResp resp = ocspRespWithCacheInfo.getResponse();
-                byte[] encodedOcspResp = null;
-                response.setStatus(HttpServletResponse.SC_OK);
-
-                ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
-                if (getMethod && cacheInfo != null) {
-                    encodedOcspResp = resp.getEncoded();
-                    long now = System.currentTimeMillis();
-                    // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
-                    // the HTTP response.
-                    response.setDateHeader("Date", now);
-                    // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
-                    // last modified the response.
-                    response.setDateHeader("Last-Modified", cacheInfo.getThisUpdate());
-                    // RFC 5019 6.2: Expires: This date and time will be the same as the
-                    // nextUpdate time-stamp in the OCSP
-                    // response itself.
-                    // This is overridden by max-age on HTTP/1.1 compatible components
-                    if (cacheInfo.getNextUpdate() != null) {
-                        response.setDateHeader("Expires", cacheInfo.getNextUpdate());
-                    }
-                    // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
-                    // HEX representation of the SHA1 hash of the OCSPResponse structure.
-                    response.setHeader("ETag",
-                            new StringBuilder(42).append('\\')
-                                .append(HashAlgoType.SHA1.hexHash(encodedOcspResp))
-                                .append('\\')
-                            .toString());
-
-                    // Max age must be in seconds in the cache-control header
-                    long maxAge;
-                    if (responder.getResponseOption().getCacheMaxAge() != null) {
-                        maxAge = responder.getResponseOption().getCacheMaxAge().longValue();
-                    } else {
-                        maxAge = OcspServer.DFLT_CACHE_MAX_AGE;
-                    }
-
-                    if (cacheInfo.getNextUpdate() != null) {
-                        maxAge = Math.min(maxAge,
-                                (cacheInfo.getNextUpdate() - cacheInfo.getThisUpdate()) / 1000);
-                    }
-
-                    response.setHeader("Cache-Control",
-                            new StringBuilder(55).append("max-age=").append(maxAge)
-                                .append(",public,no-transform,must-revalidate").toString());
-                } // end if (getMethod && cacheInfo != null)
-
-                if (encodedOcspResp != null) {
-                    response.getOutputStream().write(encodedOcspResp);
-                } else {
-                    ASN1OutputStream asn1Out = new ASN1OutputStream(response.getOutputStream());
-                    asn1Out.writeObject(resp.toASN1Structure());
-                    asn1Out.flush();
-                }
-            } // end if (ocspRespWithCacheInfo)
+            writeResponse(response, responder, ocspRespWithCacheInfo, getMethod, audit);
         } catch (EOFException ex) {
             LogUtil.warn(LOG, ex, "Connection reset by peer");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -291,38 +448,187 @@ public class HttpOcspServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.setContentLength(0);
 
-            auditLevel = AuditLevel.ERROR;
-            auditStatus = AuditStatus.FAILED;
-            auditMessage = "internal error";
+            audit.level = AuditLevel.ERROR;
+            audit.status = AuditStatus.FAILED;
+            audit.message = "internal error";
         } finally {
-            try {
-                response.flushBuffer();
-            } catch (IOException ex) {
-                final String message = "error while calling responsse.flushBuffer";
-                LogUtil.error(LOG, ex, message);
-                auditLevel = AuditLevel.ERROR;
-                auditStatus = AuditStatus.FAILED;
-                auditMessage = "internal error";
-            } finally {
-                if (event != null) {
-                    if (auditLevel != null) {
-                        event.setLevel(auditLevel);
-                    }
-
-                    if (auditStatus != null) {
-                        event.setStatus(auditStatus);
-                    }
+            if (!asyncStarted) {
+                finishRequest(response, event, audit);
+            }
+        } // end external try
+    } // method processRequest
 
-                    if (auditMessage != null) {
-                        event.addEventData(OcspAuditConstants.NAME_message, auditMessage);
-                    }
+    /**
+     * Parses the DER-encoded OCSP request.
+     *
+     * @param requestStream stream of the encoded OCSP request. Must not be {@code null}.
+     * @return the parsed OCSP request.
+     * @throws IOException if the request could not be read.
+     */
+    public static OCSPReq parseRequest(final InputStream requestStream) throws IOException {
+        ASN1StreamParser parser = new ASN1StreamParser(requestStream);
+        return new OCSPReq(OCSPRequest.getInstance(parser.readObject()));
+    }
 
-                    event.finish();
-                    auditService.logEvent(event);
+    private void processRequestAsync(final HttpServletRequest request,
+            final HttpServletResponse response, final Responder responder,
+            final InputStream requestStream, final boolean getMethod, final AuditEvent event,
+            final RequestAudit audit, final RequestPipeline pipeline) {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(pipeline.getTimeout());
+
+        final AsyncRequest asyncRequest = new AsyncRequest(asyncContext, response, responder,
+                getMethod, event, audit, pipeline);
+
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent asyncEvent) throws IOException {
+                if (asyncRequest.answered.compareAndSet(false, true)) {
+                    LOG.warn("request not answered within {} ms, send tryLater",
+                            pipeline.getTimeout());
+                    writeTryLater(response);
+                    asyncContext.complete();
                 }
-            } // end internal try
-        } // end external try
-    } // method processRequest
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent asyncEvent) throws IOException {
+            }
+
+            @Override
+            public void onError(final AsyncEvent asyncEvent) throws IOException {
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent asyncEvent) throws IOException {
+            }
+        });
+
+        asyncRequest.submit(Stage.PARSE, new Runnable() {
+            @Override
+            public void run() {
+                asyncRequest.parse(requestStream);
+            }
+        });
+    } // method processRequestAsync
+
+    private void writeResponse(final HttpServletResponse response, final Responder responder,
+            final OcspRespWithCacheInfo ocspRespWithCacheInfo, final boolean getMethod,
+            final RequestAudit audit) throws IOException {
+        if (ocspRespWithCacheInfo == null) {
+            audit.message = "processRequest returned null, this should not happen";
+            LOG.error(audit.message);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.setContentLength(0);
+
+            audit.level = AuditLevel.ERROR;
+            audit.status = AuditStatus.FAILED;
+            return;
+        }
+
+        // responses taken from the response cache are already encoded
+        byte[] encodedOcspResp = ocspRespWithCacheInfo.hasEncodedResponse()
+                ? ocspRespWithCacheInfo.getEncodedResponse() : null;
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
+        if (getMethod && cacheInfo != null) {
+            encodedOcspResp = ocspRespWithCacheInfo.getEncodedResponse();
+            long now = System.currentTimeMillis();
+            // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
+            // the HTTP response.
+            response.setDateHeader("Date", now);
+            // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
+            // last modified the response.
+            response.setDateHeader("Last-Modified", cacheInfo.getThisUpdate());
+            // RFC 5019 6.2: Expires: This date and time will be the same as the
+            // nextUpdate time-stamp in the OCSP
+            // response itself.
+            // This is overridden by max-age on HTTP/1.1 compatible components
+            if (cacheInfo.getNextUpdate() != null) {
+                response.setDateHeader("Expires", cacheInfo.getNextUpdate());
+            }
+            // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
+            // HEX representation of the SHA1 hash of the OCSPResponse structure.
+            response.setHeader("ETag",
+                    new StringBuilder(42).append('\\')
+                        .append(HashAlgoType.SHA1.hexHash(encodedOcspResp))
+                        .append('\\')
+                    .toString());
+
+            // Max age must be in seconds in the cache-control header
+            long maxAge;
+            if (responder.getResponseOption().getCacheMaxAge() != null) {
+                maxAge = responder.getResponseOption().getCacheMaxAge().longValue();
+            } else {
+                maxAge = OcspServer.DFLT_CACHE_MAX_AGE;
+            }
+
+            if (cacheInfo.getNextUpdate() != null) {
+                maxAge = Math.min(maxAge,
+                        (cacheInfo.getNextUpdate() - cacheInfo.getThisUpdate()) / 1000);
+            }
+
+            response.setHeader("Cache-Control",
+                    new StringBuilder(55).append("max-age=").append(maxAge)
+                        .append(",public,no-transform,must-revalidate").toString());
+        } // end if (getMethod && cacheInfo != null)
+
+        if (encodedOcspResp != null) {
+            response.getOutputStream().write(encodedOcspResp);
+        } else {
+            ASN1OutputStream asn1Out = new ASN1OutputStream(response.getOutputStream());
+            asn1Out.writeObject(ocspRespWithCacheInfo.getResponse().toASN1Structure());
+            asn1Out.flush();
+        }
+    } // method writeResponse
+
+    private static void writeTryLater(final HttpServletResponse response) throws IOException {
+        response.setContentType(HttpOcspServlet.CT_RESPONSE);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getOutputStream().write(OcspServer.createUnsuccessfulOcspResp(
+                OcspResponseStatus.tryLater).getEncodedResponse());
+    }
+
+    private void finishRequest(final HttpServletResponse response, final AuditEvent event,
+            final RequestAudit audit) {
+        try {
+            response.flushBuffer();
+        } catch (IOException ex) {
+            final String message = "error while calling responsse.flushBuffer";
+            LogUtil.error(LOG, ex, message);
+            audit.level = AuditLevel.ERROR;
+            audit.status = AuditStatus.FAILED;
+            audit.message = "internal error";
+        } finally {
+            logAuditEvent(event, audit);
+        }
+    }
+
+    private void logAuditEvent(final AuditEvent event, final RequestAudit audit) {
+        if (event == null) {
+            return;
+        }
+
+        if (audit.level != null) {
+            event.setLevel(audit.level);
+        }
+
+        if (audit.status != null) {
+            event.setStatus(audit.status);
+        }
+
+        if (audit.message != null) {
+            event.addEventData(OcspAuditConstants.NAME_message, audit.message);
+        }
+
+        event.finish();
+        AuditService auditService = (auditServiceRegister == null) ? null
+                : auditServiceRegister.getAuditService();
+        if (auditService != null) {
+            auditService.logEvent(event);
+        }
+    }
 
     public void setAuditServiceRegister(final AuditServiceRegister auditServiceRegister) {
         this.auditServiceRegister = ParamUtil.requireNonNull("auditServiceRegister",
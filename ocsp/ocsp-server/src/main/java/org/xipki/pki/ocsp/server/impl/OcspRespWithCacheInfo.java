@@ -34,6 +34,8 @@
 
 package org.xipki.pki.ocsp.server.impl;
 
+import java.io.IOException;
+
 import org.bouncycastle.cert.ocsp.OCSPResp;
 
 /**
@@ -67,7 +69,9 @@ class OcspRespWithCacheInfo {
 
     } // class ResponseCacheInfo
 
-    private final OCSPResp response;
+    private OCSPResp response;
+
+    private byte[] encodedResponse;
 
     private final ResponseCacheInfo cacheInfo;
 
@@ -76,10 +80,29 @@ class OcspRespWithCacheInfo {
         this.cacheInfo = cacheInfo;
     }
 
-    public OCSPResp getResponse() {
+    OcspRespWithCacheInfo(final byte[] encodedResponse, final ResponseCacheInfo cacheInfo) {
+        this.encodedResponse = encodedResponse;
+        this.cacheInfo = cacheInfo;
+    }
+
+    public OCSPResp getResponse() throws IOException {
+        if (response == null) {
+            response = new OCSPResp(encodedResponse);
+        }
         return response;
     }
 
+    public byte[] getEncodedResponse() throws IOException {
+        if (encodedResponse == null) {
+            encodedResponse = response.getEncoded();
+        }
+        return encodedResponse;
+    }
+
+    public boolean hasEncodedResponse() {
+        return encodedResponse != null;
+    }
+
     public ResponseCacheInfo getCacheInfo() {
         return cacheInfo;
     }
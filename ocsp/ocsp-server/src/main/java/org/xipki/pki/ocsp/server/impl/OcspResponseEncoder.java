@@ -0,0 +1,347 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.xipki.commons.security.ObjectIdentifiers;
+
+/**
+ * Writes OCSP responses with exactly one SingleResponse directly in DER, using
+ * pre-encoded fragments for the static parts. The result is identical to the encoding
+ * of the corresponding {@link org.bouncycastle.cert.ocsp.OCSPResp}.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+final class OcspResponseEncoder {
+
+    /**
+     * Reusable buffer of a thread holding the encoded ResponseData.
+     */
+    static final class ResponseDataBuffer {
+
+        private byte[] bytes = new byte[DFLT_BUFFER_SIZE];
+
+        private int length;
+
+        private ResponseDataBuffer() {
+        }
+
+        /**
+         * Gets the buffer, the encoded ResponseData starts at offset 0.
+         */
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private byte[] reset(final int newLength) {
+            if (bytes.length < newLength) {
+                bytes = new byte[newLength];
+            }
+            length = newLength;
+            return bytes;
+        }
+
+    } // class ResponseDataBuffer
+
+    private static final int DFLT_BUFFER_SIZE = 2048;
+
+    private static final ThreadLocal<ResponseDataBuffer> BUFFERS =
+            new ThreadLocal<ResponseDataBuffer>() {
+                @Override
+                protected ResponseDataBuffer initialValue() {
+                    return new ResponseDataBuffer();
+                }
+            };
+
+    static final byte TAG_SEQUENCE = 0x30;
+
+    static final byte TAG_OCTET_STRING = 0x04;
+
+    static final byte TAG_BIT_STRING = 0x03;
+
+    static final byte TAG_ENUMERATED = 0x0A;
+
+    static final byte TAG_GENERALIZED_TIME = 0x18;
+
+    static final int GENERALIZED_TIME_LEN = 17; // 0x18 0x0F yyyyMMddHHmmssZ
+
+    /**
+     * Encoded Extension id-pkix-ocsp-extended-revoke (critical) with the value NULL.
+     */
+    static final byte[] EXTENDED_REVOKE_EXTENSION;
+
+    private static final byte[] ID_PKIX_OCSP_BASIC;
+
+    private static final byte[] RESPONSE_STATUS_SUCCESSFUL = new byte[]{TAG_ENUMERATED, 1, 0};
+
+    static {
+        try {
+            ID_PKIX_OCSP_BASIC = OCSPObjectIdentifiers.id_pkix_ocsp_basic.getEncoded();
+            EXTENDED_REVOKE_EXTENSION = new Extension(ObjectIdentifiers.id_pkix_ocsp_extendedRevoke,
+                    true, DERNull.INSTANCE.getEncoded()).getEncoded(ASN1Encoding.DER);
+        } catch (IOException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private OcspResponseEncoder() {
+    }
+
+    /**
+     * Encodes the ResponseData.
+     *
+     * @param responderId
+     *          Encoded ResponderID. Must not be {@code null}.
+     * @param producedAt
+     *          Time (in milliseconds) at which the response is produced.
+     * @param singleResponse
+     *          The only SingleResponse. Must not be {@code null}.
+     * @param responseExtensions
+     *          Encoded Extension of the responseExtensions. Could be {@code null} or empty.
+     * @return the buffer of the current thread holding the encoded ResponseData. It is
+     *         overwritten by the next call of this method in the same thread.
+     * @throws IOException
+     *         if the CertID could not be encoded.
+     */
+    static ResponseDataBuffer encodeResponseData(final byte[] responderId, final long producedAt,
+            final SingleResponseInfo singleResponse, final List<byte[]> responseExtensions)
+    throws IOException {
+        int singleResponseLen = singleResponse.getEncodedLength();
+        // responses: SEQUENCE OF SingleResponse
+        int responsesBodyLen = getTlvLength(singleResponseLen);
+        int responsesLen = getTlvLength(responsesBodyLen);
+
+        int extnsLen = 0;
+        int extnsSeqLen = 0;
+        if (responseExtensions != null && !responseExtensions.isEmpty()) {
+            for (byte[] extn : responseExtensions) {
+                extnsLen += extn.length;
+            }
+            extnsSeqLen = getTlvLength(extnsLen);
+        }
+
+        int bodyLen = responderId.length + GENERALIZED_TIME_LEN + responsesLen
+                + ((extnsSeqLen == 0) ? 0 : getTlvLength(extnsSeqLen));
+
+        ResponseDataBuffer buffer = BUFFERS.get();
+        byte[] buf = buffer.reset(getTlvLength(bodyLen));
+        int off = writeHeader(buf, 0, TAG_SEQUENCE, bodyLen);
+        off = writeBytes(buf, off, responderId);
+        off = writeGeneralizedTime(buf, off, producedAt);
+        off = writeHeader(buf, off, TAG_SEQUENCE, responsesBodyLen);
+        off = writeHeader(buf, off, TAG_SEQUENCE, singleResponseLen);
+        off = singleResponse.write(buf, off);
+
+        if (extnsSeqLen != 0) {
+            // responseExtensions [1] EXPLICIT Extensions
+            off = writeHeader(buf, off, (byte) 0xA1, extnsSeqLen);
+            off = writeHeader(buf, off, TAG_SEQUENCE, extnsLen);
+            for (byte[] extn : responseExtensions) {
+                off = writeBytes(buf, off, extn);
+            }
+        }
+
+        return buffer;
+    } // method encodeResponseData
+
+    /**
+     * Encodes the successful OCSPResponse.
+     *
+     * @param responseData
+     *          Buffer holding the encoded ResponseData. Must not be {@code null}.
+     * @param signatureAlgorithm
+     *          Encoded AlgorithmIdentifier of the signature. Must not be {@code null}.
+     * @param signature
+     *          Signature over the responseData. Must not be {@code null}.
+     * @param certs
+     *          Encoded field certs ([0] EXPLICIT SEQUENCE OF Certificate). Could be
+     *          {@code null}.
+     * @return the encoded OCSPResponse.
+     */
+    static byte[] encodeOcspResponse(final ResponseDataBuffer responseData,
+            final byte[] signatureAlgorithm, final byte[] signature, final byte[] certs) {
+        int bitStringLen = signature.length + 1;
+        int basicRespLen = responseData.length + signatureAlgorithm.length
+                + getTlvLength(bitStringLen) + ((certs == null) ? 0 : certs.length);
+        int octetStringLen = getTlvLength(basicRespLen);
+        int responseBytesLen = ID_PKIX_OCSP_BASIC.length + getTlvLength(octetStringLen);
+        int taggedLen = getTlvLength(responseBytesLen);
+        int bodyLen = RESPONSE_STATUS_SUCCESSFUL.length + getTlvLength(taggedLen);
+
+        byte[] buf = new byte[getTlvLength(bodyLen)];
+        // OCSPResponse
+        int off = writeHeader(buf, 0, TAG_SEQUENCE, bodyLen);
+        off = writeBytes(buf, off, RESPONSE_STATUS_SUCCESSFUL);
+        // responseBytes [0] EXPLICIT ResponseBytes
+        off = writeHeader(buf, off, (byte) 0xA0, taggedLen);
+        off = writeHeader(buf, off, TAG_SEQUENCE, responseBytesLen);
+        off = writeBytes(buf, off, ID_PKIX_OCSP_BASIC);
+        off = writeHeader(buf, off, TAG_OCTET_STRING, octetStringLen);
+        // BasicOCSPResponse
+        off = writeHeader(buf, off, TAG_SEQUENCE, basicRespLen);
+        System.arraycopy(responseData.bytes, 0, buf, off, responseData.length);
+        off += responseData.length;
+        off = writeBytes(buf, off, signatureAlgorithm);
+        off = writeHeader(buf, off, TAG_BIT_STRING, bitStringLen);
+        buf[off++] = 0; // no unused bits
+        off = writeBytes(buf, off, signature);
+        if (certs != null) {
+            writeBytes(buf, off, certs);
+        }
+
+        return buf;
+    } // method encodeOcspResponse
+
+    /**
+     * Gets the length of the encoded Extension with the given OID and value (an encoded
+     * ASN.1 object), not critical.
+     */
+    static int getExtensionLength(final byte[] extnId, final int valueLen) {
+        return getTlvLength(extnId.length + getTlvLength(valueLen));
+    }
+
+    /**
+     * Writes the header of a not-critical Extension. The encoded value with the length
+     * {@code valueLen} must be written afterwards.
+     */
+    static int writeExtensionHeader(final byte[] buf, final int off, final byte[] extnId,
+            final int valueLen) {
+        int tmpOff = writeHeader(buf, off, TAG_SEQUENCE,
+                extnId.length + getTlvLength(valueLen));
+        tmpOff = writeBytes(buf, tmpOff, extnId);
+        return writeHeader(buf, tmpOff, TAG_OCTET_STRING, valueLen);
+    }
+
+    static byte[] getEncodedOid(final ASN1ObjectIdentifier oid) {
+        try {
+            return oid.getEncoded();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("could not encode OID " + oid.getId(), ex);
+        }
+    }
+
+    /**
+     * Gets the length of a TLV whose value has the given length.
+     */
+    static int getTlvLength(final int bodyLen) {
+        return 1 + getLengthOfLength(bodyLen) + bodyLen;
+    }
+
+    static int writeHeader(final byte[] buf, final int off, final byte tag, final int len) {
+        int tmpOff = off;
+        buf[tmpOff++] = tag;
+        if (len < 0x80) {
+            buf[tmpOff++] = (byte) len;
+            return tmpOff;
+        }
+
+        int numBytes = getLengthOfLength(len) - 1;
+        buf[tmpOff++] = (byte) (0x80 | numBytes);
+        for (int i = numBytes - 1; i >= 0; i--) {
+            buf[tmpOff++] = (byte) (len >>> (8 * i));
+        }
+        return tmpOff;
+    }
+
+    static int writeBytes(final byte[] buf, final int off, final byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, off, bytes.length);
+        return off + bytes.length;
+    }
+
+    /**
+     * Writes the time as GeneralizedTime in the format yyyyMMddHHmmssZ. Fractions of
+     * seconds are cut off.
+     */
+    static int writeGeneralizedTime(final byte[] buf, final int off, final long millis) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), 0,
+                ZoneOffset.UTC);
+        int tmpOff = off;
+        buf[tmpOff++] = TAG_GENERALIZED_TIME;
+        buf[tmpOff++] = GENERALIZED_TIME_LEN - 2;
+        tmpOff = writeDigits(buf, tmpOff, time.getYear(), 4);
+        tmpOff = writeDigits(buf, tmpOff, time.getMonthValue(), 2);
+        tmpOff = writeDigits(buf, tmpOff, time.getDayOfMonth(), 2);
+        tmpOff = writeDigits(buf, tmpOff, time.getHour(), 2);
+        tmpOff = writeDigits(buf, tmpOff, time.getMinute(), 2);
+        tmpOff = writeDigits(buf, tmpOff, time.getSecond(), 2);
+        buf[tmpOff++] = 'Z';
+        return tmpOff;
+    }
+
+    private static int writeDigits(final byte[] buf, final int off, final int value,
+            final int numDigits) {
+        int tmpValue = value;
+        for (int i = numDigits - 1; i >= 0; i--) {
+            buf[off + i] = (byte) ('0' + tmpValue % 10);
+            tmpValue /= 10;
+        }
+        return off + numDigits;
+    }
+
+    private static int getLengthOfLength(final int len) {
+        if (len < 0x80) {
+            return 1;
+        } else if (len < 0x100) {
+            return 2;
+        } else if (len < 0x10000) {
+            return 3;
+        } else if (len < 0x1000000) {
+            return 4;
+        } else {
+            return 5;
+        }
+    }
+
+}
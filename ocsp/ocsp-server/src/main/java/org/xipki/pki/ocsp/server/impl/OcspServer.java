@@ -53,6 +53,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -66,16 +67,11 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.DERNull;
-import org.bouncycastle.asn1.isismtt.ISISMTTObjectIdentifiers;
-import org.bouncycastle.asn1.isismtt.ocsp.CertHash;
 import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
 import org.bouncycastle.asn1.ocsp.OCSPResponse;
-import org.bouncycastle.asn1.ocsp.RevokedInfo;
-import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -85,12 +81,11 @@ import org.bouncycastle.cert.ocsp.CertificateID;
 import org.bouncycastle.cert.ocsp.CertificateStatus;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.Req;
 import org.bouncycastle.cert.ocsp.RespID;
-import org.bouncycastle.cert.ocsp.RevokedStatus;
-import org.bouncycastle.cert.ocsp.UnknownStatus;
 import org.bouncycastle.operator.ContentVerifierProvider;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
@@ -124,6 +119,7 @@ import org.xipki.commons.security.SecurityFactory;
 import org.xipki.commons.security.SignerConf;
 import org.xipki.commons.security.exception.NoIdleSignerException;
 import org.xipki.commons.security.util.X509Util;
+import org.xipki.pki.ocsp.api.CertIdKey;
 import org.xipki.pki.ocsp.api.CertStatus;
 import org.xipki.pki.ocsp.api.CertStatusInfo;
 import org.xipki.pki.ocsp.api.CertprofileOption;
@@ -189,9 +185,13 @@ public class OcspServer {
 
     private static class OcspRespControl {
         boolean couldCacheInfo;
+        boolean couldCacheResponse;
         boolean includeExtendedRevokeExtension;
         long cacheThisUpdate;
         long cacheNextUpdate;
+        OcspStore answeredStore;
+        String certStatusText;
+        String certprofile;
 
         public OcspRespControl() {
             includeExtendedRevokeExtension = false;
@@ -200,6 +200,53 @@ public class OcspServer {
         }
     }
 
+    private static class CertStatusLookup {
+        CertStatusInfo certStatusInfo;
+        OcspStore answeredStore;
+        boolean exceptionOccurs;
+    }
+
+    /**
+     * Request whose certificate statuses have been looked up, and which is ready to be signed.
+     */
+    static final class PreparedAnswer {
+
+        private final OcspRespWithCacheInfo response;
+
+        private Responder responder;
+
+        private AuditEvent event;
+
+        private OcspRespControl repControl;
+
+        private List<SingleResponseInfo> singleResponses;
+
+        private List<Extension> responseExtensions;
+
+        private ConcurrentContentSigner concurrentSigner;
+
+        private CertificateID certId;
+
+        private ResponseCacher.CacheKey cacheKey;
+
+        private long cacheVersion;
+
+        private PreparedAnswer(final OcspRespWithCacheInfo response) {
+            this.response = response;
+        }
+
+        /**
+         * Gets the final response if the request has been answered without signing, e.g.
+         * from the response cache or with an error.
+         *
+         * @return the final response, or {@code null} if the response must be signed.
+         */
+        OcspRespWithCacheInfo getResponse() {
+            return response;
+        }
+
+    } // class PreparedAnswer
+
     public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
     private static final Logger LOG = LoggerFactory.getLogger(OcspServer.class);
@@ -232,6 +279,10 @@ public class OcspServer {
 
     private List<ServletPathResponderName> servletPaths = new ArrayList<>();
 
+    private ResponseCacher responseCacher;
+
+    private RequestPipeline requestPipeline;
+
     private AtomicBoolean initialized = new AtomicBoolean(false);
 
     public OcspServer() {
@@ -622,12 +673,47 @@ public class OcspServer {
                     requestOptions.get(option.getRequestOptionName()),
                     responseOptions.get(option.getResponseOptionName()), auditOption,
                     certprofileOption, signers.get(option.getSignerName()), statusStores);
+            // registered before the response cache, so that the issuer index of the responder
+            // is up to date before the cached responses of a store are invalidated
+            for (OcspStore store : statusStores) {
+                store.addChangeListener(responder);
+            }
             responders.put(name, responder);
         } // end for
+
+        // response cache
+        if (conf.getResponseCache() != null) {
+            responseCacher = new ResponseCacher(this, conf.getResponseCache());
+            for (OcspStore store : stores.values()) {
+                store.addChangeListener(responseCacher);
+                store.addCertStatusChangeListener(responseCacher);
+            }
+            responseCacher.start();
+        }
+
+        // request pipeline
+        if (conf.getRequestPipeline() != null) {
+            requestPipeline = new RequestPipeline(conf.getRequestPipeline());
+            requestPipeline.start();
+        }
     } // method doInit
 
     public void shutdown() {
         LOG.info("stopped OCSP Responder");
+        if (responseCacher != null) {
+            responseCacher.shutdown();
+            responseCacher = null;
+        }
+
+        if (requestPipeline != null) {
+            requestPipeline.shutdown();
+            requestPipeline = null;
+        }
+
+        for (ResponderSigner signer : signers.values()) {
+            signer.shutdown();
+        }
+
         for (OcspStore store : stores.values()) {
             try {
                 store.shutdown();
@@ -639,8 +725,48 @@ public class OcspServer {
         auditLogPciEvent(true, "SHUTDOWN");
     }
 
+    RequestPipeline getRequestPipeline() {
+        return requestPipeline;
+    }
+
     public OcspRespWithCacheInfo answer(final Responder responder, final OCSPReq request,
             final boolean viaGet, final AuditEvent event) {
+        return answer(responder, request, viaGet, event, false);
+    }
+
+    /**
+     * Regenerates the response cached by the {@link ResponseCacher}.
+     */
+    void refreshCachedResponse(final Responder responder, final CertificateID certId) {
+        OCSPReq request;
+        try {
+            request = new OCSPReqBuilder().addRequest(certId).build();
+        } catch (OCSPException ex) {
+            LogUtil.warn(LOG, ex, "could not build request to refresh the cached response");
+            return;
+        }
+        answer(responder, request, false, null, true);
+    }
+
+    private OcspRespWithCacheInfo answer(final Responder responder, final OCSPReq request,
+            final boolean viaGet, final AuditEvent event, final boolean refreshCache) {
+        PreparedAnswer prepared = prepareAnswer(responder, request, viaGet, event, refreshCache);
+        return (prepared.response != null) ? prepared.response : signAnswer(prepared, -1);
+    }
+
+    /**
+     * Checks the request and looks up the statuses of the requested certificates.
+     *
+     * @return the prepared answer. Its {@link PreparedAnswer#getResponse()} is set if the
+     *         request has been answered already.
+     */
+    PreparedAnswer prepareAnswer(final Responder responder, final OCSPReq request,
+            final boolean viaGet, final AuditEvent event) {
+        return prepareAnswer(responder, request, viaGet, event, false);
+    }
+
+    private PreparedAnswer prepareAnswer(final Responder responder, final OCSPReq request,
+            final boolean viaGet, final AuditEvent event, final boolean refreshCache) {
         ParamUtil.requireNonNull("responder", responder);
         ParamUtil.requireNonNull("request", request);
 
@@ -659,13 +785,17 @@ public class OcspServer {
             String message = "invalid request version " + version;
             LOG.warn(message);
             fillAuditEvent(event, AuditLevel.INFO, AuditStatus.FAILED, message);
-            return createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest);
+            return new PreparedAnswer(
+                    createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest));
         }
 
         try {
-            OcspRespWithCacheInfo resp = checkSignature(request, reqOpt, event);
-            if (resp != null) {
-                return resp;
+            // the signature of the original request has been verified before caching it
+            if (!refreshCache) {
+                OcspRespWithCacheInfo resp = checkSignature(request, reqOpt, event);
+                if (resp != null) {
+                    return new PreparedAnswer(resp);
+                }
             }
 
             OcspRespControl repControl = new OcspRespControl();
@@ -685,8 +815,6 @@ public class OcspServer {
                 }
             }
 
-            RespID respId = signer.getResponder(repOpt.isResponderIdByName());
-            BasicOCSPRespBuilder basicOcspBuilder = new BasicOCSPRespBuilder(respId);
             ASN1ObjectIdentifier extensionType = OCSPObjectIdentifiers.id_pkix_ocsp_nonce;
             criticalExtensionOids.remove(extensionType);
             Extension nonceExtn = request.getExtension(extensionType);
@@ -702,7 +830,8 @@ public class OcspServer {
                     sb.append("length of nonce ").append(len);
                     sb.append(" not within [").append(min).append(", ").append(max).append("]");
                     fillAuditEvent(event, AuditLevel.INFO, AuditStatus.FAILED, sb.toString());
-                    return createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest);
+                    return new PreparedAnswer(
+                            createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest));
                 }
 
                 repControl.couldCacheInfo = false;
@@ -711,9 +840,45 @@ public class OcspServer {
                 String message = "nonce required, but is not present in the request";
                 LOG.warn(message);
                 fillAuditEvent(event, AuditLevel.INFO, AuditStatus.FAILED, message);
-                return createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest);
+                return new PreparedAnswer(
+                        createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest));
             }
 
+            // only requests with one CertID and without any extension are cacheable
+            ResponseCacher.CacheKey cacheKey = null;
+            long cacheVersion = 0;
+            if (responseCacher != null && requestsSize == 1 && !request.hasExtensions()
+                    && requestList[0].getSingleRequestExtensions() == null) {
+                CertificateID certId = requestList[0].getCertID();
+                HashAlgoType hashAlgo = HashAlgoType.getHashAlgoType(
+                        certId.getHashAlgOID().getId());
+                if (hashAlgo != null) {
+                    cacheKey = new ResponseCacher.CacheKey(responder, hashAlgo,
+                            certId.getIssuerNameHash(), certId.getIssuerKeyHash(),
+                            certId.getSerialNumber());
+                    if (!refreshCache) {
+                        ResponseCacher.CacheEntry cachedResp = responseCacher.get(cacheKey);
+                        if (cachedResp != null) {
+                            auditCachedResponse(event, msgId, responder, certId, cachedResp);
+                            return new PreparedAnswer(new OcspRespWithCacheInfo(
+                                    cachedResp.getEncodedResponse(),
+                                    viaGet ? cachedResp.getCacheInfo() : null));
+                        }
+                    }
+
+                    // must be read before the stores are queried
+                    cacheVersion = responseCacher.getVersion();
+                    repControl.couldCacheResponse = true;
+                }
+            }
+
+            // look up the status of all certificates at once
+            CertStatusLookup[] lookups = null;
+            if (requestsSize > 1) {
+                lookups = lookupCertStatuses(requestList, responder, reqOpt, repOpt);
+            }
+
+            List<SingleResponseInfo> singleResponses = new ArrayList<>(requestsSize);
             for (int i = 0; i < requestsSize; i++) {
                 AuditEvent singleEvent = null;
                 if (event != null) {
@@ -725,8 +890,9 @@ public class OcspServer {
 
                 OcspRespWithCacheInfo ocspResp = null;
                 try {
-                    ocspResp = processCertReq(requestList[i], basicOcspBuilder, responder, reqOpt,
-                            repOpt, repControl, singleEvent);
+                    ocspResp = processCertReq(requestList[i], singleResponses, responder,
+                            reqOpt, repOpt, repControl, (lookups == null) ? null : lookups[i],
+                            singleEvent);
                 } finally {
                     if (singleEvent != null) {
                         singleEvent.finish();
@@ -735,21 +901,10 @@ public class OcspServer {
                 }
 
                 if (ocspResp != null) {
-                    return ocspResp;
+                    return new PreparedAnswer(ocspResp);
                 }
             }
 
-            if (repControl.includeExtendedRevokeExtension) {
-                responseExtensions.add(
-                        new Extension(ObjectIdentifiers.id_pkix_ocsp_extendedRevoke, true,
-                                Arrays.copyOf(DERNullBytes, DERNullBytes.length)));
-            }
-
-            if (CollectionUtil.isNonEmpty(responseExtensions)) {
-                basicOcspBuilder.setResponseExtensions(
-                        new Extensions(responseExtensions.toArray(new Extension[0])));
-            }
-
             ConcurrentContentSigner concurrentSigner = null;
             if (responder.getResponderOption().getMode() != OcspMode.RFC2560) {
                 extensionType = ObjectIdentifiers.id_pkix_ocsp_prefSigAlgs;
@@ -762,66 +917,198 @@ public class OcspServer {
             }
 
             if (CollectionUtil.isNonEmpty(criticalExtensionOids)) {
-                return createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest);
+                return new PreparedAnswer(
+                        createUnsuccessfulOcspResp(OcspResponseStatus.malformedRequest));
             }
 
             if (concurrentSigner == null) {
                 concurrentSigner = signer.getFirstSigner();
             }
 
-            X509CertificateHolder[] certsInResp;
+            PreparedAnswer prepared = new PreparedAnswer(null);
+            prepared.responder = responder;
+            prepared.event = event;
+            prepared.repControl = repControl;
+            prepared.singleResponses = singleResponses;
+            prepared.responseExtensions = responseExtensions;
+            prepared.concurrentSigner = concurrentSigner;
+            prepared.certId = requestList[0].getCertID();
+            prepared.cacheKey = cacheKey;
+            prepared.cacheVersion = cacheVersion;
+            return prepared;
+        } catch (Throwable th) {
+            LogUtil.error(LOG, th);
+            fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED, "internal error");
+            return new PreparedAnswer(
+                    createUnsuccessfulOcspResp(OcspResponseStatus.internalError));
+        }
+    } // method prepareAnswer
+
+    /**
+     * Signs the prepared answer.
+     *
+     * @param prepared
+     *          Prepared answer without response. Must not be {@code null}.
+     * @param signTimeout
+     *          Maximal time in milliseconds to wait for an idle signer, negative for the
+     *          default timeout of the signer.
+     * @return the response.
+     */
+    OcspRespWithCacheInfo signAnswer(final PreparedAnswer prepared, final int signTimeout) {
+        ParamUtil.requireNonNull("prepared", prepared);
+        if (prepared.response != null) {
+            throw new IllegalArgumentException("prepared has been answered already");
+        }
+
+        final Responder responder = prepared.responder;
+        final AuditEvent event = prepared.event;
+        final OcspRespControl repControl = prepared.repControl;
+        final List<SingleResponseInfo> singleResponses = prepared.singleResponses;
+        final List<Extension> responseExtensions = prepared.responseExtensions;
+        final ConcurrentContentSigner concurrentSigner = prepared.concurrentSigner;
+        final ResponderSigner signer = responder.getSigner();
+        final ResponseOption repOpt = responder.getResponseOption();
+
+        try {
             EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
-            if (certsMode == null || certsMode == EmbedCertsMode.SIGNER) {
-                certsInResp = new X509CertificateHolder[]{signer.getBcCertificate()};
-            } else if (certsMode == EmbedCertsMode.SIGNER_AND_CA) {
-                certsInResp = signer.getBcCertificateChain();
-            } else {
-                // NONE
-                certsInResp = null;
+            if (certsMode == null) {
+                certsMode = EmbedCertsMode.SIGNER;
             }
 
-            BasicOCSPResp basicOcspResp;
-            try {
-                basicOcspResp = concurrentSigner.build(basicOcspBuilder, certsInResp, new Date());
-            } catch (NoIdleSignerException ex) {
-                return createUnsuccessfulOcspResp(OcspResponseStatus.tryLater);
-            } catch (OCSPException ex) {
-                LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
-                fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
-                        "BasicOCSPRespBuilder.build() with OCSPException");
-                return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
-            }
+            OCSPResp ocspResp = null;
+            byte[] encodedOcspResp = null;
+            if (singleResponses.size() == 1) {
+                // the common case: write the DER encoding directly without building the
+                // BouncyCastle objects
+                List<byte[]> encodedExtensions = new ArrayList<>(2);
+                for (Extension extension : responseExtensions) {
+                    encodedExtensions.add(extension.getEncoded(ASN1Encoding.DER));
+                }
+                if (repControl.includeExtendedRevokeExtension) {
+                    encodedExtensions.add(OcspResponseEncoder.EXTENDED_REVOKE_EXTENSION);
+                }
 
-            OCSPRespBuilder ocspRespBuilder = new OCSPRespBuilder();
-            try {
-                OCSPResp ocspResp = ocspRespBuilder.build(
-                        OcspResponseStatus.successful.getStatus(), basicOcspResp);
+                byte[] responderId = signer.getEncodedResponder(repOpt.isResponderIdByName());
+                OcspResponseEncoder.ResponseDataBuffer responseData =
+                        OcspResponseEncoder.encodeResponseData(responderId,
+                                System.currentTimeMillis(), singleResponses.get(0),
+                                encodedExtensions);
 
-                if (repControl.couldCacheInfo) {
-                    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
-                    if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
-                        cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
-                    }
-                    return new OcspRespWithCacheInfo(ocspResp, cacheInfo);
+                byte[] signature;
+                try {
+                    signature = signer.sign(concurrentSigner, responseData.getBytes(), 0,
+                            responseData.getLength(), signTimeout);
+                } catch (NoIdleSignerException ex) {
+                    return createUnsuccessfulOcspResp(OcspResponseStatus.tryLater);
+                } catch (IOException ex) {
+                    LogUtil.error(LOG, ex, "answer() sign ResponseData");
+                    fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
+                            "signing ResponseData with IOException");
+                    return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
+                }
+
+                byte[] certsInResp;
+                if (certsMode == EmbedCertsMode.SIGNER) {
+                    certsInResp = signer.getEncodedCerts(false);
+                } else if (certsMode == EmbedCertsMode.SIGNER_AND_CA) {
+                    certsInResp = signer.getEncodedCerts(true);
+                } else {
+                    // NONE
+                    certsInResp = null;
+                }
+
+                encodedOcspResp = OcspResponseEncoder.encodeOcspResponse(responseData,
+                        signer.getEncodedAlgorithmIdentifier(concurrentSigner), signature,
+                        certsInResp);
+            } else {
+                RespID respId = signer.getResponder(repOpt.isResponderIdByName());
+                BasicOCSPRespBuilder basicOcspBuilder = new BasicOCSPRespBuilder(respId);
+                for (SingleResponseInfo singleResponse : singleResponses) {
+                    singleResponse.addTo(basicOcspBuilder);
+                }
+
+                if (repControl.includeExtendedRevokeExtension) {
+                    responseExtensions.add(
+                            new Extension(ObjectIdentifiers.id_pkix_ocsp_extendedRevoke, true,
+                                    Arrays.copyOf(DERNullBytes, DERNullBytes.length)));
+                }
+
+                if (CollectionUtil.isNonEmpty(responseExtensions)) {
+                    basicOcspBuilder.setResponseExtensions(
+                            new Extensions(responseExtensions.toArray(new Extension[0])));
+                }
+
+                X509CertificateHolder[] certsInResp;
+                if (certsMode == EmbedCertsMode.SIGNER) {
+                    certsInResp = new X509CertificateHolder[]{signer.getBcCertificate()};
+                } else if (certsMode == EmbedCertsMode.SIGNER_AND_CA) {
+                    certsInResp = signer.getBcCertificateChain();
                 } else {
-                    return new OcspRespWithCacheInfo(ocspResp, null);
+                    // NONE
+                    certsInResp = null;
+                }
+
+                BasicOCSPResp basicOcspResp;
+                try {
+                    basicOcspResp = signer.build(concurrentSigner, basicOcspBuilder, certsInResp,
+                            new Date(), signTimeout);
+                } catch (NoIdleSignerException ex) {
+                    return createUnsuccessfulOcspResp(OcspResponseStatus.tryLater);
+                } catch (OCSPException ex) {
+                    LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
+                    fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
+                            "BasicOCSPRespBuilder.build() with OCSPException");
+                    return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
+                }
+
+                OCSPRespBuilder ocspRespBuilder = new OCSPRespBuilder();
+                try {
+                    ocspResp = ocspRespBuilder.build(OcspResponseStatus.successful.getStatus(),
+                            basicOcspResp);
+                } catch (OCSPException ex) {
+                    LogUtil.error(LOG, ex, "answer() ocspRespBuilder.build");
+                    fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
+                            "OCSPRespBuilder.build() with OCSPException");
+                    return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
                 }
-            } catch (OCSPException ex) {
-                LogUtil.error(LOG, ex, "answer() ocspRespBuilder.build");
-                fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
-                        "OCSPRespBuilder.build() with OCSPException");
-                return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
             }
+
+            ResponseCacheInfo cacheInfo = null;
+            if (repControl.couldCacheInfo || repControl.couldCacheResponse) {
+                cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
+                if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
+                    cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
+                }
+            }
+
+            if (repControl.couldCacheResponse) {
+                if (encodedOcspResp == null) {
+                    encodedOcspResp = ocspResp.getEncoded();
+                }
+                responseCacher.put(prepared.cacheKey, prepared.certId,
+                        repControl.answeredStore, encodedOcspResp, cacheInfo,
+                        repControl.certStatusText, repControl.certprofile, prepared.cacheVersion);
+            }
+
+            if (encodedOcspResp != null) {
+                return new OcspRespWithCacheInfo(encodedOcspResp,
+                        repControl.couldCacheInfo ? cacheInfo : null);
+            }
+
+            return new OcspRespWithCacheInfo(ocspResp,
+                    repControl.couldCacheInfo ? cacheInfo : null);
         } catch (Throwable th) {
             LogUtil.error(LOG, th);
             fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED, "internal error");
             return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
         }
-    } // method ask
+    } // method signAnswer
 
-    private OcspRespWithCacheInfo processCertReq(Req req, BasicOCSPRespBuilder builder,
+    private OcspRespWithCacheInfo processCertReq(Req req,
+            List<SingleResponseInfo> singleResponses,
             Responder responder, RequestOption reqOpt, ResponseOption repOpt,
-            OcspRespControl repControl, AuditEvent event) throws IOException {
+            OcspRespControl repControl, CertStatusLookup lookup, AuditEvent event)
+    throws IOException {
         CertificateID certId = req.getCertID();
         String certIdHashAlgo = certId.getHashAlgOID().getId();
         HashAlgoType reqHashAlgo = HashAlgoType.getHashAlgoType(certIdHashAlgo);
@@ -845,30 +1132,15 @@ public class OcspServer {
             event.addEventData(OcspAuditConstants.NAME_serial, certId.getSerialNumber());
         }
 
-        CertStatusInfo certStatusInfo = null;
-        OcspStore answeredStore = null;
-        boolean exceptionOccurs = false;
+        if (lookup == null) {
+            lookup = lookupCertStatus(certId, reqHashAlgo, responder, repOpt);
+        }
 
-        Date now = new Date();
-        for (OcspStore store : responder.getStores()) {
-            try {
-                certStatusInfo = store.getCertStatus(now, reqHashAlgo, certId.getIssuerNameHash(),
-                        certId.getIssuerKeyHash(), certId.getSerialNumber(),
-                        repOpt.isIncludeCerthash(), repOpt.getCertHashAlgo(),
-                        responder.getCertprofileOption());
-                if (certStatusInfo != null
-                        && certStatusInfo.getCertStatus() != CertStatus.ISSUER_UNKNOWN) {
-                    answeredStore = store;
-                    break;
-                }
-            } catch (OcspStoreException ex) {
-                exceptionOccurs = true;
-                LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
-            } // end try
-        } // end for
+        CertStatusInfo certStatusInfo = lookup.certStatusInfo;
+        OcspStore answeredStore = lookup.answeredStore;
 
         if (certStatusInfo == null) {
-            if (exceptionOccurs) {
+            if (lookup.exceptionOccurs) {
                 fillAuditEvent(event, AuditLevel.INFO, AuditStatus.FAILED,
                         "no CertStatusStore can answer the request");
                 return createUnsuccessfulOcspResp(OcspResponseStatus.tryLater);
@@ -908,18 +1180,8 @@ public class OcspServer {
         } // end if
 
         if (event != null) {
-            String certprofile = certStatusInfo.getCertprofile();
-            String auditCertType;
-            if (certprofile != null) {
-                auditCertType = responder.getAuditOption().getCertprofileMapping().get(certprofile);
-                if (auditCertType == null) {
-                    auditCertType = certprofile;
-                }
-            } else {
-                auditCertType = "UNKNOWN";
-            }
-
-            event.addEventData(OcspAuditConstants.NAME_type, auditCertType);
+            event.addEventData(OcspAuditConstants.NAME_type,
+                    getAuditCertType(responder, certStatusInfo.getCertprofile()));
         }
 
         // certStatusInfo must not be null in any case, since at least one store
@@ -930,49 +1192,48 @@ public class OcspServer {
         }
         Date nextUpdate = certStatusInfo.getNextUpdate();
 
-        List<Extension> extensions = new LinkedList<>();
         boolean unknownAsRevoked = false;
-        CertificateStatus bcCertStatus;
+        int status;
+        Date revocationTime = null;
+        int revocationReason = -1;
+        Date invalidityDate = null;
         switch (certStatusInfo.getCertStatus()) {
         case GOOD:
-            bcCertStatus = null;
+            status = SingleResponseInfo.STATUS_GOOD;
             break;
 
         case ISSUER_UNKNOWN:
             repControl.couldCacheInfo = false;
-            bcCertStatus = new UnknownStatus();
+            repControl.couldCacheResponse = false;
+            status = SingleResponseInfo.STATUS_UNKNOWN;
             break;
 
         case UNKNOWN:
         case IGNORE:
             repControl.couldCacheInfo = false;
+            repControl.couldCacheResponse = false;
             if (responder.getResponderOption().getMode() == OcspMode.RFC2560) {
-                bcCertStatus = new UnknownStatus();
+                status = SingleResponseInfo.STATUS_UNKNOWN;
             } else { // (ocspMode == OCSPMode.RFC6960)
                 unknownAsRevoked = true;
                 repControl.includeExtendedRevokeExtension = true;
-                bcCertStatus = new RevokedStatus(new Date(0L),
-                        CrlReason.CERTIFICATE_HOLD.getCode());
+                status = SingleResponseInfo.STATUS_REVOKED;
+                revocationTime = new Date(0L);
+                revocationReason = CrlReason.CERTIFICATE_HOLD.getCode();
             }
             break;
         case REVOKED:
             CertRevocationInfo revInfo = certStatusInfo.getRevocationInfo();
-            ASN1GeneralizedTime revTime = new ASN1GeneralizedTime(
-                    revInfo.getRevocationTime());
-            org.bouncycastle.asn1.x509.CRLReason tmpReason = null;
+            status = SingleResponseInfo.STATUS_REVOKED;
+            revocationTime = revInfo.getRevocationTime();
             if (repOpt.isIncludeRevReason()) {
-                tmpReason = org.bouncycastle.asn1.x509.CRLReason.lookup(
-                        revInfo.getReason().getCode());
+                revocationReason = revInfo.getReason().getCode();
             }
-            RevokedInfo tmpRevInfo = new RevokedInfo(revTime, tmpReason);
-            bcCertStatus = new RevokedStatus(tmpRevInfo);
 
-            Date invalidityDate = revInfo.getInvalidityTime();
-            if (repOpt.isIncludeInvalidityDate() && invalidityDate != null
-                    && !invalidityDate.equals(revInfo.getRevocationTime())) {
-                Extension extension = new Extension(Extension.invalidityDate,
-                        false, new ASN1GeneralizedTime(invalidityDate).getEncoded());
-                extensions.add(extension);
+            Date tmpInvalidityDate = revInfo.getInvalidityTime();
+            if (repOpt.isIncludeInvalidityDate() && tmpInvalidityDate != null
+                    && !tmpInvalidityDate.equals(revInfo.getRevocationTime())) {
+                invalidityDate = tmpInvalidityDate;
             }
             break;
         default:
@@ -981,45 +1242,14 @@ public class OcspServer {
         } // end switch
 
         byte[] certHash = certStatusInfo.getCertHash();
-        if (certHash != null) {
-            ASN1ObjectIdentifier hashAlgOid = certStatusInfo.getCertHashAlgo().getOid();
-            AlgorithmIdentifier hashAlgId = new AlgorithmIdentifier(hashAlgOid, DERNull.INSTANCE);
-            CertHash bcCertHash = new CertHash(hashAlgId, certHash);
-
-            byte[] encodedCertHash;
-            try {
-                encodedCertHash = bcCertHash.getEncoded();
-            } catch (IOException ex) {
-                LogUtil.error(LOG, ex, "answer() bcCertHash.getEncoded");
-                if (event != null) {
-                    fillAuditEvent(event, AuditLevel.ERROR, AuditStatus.FAILED,
-                            "CertHash.getEncoded() with IOException");
-                }
-                return createUnsuccessfulOcspResp(OcspResponseStatus.internalError);
-            }
-
-            Extension extension = new Extension(
-                    ISISMTTObjectIdentifiers.id_isismtt_at_certHash,
-                    false, encodedCertHash);
-
-            extensions.add(extension);
-        } // end if(certHash != null)
-
-        if (certStatusInfo.getArchiveCutOff() != null) {
-            Extension extension = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff,
-                    false, new ASN1GeneralizedTime(certStatusInfo.getArchiveCutOff()).getEncoded());
-            extensions.add(extension);
-        }
 
         String certStatusText;
-        if (bcCertStatus instanceof UnknownStatus) {
+        if (status == SingleResponseInfo.STATUS_UNKNOWN) {
             certStatusText = "unknown";
-        } else if (bcCertStatus instanceof RevokedStatus) {
+        } else if (status == SingleResponseInfo.STATUS_REVOKED) {
             certStatusText = unknownAsRevoked ? "unknown_as_revoked" : "revoked";
-        } else if (bcCertStatus == null) {
-            certStatusText = "good";
         } else {
-            certStatusText = "should-not-happen";
+            certStatusText = "good";
         }
 
         if (event != null) {
@@ -1046,12 +1276,15 @@ public class OcspServer {
             LOG.debug(sb.toString());
         }
 
-        Extensions extns = null;
-        if (CollectionUtil.isNonEmpty(extensions)) {
-            extns = new Extensions(extensions.toArray(new Extension[0]));
+        singleResponses.add(new SingleResponseInfo(certId, status, revocationTime,
+                revocationReason, invalidityDate, certStatusInfo.getCertHashAlgo(), certHash,
+                certStatusInfo.getArchiveCutOff(), thisUpdate, nextUpdate));
+        if (answeredStore == null) {
+            repControl.couldCacheResponse = false;
         }
-
-        builder.addResponse(certId, bcCertStatus, thisUpdate, nextUpdate, extns);
+        repControl.answeredStore = answeredStore;
+        repControl.certStatusText = certStatusText;
+        repControl.certprofile = certStatusInfo.getCertprofile();
         repControl.cacheThisUpdate = Math.max(repControl.cacheThisUpdate, thisUpdate.getTime());
         if (nextUpdate != null) {
             repControl.cacheNextUpdate = Math.min(repControl.cacheNextUpdate, nextUpdate.getTime());
@@ -1060,6 +1293,171 @@ public class OcspServer {
         return null;
     }
 
+    private CertStatusLookup lookupCertStatus(final CertificateID certId,
+            final HashAlgoType reqHashAlgo, final Responder responder,
+            final ResponseOption repOpt) {
+        CertStatusLookup lookup = new CertStatusLookup();
+        Date now = new Date();
+        byte[] issuerNameHash = certId.getIssuerNameHash();
+        byte[] issuerKeyHash = certId.getIssuerKeyHash();
+        for (OcspStore store : responder.getStores(reqHashAlgo, issuerNameHash, issuerKeyHash)) {
+            try {
+                CertStatusInfo certStatusInfo = store.getCertStatus(now, reqHashAlgo,
+                        issuerNameHash, issuerKeyHash,
+                        certId.getSerialNumber(), repOpt.isIncludeCerthash(),
+                        repOpt.getCertHashAlgo(), responder.getCertprofileOption());
+                lookup.certStatusInfo = certStatusInfo;
+                if (certStatusInfo != null
+                        && certStatusInfo.getCertStatus() != CertStatus.ISSUER_UNKNOWN) {
+                    lookup.answeredStore = store;
+                    break;
+                }
+            } catch (OcspStoreException ex) {
+                lookup.exceptionOccurs = true;
+                LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
+            } // end try
+        } // end for
+
+        return lookup;
+    } // method lookupCertStatus
+
+    /**
+     * Looks up the status of all certificates in the request with one call of
+     * {@link OcspStore#getCertStatuses(Date, List, boolean, HashAlgoType, CertprofileOption)}
+     * per store which may know the issuers of the CertIDs. CertIDs with an unknown or not
+     * allowed hash algorithm are not looked up.
+     */
+    private CertStatusLookup[] lookupCertStatuses(final Req[] requestList,
+            final Responder responder, final RequestOption reqOpt, final ResponseOption repOpt) {
+        final int n = requestList.length;
+        CertStatusLookup[] lookups = new CertStatusLookup[n];
+
+        // stores which may answer the requests
+        OcspStore[][] candidateStores = new OcspStore[n][];
+        // indexes of the requests which are not answered yet
+        List<Integer> pendingIndexes = new LinkedList<>();
+        List<CertIdKey> pendingCertIds = new LinkedList<>();
+        for (int i = 0; i < n; i++) {
+            CertificateID certId = requestList[i].getCertID();
+            HashAlgoType reqHashAlgo = HashAlgoType.getHashAlgoType(
+                    certId.getHashAlgOID().getId());
+            if (reqHashAlgo == null || !reqOpt.allows(reqHashAlgo)) {
+                continue;
+            }
+
+            lookups[i] = new CertStatusLookup();
+            byte[] issuerNameHash = certId.getIssuerNameHash();
+            byte[] issuerKeyHash = certId.getIssuerKeyHash();
+            candidateStores[i] = responder.getStores(reqHashAlgo, issuerNameHash,
+                    issuerKeyHash);
+            pendingIndexes.add(i);
+            pendingCertIds.add(new CertIdKey(reqHashAlgo, issuerNameHash, issuerKeyHash,
+                    certId.getSerialNumber()));
+        }
+
+        Date now = new Date();
+        for (OcspStore store : responder.getStores()) {
+            if (pendingIndexes.isEmpty()) {
+                break;
+            }
+
+            // only the requests whose issuer may be known to the store are passed to it
+            List<Integer> storeIndexes = new LinkedList<>();
+            List<CertIdKey> storeCertIds = new LinkedList<>();
+            List<Integer> newPendingIndexes = new LinkedList<>();
+            List<CertIdKey> newPendingCertIds = new LinkedList<>();
+            Iterator<Integer> idxIt = pendingIndexes.iterator();
+            Iterator<CertIdKey> certIdIt = pendingCertIds.iterator();
+            while (idxIt.hasNext()) {
+                Integer idx = idxIt.next();
+                CertIdKey certId = certIdIt.next();
+                if (contains(candidateStores[idx], store)) {
+                    storeIndexes.add(idx);
+                    storeCertIds.add(certId);
+                } else {
+                    newPendingIndexes.add(idx);
+                    newPendingCertIds.add(certId);
+                }
+            }
+
+            if (storeIndexes.isEmpty()) {
+                continue;
+            }
+
+            List<CertStatusInfo> certStatusInfos;
+            try {
+                certStatusInfos = store.getCertStatuses(now, storeCertIds,
+                        repOpt.isIncludeCerthash(), repOpt.getCertHashAlgo(),
+                        responder.getCertprofileOption());
+            } catch (OcspStoreException ex) {
+                LogUtil.error(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
+                for (Integer idx : storeIndexes) {
+                    lookups[idx].exceptionOccurs = true;
+                }
+                continue;
+            }
+
+            idxIt = storeIndexes.iterator();
+            certIdIt = storeCertIds.iterator();
+            for (CertStatusInfo certStatusInfo : certStatusInfos) {
+                Integer idx = idxIt.next();
+                CertIdKey certId = certIdIt.next();
+                lookups[idx].certStatusInfo = certStatusInfo;
+                if (certStatusInfo != null
+                        && certStatusInfo.getCertStatus() != CertStatus.ISSUER_UNKNOWN) {
+                    lookups[idx].answeredStore = store;
+                } else {
+                    newPendingIndexes.add(idx);
+                    newPendingCertIds.add(certId);
+                }
+            }
+
+            pendingIndexes = newPendingIndexes;
+            pendingCertIds = newPendingCertIds;
+        } // end for
+
+        return lookups;
+    } // method lookupCertStatuses
+
+    private static boolean contains(final OcspStore[] stores, final OcspStore store) {
+        for (OcspStore m : stores) {
+            if (m == store) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void auditCachedResponse(final AuditEvent event, final String msgId,
+            final Responder responder, final CertificateID certId,
+            final ResponseCacher.CacheEntry cachedResp) {
+        if (event == null) {
+            return;
+        }
+
+        AuditEvent singleEvent = new AuditEvent(new Date());
+        singleEvent.setApplicationName(OcspAuditConstants.APPNAME);
+        singleEvent.setName(OcspAuditConstants.NAME_PERF);
+        singleEvent.addEventData(OcspAuditConstants.NAME_mid, msgId);
+        singleEvent.addEventData(OcspAuditConstants.NAME_serial, certId.getSerialNumber());
+        singleEvent.addEventData(OcspAuditConstants.NAME_type,
+                getAuditCertType(responder, cachedResp.getCertprofile()));
+        singleEvent.setLevel(AuditLevel.INFO);
+        singleEvent.setStatus(AuditStatus.SUCCESSFUL);
+        singleEvent.addEventData(OcspAuditConstants.NAME_status, cachedResp.getCertStatusText());
+        singleEvent.finish();
+        auditServiceRegister.getAuditService().doLogEvent(singleEvent);
+    }
+
+    private static String getAuditCertType(final Responder responder, final String certprofile) {
+        if (certprofile == null) {
+            return "UNKNOWN";
+        }
+
+        String auditCertType = responder.getAuditOption().getCertprofileMapping().get(certprofile);
+        return (auditCertType == null) ? certprofile : auditCertType;
+    }
+
     public HealthCheckResult healthCheck(final Responder responder) {
         HealthCheckResult result = new HealthCheckResult("OCSPResponder");
         boolean healthy = true;
@@ -1079,6 +1477,7 @@ public class OcspServer {
 
         HealthCheckResult signerHealth = new HealthCheckResult("Signer");
         signerHealth.setHealthy(signerHealthy);
+        responder.getSigner().putStatuses(signerHealth);
         result.addChildCheck(signerHealth);
 
         result.setHealthy(healthy);
@@ -1151,7 +1550,7 @@ public class OcspServer {
         }
 
         try {
-            return new ResponderSigner(singleSigners);
+            return new ResponderSigner(singleSigners, signerType.getBatchSigning());
         } catch (CertificateException | IOException ex) {
             throw new InvalidConfException(ex.getMessage(), ex);
         }
@@ -1325,7 +1724,7 @@ public class OcspServer {
         return false;
     } // method canBuildCertpath
 
-    private static OcspRespWithCacheInfo createUnsuccessfulOcspResp(
+    static OcspRespWithCacheInfo createUnsuccessfulOcspResp(
             final OcspResponseStatus status) {
         OCSPResp resp = new OCSPResp(new OCSPResponse(
                 new org.bouncycastle.asn1.ocsp.OCSPResponseStatus(status.getStatus()), null));
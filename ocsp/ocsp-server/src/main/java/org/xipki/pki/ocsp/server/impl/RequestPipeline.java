@@ -0,0 +1,207 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.InvalidConfException;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.pki.ocsp.server.impl.jaxb.RequestPipelineType;
+
+/**
+ * Bounded pipeline which answers the asynchronously processed OCSP requests in the stages
+ * parse, lookup, sign and write. Each stage has its own worker threads and queue, a request
+ * which cannot be handed over to the next stage is rejected instead of blocking the worker.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class RequestPipeline {
+
+    enum Stage {
+
+        PARSE("parse"),
+        LOOKUP("lookup"),
+        SIGN("sign"),
+        WRITE("write");
+
+        private final String name;
+
+        Stage(final String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+    } // enum Stage
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestPipeline.class);
+
+    private static final int DFLT_QUEUE_SIZE = 1000;
+
+    private static final int DFLT_TIMEOUT = 10000; // 10 seconds
+
+    private static final int DFLT_SIGN_TIMEOUT = 100; // 100 milliseconds
+
+    private final int threads;
+
+    private final int signThreads;
+
+    private final int queueSize;
+
+    private final long timeout;
+
+    private final int signTimeout;
+
+    private final ThreadPoolExecutor[] executors = new ThreadPoolExecutor[Stage.values().length];
+
+    private volatile boolean running;
+
+    RequestPipeline(final RequestPipelineType conf) throws InvalidConfException {
+        ParamUtil.requireNonNull("conf", conf);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        this.threads = getValue("threads", conf.getThreads(), 2 * processors);
+        this.signThreads = getValue("signThreads", conf.getSignThreads(), processors);
+        this.queueSize = getValue("queueSize", conf.getQueueSize(), DFLT_QUEUE_SIZE);
+        this.timeout = getValue("timeout", conf.getTimeout(), DFLT_TIMEOUT);
+
+        Integer confSignTimeout = conf.getSignTimeout();
+        if (confSignTimeout == null) {
+            this.signTimeout = DFLT_SIGN_TIMEOUT;
+        } else if (confSignTimeout.intValue() < 0) {
+            throw new InvalidConfException(
+                    "requestPipeline.signTimeout must not be less than 0: " + confSignTimeout);
+        } else {
+            this.signTimeout = confSignTimeout.intValue();
+        }
+    }
+
+    void start() {
+        for (Stage stage : Stage.values()) {
+            final String prefix = "ocsp-" + stage.getName() + "-";
+            final AtomicInteger threadIndex = new AtomicInteger(0);
+            ThreadFactory threadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, prefix + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+
+            int num = (stage == Stage.SIGN) ? signThreads : threads;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(num, num, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    threadFactory, new ThreadPoolExecutor.AbortPolicy());
+            executor.prestartAllCoreThreads();
+            executors[stage.ordinal()] = executor;
+        }
+
+        running = true;
+        LOG.info("started request pipeline with {} threads ({} for stage sign) and queue size {}"
+                + " per stage", threads, signThreads, queueSize);
+    }
+
+    void shutdown() {
+        running = false;
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] != null) {
+                executors[i].shutdownNow();
+                executors[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Queues the given task in the given stage.
+     *
+     * @param stage
+     *          Stage to execute the task. Must not be {@code null}.
+     * @param task
+     *          Task to be executed. Must not be {@code null}.
+     * @return whether the task has been queued. {@code false} if the stage is saturated
+     *          or the pipeline is not running.
+     */
+    boolean submit(final Stage stage, final Runnable task) {
+        ParamUtil.requireNonNull("stage", stage);
+        ParamUtil.requireNonNull("task", task);
+        ThreadPoolExecutor executor = running ? executors[stage.ordinal()] : null;
+        if (executor == null) {
+            return false;
+        }
+
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("rejected request in stage {}, {} requests are waiting", stage.getName(),
+                    executor.getQueue().size());
+            return false;
+        }
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+
+    int getSignTimeout() {
+        return signTimeout;
+    }
+
+    private static int getValue(final String name, final Integer value, final int dflt)
+    throws InvalidConfException {
+        if (value == null) {
+            return dflt;
+        }
+
+        int iv = value.intValue();
+        if (iv < 1) {
+            throw new InvalidConfException("requestPipeline." + name + " must not be less than 1: "
+                    + iv);
+        }
+        return iv;
+    }
+
+}
@@ -34,18 +34,30 @@
 
 package org.xipki.pki.ocsp.server.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.util.LogUtil;
 import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
 import org.xipki.pki.ocsp.api.CertprofileOption;
+import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
 import org.xipki.pki.ocsp.api.OcspStore;
+import org.xipki.pki.ocsp.api.OcspStoreChangeListener;
+import org.xipki.pki.ocsp.server.impl.store.IssuerHashIndex;
 
 /**
  * @author Lijun Liao
  * @since 2.0.0
  */
 
-class Responder {
+class Responder implements OcspStoreChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Responder.class);
 
     private final ResponderOption responderOption;
 
@@ -61,6 +73,17 @@ class Responder {
 
     private final List<OcspStore> stores;
 
+    /**
+     * Stores (in the configured order) which know the issuer, indexed by the issuer hashes.
+     */
+    private volatile IssuerHashIndex<OcspStore[]> storeIndex;
+
+    /**
+     * Stores which did not provide any issuer, e.g. since their initialization failed. They
+     * are asked for all issuers which are not in the {@link #storeIndex}.
+     */
+    private volatile OcspStore[] unindexedStores;
+
     Responder(final ResponderOption responderOption, final RequestOption requestOption,
             final ResponseOption responseOption, final AuditOption auditOption,
             final CertprofileOption certprofileOption, final ResponderSigner signer,
@@ -72,6 +95,7 @@ class Responder {
         this.stores = ParamUtil.requireNonEmpty("stores", stores);
         this.auditOption = auditOption;
         this.certprofileOption = certprofileOption;
+        updateStoreIndex();
     }
 
     public ResponderOption getResponderOption() {
@@ -102,4 +126,59 @@ class Responder {
         return stores;
     }
 
+    /**
+     * Gets the stores which may answer requests for the given issuer.
+     *
+     * @param hashAlgo hash algorithm of the CertID
+     * @param issuerNameHash issuerNameHash of the CertID
+     * @param issuerKeyHash issuerKeyHash of the CertID
+     * @return the stores in the configured order, never {@code null}.
+     */
+    OcspStore[] getStores(final HashAlgoType hashAlgo, final byte[] issuerNameHash,
+            final byte[] issuerKeyHash) {
+        OcspStore[] ret = storeIndex.get(hashAlgo, issuerNameHash, issuerKeyHash);
+        return (ret == null) ? unindexedStores : ret;
+    }
+
+    @Override
+    public void storeChanged(final OcspStore store) {
+        if (stores.contains(store)) {
+            updateStoreIndex();
+        }
+    }
+
+    private synchronized void updateStoreIndex() {
+        IssuerHashIndex.Builder<OcspStore[]> builder = new IssuerHashIndex.Builder<>();
+        List<OcspStore> tmpUnindexedStores = new ArrayList<>(1);
+        for (OcspStore store : stores) {
+            Set<IssuerHashNameAndKey> issuerHashes;
+            try {
+                issuerHashes = store.getIssuerHashNameAndKeys();
+            } catch (RuntimeException ex) {
+                LogUtil.warn(LOG, ex, "could not get issuers of store " + store.getName());
+                issuerHashes = null;
+            }
+
+            if (issuerHashes == null || issuerHashes.isEmpty()) {
+                tmpUnindexedStores.add(store);
+                continue;
+            }
+
+            for (IssuerHashNameAndKey issuerHash : issuerHashes) {
+                OcspStore[] existing = builder.get(issuerHash);
+                OcspStore[] newStores;
+                if (existing == null) {
+                    newStores = new OcspStore[]{store};
+                } else {
+                    newStores = Arrays.copyOf(existing, existing.length + 1);
+                    newStores[existing.length] = store;
+                }
+                builder.put(issuerHash, newStores);
+            }
+        }
+
+        this.unindexedStores = tmpUnindexedStores.toArray(new OcspStore[0]);
+        this.storeIndex = builder.build();
+    }
+
 }
@@ -37,23 +37,39 @@ package org.xipki.pki.ocsp.server.impl;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
 import org.bouncycastle.asn1.ocsp.ResponderID;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.RespID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.HealthCheckResult;
+import org.xipki.commons.common.InvalidConfException;
 import org.xipki.commons.common.util.ParamUtil;
 import org.xipki.commons.security.ConcurrentContentSigner;
 import org.xipki.commons.security.HashAlgoType;
+import org.xipki.commons.security.exception.NoIdleSignerException;
+import org.xipki.pki.ocsp.server.impl.jaxb.BatchSigningType;
 
 /**
  * @author Lijun Liao
@@ -62,6 +78,8 @@ import org.xipki.commons.security.HashAlgoType;
 
 class ResponderSigner {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ResponderSigner.class);
+
     private final Map<String, ConcurrentContentSigner> algoSignerMap;
 
     private final List<ConcurrentContentSigner> signers;
@@ -78,8 +96,21 @@ class ResponderSigner {
 
     private final RespID responderIdByKey;
 
-    ResponderSigner(final List<ConcurrentContentSigner> signers)
-    throws CertificateException, IOException {
+    private final Map<ConcurrentContentSigner, SigningCoalescer> coalescers;
+
+    private final byte[] encodedResponderIdByName;
+
+    private final byte[] encodedResponderIdByKey;
+
+    private final byte[] encodedCertsSigner;
+
+    private final byte[] encodedCertsSignerAndCa;
+
+    private final Map<ConcurrentContentSigner, byte[]> encodedAlgorithmIdentifiers;
+
+    ResponderSigner(final List<ConcurrentContentSigner> signers,
+            final BatchSigningType batchSigning)
+    throws CertificateException, IOException, InvalidConfException {
         this.signers = ParamUtil.requireNonEmpty("signers", signers);
         X509Certificate[] tmpCertificateChain = signers.get(0).getCertificateChain();
         if (tmpCertificateChain == null || tmpCertificateChain.length == 0) {
@@ -110,9 +141,40 @@ class ResponderSigner {
         this.responderIdByKey = new RespID(new ResponderID(new DEROctetString(keySha1)));
 
         algoSignerMap = new HashMap<>();
+        encodedAlgorithmIdentifiers = new IdentityHashMap<>();
         for (ConcurrentContentSigner signer : signers) {
             String algoName = getSignatureAlgorithmName(signer.getAlgorithmIdentifier());
             algoSignerMap.put(algoName, signer);
+            encodedAlgorithmIdentifiers.put(signer,
+                    signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER));
+        }
+
+        // pre-encoded fragments of the responses
+        this.encodedResponderIdByName = responderIdByName.toASN1Primitive().getEncoded(
+                ASN1Encoding.DER);
+        this.encodedResponderIdByKey = responderIdByKey.toASN1Primitive().getEncoded(
+                ASN1Encoding.DER);
+        this.encodedCertsSigner = encodeCerts(new X509CertificateHolder[]{bcCertificate});
+        this.encodedCertsSignerAndCa = encodeCerts(bcCertificateChain);
+
+        if (batchSigning == null) {
+            coalescers = null;
+        } else {
+            coalescers = new IdentityHashMap<>();
+            for (ConcurrentContentSigner signer : signers) {
+                // batches are signed one by one by the token if the signer does not sign
+                // them natively, coalescing would only add latency.
+                if (signer.supportsBatchSigning()) {
+                    coalescers.put(signer, new SigningCoalescer(signer, batchSigning));
+                } else {
+                    LOG.warn("signer {} does not support batch signing, ignore batchSigning",
+                            signer.getName());
+                }
+            }
+
+            for (SigningCoalescer coalescer : coalescers.values()) {
+                coalescer.start();
+            }
         }
     } // constructor
 
@@ -158,6 +220,67 @@ class ResponderSigner {
         return bcCertificateChain;
     }
 
+    /**
+     * Builds the response with the signer, within a batch if batch signing is configured.
+     *
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, negative for the
+     *          default timeout of the signer.
+     */
+    public BasicOCSPResp build(final ConcurrentContentSigner signer,
+            final BasicOCSPRespBuilder builder, final X509CertificateHolder[] chain,
+            final Date producedAt, final int timeout) throws NoIdleSignerException, OCSPException {
+        SigningCoalescer coalescer = (coalescers == null) ? null : coalescers.get(signer);
+        if (coalescer != null) {
+            return coalescer.build(builder, chain, producedAt, timeout);
+        }
+
+        return signer.build(builder, chain, producedAt, timeout);
+    }
+
+    /**
+     * Signs the given part of the data with the signer, within a batch if batch signing is
+     * configured.
+     *
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, negative for the
+     *          default timeout of the signer.
+     */
+    public byte[] sign(final ConcurrentContentSigner signer, final byte[] data, final int off,
+            final int len, final int timeout) throws NoIdleSignerException, IOException {
+        SigningCoalescer coalescer = (coalescers == null) ? null : coalescers.get(signer);
+        if (coalescer != null) {
+            // the data is signed by another thread, the buffer may be reused meanwhile
+            return coalescer.sign(Arrays.copyOfRange(data, off, off + len), timeout);
+        }
+
+        return signer.sign(data, off, len, timeout);
+    }
+
+    public byte[] getEncodedResponder(final boolean byName) {
+        return byName ? encodedResponderIdByName : encodedResponderIdByKey;
+    }
+
+    /**
+     * Gets the encoded field certs ([0] EXPLICIT SEQUENCE OF Certificate) of the
+     * BasicOCSPResponse.
+     */
+    public byte[] getEncodedCerts(final boolean withCaCerts) {
+        return withCaCerts ? encodedCertsSignerAndCa : encodedCertsSigner;
+    }
+
+    public byte[] getEncodedAlgorithmIdentifier(final ConcurrentContentSigner signer) {
+        return encodedAlgorithmIdentifiers.get(signer);
+    }
+
+    public void shutdown() {
+        if (coalescers != null) {
+            for (SigningCoalescer coalescer : coalescers.values()) {
+                coalescer.shutdown();
+            }
+        }
+    }
+
     public boolean isHealthy() {
         for (ConcurrentContentSigner signer : signers) {
             if (!signer.isHealthy()) {
@@ -168,6 +291,30 @@ class ResponderSigner {
         return true;
     }
 
+    /**
+     * Adds one child check with the runtime statistics of each signer to the result.
+     *
+     * @param result
+     *          Health check result. Must not be {@code null}.
+     */
+    public void putStatuses(final HealthCheckResult result) {
+        ParamUtil.requireNonNull("result", result);
+        for (ConcurrentContentSigner signer : signers) {
+            HealthCheckResult signerHealth = new HealthCheckResult(signer.getName());
+            signerHealth.setHealthy(true);
+            signer.putStatuses(signerHealth);
+            result.addChildCheck(signerHealth);
+        }
+    }
+
+    private static byte[] encodeCerts(final X509CertificateHolder[] certs) throws IOException {
+        ASN1EncodableVector vec = new ASN1EncodableVector();
+        for (X509CertificateHolder cert : certs) {
+            vec.add(cert.toASN1Structure());
+        }
+        return new DERTaggedObject(true, 0, new DERSequence(vec)).getEncoded(ASN1Encoding.DER);
+    }
+
     private static String getSignatureAlgorithmName(final AlgorithmIdentifier sigAlgId) {
         ASN1ObjectIdentifier algOid = sigAlgId.getAlgorithm();
         if (!PKCSObjectIdentifiers.id_RSASSA_PSS.equals(algOid)) {
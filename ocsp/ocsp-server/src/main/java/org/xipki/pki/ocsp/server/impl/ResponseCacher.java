@@ -0,0 +1,524 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.InvalidConfException;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.OcspCertStatusChangeListener;
+import org.xipki.pki.ocsp.api.OcspStore;
+import org.xipki.pki.ocsp.api.OcspStoreChangeListener;
+import org.xipki.pki.ocsp.server.impl.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.pki.ocsp.server.impl.jaxb.ResponseCacheType;
+
+/**
+ * Server-side cache of signed OCSP responses for requests with exactly one CertID and
+ * without extensions. The entries are invalidated by the {@link OcspStore}s which have
+ * answered the request.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class ResponseCacher implements OcspStoreChangeListener, OcspCertStatusChangeListener {
+
+    static final class CacheKey {
+
+        private final Responder responder;
+
+        private final HashAlgoType hashAlgo;
+
+        private final byte[] issuerNameHash;
+
+        private final byte[] issuerKeyHash;
+
+        private final BigInteger serialNumber;
+
+        private final int hashCode;
+
+        /**
+         *
+         * @param responder the responder, compared by identity. May be {@code null} if the
+         *     cached responses are never refreshed.
+         */
+        CacheKey(final Responder responder, final HashAlgoType hashAlgo,
+                final byte[] issuerNameHash, final byte[] issuerKeyHash,
+                final BigInteger serialNumber) {
+            this.responder = responder;
+            this.hashAlgo = ParamUtil.requireNonNull("hashAlgo", hashAlgo);
+            this.issuerNameHash = ParamUtil.requireNonNull("issuerNameHash", issuerNameHash);
+            this.issuerKeyHash = ParamUtil.requireNonNull("issuerKeyHash", issuerKeyHash);
+            this.serialNumber = ParamUtil.requireNonNull("serialNumber", serialNumber);
+
+            int hc = System.identityHashCode(responder);
+            hc = 31 * hc + hashAlgo.hashCode();
+            hc = 31 * hc + Arrays.hashCode(issuerNameHash);
+            hc = 31 * hc + Arrays.hashCode(issuerKeyHash);
+            hc = 31 * hc + serialNumber.hashCode();
+            this.hashCode = hc;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+
+            CacheKey other = (CacheKey) obj;
+            return responder == other.responder
+                    && hashAlgo == other.hashAlgo
+                    && serialNumber.equals(other.serialNumber)
+                    && Arrays.equals(issuerKeyHash, other.issuerKeyHash)
+                    && Arrays.equals(issuerNameHash, other.issuerNameHash);
+        }
+
+    } // class CacheKey
+
+    static final class CacheEntry {
+
+        private final Responder responder;
+
+        private final CertificateID certId;
+
+        private final OcspStore store;
+
+        private final byte[] encodedResponse;
+
+        private final ResponseCacheInfo cacheInfo;
+
+        private final String certStatusText;
+
+        private final String certprofile;
+
+        private final long expiresAt;
+
+        private volatile boolean hit;
+
+        private volatile long lastAccess;
+
+        CacheEntry(final Responder responder, final CertificateID certId, final OcspStore store,
+                final byte[] encodedResponse, final ResponseCacheInfo cacheInfo,
+                final String certStatusText, final String certprofile, final long expiresAt) {
+            this.responder = responder;
+            this.certId = certId;
+            this.store = store;
+            this.encodedResponse = encodedResponse;
+            this.cacheInfo = cacheInfo;
+            this.certStatusText = certStatusText;
+            this.certprofile = certprofile;
+            this.expiresAt = expiresAt;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        byte[] getEncodedResponse() {
+            return encodedResponse;
+        }
+
+        ResponseCacheInfo getCacheInfo() {
+            return cacheInfo;
+        }
+
+        String getCertStatusText() {
+            return certStatusText;
+        }
+
+        String getCertprofile() {
+            return certprofile;
+        }
+
+        private int getSize() {
+            // encoded response plus the rough overhead of key, entry and map node
+            return encodedResponse.length + 256;
+        }
+
+    } // class CacheEntry
+
+    private static final class EvictionCandidate {
+
+        private final CacheKey key;
+
+        private final CacheEntry entry;
+
+        // copied, since the last access time of the entry may change while sorting
+        private final long lastAccess;
+
+        EvictionCandidate(final CacheKey key, final CacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+
+    } // class EvictionCandidate
+
+    private static final class LastAccessComparator implements Comparator<EvictionCandidate> {
+
+        @Override
+        public int compare(final EvictionCandidate o1, final EvictionCandidate o2) {
+            return Long.compare(o1.lastAccess, o2.lastAccess);
+        }
+
+    } // class LastAccessComparator
+
+    private class RefreshService implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                refresh();
+            } catch (Throwable th) {
+                LogUtil.error(LOG, th, "could not refresh the OCSP response cache");
+            }
+        }
+
+    } // class RefreshService
+
+    static final int DFLT_MAX_ENTRIES = 100000;
+
+    static final long DFLT_MAX_SIZE = 64L * 1024 * 1024; // 64 MB
+
+    static final int DFLT_MAX_AGE = 300; // 5 minutes
+
+    static final int DFLT_REFRESH_BEFORE = 60; // 1 minute
+
+    /**
+     * Responses which expire in less than this time (in ms) will not be cached.
+     */
+    private static final long MIN_LIFETIME = 5000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCacher.class);
+
+    private final OcspServer server;
+
+    private final int maxEntries;
+
+    private final long maxSize;
+
+    private final long maxAgeMs;
+
+    private final long refreshBeforeMs;
+
+    private final ConcurrentHashMap<CacheKey, CacheEntry> entries;
+
+    private final AtomicLong size = new AtomicLong(0);
+
+    /**
+     * Increased by each invalidation. Responses generated from data read before an
+     * invalidation will not be cached.
+     */
+    private final AtomicLong version = new AtomicLong(0);
+
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+    ResponseCacher(final OcspServer server, final ResponseCacheType conf)
+    throws InvalidConfException {
+        this.server = ParamUtil.requireNonNull("server", server);
+        ParamUtil.requireNonNull("conf", conf);
+
+        this.maxEntries = (int) getValue("maxEntries", conf.getMaxEntries(), DFLT_MAX_ENTRIES, 1);
+        this.maxSize = getValue("maxSize", conf.getMaxSize(), DFLT_MAX_SIZE, 1);
+        this.maxAgeMs = 1000L * getValue("maxAge", conf.getMaxAge(), DFLT_MAX_AGE, 1);
+        this.refreshBeforeMs = 1000L * getValue("refreshBefore", conf.getRefreshBefore(),
+                DFLT_REFRESH_BEFORE, 0);
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 1024));
+    }
+
+    void start() {
+        if (scheduledThreadPoolExecutor != null) {
+            return;
+        }
+
+        // check at least twice within the refresh window
+        long interval = Math.max(1, refreshBeforeMs / 2000);
+        interval = Math.min(interval, 30);
+        scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+        scheduledThreadPoolExecutor.scheduleAtFixedRate(new RefreshService(), interval, interval,
+                TimeUnit.SECONDS);
+        LOG.info("started OCSP response cache: maxEntries={}, maxSize={}, maxAge={}s, "
+                + "refreshBefore={}s", maxEntries, maxSize, maxAgeMs / 1000,
+                refreshBeforeMs / 1000);
+    }
+
+    void shutdown() {
+        if (scheduledThreadPoolExecutor != null) {
+            scheduledThreadPoolExecutor.shutdownNow();
+            scheduledThreadPoolExecutor = null;
+        }
+
+        entries.clear();
+        size.set(0);
+    }
+
+    long getVersion() {
+        return version.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    CacheEntry get(final CacheKey key) {
+        return get(key, System.currentTimeMillis());
+    }
+
+    CacheEntry get(final CacheKey key, final long now) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiresAt <= now) {
+            removeEntry(key, entry);
+            return null;
+        }
+
+        entry.lastAccess = now;
+        entry.hit = true;
+        return entry;
+    }
+
+    /**
+     * Caches the response.
+     *
+     * @param key key of the response
+     * @param certId CertID in the request, used to regenerate the response
+     * @param store store which has answered the request
+     * @param encodedResponse DER encoded OCSPResponse
+     * @param cacheInfo information about thisUpdate and nextUpdate
+     * @param certStatusText text of the certificate status, used for the audit
+     * @param certprofile certificate profile, may be {@code null}
+     * @param cacheVersion version of the cache before the store has been queried
+     */
+    void put(final CacheKey key, final CertificateID certId, final OcspStore store,
+            final byte[] encodedResponse, final ResponseCacheInfo cacheInfo,
+            final String certStatusText, final String certprofile, final long cacheVersion) {
+        put(key, certId, store, encodedResponse, cacheInfo, certStatusText, certprofile,
+                cacheVersion, System.currentTimeMillis());
+    }
+
+    void put(final CacheKey key, final CertificateID certId, final OcspStore store,
+            final byte[] encodedResponse, final ResponseCacheInfo cacheInfo,
+            final String certStatusText, final String certprofile, final long cacheVersion,
+            final long now) {
+        if (cacheVersion != version.get()) {
+            // store has been changed in the meantime
+            return;
+        }
+
+        long expiresAt = now + maxAgeMs;
+        if (cacheInfo.getNextUpdate() != null) {
+            expiresAt = Math.min(expiresAt, cacheInfo.getNextUpdate());
+        }
+
+        // a change not yet detected by the store must not be hidden longer than it is
+        // hidden in the store itself
+        long changeDelay = store.getChangeNotificationDelay();
+        if (changeDelay > 0) {
+            expiresAt = Math.min(expiresAt, now + changeDelay);
+        }
+
+        if (expiresAt - now < MIN_LIFETIME) {
+            return;
+        }
+
+        CacheEntry entry = new CacheEntry(key.responder, certId, store, encodedResponse,
+                cacheInfo, certStatusText, certprofile, expiresAt);
+        if (entry.getSize() > maxSize) {
+            return;
+        }
+
+        entry.lastAccess = now;
+        CacheEntry old = entries.put(key, entry);
+        size.addAndGet((old == null) ? entry.getSize() : entry.getSize() - old.getSize());
+
+        // an invalidation which has increased the version after the check above may have
+        // missed the new entry
+        if (cacheVersion != version.get()) {
+            removeEntry(key, entry);
+            return;
+        }
+
+        if (entries.size() > maxEntries || size.get() > maxSize) {
+            evict();
+        }
+    }
+
+    @Override
+    public void storeChanged(final OcspStore store) {
+        int num = 0;
+        version.incrementAndGet();
+        for (Map.Entry<CacheKey, CacheEntry> entry : entries.entrySet()) {
+            if (entry.getValue().store == store && removeEntry(entry.getKey(), entry.getValue())) {
+                num++;
+            }
+        }
+
+        LOG.info("store {} changed, removed {} cached OCSP responses", store.getName(), num);
+    }
+
+    @Override
+    public void certStatusChanged(final OcspStore store,
+            final Collection<BigInteger> serialNumbers) {
+        Set<BigInteger> serials = new HashSet<>(serialNumbers);
+        int num = 0;
+        version.incrementAndGet();
+        for (Map.Entry<CacheKey, CacheEntry> entry : entries.entrySet()) {
+            CacheEntry value = entry.getValue();
+            if (value.store == store && serials.contains(entry.getKey().serialNumber)
+                    && removeEntry(entry.getKey(), value)) {
+                num++;
+            }
+        }
+
+        LOG.debug("status of {} certificates in store {} changed, removed {} cached "
+                + "OCSP responses", serials.size(), store.getName(), num);
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        List<CacheEntry> toRefresh = new ArrayList<>();
+        for (Map.Entry<CacheKey, CacheEntry> mapEntry : entries.entrySet()) {
+            CacheEntry entry = mapEntry.getValue();
+            if (entry.expiresAt - now > refreshBeforeMs) {
+                continue;
+            }
+
+            if (entry.hit && entry.expiresAt > now && entry.responder != null) {
+                toRefresh.add(entry);
+            } else {
+                // expired or not requested since last generation
+                removeEntry(mapEntry.getKey(), entry);
+            }
+        }
+
+        if (toRefresh.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("refreshing {} cached OCSP responses", toRefresh.size());
+        for (CacheEntry entry : toRefresh) {
+            if (scheduledThreadPoolExecutor == null) {
+                // shutdown
+                return;
+            }
+            server.refreshCachedResponse(entry.responder, entry.certId);
+        }
+    }
+
+    private static long getValue(final String name, final Number value, final long dflt,
+            final long min) throws InvalidConfException {
+        if (value == null) {
+            return dflt;
+        }
+
+        long lv = value.longValue();
+        if (lv < min) {
+            throw new InvalidConfException("responseCache." + name + " must not be less than "
+                    + min + ": " + lv);
+        }
+        return lv;
+    }
+
+    /**
+     * Removes the least recently used entries until 90% of the limits are reached.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            // another thread is evicting
+            return;
+        }
+
+        try {
+            List<EvictionCandidate> candidates = new ArrayList<>(entries.size());
+            for (Map.Entry<CacheKey, CacheEntry> entry : entries.entrySet()) {
+                candidates.add(new EvictionCandidate(entry.getKey(), entry.getValue()));
+            }
+            Collections.sort(candidates, new LastAccessComparator());
+
+            long maxEntriesAfter = maxEntries - maxEntries / 10;
+            long maxSizeAfter = maxSize - maxSize / 10;
+            for (EvictionCandidate candidate : candidates) {
+                if (entries.size() <= maxEntriesAfter && size.get() <= maxSizeAfter) {
+                    break;
+                }
+                removeEntry(candidate.key, candidate.entry);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    } // method evict
+
+    private boolean removeEntry(final CacheKey key, final CacheEntry entry) {
+        if (entries.remove(key, entry)) {
+            size.addAndGet(-entry.getSize());
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.bouncycastle.operator.ContentSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.commons.common.InvalidConfException;
+import org.xipki.commons.common.util.LogUtil;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.ConcurrentContentSigner;
+import org.xipki.commons.security.exception.NoIdleSignerException;
+import org.xipki.pki.ocsp.server.impl.jaxb.BatchSigningType;
+
+/**
+ * Collects the to-be-signed response data of concurrent requests and signs them
+ * with {@link ConcurrentContentSigner#sign(byte[][])} as one batch.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class SigningCoalescer {
+
+    private static final class PendingSignature {
+
+        private final byte[] data;
+
+        private final CompletableFuture<byte[]> signature = new CompletableFuture<>();
+
+        private final AtomicBoolean taken = new AtomicBoolean(false);
+
+        PendingSignature(final byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Takes the entry, either by a dispatcher into a batch, or by the caller which gives
+         * up waiting. Only the first one succeeds.
+         */
+        boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+
+    } // class PendingSignature
+
+    private final class CoalescingContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        private final int timeout;
+
+        private boolean noIdleSigner;
+
+        CoalescingContentSigner(final int timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return signer.getAlgorithmIdentifier();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            outputStream.reset();
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            byte[] data = outputStream.toByteArray();
+            outputStream.reset();
+            try {
+                return sign(data, timeout);
+            } catch (NoIdleSignerException ex) {
+                noIdleSigner = true;
+                throw new RuntimeCryptoException(ex.getMessage());
+            } catch (IOException ex) {
+                throw new RuntimeCryptoException(ex.getMessage());
+            }
+        }
+
+    } // class CoalescingContentSigner
+
+    private final class Dispatcher implements Runnable {
+
+        @Override
+        public void run() {
+            List<PendingSignature> batch = new ArrayList<>(maxBatchSize);
+            while (running) {
+                try {
+                    PendingSignature first = queue.take();
+                    // the caller has timed out, do not waste the signer on it
+                    if (!first.take()) {
+                        continue;
+                    }
+
+                    batch.add(first);
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        PendingSignature next = (remaining > 0)
+                                ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null) {
+                            break;
+                        }
+
+                        if (next.take()) {
+                            batch.add(next);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    // shutdown
+                }
+
+                if (!batch.isEmpty()) {
+                    sign(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+    } // class Dispatcher
+
+    private static final Logger LOG = LoggerFactory.getLogger(SigningCoalescer.class);
+
+    private static final int DFLT_MAX_BATCH_SIZE = 32;
+
+    private static final int DFLT_MAX_DELAY = 1000; // 1 millisecond
+
+    private static final int DFLT_QUEUE_SIZE = 1000;
+
+    private static final int DFLT_SIGN_TIMEOUT = 10000; // 10 seconds
+
+    private final ConcurrentContentSigner signer;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private final Thread[] dispatchers;
+
+    private final BlockingQueue<PendingSignature> queue;
+
+    private volatile boolean running;
+
+    SigningCoalescer(final ConcurrentContentSigner signer, final BatchSigningType conf)
+    throws InvalidConfException {
+        this.signer = ParamUtil.requireNonNull("signer", signer);
+        ParamUtil.requireNonNull("conf", conf);
+        this.maxBatchSize = getValue("maxBatchSize", conf.getMaxBatchSize(),
+                DFLT_MAX_BATCH_SIZE);
+        this.maxDelayNanos = 1000L * getValue("maxDelay", conf.getMaxDelay(), DFLT_MAX_DELAY);
+        this.queue = new ArrayBlockingQueue<>(
+                getValue("queueSize", conf.getQueueSize(), DFLT_QUEUE_SIZE));
+
+        // each dispatcher holds one signer of the pool while signing a batch, more
+        // dispatchers would only wait for an idle signer.
+        final int poolSize = signer.getNumberOfSigners();
+        int threads = getValue("threads", conf.getThreads(), poolSize);
+        if (threads > poolSize) {
+            LOG.warn("batchSigning.threads {} is greater than the number of signers {}, use {}",
+                    threads, poolSize, poolSize);
+            threads = poolSize;
+        }
+        this.dispatchers = new Thread[threads];
+    }
+
+    void start() {
+        running = true;
+        for (int i = 0; i < dispatchers.length; i++) {
+            Thread thread = new Thread(new Dispatcher(),
+                    "ocsp-signer-" + signer.getName() + "-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            dispatchers[i] = thread;
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        for (int i = 0; i < dispatchers.length; i++) {
+            if (dispatchers[i] != null) {
+                dispatchers[i].interrupt();
+                dispatchers[i] = null;
+            }
+        }
+
+        PendingSignature pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending.take()) {
+                pending.signature.completeExceptionally(
+                        new NoIdleSignerException("signing coalescer has been shutdown"));
+            }
+        }
+    }
+
+    /**
+     * Builds the response, its signature is created within the next batch.
+     *
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, negative for the
+     *          default timeout. See {@link #sign(byte[], int)}.
+     */
+    BasicOCSPResp build(final BasicOCSPRespBuilder builder, final X509CertificateHolder[] chain,
+            final Date producedAt, final int timeout) throws NoIdleSignerException, OCSPException {
+        CoalescingContentSigner contentSigner = new CoalescingContentSigner(timeout);
+        try {
+            return builder.build(contentSigner, chain, producedAt);
+        } catch (OCSPException ex) {
+            if (contentSigner.noIdleSigner) {
+                throw new NoIdleSignerException(ex.getMessage(), ex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Signs the data within the next batch.
+     *
+     * @param data
+     *          Data to be signed. Must not be {@code null}.
+     * @param timeout
+     *          Maximal time in milliseconds to wait for an idle signer, negative for the
+     *          default timeout. Since the batches are collected for up to maxDelay, the data
+     *          is given up if it has not been taken into a batch within timeout plus
+     *          maxDelay. Once taken, the signature is awaited.
+     * @return the signature.
+     * @throws NoIdleSignerException
+     *         if the queue is full, or the data has not been taken into a batch within the
+     *         timeout.
+     * @throws IOException
+     *         if the batch could not be signed.
+     */
+    byte[] sign(final byte[] data, final int timeout) throws NoIdleSignerException, IOException {
+        ParamUtil.requireNonNull("data", data);
+        if (!running) {
+            throw new NoIdleSignerException("signing coalescer is not running");
+        }
+
+        PendingSignature pending = new PendingSignature(data);
+        if (!queue.offer(pending)) {
+            // fail fast instead of waiting for free space
+            throw new NoIdleSignerException("signing queue is full");
+        }
+
+        final int tmpTimeout = (timeout < 0) ? DFLT_SIGN_TIMEOUT : timeout;
+        try {
+            try {
+                return pending.signature.get(
+                        TimeUnit.MILLISECONDS.toNanos(tmpTimeout) + maxDelayNanos,
+                        TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                // abandon it so that the dispatchers skip it
+                if (pending.take()) {
+                    throw new NoIdleSignerException(
+                            "not taken into a batch within " + tmpTimeout + " ms");
+                }
+
+                // it is being signed
+                return pending.signature.get();
+            }
+        } catch (InterruptedException ex) {
+            pending.take();
+            Thread.currentThread().interrupt();
+            throw new NoIdleSignerException("interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof NoIdleSignerException) {
+                throw (NoIdleSignerException) cause;
+            }
+            throw new IOException(cause.getClass().getName() + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private void sign(final List<PendingSignature> batch) {
+        final int size = batch.size();
+        byte[][] data = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            data[i] = batch.get(i).data;
+        }
+
+        byte[][] signatures;
+        try {
+            signatures = signer.sign(data);
+        } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not sign batch of " + size + " responses");
+            for (PendingSignature pending : batch) {
+                pending.signature.completeExceptionally(th);
+            }
+            return;
+        }
+
+        LOG.debug("signed batch of {} responses", size);
+        for (int i = 0; i < size; i++) {
+            batch.get(i).signature.complete(signatures[i]);
+        }
+    }
+
+    private static int getValue(final String name, final Integer value, final int dflt)
+    throws InvalidConfException {
+        if (value == null) {
+            return dflt;
+        }
+
+        int iv = value.intValue();
+        if (iv < 1) {
+            throw new InvalidConfException("batchSigning." + name + " must not be less than 1: "
+                    + iv);
+        }
+        return iv;
+    }
+
+}
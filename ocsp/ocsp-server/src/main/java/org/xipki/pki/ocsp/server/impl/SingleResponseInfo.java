@@ -0,0 +1,344 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.isismtt.ISISMTTObjectIdentifiers;
+import org.bouncycastle.asn1.isismtt.ocsp.CertHash;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * Content of one SingleResponse. It can be either added to a {@link BasicOCSPRespBuilder}
+ * or written directly in DER by the {@link OcspResponseEncoder}.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class SingleResponseInfo {
+
+    static final int STATUS_GOOD = 0;
+
+    static final int STATUS_REVOKED = 1;
+
+    static final int STATUS_UNKNOWN = 2;
+
+    private static final byte[] OID_INVALIDITY_DATE =
+            OcspResponseEncoder.getEncodedOid(Extension.invalidityDate);
+
+    private static final byte[] OID_ARCHIVE_CUTOFF =
+            OcspResponseEncoder.getEncodedOid(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff);
+
+    private static final byte[] OID_CERT_HASH =
+            OcspResponseEncoder.getEncodedOid(ISISMTTObjectIdentifiers.id_isismtt_at_certHash);
+
+    private static final Map<HashAlgoType, byte[]> HASH_ALGIDS = new EnumMap<>(HashAlgoType.class);
+
+    private final CertificateID certId;
+
+    private final int status;
+
+    private final Date revocationTime;
+
+    private final int revocationReason;
+
+    private final Date invalidityDate;
+
+    private final HashAlgoType certHashAlgo;
+
+    private final byte[] certHash;
+
+    private final Date archiveCutOff;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private byte[] encodedCertId;
+
+    private int certStatusLen;
+
+    private int extensionsLen;
+
+    private int encodedLength = -1;
+
+    static {
+        for (HashAlgoType hashAlgo : HashAlgoType.values()) {
+            try {
+                HASH_ALGIDS.put(hashAlgo, new AlgorithmIdentifier(hashAlgo.getOid(),
+                        DERNull.INSTANCE).getEncoded(ASN1Encoding.DER));
+            } catch (IOException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param certId
+     *          CertID. Must not be {@code null}.
+     * @param status
+     *          One of {@link #STATUS_GOOD}, {@link #STATUS_REVOKED} and {@link #STATUS_UNKNOWN}.
+     * @param revocationTime
+     *          Revocation time. Must not be {@code null} if the status is revoked.
+     * @param revocationReason
+     *          Code of the revocation reason, -1 if it is not included.
+     * @param invalidityDate
+     *          Invalidity date. Could be {@code null}.
+     * @param certHashAlgo
+     *          Hash algorithm of the certHash. Must not be {@code null} if certHash is present.
+     * @param certHash
+     *          Hash value of the certificate. Could be {@code null}.
+     * @param archiveCutOff
+     *          Archive cutoff. Could be {@code null}.
+     * @param thisUpdate
+     *          thisUpdate. Must not be {@code null}.
+     * @param nextUpdate
+     *          nextUpdate. Could be {@code null}.
+     */
+    SingleResponseInfo(final CertificateID certId, final int status, final Date revocationTime,
+            final int revocationReason, final Date invalidityDate, final HashAlgoType certHashAlgo,
+            final byte[] certHash, final Date archiveCutOff, final Date thisUpdate,
+            final Date nextUpdate) {
+        this.certId = ParamUtil.requireNonNull("certId", certId);
+        this.status = status;
+        if (status == STATUS_REVOKED) {
+            this.revocationTime = ParamUtil.requireNonNull("revocationTime", revocationTime);
+        } else {
+            this.revocationTime = null;
+        }
+        this.revocationReason = revocationReason;
+        this.invalidityDate = invalidityDate;
+        this.certHash = certHash;
+        this.certHashAlgo = (certHash == null) ? null
+                : ParamUtil.requireNonNull("certHashAlgo", certHashAlgo);
+        this.archiveCutOff = archiveCutOff;
+        this.thisUpdate = ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+        this.nextUpdate = nextUpdate;
+    }
+
+    void addTo(final BasicOCSPRespBuilder builder) throws IOException {
+        CertificateStatus bcCertStatus;
+        if (status == STATUS_GOOD) {
+            bcCertStatus = null;
+        } else if (status == STATUS_UNKNOWN) {
+            bcCertStatus = new UnknownStatus();
+        } else {
+            CRLReason reason = (revocationReason < 0) ? null
+                    : CRLReason.lookup(revocationReason);
+            bcCertStatus = new RevokedStatus(
+                    new RevokedInfo(new ASN1GeneralizedTime(revocationTime), reason));
+        }
+
+        List<Extension> extensions = new ArrayList<>(3);
+        if (invalidityDate != null) {
+            extensions.add(new Extension(Extension.invalidityDate, false,
+                    new ASN1GeneralizedTime(invalidityDate).getEncoded()));
+        }
+
+        if (certHash != null) {
+            AlgorithmIdentifier hashAlgId = new AlgorithmIdentifier(certHashAlgo.getOid(),
+                    DERNull.INSTANCE);
+            extensions.add(new Extension(ISISMTTObjectIdentifiers.id_isismtt_at_certHash, false,
+                    new CertHash(hashAlgId, certHash).getEncoded()));
+        }
+
+        if (archiveCutOff != null) {
+            extensions.add(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff, false,
+                    new ASN1GeneralizedTime(archiveCutOff).getEncoded()));
+        }
+
+        Extensions extns = extensions.isEmpty() ? null
+                : new Extensions(extensions.toArray(new Extension[0]));
+        builder.addResponse(certId, bcCertStatus, thisUpdate, nextUpdate, extns);
+    }
+
+    /**
+     * Gets the length of the content of the encoded SingleResponse, without tag and length.
+     */
+    int getEncodedLength() throws IOException {
+        if (encodedLength != -1) {
+            return encodedLength;
+        }
+
+        encodedCertId = certId.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+
+        if (status == STATUS_REVOKED) {
+            // revocationTime, [0] EXPLICIT CRLReason
+            certStatusLen = OcspResponseEncoder.GENERALIZED_TIME_LEN
+                    + ((revocationReason < 0) ? 0 : 5);
+        } else {
+            // NULL
+            certStatusLen = 0;
+        }
+
+        extensionsLen = 0;
+        if (invalidityDate != null) {
+            extensionsLen += OcspResponseEncoder.getExtensionLength(OID_INVALIDITY_DATE,
+                    OcspResponseEncoder.GENERALIZED_TIME_LEN);
+        }
+
+        if (certHash != null) {
+            extensionsLen += OcspResponseEncoder.getExtensionLength(OID_CERT_HASH,
+                    getCertHashLength());
+        }
+
+        if (archiveCutOff != null) {
+            extensionsLen += OcspResponseEncoder.getExtensionLength(OID_ARCHIVE_CUTOFF,
+                    OcspResponseEncoder.GENERALIZED_TIME_LEN);
+        }
+
+        int len = encodedCertId.length + OcspResponseEncoder.getTlvLength(certStatusLen)
+                + OcspResponseEncoder.GENERALIZED_TIME_LEN;
+        if (nextUpdate != null) {
+            len += OcspResponseEncoder.getTlvLength(OcspResponseEncoder.GENERALIZED_TIME_LEN);
+        }
+
+        if (extensionsLen != 0) {
+            len += OcspResponseEncoder.getTlvLength(
+                    OcspResponseEncoder.getTlvLength(extensionsLen));
+        }
+
+        encodedLength = len;
+        return len;
+    } // method getEncodedLength
+
+    /**
+     * Writes the content of the encoded SingleResponse. {@link #getEncodedLength()} must
+     * have been called before.
+     *
+     * @return the offset after the written content.
+     */
+    int write(final byte[] buf, final int off) {
+        if (encodedLength == -1) {
+            throw new IllegalStateException("getEncodedLength() has not been called");
+        }
+
+        int tmpOff = OcspResponseEncoder.writeBytes(buf, off, encodedCertId);
+
+        // certStatus
+        if (status == STATUS_REVOKED) {
+            tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff, (byte) 0xA1, certStatusLen);
+            tmpOff = OcspResponseEncoder.writeGeneralizedTime(buf, tmpOff,
+                    revocationTime.getTime());
+            if (revocationReason >= 0) {
+                buf[tmpOff++] = (byte) 0xA0;
+                buf[tmpOff++] = 3;
+                buf[tmpOff++] = OcspResponseEncoder.TAG_ENUMERATED;
+                buf[tmpOff++] = 1;
+                buf[tmpOff++] = (byte) revocationReason;
+            }
+        } else {
+            buf[tmpOff++] = (byte) ((status == STATUS_GOOD) ? 0x80 : 0x82);
+            buf[tmpOff++] = 0;
+        }
+
+        tmpOff = OcspResponseEncoder.writeGeneralizedTime(buf, tmpOff, thisUpdate.getTime());
+
+        if (nextUpdate != null) {
+            tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff, (byte) 0xA0,
+                    OcspResponseEncoder.GENERALIZED_TIME_LEN);
+            tmpOff = OcspResponseEncoder.writeGeneralizedTime(buf, tmpOff, nextUpdate.getTime());
+        }
+
+        if (extensionsLen == 0) {
+            return tmpOff;
+        }
+
+        // singleExtensions [1] EXPLICIT Extensions
+        tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff, (byte) 0xA1,
+                OcspResponseEncoder.getTlvLength(extensionsLen));
+        tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff, OcspResponseEncoder.TAG_SEQUENCE,
+                extensionsLen);
+
+        if (invalidityDate != null) {
+            tmpOff = OcspResponseEncoder.writeExtensionHeader(buf, tmpOff, OID_INVALIDITY_DATE,
+                    OcspResponseEncoder.GENERALIZED_TIME_LEN);
+            tmpOff = OcspResponseEncoder.writeGeneralizedTime(buf, tmpOff,
+                    invalidityDate.getTime());
+        }
+
+        if (certHash != null) {
+            byte[] hashAlgId = HASH_ALGIDS.get(certHashAlgo);
+            tmpOff = OcspResponseEncoder.writeExtensionHeader(buf, tmpOff, OID_CERT_HASH,
+                    getCertHashLength());
+            // CertHash ::= SEQUENCE {hashAlgorithm, certificateHash}
+            tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff,
+                    OcspResponseEncoder.TAG_SEQUENCE,
+                    hashAlgId.length + OcspResponseEncoder.getTlvLength(certHash.length));
+            tmpOff = OcspResponseEncoder.writeBytes(buf, tmpOff, hashAlgId);
+            tmpOff = OcspResponseEncoder.writeHeader(buf, tmpOff,
+                    OcspResponseEncoder.TAG_OCTET_STRING, certHash.length);
+            tmpOff = OcspResponseEncoder.writeBytes(buf, tmpOff, certHash);
+        }
+
+        if (archiveCutOff != null) {
+            tmpOff = OcspResponseEncoder.writeExtensionHeader(buf, tmpOff, OID_ARCHIVE_CUTOFF,
+                    OcspResponseEncoder.GENERALIZED_TIME_LEN);
+            tmpOff = OcspResponseEncoder.writeGeneralizedTime(buf, tmpOff,
+                    archiveCutOff.getTime());
+        }
+
+        return tmpOff;
+    } // method write
+
+    private int getCertHashLength() {
+        return OcspResponseEncoder.getTlvLength(HASH_ALGIDS.get(certHashAlgo).length
+                + OcspResponseEncoder.getTlvLength(certHash.length));
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
+
+/**
+ * Immutable index which maps the (hash algorithm, issuerNameHash, issuerKeyHash) of a CertID
+ * to an object, e.g. the issuer or the stores which can answer requests of this issuer.
+ *
+ * <p>The entries are kept in an open-addressing table whose slot is derived from the first
+ * bytes of both hash values. Since these are outputs of a cryptographic hash function, a
+ * lookup compares in general the complete hash values of exactly one entry. Lookups do not
+ * allocate any objects.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public final class IssuerHashIndex<T> {
+
+    public static class Builder<T> {
+
+        private final Map<Key, T> entries = new LinkedHashMap<>();
+
+        public Builder() {
+        }
+
+        /**
+         * Associates the value with the given issuer hashes.
+         *
+         * @param issuerHash hash algorithm, issuerNameHash and issuerKeyHash of the issuer.
+         *          Must not be {@code null}.
+         * @param value value of the issuer. Must not be {@code null}.
+         * @return the previous value of the issuer hashes, may be {@code null}.
+         */
+        public T put(final IssuerHashNameAndKey issuerHash, final T value) {
+            ParamUtil.requireNonNull("issuerHash", issuerHash);
+            ParamUtil.requireNonNull("value", value);
+            return entries.put(new Key(issuerHash), value);
+        }
+
+        public T get(final IssuerHashNameAndKey issuerHash) {
+            ParamUtil.requireNonNull("issuerHash", issuerHash);
+            return entries.get(new Key(issuerHash));
+        }
+
+        public IssuerHashIndex<T> build() {
+            return new IssuerHashIndex<>(entries);
+        }
+
+    } // class Builder
+
+    private static class Key {
+
+        private final HashAlgoType algo;
+
+        private final byte[] issuerNameHash;
+
+        private final byte[] issuerKeyHash;
+
+        private final int hash;
+
+        Key(final IssuerHashNameAndKey issuerHash) {
+            this.algo = issuerHash.getAlgo();
+            this.issuerNameHash = issuerHash.getIssuerNameHash();
+            this.issuerKeyHash = issuerHash.getIssuerKeyHash();
+            this.hash = hash(algo, issuerNameHash, issuerKeyHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return algo == other.algo
+                    && Arrays.equals(issuerKeyHash, other.issuerKeyHash)
+                    && Arrays.equals(issuerNameHash, other.issuerNameHash);
+        }
+
+    } // class Key
+
+    private final HashAlgoType[] algos;
+
+    private final byte[][] issuerNameHashes;
+
+    private final byte[][] issuerKeyHashes;
+
+    private final Object[] values;
+
+    private final int mask;
+
+    private final int size;
+
+    private IssuerHashIndex(final Map<Key, T> entries) {
+        this.size = entries.size();
+
+        // load factor of at most 0.5 keeps the probe sequences short
+        int capacity = 2;
+        while (capacity < 2 * size) {
+            capacity <<= 1;
+        }
+
+        this.mask = capacity - 1;
+        this.algos = new HashAlgoType[capacity];
+        this.issuerNameHashes = new byte[capacity][];
+        this.issuerKeyHashes = new byte[capacity][];
+        this.values = new Object[capacity];
+
+        for (Map.Entry<Key, T> entry : entries.entrySet()) {
+            Key key = entry.getKey();
+            int idx = key.hash & mask;
+            while (algos[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+
+            algos[idx] = key.algo;
+            issuerNameHashes[idx] = key.issuerNameHash;
+            issuerKeyHashes[idx] = key.issuerKeyHash;
+            values[idx] = entry.getValue();
+        }
+    }
+
+    /**
+     * Gets the value of the given issuer hashes.
+     *
+     * @param hashAlgo hash algorithm. Could be {@code null}.
+     * @param issuerNameHash hash of the issuer's name. Could be {@code null}.
+     * @param issuerKeyHash hash of the issuer's public key. Could be {@code null}.
+     * @return the value, or {@code null} if no entry matches.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final HashAlgoType hashAlgo, final byte[] issuerNameHash,
+            final byte[] issuerKeyHash) {
+        if (size == 0 || hashAlgo == null || issuerNameHash == null || issuerKeyHash == null) {
+            return null;
+        }
+
+        int idx = hash(hashAlgo, issuerNameHash, issuerKeyHash) & mask;
+        while (true) {
+            HashAlgoType algo = algos[idx];
+            if (algo == null) {
+                return null;
+            }
+
+            if (algo == hashAlgo
+                    && Arrays.equals(issuerKeyHashes[idx], issuerKeyHash)
+                    && Arrays.equals(issuerNameHashes[idx], issuerNameHash)) {
+                return (T) values[idx];
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * Gets the values of all entries.
+     *
+     * @return the values of all entries, never {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> values() {
+        List<T> ret = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                ret.add((T) value);
+            }
+        }
+        return ret;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int hash(final HashAlgoType algo, final byte[] issuerNameHash,
+            final byte[] issuerKeyHash) {
+        int hash = 31 * prefix(issuerKeyHash) + prefix(issuerNameHash);
+        hash = 31 * hash + algo.ordinal();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int prefix(final byte[] bytes) {
+        int ret = 0;
+        final int n = Math.min(4, bytes.length);
+        for (int i = 0; i < n; i++) {
+            ret = (ret << 8) | (bytes[i] & 0xFF);
+        }
+        return ret;
+    }
+
+}
@@ -85,6 +85,16 @@ class CrlCertStatusInfo {
         return certprofile;
     }
 
+    /**
+     * Whether the details of the certificate are known, e.g. from the CRL extension or the
+     * certificates folder, not only the revocation information from the CRL.
+     *
+     * @return whether the certificate is known.
+     */
+    boolean isCertKnown() {
+        return certprofile != null;
+    }
+
     boolean isExpired(Date time) {
         return (notAfter == null) ? true : time.after(notAfter);
     }
@@ -120,6 +130,27 @@ class CrlCertStatusInfo {
         } // end switch
     } // method getCertStatusInfo
 
+    /**
+     * Derives the status of the same certificate with the given revocation information.
+     *
+     * @param revocationInfo the revocation information, {@code null} if the certificate is
+     *     not revoked.
+     * @return the derived status.
+     * @throws IllegalStateException if the status of a non-revoked certificate which is not
+     *     known is requested.
+     */
+    CrlCertStatusInfo withRevocationInfo(final CertRevocationInfo revocationInfo) {
+        if (revocationInfo != null) {
+            return getRevokedCertStatusInfo(revocationInfo, certprofile, certHashes, notBefore,
+                    notAfter);
+        }
+
+        if (!isCertKnown()) {
+            throw new IllegalStateException("certificate is not known");
+        }
+        return getGoodCertStatusInfo(certprofile, certHashes, notBefore, notAfter);
+    }
+
     static CrlCertStatusInfo getIgnoreCertStatusInfo() {
         return new CrlCertStatusInfo(CertStatus.IGNORE, null, null, null, null, null);
     }
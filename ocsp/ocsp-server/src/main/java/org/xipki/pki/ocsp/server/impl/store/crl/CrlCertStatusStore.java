@@ -39,32 +39,25 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.cert.CRLReason;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import javax.security.auth.x500.X500Principal;
-
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Enumerated;
 import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
 import org.bouncycastle.asn1.ASN1TaggedObject;
@@ -79,7 +72,12 @@ import org.bouncycastle.asn1.ocsp.CrlID;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
 import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.commons.audit.AuditLevel;
@@ -100,6 +98,7 @@ import org.xipki.pki.ocsp.api.CertprofileOption;
 import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
 import org.xipki.pki.ocsp.api.OcspStore;
 import org.xipki.pki.ocsp.api.OcspStoreException;
+import org.xipki.pki.ocsp.server.impl.store.IssuerHashIndex;
 
 /**
  * @author Lijun Liao
@@ -123,7 +122,12 @@ public class CrlCertStatusStore extends OcspStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(CrlCertStatusStore.class);
 
-    private final Map<BigInteger, CrlCertStatusInfo> certStatusInfoMap = new ConcurrentHashMap<>();
+    /*
+     * Status derived from the current CRL and delta CRL, replaced atomically.
+     */
+    private volatile CrlStatusSnapshot snapshot;
+
+    private File crlIndexDir;
 
     private X509Certificate caCert;
 
@@ -145,8 +149,6 @@ public class CrlCertStatusStore extends OcspStore {
 
     private CertRevocationInfo caRevInfo;
 
-    private CrlID crlId;
-
     private byte[] fpOfCrlFile;
 
     private long lastmodifiedOfCrlFile;
@@ -155,16 +157,10 @@ public class CrlCertStatusStore extends OcspStore {
 
     private long lastModifiedOfDeltaCrlFile;
 
-    private Date thisUpdate;
-
-    private Date nextUpdate;
-
-    private BigInteger crlNumber;
-
     private Set<HashAlgoType> certHashAlgos;
 
-    private final Map<HashAlgoType, IssuerHashNameAndKey> issuerHashMap =
-            new ConcurrentHashMap<>();
+    private volatile IssuerHashIndex<IssuerHashNameAndKey> issuerHashIndex =
+            new IssuerHashIndex.Builder<IssuerHashNameAndKey>().build();
 
     private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
@@ -205,7 +201,7 @@ public class CrlCertStatusStore extends OcspStore {
 
                 if (deltaCrlExists) {
                     if (newLastModifedOfDeltaCrl != lastModifiedOfDeltaCrlFile
-                            && now - newLastModifed < 5000) {
+                            && now - newLastModifedOfDeltaCrl < 5000) {
                         return; // still in copy process
                     }
                 }
@@ -217,6 +213,11 @@ public class CrlCertStatusStore extends OcspStore {
             byte[] newFpOfDeltaCrl = deltaCrlExists ? sha1Fp(deltaCrlFile) : null;
             boolean deltaCrlFileChanged = !Arrays.equals(newFpOfDeltaCrl, fpOfDeltaCrlFile);
 
+            CrlStatusSnapshot oldSnapshot = this.snapshot;
+            if (oldSnapshot == null) {
+                crlFileChanged = true;
+            }
+
             if (!crlFileChanged && !deltaCrlFileChanged) {
                 return;
             }
@@ -232,309 +233,490 @@ public class CrlCertStatusStore extends OcspStore {
             auditPciEvent(AuditLevel.INFO, "UPDATE_CERTSTORE", "a newer CRL is available");
             updateCrlSuccessful = false;
 
-            X509CRL crl = X509Util.parseCrl(crlFilename);
-
-            byte[] octetString = crl.getExtensionValue(Extension.cRLNumber.getId());
-            if (octetString == null) {
-                throw new OcspStoreException("CRL without CRLNumber is not supported");
+            CrlStatusSnapshot baseSnapshot;
+            if (crlFileChanged) {
+                baseSnapshot = loadFullCrl(newFp, oldSnapshot);
+            } else {
+                // only the delta CRL has changed, the part derived from the full CRL is reused
+                baseSnapshot = oldSnapshot;
             }
-            BigInteger newCrlNumber = ASN1Integer.getInstance(
-                    DEROctetString.getInstance(octetString).getOctets()).getPositiveValue();
 
-            if (crlNumber != null && newCrlNumber.compareTo(crlNumber) <= 0) {
-                throw new OcspStoreException(String.format(
-                        "CRLNumber of new CRL (%s) <= current CRL (%s)", newCrlNumber, crlNumber));
+            CrlStreamParser deltaCrl = deltaCrlExists
+                    ? loadDeltaCrl(baseSnapshot.getCrlNumber()) : null;
+
+            long newVersion = (oldSnapshot == null) ? 1 : oldSnapshot.getVersion() + 1;
+            CrlStatusSnapshot newSnapshot;
+            try {
+                newSnapshot = applyDeltaCrl(newVersion, baseSnapshot, deltaCrl);
+            } finally {
+                if (deltaCrl != null) {
+                    deltaCrl.close();
+                }
             }
 
-            X500Principal issuer = crl.getIssuerX500Principal();
+            this.lastmodifiedOfCrlFile = newLastModifed;
+            this.fpOfCrlFile = newFp;
 
-            boolean caAsCrlIssuer = true;
-            if (!caCert.getSubjectX500Principal().equals(issuer)) {
-                caAsCrlIssuer = false;
-                if (issuerCert == null) {
-                    throw new IllegalArgumentException("issuerCert must not be null");
-                }
+            this.lastModifiedOfDeltaCrlFile = newLastModifedOfDeltaCrl;
+            this.fpOfDeltaCrlFile = newFpOfDeltaCrl;
 
-                if (!issuerCert.getSubjectX500Principal().equals(issuer)) {
-                    throw new IllegalArgumentException("issuerCert and CRL do not match");
+            this.snapshot = newSnapshot;
+
+            this.initializationFailed = false;
+            this.initialized = true;
+            updateCrlSuccessful = true;
+            LOG.info("updated CertStore {} to version {} (CRLNumber={}, DeltaCRLNumber={})",
+                    name, newVersion, newSnapshot.getCrlNumber(),
+                    newSnapshot.getDeltaCrlNumber());
+
+            if (crlFileChanged) {
+                if (oldSnapshot != null) {
+                    deleteObsoleteCrlIndexes(newSnapshot.getCrlIndex().getFile());
                 }
+                notifyStoreChanged();
+            } else {
+                Set<BigInteger> changedSerials = oldSnapshot.getDeltaSerialNumbers();
+                changedSerials.addAll(newSnapshot.getDeltaSerialNumbers());
+                notifyCertStatusChanged(changedSerials);
             }
-
-            X509Certificate crlSignerCert = caAsCrlIssuer ? caCert : issuerCert;
-            try {
-                crl.verify(crlSignerCert.getPublicKey());
-            } catch (Exception ex) {
-                throw new OcspStoreException(ex.getMessage(), ex);
+        } catch (Exception ex) {
+            LogUtil.error(LOG, ex, "could not execute initializeStore()");
+            initializationFailed = true;
+            initialized = true;
+        } finally {
+            if (updateCrlSuccessful != null) {
+                AuditLevel auditLevel = updateCrlSuccessful ? AuditLevel.INFO : AuditLevel.ERROR;
+                AuditStatus auditStatus = updateCrlSuccessful ? AuditStatus.SUCCESSFUL
+                        : AuditStatus.FAILED;
+                auditPciEvent(auditLevel, "UPDATE_CRL", auditStatus.name());
             }
+        }
+    } // method initializeStore
 
-            X509CRL deltaCrl = null;
-            BigInteger deltaCrlNumber = null;
-            BigInteger baseCrlNumber = null;
+    private CrlStatusSnapshot loadFullCrl(final byte[] crlFp,
+            final CrlStatusSnapshot oldSnapshot)
+    throws CertificateException, IOException, OcspStoreException {
+        // the CRL is streamed from the file, the revoked certificates are not kept in memory
+        CrlStreamParser crl = new CrlStreamParser(new File(crlFilename));
+        try {
+            return loadFullCrl(crlFp, oldSnapshot, crl);
+        } finally {
+            crl.close();
+        }
+    }
 
-            if (deltaCrlExists) {
-                if (newCrlNumber == null) {
-                    throw new OcspStoreException("baseCRL does not contains CRLNumber");
-                }
+    private CrlStatusSnapshot loadFullCrl(final byte[] crlFp,
+            final CrlStatusSnapshot oldSnapshot, final CrlStreamParser crl)
+    throws CertificateException, IOException, OcspStoreException {
+        BigInteger newCrlNumber = crl.getNumberExtensionValue(Extension.cRLNumber);
+        if (newCrlNumber == null) {
+            throw new OcspStoreException("CRL without CRLNumber is not supported");
+        }
 
-                deltaCrl = X509Util.parseCrl(deltaCrlFilename);
-                octetString = deltaCrl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-                if (octetString == null) {
-                    deltaCrl = null;
-                    LOG.warn("{} is a full CRL instead of delta CRL, ignore it", deltaCrlFilename);
-                } else {
-                    byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-                    baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-                    if (!baseCrlNumber.equals(newCrlNumber)) {
-                        deltaCrl = null;
-                        LOG.info("{} is not a deltaCRL for the CRL {}, ignore it", deltaCrlFilename,
-                                crlFilename);
-                    } else {
-                        octetString = deltaCrl.getExtensionValue(Extension.cRLNumber.getId());
-                        extnValue = DEROctetString.getInstance(octetString).getOctets();
-                        deltaCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-                    }
-                } // end if(octetString == null)
-            } // end if(deltaCrlExists)
+        if (oldSnapshot != null && newCrlNumber.compareTo(oldSnapshot.getCrlNumber()) <= 0) {
+            throw new OcspStoreException(String.format(
+                    "CRLNumber of new CRL (%s) <= current CRL (%s)", newCrlNumber,
+                    oldSnapshot.getCrlNumber()));
+        }
+
+        verifyCrl(crl);
+
+        LOG.info("try to update CRL with CRLNumber={}", newCrlNumber);
+
+        X500Name caName = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
 
-            Date newThisUpdate;
-            Date newNextUpdate;
+        // extract the certificate, only in full CRL, not in delta CRL
+        byte[] extnValue = crl.getExtensionValue(
+                ObjectIdentifiers.id_xipki_ext_crlCertset);
+
+        boolean certsConsidered = false;
+        Map<BigInteger, CertWithInfo> certsMap;
+        if (extnValue != null) {
+            certsConsidered = true;
+            certsMap = extractCertsFromExtCrlCertSet(extnValue, caName);
+        } else {
+            certsMap = new HashMap<>();
+        }
 
-            if (deltaCrl != null) {
-                LOG.info("try to update CRL with CRLNumber={} and DeltaCRL with CRLNumber={}",
-                        newCrlNumber, deltaCrlNumber);
-                newThisUpdate = deltaCrl.getThisUpdate();
-                newNextUpdate = deltaCrl.getNextUpdate();
+        if (certsDirname != null) {
+            if (extnValue != null) {
+                LOG.warn("ignore certsDir '{}', since certificates are included in {}",
+                        certsDirname, " CRL Extension certs");
             } else {
-                newThisUpdate = crl.getThisUpdate();
-                newNextUpdate = crl.getNextUpdate();
+                certsConsidered = true;
+                readCertWithInfosFromDir(caCert, certsDirname, certsMap);
             }
+        }
 
-            // Construct CrlID
-            ASN1EncodableVector vec = new ASN1EncodableVector();
-            if (StringUtil.isNotBlank(crlUrl)) {
-                vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
-            }
+        // revoked certificates which cannot be saved in the index
+        Map<BigInteger, CertRevocationInfo> revokedCertMap = new HashMap<>();
+        CrlSerialIndex newCrlIndex = getCrlIndex(crlFp, crl, revokedCertMap);
+
+        Map<BigInteger, CrlCertStatusInfo> newCertStatusInfoMap = new ConcurrentHashMap<>();
+
+        for (BigInteger serialNumber : certsMap.keySet()) {
+            CertWithInfo cert = certsMap.get(serialNumber);
 
-            byte[] extValue = ((deltaCrl != null) ? deltaCrl : crl).getExtensionValue(
-                    Extension.cRLNumber.getId());
-            if (extValue != null) {
-                ASN1Integer asn1CrlNumber = ASN1Integer.getInstance(extractCoreValue(extValue));
-                vec.add(new DERTaggedObject(true, 1, asn1CrlNumber));
+            CertRevocationInfo revocationInfo = revokedCertMap.remove(serialNumber);
+            if (revocationInfo == null) {
+                revocationInfo = newCrlIndex.getRevocationInfo(serialNumber);
             }
-            vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(newThisUpdate)));
-            this.crlId = CrlID.getInstance(new DERSequence(vec));
 
-            byte[] encodedCaCert;
-            try {
-                encodedCaCert = caCert.getEncoded();
-            } catch (CertificateEncodingException ex) {
-                throw new OcspStoreException(ex.getMessage(), ex);
+            Certificate bcCert = cert.getCert();
+            Map<HashAlgoType, byte[]> certHashes = (bcCert == null) ? null
+                    : getCertHashes(bcCert);
+            Date notBefore = (bcCert == null) ? null
+                    : bcCert.getTBSCertificate().getStartDate().getDate();
+            Date notAfter = (bcCert == null) ? null
+                    : bcCert.getTBSCertificate().getEndDate().getDate();
+
+            CrlCertStatusInfo crlCertStatusInfo;
+            if (revocationInfo == null) {
+                crlCertStatusInfo = CrlCertStatusInfo.getGoodCertStatusInfo(
+                        cert.getProfileName(), certHashes, notBefore, notAfter);
+            } else {
+                crlCertStatusInfo = CrlCertStatusInfo.getRevokedCertStatusInfo(
+                        revocationInfo, cert.getProfileName(), certHashes, notBefore, notAfter);
             }
+            newCertStatusInfoMap.put(serialNumber, crlCertStatusInfo);
+        }
 
-            Certificate bcCaCert = Certificate.getInstance(encodedCaCert);
-            byte[] encodedName;
-            try {
-                encodedName = bcCaCert.getSubject().getEncoded("DER");
-            } catch (IOException ex) {
-                throw new OcspStoreException(ex.getMessage(), ex);
+        for (BigInteger serialNumber : revokedCertMap.keySet()) {
+            if (certsConsidered && LOG.isInfoEnabled()) {
+                LOG.info("could not find certificate (serialNumber='{}')",
+                        LogUtil.formatCsn(serialNumber));
             }
 
-            byte[] encodedKey = bcCaCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
-            Map<HashAlgoType, IssuerHashNameAndKey> newIssuerHashMap = new ConcurrentHashMap<>();
+            CrlCertStatusInfo crlCertStatusInfo = CrlCertStatusInfo.getRevokedCertStatusInfo(
+                    revokedCertMap.get(serialNumber), null, null, null, null);
+            newCertStatusInfoMap.put(serialNumber, crlCertStatusInfo);
+        }
 
-            for (HashAlgoType hashAlgo : HashAlgoType.values()) {
-                byte[] issuerNameHash = hashAlgo.hash(encodedName);
-                byte[] issuerKeyHash = hashAlgo.hash(encodedKey);
-                IssuerHashNameAndKey issuerHash = new IssuerHashNameAndKey(hashAlgo, issuerNameHash,
-                        issuerKeyHash);
-                newIssuerHashMap.put(hashAlgo, issuerHash);
-            }
+        CrlID newCrlId = buildCrlId(newCrlNumber, crl.getThisUpdate());
+        return new CrlStatusSnapshot(newCrlIndex, newCertStatusInfoMap, newCrlNumber,
+                crl.getThisUpdate(), crl.getNextUpdate(), certsConsidered, newCrlId);
+    } // method loadFullCrl
 
-            X500Name caName = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
+    private CrlStreamParser loadDeltaCrl(final BigInteger crlNumber)
+    throws IOException, OcspStoreException {
+        CrlStreamParser deltaCrl = new CrlStreamParser(new File(deltaCrlFilename));
+        boolean successful = false;
+        try {
+            BigInteger baseCrlNumber = deltaCrl.getNumberExtensionValue(
+                    Extension.deltaCRLIndicator);
+            if (baseCrlNumber == null) {
+                LOG.warn("{} is a full CRL instead of delta CRL, ignore it", deltaCrlFilename);
+                return null;
+            }
 
-            // extract the certificate, only in full CRL, not in delta CRL
-            String oidExtnCerts = ObjectIdentifiers.id_xipki_ext_crlCertset.getId();
-            byte[] extnValue = crl.getExtensionValue(oidExtnCerts);
+            if (!baseCrlNumber.equals(crlNumber)) {
+                LOG.info("{} is not a deltaCRL for the CRL {}, ignore it", deltaCrlFilename,
+                        crlFilename);
+                return null;
+            }
 
-            boolean certsConsidered = false;
-            Map<BigInteger, CertWithInfo> certsMap;
-            if (extnValue != null) {
-                extnValue = extractCoreValue(extnValue);
-                certsConsidered = true;
-                certsMap = extractCertsFromExtCrlCertSet(extnValue, caName);
-            } else {
-                certsMap = new HashMap<>();
+            if (deltaCrl.getNumberExtensionValue(Extension.cRLNumber) == null) {
+                throw new OcspStoreException("DeltaCRL without CRLNumber is not supported");
             }
 
-            if (certsDirname != null) {
-                if (extnValue != null) {
-                    LOG.warn("ignore certsDir '{}', since certificates are included in {}",
-                            certsDirname, " CRL Extension certs");
-                } else {
-                    certsConsidered = true;
-                    readCertWithInfosFromDir(caCert, certsDirname, certsMap);
-                }
+            verifyCrl(deltaCrl);
+            successful = true;
+            return deltaCrl;
+        } finally {
+            if (!successful) {
+                deltaCrl.close();
             }
+        }
+    }
+
+    private CrlStatusSnapshot applyDeltaCrl(final long version,
+            final CrlStatusSnapshot baseSnapshot, final CrlStreamParser deltaCrl)
+    throws IOException, OcspStoreException {
+        if (deltaCrl == null) {
+            CrlID newCrlId = buildCrlId(baseSnapshot.getCrlNumber(),
+                    baseSnapshot.getThisUpdate());
+            return baseSnapshot.withoutDeltaCrl(version, newCrlId);
+        }
 
-            Map<BigInteger, CrlCertStatusInfo> newCertStatusInfoMap = new ConcurrentHashMap<>();
+        BigInteger deltaCrlNumber = deltaCrl.getNumberExtensionValue(Extension.cRLNumber);
+        LOG.info("try to apply DeltaCRL with CRLNumber={} to CRL with CRLNumber={}",
+                deltaCrlNumber, baseSnapshot.getCrlNumber());
 
-            // First consider only full CRL
-            Set<? extends X509CRLEntry> revokedCertListInFullCrl = crl.getRevokedCertificates();
-            if (revokedCertListInFullCrl != null) {
-                for (X509CRLEntry revokedCert : revokedCertListInFullCrl) {
-                    X500Principal rcIssuer = revokedCert.getCertificateIssuer();
-                    if (rcIssuer != null && !caCert.getSubjectX500Principal().equals(rcIssuer)) {
-                        throw new OcspStoreException("invalid CRLEntry");
+        Map<BigInteger, CrlCertStatusInfo> deltaStatusInfoMap = new HashMap<>();
+        Set<BigInteger> removedFromCrl = new HashSet<>();
+
+        CrlStreamParser.RevokedCertsIterator revokedCerts = deltaCrl.revokedCertificates();
+        try {
+            while (revokedCerts.hasNext()) {
+                CRLEntry entry = revokedCerts.next();
+                checkCrlEntry(entry);
+
+                BigInteger serialNumber = entry.getUserCertificate().getValue();
+                CrlCertStatusInfo baseInfo = baseSnapshot.getBaseCertStatusInfo(serialNumber);
+                CertRevocationInfo revocationInfo = getRevocationInfo(entry);
+
+                CrlCertStatusInfo deltaInfo;
+                if (revocationInfo.getReason() == CrlReason.REMOVE_FROM_CRL) {
+                    if (baseInfo != null && baseInfo.isCertKnown()) {
+                        deltaInfo = baseInfo.withRevocationInfo(null);
+                    } else {
+                        // only contained in the CRL, e.g. in the index, handled as not
+                        // contained in the CRL
+                        deltaInfo = null;
+                    }
+                } else {
+                    if (baseInfo == null) {
+                        if (baseSnapshot.isCertsConsidered() && LOG.isInfoEnabled()) {
+                            LOG.info("could not find certificate (serialNumber='{}')",
+                                    LogUtil.formatCsn(serialNumber));
+                        }
+                        deltaInfo = CrlCertStatusInfo.getRevokedCertStatusInfo(revocationInfo,
+                                null, null, null, null);
+                    } else {
+                        deltaInfo = baseInfo.withRevocationInfo(revocationInfo);
                     }
                 }
-            }
 
-            Set<? extends X509CRLEntry> revokedCertListInDeltaCrl = (deltaCrl == null) ? null
-                    : deltaCrl.getRevokedCertificates();
-            if (revokedCertListInDeltaCrl != null) {
-                for (X509CRLEntry revokedCert : revokedCertListInDeltaCrl) {
-                    X500Principal rcIssuer = revokedCert.getCertificateIssuer();
-                    if (rcIssuer != null && !caCert.getSubjectX500Principal().equals(rcIssuer)) {
-                        throw new OcspStoreException("invalid CRLEntry");
-                    }
+                if (deltaInfo == null) {
+                    deltaStatusInfoMap.remove(serialNumber);
+                    removedFromCrl.add(serialNumber);
+                } else {
+                    deltaStatusInfoMap.put(serialNumber, deltaInfo);
+                    removedFromCrl.remove(serialNumber);
                 }
             }
+        } finally {
+            revokedCerts.close();
+        }
 
-            Map<BigInteger, X509CRLEntry> revokedCertMap = null;
+        CrlID newCrlId = buildCrlId(deltaCrlNumber, deltaCrl.getThisUpdate());
+        return baseSnapshot.withDeltaCrl(version, deltaStatusInfoMap, removedFromCrl,
+                deltaCrlNumber, newCrlId, deltaCrl.getThisUpdate(), deltaCrl.getNextUpdate());
+    } // method applyDeltaCrl
 
-            // merge the revoked list
-            if (revokedCertListInDeltaCrl != null && !revokedCertListInDeltaCrl.isEmpty()) {
-                revokedCertMap = new HashMap<BigInteger, X509CRLEntry>();
-                if (revokedCertListInFullCrl != null) {
-                    for (X509CRLEntry entry : revokedCertListInFullCrl) {
-                        revokedCertMap.put(entry.getSerialNumber(), entry);
-                    }
-                }
+    private void verifyCrl(final CrlStreamParser crl) throws OcspStoreException {
+        X500Name issuer = crl.getIssuer();
 
-                for (X509CRLEntry entry : revokedCertListInDeltaCrl) {
-                    BigInteger serialNumber = entry.getSerialNumber();
-                    CRLReason reason = entry.getRevocationReason();
-                    if (reason == CRLReason.REMOVE_FROM_CRL) {
-                        revokedCertMap.remove(serialNumber);
-                    } else {
-                        revokedCertMap.put(serialNumber, entry);
-                    }
-                }
+        X509Certificate crlSignerCert;
+        if (getSubject(caCert).equals(issuer)) {
+            crlSignerCert = caCert;
+        } else {
+            if (issuerCert == null) {
+                throw new IllegalArgumentException("issuerCert must not be null");
             }
 
-            Iterator<? extends X509CRLEntry> it = null;
-            if (revokedCertMap != null) {
-                it = revokedCertMap.values().iterator();
-            } else if (revokedCertListInFullCrl != null) {
-                it = revokedCertListInFullCrl.iterator();
+            if (!getSubject(issuerCert).equals(issuer)) {
+                throw new IllegalArgumentException("issuerCert and CRL do not match");
             }
+            crlSignerCert = issuerCert;
+        }
 
-            while (it != null && it.hasNext()) {
-                X509CRLEntry revokedCert = it.next();
-                BigInteger serialNumber = revokedCert.getSerialNumber();
-                byte[] encodedExtnValue = revokedCert.getExtensionValue(
-                        Extension.reasonCode.getId());
+        boolean valid;
+        try {
+            valid = crl.verifySignature(crlSignerCert.getPublicKey());
+        } catch (Exception ex) {
+            throw new OcspStoreException(ex.getMessage(), ex);
+        }
 
-                int reasonCode;
-                if (encodedExtnValue != null) {
-                    ASN1Enumerated enumerated = ASN1Enumerated.getInstance(
-                            extractCoreValue(encodedExtnValue));
-                    reasonCode = enumerated.getValue().intValue();
-                } else {
-                    reasonCode = CrlReason.UNSPECIFIED.getCode();
+        if (!valid) {
+            throw new OcspStoreException("signature of CRL is invalid");
+        }
+    }
+
+    private void checkCrlEntry(final CRLEntry revokedCert) throws OcspStoreException {
+        Extensions extensions = revokedCert.getExtensions();
+        Extension extn = (extensions == null) ? null
+                : extensions.getExtension(Extension.certificateIssuer);
+        if (extn == null) {
+            return;
+        }
+
+        X500Name caName = getSubject(caCert);
+        for (GeneralName name : GeneralNames.getInstance(extn.getParsedValue()).getNames()) {
+            if (name.getTagNo() == GeneralName.directoryName) {
+                if (caName.equals(X500Name.getInstance(name.getName()))) {
+                    return;
                 }
+                break;
+            }
+        }
+        throw new OcspStoreException("invalid CRLEntry");
+    }
 
-                Date revTime = revokedCert.getRevocationDate();
+    private static X500Name getSubject(final X509Certificate cert) {
+        return X500Name.getInstance(cert.getSubjectX500Principal().getEncoded());
+    }
 
-                Date invalidityTime = null;
-                extnValue = revokedCert.getExtensionValue(Extension.invalidityDate.getId());
+    private CrlID buildCrlId(final BigInteger crlNumber, final Date thisUpdate) {
+        ASN1EncodableVector vec = new ASN1EncodableVector();
+        if (StringUtil.isNotBlank(crlUrl)) {
+            vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
+        }
+        vec.add(new DERTaggedObject(true, 1, new ASN1Integer(crlNumber)));
+        vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(thisUpdate)));
+        return CrlID.getInstance(new DERSequence(vec));
+    }
 
-                if (extnValue != null) {
-                    extnValue = extractCoreValue(extnValue);
-                    ASN1GeneralizedTime genTime = DERGeneralizedTime.getInstance(extnValue);
-                    try {
-                        invalidityTime = genTime.getDate();
-                    } catch (ParseException ex) {
-                        throw new OcspStoreException(ex.getMessage(), ex);
-                    }
+    private void initIssuerHashMap() throws OcspStoreException {
+        byte[] encodedCaCert;
+        try {
+            encodedCaCert = caCert.getEncoded();
+        } catch (CertificateEncodingException ex) {
+            throw new OcspStoreException(ex.getMessage(), ex);
+        }
 
-                    if (revTime.equals(invalidityTime)) {
-                        invalidityTime = null;
-                    }
+        Certificate bcCaCert = Certificate.getInstance(encodedCaCert);
+        byte[] encodedName;
+        try {
+            encodedName = bcCaCert.getSubject().getEncoded("DER");
+        } catch (IOException ex) {
+            throw new OcspStoreException(ex.getMessage(), ex);
+        }
+
+        byte[] encodedKey = bcCaCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
+
+        IssuerHashIndex.Builder<IssuerHashNameAndKey> indexBuilder =
+                new IssuerHashIndex.Builder<>();
+        for (HashAlgoType hashAlgo : HashAlgoType.values()) {
+            byte[] issuerNameHash = hashAlgo.hash(encodedName);
+            byte[] issuerKeyHash = hashAlgo.hash(encodedKey);
+            IssuerHashNameAndKey issuerHash = new IssuerHashNameAndKey(hashAlgo, issuerNameHash,
+                    issuerKeyHash);
+            indexBuilder.put(issuerHash, issuerHash);
+        }
+        this.issuerHashIndex = indexBuilder.build();
+    }
+
+    private CrlSerialIndex getCrlIndex(final byte[] crlFp, final CrlStreamParser crl,
+            final Map<BigInteger, CertRevocationInfo> unindexedRevokedCerts)
+    throws IOException, OcspStoreException {
+        File file = new File(crlIndexDir, getCrlIndexPrefix() + Hex.toHexString(crlFp)
+                + CrlSerialIndex.FILE_SUFFIX);
+
+        // first pass: determine the dimension of the index
+        int serialLen = 1;
+        long count = 0;
+        CrlStreamParser.RevokedCertsIterator revokedCerts = crl.revokedCertificates();
+        try {
+            while (revokedCerts.hasNext()) {
+                CRLEntry entry = revokedCerts.next();
+                checkCrlEntry(entry);
+
+                BigInteger serialNumber = entry.getUserCertificate().getValue();
+                if (serialNumber.signum() == 1) {
+                    count++;
+                    serialLen = Math.max(serialLen, (serialNumber.bitLength() + 7) / 8);
+                } else {
+                    // non-positive serial numbers are not supported by the index
+                    unindexedRevokedCerts.put(serialNumber, getRevocationInfo(entry));
                 }
+            }
+        } finally {
+            revokedCerts.close();
+        }
+
+        CrlSerialIndex index = CrlSerialIndex.open(file, crlFp);
+        if (index != null && index.size() == count) {
+            LOG.info("use existing index {} of {} revoked certificates", file.getPath(), count);
+            return index;
+        }
 
-                CertWithInfo cert = null;
-                if (certsConsidered) {
-                    cert = certsMap.remove(serialNumber);
-                    if (cert == null && LOG.isInfoEnabled()) {
-                        LOG.info("could not find certificate (serialNumber='{}')",
-                                LogUtil.formatCsn(serialNumber));
+        // second pass: fill the index
+        LOG.info("build index {} of {} revoked certificates", file.getPath(), count);
+        CrlSerialIndex.Builder builder = new CrlSerialIndex.Builder(file, crlFp, serialLen,
+                count);
+        boolean successful = false;
+        try {
+            revokedCerts = crl.revokedCertificates();
+            try {
+                while (revokedCerts.hasNext()) {
+                    CRLEntry entry = revokedCerts.next();
+                    BigInteger serialNumber = entry.getUserCertificate().getValue();
+                    if (serialNumber.signum() == 1) {
+                        CertRevocationInfo revInfo = getRevocationInfo(entry);
+                        Date invTime = revInfo.getInvalidityTime();
+                        builder.add(serialNumber, revInfo.getRevocationTime().getTime(),
+                                (invTime == null) ? CrlSerialIndex.NO_TIME : invTime.getTime(),
+                                revInfo.getReason().getCode());
                     }
                 }
+            } finally {
+                revokedCerts.close();
+            }
+            index = builder.build();
+            successful = true;
+        } finally {
+            if (!successful) {
+                builder.abort();
+            }
+        }
 
-                Certificate bcCert = (cert == null) ? null : cert.getCert();
-                Map<HashAlgoType, byte[]> certHashes = (bcCert == null) ? null
-                        : getCertHashes(bcCert);
-                Date notBefore = (bcCert == null) ? null
-                        : bcCert.getTBSCertificate().getStartDate().getDate();
-                Date notAfter = (bcCert == null) ? null
-                        : bcCert.getTBSCertificate().getEndDate().getDate();
-
-                CertRevocationInfo revocationInfo = new CertRevocationInfo(reasonCode, revTime,
-                        invalidityTime);
-                String profileName = (cert == null) ? null : cert.getProfileName();
-                CrlCertStatusInfo crlCertStatusInfo = CrlCertStatusInfo.getRevokedCertStatusInfo(
-                        revocationInfo, profileName, certHashes, notBefore, notAfter);
-                newCertStatusInfoMap.put(serialNumber, crlCertStatusInfo);
-            } // end while
-
-            for (BigInteger serialNumber : certsMap.keySet()) {
-                CertWithInfo cert = certsMap.get(serialNumber);
-
-                Certificate bcCert = cert.getCert();
-                Map<HashAlgoType, byte[]> certHashes = (bcCert == null) ? null
-                        : getCertHashes(bcCert);
-                Date notBefore = (bcCert == null) ? null
-                        : bcCert.getTBSCertificate().getStartDate().getDate();
-                Date notAfter = (bcCert == null) ? null
-                        : bcCert.getTBSCertificate().getEndDate().getDate();
-                CrlCertStatusInfo crlCertStatusInfo = CrlCertStatusInfo.getGoodCertStatusInfo(
-                        cert.getProfileName(), certHashes, notBefore, notAfter);
-                newCertStatusInfoMap.put(cert.getSerialNumber(), crlCertStatusInfo);
+        return index;
+    } // method getCrlIndex
+
+    private void deleteObsoleteCrlIndexes(final File currentIndexFile) {
+        final String prefix = getCrlIndexPrefix();
+        File[] files = crlIndexDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(prefix) && name.endsWith(CrlSerialIndex.FILE_SUFFIX);
             }
+        });
 
-            this.initialized = false;
-            this.lastmodifiedOfCrlFile = newLastModifed;
-            this.fpOfCrlFile = newFp;
+        if (files == null) {
+            return;
+        }
 
-            this.lastModifiedOfDeltaCrlFile = newLastModifedOfDeltaCrl;
-            this.fpOfDeltaCrlFile = newFpOfDeltaCrl;
+        for (File file : files) {
+            if (file.equals(currentIndexFile)) {
+                continue;
+            }
 
-            this.issuerHashMap.clear();
-            this.issuerHashMap.putAll(newIssuerHashMap);
-            this.certStatusInfoMap.clear();
-            this.certStatusInfoMap.putAll(newCertStatusInfoMap);
-            this.thisUpdate = newThisUpdate;
-            this.nextUpdate = newNextUpdate;
-            this.crlNumber = newCrlNumber;
+            // mappings of the old index remain valid until they are garbage collected
+            if (!file.delete()) {
+                LOG.warn("could not delete obsolete index {}", file.getPath());
+            }
+        }
+    }
 
-            this.initializationFailed = false;
-            this.initialized = true;
-            updateCrlSuccessful = true;
-            LOG.info("updated CertStore {}", name);
-        } catch (Exception ex) {
-            LogUtil.error(LOG, ex, "could not execute initializeStore()");
-            initializationFailed = true;
-            initialized = true;
-        } finally {
-            if (updateCrlSuccessful != null) {
-                AuditLevel auditLevel = updateCrlSuccessful ? AuditLevel.INFO : AuditLevel.ERROR;
-                AuditStatus auditStatus = updateCrlSuccessful ? AuditStatus.SUCCESSFUL
-                        : AuditStatus.FAILED;
-                auditPciEvent(auditLevel, "UPDATE_CRL", auditStatus.name());
+    private String getCrlIndexPrefix() {
+        return "crl-" + name.replaceAll("[^A-Za-z0-9_.-]", "_") + "-";
+    }
+
+    private static CertRevocationInfo getRevocationInfo(final CRLEntry revokedCert)
+    throws OcspStoreException {
+        Extensions extensions = revokedCert.getExtensions();
+
+        int reasonCode;
+        Extension extn = (extensions == null) ? null
+                : extensions.getExtension(Extension.reasonCode);
+        if (extn != null) {
+            ASN1Enumerated enumerated = ASN1Enumerated.getInstance(extn.getParsedValue());
+            reasonCode = enumerated.getValue().intValue();
+        } else {
+            reasonCode = CrlReason.UNSPECIFIED.getCode();
+        }
+
+        Date revTime = revokedCert.getRevocationDate().getDate();
+
+        Date invalidityTime = null;
+        extn = (extensions == null) ? null : extensions.getExtension(Extension.invalidityDate);
+
+        if (extn != null) {
+            ASN1GeneralizedTime genTime = DERGeneralizedTime.getInstance(extn.getParsedValue());
+            try {
+                invalidityTime = genTime.getDate();
+            } catch (ParseException ex) {
+                throw new OcspStoreException(ex.getMessage(), ex);
+            }
+
+            if (revTime.equals(invalidityTime)) {
+                invalidityTime = null;
             }
         }
-    } // method initializeStore
+
+        return new CertRevocationInfo(reasonCode, revTime, invalidityTime);
+    } // method getRevocationInfo
 
     private Map<BigInteger, CertWithInfo> extractCertsFromExtCrlCertSet(
             final byte[] encodedExtCrlCertSet, final X500Name caName) throws OcspStoreException {
@@ -620,31 +802,32 @@ public class CrlCertStatusStore extends OcspStore {
             certHashAlgo = (certHashAlg == null) ? hashAlgo : certHashAlg;
         }
 
+        CrlStatusSnapshot tmpSnapshot = snapshot;
+
         Date tmpThisUpdate;
         Date tmpNextUpdate = null;
 
         if (useUpdateDatesFromCrl) {
-            tmpThisUpdate = this.thisUpdate;
+            tmpThisUpdate = tmpSnapshot.getThisUpdate();
 
-            if (this.nextUpdate != null) {
-                // this.nextUpdate is still in the future (10 seconds buffer)
-                if (this.nextUpdate.getTime() > System.currentTimeMillis() + 10 * 1000) {
-                    tmpNextUpdate = this.nextUpdate;
+            Date nextUpdate = tmpSnapshot.getNextUpdate();
+            if (nextUpdate != null) {
+                // nextUpdate is still in the future (10 seconds buffer)
+                if (nextUpdate.getTime() > System.currentTimeMillis() + 10 * 1000) {
+                    tmpNextUpdate = nextUpdate;
                 }
             }
         } else {
             tmpThisUpdate = new Date();
         }
 
-        IssuerHashNameAndKey issuerHashNameAndKey = issuerHashMap.get(hashAlgo);
-
-        if (!issuerHashNameAndKey.match(hashAlgo, issuerNameHash, issuerKeyHash)) {
+        if (issuerHashIndex.get(hashAlgo, issuerNameHash, issuerKeyHash) == null) {
             return CertStatusInfo.getIssuerUnknownCertStatusInfo(tmpThisUpdate, tmpNextUpdate);
         }
 
         CertStatusInfo certStatusInfo = null;
 
-        CrlCertStatusInfo crlCertStatusInfo = certStatusInfoMap.get(serialNumber);
+        CrlCertStatusInfo crlCertStatusInfo = tmpSnapshot.getCertStatusInfo(serialNumber);
 
         if (crlCertStatusInfo != null) {
             boolean ignore = (ignoreExpiredCert && crlCertStatusInfo.isExpired(time))
@@ -675,7 +858,7 @@ public class CrlCertStatusStore extends OcspStore {
         }
 
         if (includeCrlId) {
-            certStatusInfo.setCrlId(crlId);
+            certStatusInfo.setCrlId(tmpSnapshot.getCrlId());
         }
 
         if (includeArchiveCutoff) {
@@ -738,8 +921,21 @@ public class CrlCertStatusStore extends OcspStore {
         }
         this.caNotBefore = caCert.getNotBefore();
 
+        String indexDirname = (storeConf.getCrlIndexDir() == null)
+                ? System.getProperty("java.io.tmpdir")
+                : IoUtil.expandFilepath(storeConf.getCrlIndexDir());
+        this.crlIndexDir = new File(indexDirname);
+        if (!crlIndexDir.exists()) {
+            crlIndexDir.mkdirs();
+        }
+        if (!crlIndexDir.isDirectory()) {
+            throw new OcspStoreException("the path " + indexDirname
+                    + " does not point to a folder");
+        }
+
         this.sha1 = new SHA1Digest();
 
+        initIssuerHashMap();
         initializeStore(true);
 
         StoreUpdateService storeUpdateService = new StoreUpdateService();
@@ -876,18 +1072,13 @@ public class CrlCertStatusStore extends OcspStore {
     public boolean canResolveIssuer(final HashAlgoType hashAlgo, final byte[] issuerNameHash,
             final byte[] issuerKeyHash) {
         ParamUtil.requireNonNull("hashAlgo", hashAlgo);
-        IssuerHashNameAndKey hashes = issuerHashMap.get(hashAlgo);
-        if (hashes == null) {
-            return false;
-        }
-
-        return hashes.match(hashAlgo, issuerNameHash, issuerKeyHash);
+        return issuerHashIndex.get(hashAlgo, issuerNameHash, issuerKeyHash) != null;
     }
 
     @Override
     public Set<IssuerHashNameAndKey> getIssuerHashNameAndKeys() {
         Set<IssuerHashNameAndKey> ret = new HashSet<>();
-        ret.addAll(issuerHashMap.values());
+        ret.addAll(issuerHashIndex.values());
         return ret;
     }
 
@@ -929,10 +1120,6 @@ public class CrlCertStatusStore extends OcspStore {
         return certHashes;
     }
 
-    private static byte[] extractCoreValue(final byte[] encodedExtensionValue) {
-        return ASN1OctetString.getInstance(encodedExtensionValue).getOctets();
-    }
-
     private static X509Certificate parseCert(final String certFile) throws OcspStoreException {
         try {
             return X509Util.parseCert(certFile);
@@ -0,0 +1,491 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.CertRevocationInfo;
+
+/**
+ * Index of the revoked certificates of a CRL which lives in a memory-mapped file outside
+ * the java heap. The file consists of a header and records of fixed width sorted by the
+ * serial number.
+ *
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes), length of serial (4 bytes),
+ *          number of records (8 bytes), SHA-1 fingerprint of the CRL (20 bytes)
+ * record:  serial number (unsigned, big-endian, left-padded with zeros),
+ *          revocation time (8 bytes, ms), invalidity time (8 bytes, ms), reason (1 byte)
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CrlSerialIndex {
+
+    static class Builder {
+
+        private final File file;
+
+        private final File tmpFile;
+
+        private final byte[] crlFp;
+
+        private final int serialLen;
+
+        private final long count;
+
+        private final RandomAccessFile raf;
+
+        private final ByteBuffer[] segments;
+
+        private final int recordsPerSegment;
+
+        private final int recordSize;
+
+        private long index;
+
+        Builder(final File file, final byte[] crlFp, final int serialLen, final long count)
+        throws IOException {
+            this.file = ParamUtil.requireNonNull("file", file);
+            this.crlFp = ParamUtil.requireNonNull("crlFp", crlFp);
+            if (crlFp.length != FP_LEN) {
+                throw new IllegalArgumentException("invalid crlFp.length " + crlFp.length);
+            }
+            this.serialLen = ParamUtil.requireMin("serialLen", serialLen, 1);
+            this.count = ParamUtil.requireMin("count", count, 0);
+            this.recordSize = serialLen + 17;
+            this.recordsPerSegment = Integer.MAX_VALUE / recordSize;
+            this.tmpFile = new File(file.getPath() + ".tmp");
+
+            this.raf = new RandomAccessFile(tmpFile, "rw");
+            boolean successful = false;
+            try {
+                raf.setLength(HEADER_SIZE + count * recordSize);
+                this.segments = map(raf.getChannel(), MapMode.READ_WRITE, count, recordSize,
+                        recordsPerSegment);
+                successful = true;
+            } finally {
+                if (!successful) {
+                    raf.close();
+                    tmpFile.delete();
+                }
+            }
+        }
+
+        /**
+         * Adds a revoked certificate.
+         *
+         * @param serialNumber positive serial number of the certificate
+         * @param revocationTime revocation time in ms
+         * @param invalidityTime invalidity time in ms, or {@link CrlSerialIndex#NO_TIME}
+         * @param reason code of the revocation reason
+         */
+        void add(final BigInteger serialNumber, final long revocationTime,
+                final long invalidityTime, final int reason) {
+            if (index >= count) {
+                throw new IllegalStateException("too many records");
+            }
+
+            if (serialNumber.signum() != 1 || serialNumber.bitLength() > 8 * serialLen) {
+                throw new IllegalArgumentException("serialNumber out of range");
+            }
+
+            ByteBuffer seg = segments[(int) (index / recordsPerSegment)];
+            int off = (int) (index % recordsPerSegment) * recordSize;
+            for (int i = 0; i < serialLen; i++) {
+                seg.put(off + i, (byte) byteAt(serialNumber, serialLen - 1 - i));
+            }
+            off += serialLen;
+
+            seg.putLong(off, revocationTime);
+            seg.putLong(off + 8, invalidityTime);
+            seg.put(off + 16, (byte) reason);
+            index++;
+        }
+
+        CrlSerialIndex build() throws IOException {
+            if (index != count) {
+                throw new IllegalStateException("expected " + count + " records, but added "
+                        + index);
+            }
+
+            boolean successful = false;
+            try {
+                sort();
+
+                MappedByteBuffer header = raf.getChannel().map(MapMode.READ_WRITE, 0,
+                        HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(serialLen);
+                header.putLong(count);
+                header.put(crlFp);
+                header.force();
+                for (ByteBuffer seg : segments) {
+                    ((MappedByteBuffer) seg).force();
+                }
+                raf.close();
+
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                successful = true;
+            } finally {
+                if (!successful) {
+                    raf.close();
+                    tmpFile.delete();
+                }
+            }
+
+            CrlSerialIndex ret = open(file, crlFp);
+            if (ret == null) {
+                throw new IOException("could not open the just created index " + file.getPath());
+            }
+            return ret;
+        }
+
+        void abort() {
+            try {
+                raf.close();
+            } catch (IOException ex) { // CHECKSTYLE:SKIP
+            }
+            tmpFile.delete();
+        }
+
+        /**
+         * In-place heap sort of the records within the mapped file, no heap memory
+         * proportional to the number of records is required.
+         */
+        private void sort() {
+            byte[] tmp1 = new byte[recordSize];
+            byte[] tmp2 = new byte[recordSize];
+
+            for (long i = count / 2 - 1; i >= 0; i--) {
+                siftDown(i, count, tmp1, tmp2);
+            }
+
+            for (long end = count - 1; end > 0; end--) {
+                swap(0, end, tmp1, tmp2);
+                siftDown(0, end, tmp1, tmp2);
+            }
+        }
+
+        private void siftDown(final long start, final long end, final byte[] tmp1,
+                final byte[] tmp2) {
+            long root = start;
+            while (true) {
+                long child = 2 * root + 1;
+                if (child >= end) {
+                    return;
+                }
+
+                if (child + 1 < end && compare(child, child + 1) < 0) {
+                    child++;
+                }
+
+                if (compare(root, child) >= 0) {
+                    return;
+                }
+
+                swap(root, child, tmp1, tmp2);
+                root = child;
+            }
+        }
+
+        private int compare(final long idx1, final long idx2) {
+            ByteBuffer seg1 = segments[(int) (idx1 / recordsPerSegment)];
+            int off1 = (int) (idx1 % recordsPerSegment) * recordSize;
+            ByteBuffer seg2 = segments[(int) (idx2 / recordsPerSegment)];
+            int off2 = (int) (idx2 % recordsPerSegment) * recordSize;
+
+            for (int i = 0; i < serialLen; i++) {
+                int diff = (seg1.get(off1 + i) & 0xFF) - (seg2.get(off2 + i) & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return 0;
+        }
+
+        private void swap(final long idx1, final long idx2, final byte[] tmp1,
+                final byte[] tmp2) {
+            ByteBuffer seg1 = segments[(int) (idx1 / recordsPerSegment)];
+            int off1 = (int) (idx1 % recordsPerSegment) * recordSize;
+            ByteBuffer seg2 = segments[(int) (idx2 / recordsPerSegment)];
+            int off2 = (int) (idx2 % recordsPerSegment) * recordSize;
+
+            for (int i = 0; i < recordSize; i++) {
+                tmp1[i] = seg1.get(off1 + i);
+                tmp2[i] = seg2.get(off2 + i);
+            }
+
+            for (int i = 0; i < recordSize; i++) {
+                seg1.put(off1 + i, tmp2[i]);
+                seg2.put(off2 + i, tmp1[i]);
+            }
+        }
+
+    } // class Builder
+
+    static final String FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x58435349; // XCSI
+
+    private static final int VERSION = 1;
+
+    private static final int FP_LEN = 20;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + FP_LEN;
+
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private final File file;
+
+    private final int serialLen;
+
+    private final int recordSize;
+
+    private final long count;
+
+    private final int recordsPerSegment;
+
+    private final ByteBuffer[] segments;
+
+    private CrlSerialIndex(final File file, final int serialLen, final long count,
+            final ByteBuffer[] segments) {
+        this.file = file;
+        this.serialLen = serialLen;
+        this.recordSize = serialLen + 17;
+        this.count = count;
+        this.recordsPerSegment = Integer.MAX_VALUE / recordSize;
+        this.segments = segments;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return count;
+    }
+
+    /**
+     * Looks up the record of the certificate. No objects are allocated.
+     *
+     * @param serialNumber serial number of the certificate
+     * @return position of the record, or -1 if the certificate is not contained in the index.
+     */
+    long indexOf(final BigInteger serialNumber) {
+        if (serialNumber.signum() != 1 || serialNumber.bitLength() > 8 * serialLen) {
+            return -1;
+        }
+
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            ByteBuffer seg = segments[(int) (mid / recordsPerSegment)];
+            int off = (int) (mid % recordsPerSegment) * recordSize;
+
+            int cmp = 0;
+            for (int i = 0; i < serialLen && cmp == 0; i++) {
+                cmp = (seg.get(off + i) & 0xFF) - byteAt(serialNumber, serialLen - 1 - i);
+            }
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the revocation time of the record.
+     *
+     * @param position position of the record returned by {@link #indexOf(BigInteger)}
+     * @return the revocation time in ms.
+     */
+    long getRevocationTime(final long position) {
+        return getSegment(position).getLong(getOffset(position) + serialLen);
+    }
+
+    /**
+     * Gets the invalidity time of the record.
+     *
+     * @param position position of the record returned by {@link #indexOf(BigInteger)}
+     * @return the invalidity time in ms, or {@link #NO_TIME} if not present.
+     */
+    long getInvalidityTime(final long position) {
+        return getSegment(position).getLong(getOffset(position) + serialLen + 8);
+    }
+
+    /**
+     * Gets the revocation reason of the record.
+     *
+     * @param position position of the record returned by {@link #indexOf(BigInteger)}
+     * @return code of the revocation reason.
+     */
+    int getReason(final long position) {
+        return getSegment(position).get(getOffset(position) + serialLen + 16);
+    }
+
+    /**
+     * Gets the revocation information of the certificate. Only a found certificate causes
+     * allocations.
+     *
+     * @param serialNumber serial number of the certificate
+     * @return the revocation information, or {@code null} if the certificate is not contained
+     *     in the index.
+     */
+    CertRevocationInfo getRevocationInfo(final BigInteger serialNumber) {
+        long position = indexOf(serialNumber);
+        if (position == -1) {
+            return null;
+        }
+
+        long invTime = getInvalidityTime(position);
+        return new CertRevocationInfo(getReason(position), new Date(getRevocationTime(position)),
+                (invTime == NO_TIME) ? null : new Date(invTime));
+    }
+
+    private ByteBuffer getSegment(final long position) {
+        if (position < 0 || position >= count) {
+            throw new IllegalArgumentException("invalid position " + position);
+        }
+        return segments[(int) (position / recordsPerSegment)];
+    }
+
+    private int getOffset(final long position) {
+        return (int) (position % recordsPerSegment) * recordSize;
+    }
+
+    /**
+     * Opens an existing index.
+     *
+     * @param file the index file
+     * @param crlFp SHA-1 fingerprint of the CRL
+     * @return the index, or {@code null} if the file does not exist or does not match the CRL.
+     * @throws IOException if the file could not be read.
+     */
+    static CrlSerialIndex open(final File file, final byte[] crlFp) throws IOException {
+        ParamUtil.requireNonNull("file", file);
+        ParamUtil.requireNonNull("crlFp", crlFp);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+
+            MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+
+            int serialLen = header.getInt();
+            long count = header.getLong();
+            byte[] fp = new byte[FP_LEN];
+            header.get(fp);
+            if (serialLen < 1 || count < 0 || !Arrays.equals(fp, crlFp)) {
+                return null;
+            }
+
+            int recordSize = serialLen + 17;
+            if (channel.size() != HEADER_SIZE + count * recordSize) {
+                return null;
+            }
+
+            ByteBuffer[] segments = map(channel, MapMode.READ_ONLY, count, recordSize,
+                    Integer.MAX_VALUE / recordSize);
+            return new CrlSerialIndex(file, serialLen, count, segments);
+        } finally {
+            // the mapping remains valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets a byte of the two's complement representation without allocating an array.
+     *
+     * @param value the number
+     * @param index index of the byte, 0 for the least significant byte
+     * @return the unsigned value of the byte.
+     */
+    private static int byteAt(final BigInteger value, final int index) {
+        int bitOffset = 8 * index;
+        int ret = 0;
+        for (int i = 7; i >= 0; i--) {
+            ret = (ret << 1) | (value.testBit(bitOffset + i) ? 1 : 0);
+        }
+        return ret;
+    }
+
+    private static ByteBuffer[] map(final FileChannel channel, final MapMode mode,
+            final long count, final int recordSize, final int recordsPerSegment)
+    throws IOException {
+        int numSegments = (int) ((count + recordsPerSegment - 1) / recordsPerSegment);
+        ByteBuffer[] segments = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long firstRecord = (long) i * recordsPerSegment;
+            long records = Math.min(recordsPerSegment, count - firstRecord);
+            segments[i] = channel.map(mode, HEADER_SIZE + firstRecord * recordSize,
+                    records * recordSize);
+        }
+        return segments;
+    }
+
+}
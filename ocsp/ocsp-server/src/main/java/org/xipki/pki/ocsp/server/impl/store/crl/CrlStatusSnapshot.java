@@ -0,0 +1,268 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ocsp.CrlID;
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.CertRevocationInfo;
+
+/**
+ * Immutable status of a {@link CrlCertStatusStore} derived from a full CRL and an optional
+ * delta CRL. A new snapshot is published atomically whenever the CRL or delta CRL changes.
+ * Snapshots which differ only in the delta CRL share the part derived from the full CRL.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CrlStatusSnapshot {
+
+    private final long version;
+
+    private final CrlSerialIndex crlIndex;
+
+    /*
+     * Certificates with known details and revoked certificates which are not contained in the
+     * crlIndex, derived from the full CRL.
+     */
+    private final Map<BigInteger, CrlCertStatusInfo> baseStatusInfoMap;
+
+    private final BigInteger crlNumber;
+
+    private final Date crlThisUpdate;
+
+    private final Date crlNextUpdate;
+
+    private final boolean certsConsidered;
+
+    /*
+     * Certificates whose status is changed by the delta CRL.
+     */
+    private final Map<BigInteger, CrlCertStatusInfo> deltaStatusInfoMap;
+
+    /*
+     * Certificates removed from the CRL by the delta CRL.
+     */
+    private final Set<BigInteger> removedFromCrl;
+
+    private final BigInteger deltaCrlNumber;
+
+    private final CrlID crlId;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    /**
+     * Creates a snapshot which considers only the full CRL.
+     */
+    CrlStatusSnapshot(final CrlSerialIndex crlIndex,
+            final Map<BigInteger, CrlCertStatusInfo> baseStatusInfoMap,
+            final BigInteger crlNumber, final Date crlThisUpdate, final Date crlNextUpdate,
+            final boolean certsConsidered, final CrlID crlId) {
+        this.version = 0;
+        this.crlIndex = ParamUtil.requireNonNull("crlIndex", crlIndex);
+        this.baseStatusInfoMap = ParamUtil.requireNonNull("baseStatusInfoMap",
+                baseStatusInfoMap);
+        this.crlNumber = ParamUtil.requireNonNull("crlNumber", crlNumber);
+        this.crlThisUpdate = ParamUtil.requireNonNull("crlThisUpdate", crlThisUpdate);
+        this.crlNextUpdate = crlNextUpdate;
+        this.certsConsidered = certsConsidered;
+        this.deltaStatusInfoMap = Collections.emptyMap();
+        this.removedFromCrl = Collections.emptySet();
+        this.deltaCrlNumber = null;
+        this.crlId = ParamUtil.requireNonNull("crlId", crlId);
+        this.thisUpdate = crlThisUpdate;
+        this.nextUpdate = crlNextUpdate;
+    }
+
+    private CrlStatusSnapshot(final long version, final CrlStatusSnapshot base,
+            final Map<BigInteger, CrlCertStatusInfo> deltaStatusInfoMap,
+            final Set<BigInteger> removedFromCrl, final BigInteger deltaCrlNumber,
+            final CrlID crlId, final Date thisUpdate, final Date nextUpdate) {
+        this.version = version;
+        this.crlIndex = base.crlIndex;
+        this.baseStatusInfoMap = base.baseStatusInfoMap;
+        this.crlNumber = base.crlNumber;
+        this.crlThisUpdate = base.crlThisUpdate;
+        this.crlNextUpdate = base.crlNextUpdate;
+        this.certsConsidered = base.certsConsidered;
+        this.deltaStatusInfoMap = deltaStatusInfoMap;
+        this.removedFromCrl = removedFromCrl;
+        this.deltaCrlNumber = deltaCrlNumber;
+        this.crlId = crlId;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+    }
+
+    /**
+     * Creates a new snapshot sharing the part derived from the full CRL with this snapshot.
+     *
+     * @param version version of the new snapshot
+     * @param deltaStatusInfoMap certificates whose status is changed by the delta CRL. Must
+     *     not be modified after this call.
+     * @param removedFromCrl certificates removed from the CRL by the delta CRL. Must not be
+     *     modified after this call.
+     * @param deltaCrlNumber CRLNumber of the delta CRL
+     * @param crlId CrlID of the delta CRL
+     * @param thisUpdate thisUpdate of the delta CRL
+     * @param nextUpdate nextUpdate of the delta CRL, may be {@code null}
+     * @return the new snapshot.
+     */
+    CrlStatusSnapshot withDeltaCrl(final long version,
+            final Map<BigInteger, CrlCertStatusInfo> deltaStatusInfoMap,
+            final Set<BigInteger> removedFromCrl, final BigInteger deltaCrlNumber,
+            final CrlID crlId, final Date thisUpdate, final Date nextUpdate) {
+        ParamUtil.requireNonNull("deltaStatusInfoMap", deltaStatusInfoMap);
+        ParamUtil.requireNonNull("removedFromCrl", removedFromCrl);
+        ParamUtil.requireNonNull("deltaCrlNumber", deltaCrlNumber);
+        ParamUtil.requireNonNull("crlId", crlId);
+        ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+        return new CrlStatusSnapshot(version, this, deltaStatusInfoMap, removedFromCrl,
+                deltaCrlNumber, crlId, thisUpdate, nextUpdate);
+    }
+
+    /**
+     * Creates a new snapshot which considers only the full CRL of this snapshot.
+     *
+     * @param version version of the new snapshot
+     * @param crlId CrlID of the full CRL
+     * @return the new snapshot.
+     */
+    CrlStatusSnapshot withoutDeltaCrl(final long version, final CrlID crlId) {
+        ParamUtil.requireNonNull("crlId", crlId);
+        Map<BigInteger, CrlCertStatusInfo> emptyMap = Collections.emptyMap();
+        Set<BigInteger> emptySet = Collections.emptySet();
+        return new CrlStatusSnapshot(version, this, emptyMap, emptySet, null, crlId,
+                crlThisUpdate, crlNextUpdate);
+    }
+
+    /**
+     * Gets the status of the certificate.
+     *
+     * @param serialNumber serial number of the certificate
+     * @return the status, or {@code null} if neither the certificate is known nor contained
+     *     in the CRL.
+     */
+    CrlCertStatusInfo getCertStatusInfo(final BigInteger serialNumber) {
+        CrlCertStatusInfo info = deltaStatusInfoMap.get(serialNumber);
+        if (info != null) {
+            return info;
+        }
+
+        if (removedFromCrl.contains(serialNumber)) {
+            return null;
+        }
+
+        info = baseStatusInfoMap.get(serialNumber);
+        if (info != null) {
+            return info;
+        }
+
+        CertRevocationInfo revInfo = crlIndex.getRevocationInfo(serialNumber);
+        return (revInfo == null) ? null
+                : CrlCertStatusInfo.getRevokedCertStatusInfo(revInfo, null, null, null, null);
+    }
+
+    /**
+     * Gets the status of the certificate considering only the full CRL and the known
+     * certificates.
+     *
+     * @param serialNumber serial number of the certificate
+     * @return the status, or {@code null} if neither the certificate is known nor contained
+     *     in the full CRL.
+     */
+    CrlCertStatusInfo getBaseCertStatusInfo(final BigInteger serialNumber) {
+        CrlCertStatusInfo info = baseStatusInfoMap.get(serialNumber);
+        if (info != null) {
+            return info;
+        }
+
+        CertRevocationInfo revInfo = crlIndex.getRevocationInfo(serialNumber);
+        return (revInfo == null) ? null
+                : CrlCertStatusInfo.getRevokedCertStatusInfo(revInfo, null, null, null, null);
+    }
+
+    /**
+     * Gets the serial numbers of all certificates affected by the delta CRL.
+     *
+     * @return the serial numbers.
+     */
+    Set<BigInteger> getDeltaSerialNumbers() {
+        Set<BigInteger> ret = new HashSet<>(deltaStatusInfoMap.keySet());
+        ret.addAll(removedFromCrl);
+        return ret;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    CrlSerialIndex getCrlIndex() {
+        return crlIndex;
+    }
+
+    BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+
+    BigInteger getDeltaCrlNumber() {
+        return deltaCrlNumber;
+    }
+
+    boolean isCertsConsidered() {
+        return certsConsidered;
+    }
+
+    CrlID getCrlId() {
+        return crlId;
+    }
+
+    Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+}
@@ -0,0 +1,572 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.xipki.commons.common.util.ParamUtil;
+
+/**
+ * Parser of a CRL file which keeps only the fields outside of the revokedCertificates in
+ * memory. The revoked certificates are read one by one from the file, and the signature is
+ * verified over the TBSCertList read from the file, so that the required heap memory does not
+ * depend on the number of revoked certificates.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CrlStreamParser implements Closeable {
+
+    /**
+     * Iterator over the revoked certificates which reads one entry at a time from the file.
+     */
+    class RevokedCertsIterator implements Closeable {
+
+        private final CountingInputStream in;
+
+        private final long end;
+
+        private RevokedCertsIterator() throws IOException {
+            this.in = openAt(revokedCertsOffset);
+            this.end = revokedCertsOffset + revokedCertsLength;
+        }
+
+        boolean hasNext() {
+            return in.position < end;
+        }
+
+        CRLEntry next() throws IOException {
+            if (!hasNext()) {
+                throw new IllegalStateException("no more revoked certificates");
+            }
+
+            CRLEntry entry = CRLEntry.getInstance(readObject(in, TAG_SEQUENCE));
+            if (in.position > end) {
+                throw new IOException("invalid revokedCertificates");
+            }
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    } // class RevokedCertsIterator
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long position;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ret = super.read();
+            if (ret != -1) {
+                position++;
+            }
+            return ret;
+        }
+
+        @Override
+        public int read(final byte[] buf, final int off, final int len) throws IOException {
+            int ret = super.read(buf, off, len);
+            if (ret > 0) {
+                position += ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long ret = super.skip(n);
+            position += ret;
+            return ret;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    } // class CountingInputStream
+
+    private static final int TAG_INTEGER = 0x02;
+
+    private static final int TAG_BIT_STRING = 0x03;
+
+    private static final int TAG_UTC_TIME = 0x17;
+
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private static final int TAG_CRL_EXTENSIONS = 0xA0;
+
+    private final File derFile;
+
+    private final boolean tmpDerFile;
+
+    private final long tbsOffset;
+
+    private final long tbsLength;
+
+    private final long revokedCertsOffset;
+
+    private final long revokedCertsLength;
+
+    private final AlgorithmIdentifier tbsSignature;
+
+    private final X500Name issuer;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final Extensions crlExtensions;
+
+    private final AlgorithmIdentifier signatureAlgorithm;
+
+    private final byte[] signature;
+
+    /**
+     * Parses the CRL file.
+     *
+     * @param crlFile DER or PEM encoded CRL
+     * @throws IOException if the file could not be read or is not a valid CRL.
+     */
+    CrlStreamParser(final File crlFile) throws IOException {
+        ParamUtil.requireNonNull("crlFile", crlFile);
+
+        if (isDer(crlFile)) {
+            this.derFile = crlFile;
+            this.tmpDerFile = false;
+        } else {
+            this.derFile = File.createTempFile("crl-", ".der");
+            this.tmpDerFile = true;
+        }
+
+        boolean successful = false;
+        try {
+            if (tmpDerFile) {
+                pemToDer(crlFile, derFile);
+            }
+
+            CountingInputStream in = openAt(0);
+            try {
+                // CertificateList
+                readHeader(in, TAG_SEQUENCE);
+
+                // TBSCertList
+                this.tbsOffset = in.position;
+                long tbsEnd = readHeader(in, TAG_SEQUENCE) + in.position;
+                this.tbsLength = tbsEnd - tbsOffset;
+
+                int tag = readTag(in);
+                if (tag == TAG_INTEGER) {
+                    // version
+                    readContent(in, readLength(in));
+                    tag = readTag(in);
+                }
+
+                this.tbsSignature = AlgorithmIdentifier.getInstance(
+                        readObject(in, tag, TAG_SEQUENCE));
+                this.issuer = X500Name.getInstance(readObject(in, TAG_SEQUENCE));
+
+                tag = readTag(in);
+                if (tag != TAG_UTC_TIME && tag != TAG_GENERALIZED_TIME) {
+                    throw new IOException("invalid thisUpdate");
+                }
+                this.thisUpdate = Time.getInstance(readObject(in, tag, tag)).getDate();
+
+                Date tmpNextUpdate = null;
+                long tmpRevokedCertsOffset = 0;
+                long tmpRevokedCertsLength = 0;
+                Extensions tmpCrlExtensions = null;
+
+                int fieldIndex = 0;
+                while (in.position < tbsEnd) {
+                    tag = readTag(in);
+                    if (fieldIndex < 1 && (tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME)) {
+                        tmpNextUpdate = Time.getInstance(readObject(in, tag, tag)).getDate();
+                        fieldIndex = 1;
+                    } else if (fieldIndex < 2 && tag == TAG_SEQUENCE) {
+                        tmpRevokedCertsLength = readLength(in);
+                        tmpRevokedCertsOffset = in.position;
+                        skipFully(in, tmpRevokedCertsLength);
+                        fieldIndex = 2;
+                    } else if (fieldIndex < 3 && tag == TAG_CRL_EXTENSIONS) {
+                        ASN1TaggedObject tagged = ASN1TaggedObject.getInstance(
+                                readObject(in, tag, tag));
+                        tmpCrlExtensions = Extensions.getInstance(tagged, true);
+                        fieldIndex = 3;
+                    } else {
+                        throw new IOException("invalid TBSCertList");
+                    }
+                }
+
+                if (in.position != tbsEnd) {
+                    throw new IOException("invalid TBSCertList");
+                }
+
+                this.nextUpdate = tmpNextUpdate;
+                this.revokedCertsOffset = tmpRevokedCertsOffset;
+                this.revokedCertsLength = tmpRevokedCertsLength;
+                this.crlExtensions = tmpCrlExtensions;
+
+                this.signatureAlgorithm = AlgorithmIdentifier.getInstance(
+                        readObject(in, TAG_SEQUENCE));
+                this.signature = DERBitString.getInstance(
+                        readObject(in, TAG_BIT_STRING)).getBytes();
+            } finally {
+                in.close();
+            }
+            successful = true;
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            throw new IOException("invalid CRL: " + ex.getMessage(), ex);
+        } finally {
+            if (!successful) {
+                close();
+            }
+        }
+    }
+
+    X500Name getIssuer() {
+        return issuer;
+    }
+
+    Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /**
+     * Gets the value of the CRL extension.
+     *
+     * @param type type of the extension
+     * @return the DER encoded value within the extnValue OCTET STRING, or {@code null} if the
+     *     extension is not present.
+     */
+    byte[] getExtensionValue(final ASN1ObjectIdentifier type) {
+        if (crlExtensions == null) {
+            return null;
+        }
+
+        Extension extn = crlExtensions.getExtension(type);
+        return (extn == null) ? null : extn.getExtnValue().getOctets();
+    }
+
+    /**
+     * Gets the number contained in the CRL extension, e.g. CRLNumber or DeltaCRLIndicator.
+     *
+     * @param type type of the extension
+     * @return the number, or {@code null} if the extension is not present.
+     */
+    BigInteger getNumberExtensionValue(final ASN1ObjectIdentifier type) {
+        byte[] extnValue = getExtensionValue(type);
+        return (extnValue == null) ? null
+                : ASN1Integer.getInstance(extnValue).getPositiveValue();
+    }
+
+    /**
+     * Verifies the signature of the CRL. The TBSCertList is read from the file.
+     *
+     * @param publicKey public key of the CRL issuer
+     * @return whether the signature is valid.
+     * @throws IOException if the file could not be read.
+     * @throws OperatorCreationException if the verifier could not be created.
+     */
+    boolean verifySignature(final PublicKey publicKey)
+    throws IOException, OperatorCreationException {
+        ParamUtil.requireNonNull("publicKey", publicKey);
+        if (!tbsSignature.equals(signatureAlgorithm)) {
+            return false;
+        }
+
+        ContentVerifier verifier = new JcaContentVerifierProviderBuilder().build(publicKey)
+                .get(signatureAlgorithm);
+        OutputStream out = verifier.getOutputStream();
+
+        InputStream in = openAt(tbsOffset);
+        try {
+            byte[] buffer = new byte[8192];
+            long remaining = tbsLength;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("unexpected end of CRL file");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            in.close();
+        }
+        out.close();
+
+        return verifier.verify(signature);
+    }
+
+    /**
+     * Opens a new iterator over the revoked certificates. The caller must close it.
+     *
+     * @return the iterator.
+     * @throws IOException if the file could not be read.
+     */
+    RevokedCertsIterator revokedCertificates() throws IOException {
+        return new RevokedCertsIterator();
+    }
+
+    @Override
+    public void close() {
+        if (tmpDerFile) {
+            derFile.delete();
+        }
+    }
+
+    private CountingInputStream openAt(final long offset) throws IOException {
+        CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(derFile)));
+        boolean successful = false;
+        try {
+            skipFully(in, offset);
+            successful = true;
+        } finally {
+            if (!successful) {
+                in.close();
+            }
+        }
+        return in;
+    }
+
+    private static boolean isDer(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == TAG_SEQUENCE;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void pemToDer(final File pemFile, final File derFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(pemFile));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(derFile));
+        try {
+            boolean inBlock = false;
+            boolean found = false;
+            StringBuilder pending = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!inBlock) {
+                    inBlock = line.startsWith("-----BEGIN ");
+                    continue;
+                }
+
+                if (line.startsWith("-----END ")) {
+                    found = true;
+                    break;
+                }
+
+                pending.append(line);
+                // decode only complete groups of 4 characters
+                int len = pending.length() - pending.length() % 4;
+                if (len > 0) {
+                    out.write(Base64.decode(pending.substring(0, len)));
+                    pending.delete(0, len);
+                }
+            }
+
+            if (!found || pending.length() != 0) {
+                throw new IOException("invalid PEM encoded CRL");
+            }
+        } finally {
+            out.close();
+            reader.close();
+        }
+    }
+
+    private static int readTag(final InputStream in) throws IOException {
+        int tag = in.read();
+        if (tag == -1) {
+            throw new EOFException("unexpected end of CRL file");
+        }
+
+        if ((tag & 0x1F) == 0x1F) {
+            throw new IOException("high tag numbers are not supported");
+        }
+        return tag;
+    }
+
+    private static long readLength(final InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            throw new EOFException("unexpected end of CRL file");
+        }
+
+        if (first < 0x80) {
+            return first;
+        }
+
+        int numBytes = first & 0x7F;
+        if (numBytes == 0 || numBytes > 7) {
+            throw new IOException("unsupported length encoding");
+        }
+
+        long len = 0;
+        for (int i = 0; i < numBytes; i++) {
+            int bt = in.read();
+            if (bt == -1) {
+                throw new EOFException("unexpected end of CRL file");
+            }
+            len = (len << 8) | bt;
+        }
+        return len;
+    }
+
+    private static long readHeader(final InputStream in, final int expectedTag)
+    throws IOException {
+        int tag = readTag(in);
+        if (tag != expectedTag) {
+            throw new IOException("expected tag " + expectedTag + ", but was " + tag);
+        }
+        return readLength(in);
+    }
+
+    private static byte[] readContent(final InputStream in, final long len) throws IOException {
+        if (len > Integer.MAX_VALUE - 16) {
+            throw new IOException("object too large");
+        }
+
+        byte[] content = new byte[(int) len];
+        int off = 0;
+        while (off < content.length) {
+            int read = in.read(content, off, content.length - off);
+            if (read == -1) {
+                throw new EOFException("unexpected end of CRL file");
+            }
+            off += read;
+        }
+        return content;
+    }
+
+    private static ASN1Primitive readObject(final InputStream in, final int expectedTag)
+    throws IOException {
+        return readObject(in, readTag(in), expectedTag);
+    }
+
+    private static ASN1Primitive readObject(final InputStream in, final int tag,
+            final int expectedTag) throws IOException {
+        if (tag != expectedTag) {
+            throw new IOException("expected tag " + expectedTag + ", but was " + tag);
+        }
+
+        byte[] content = readContent(in, readLength(in));
+
+        // re-encode the header in DER form to parse the object
+        int len = content.length;
+        int numLenBytes = 0;
+        if (len > 127) {
+            for (int tmp = len; tmp != 0; tmp >>>= 8) {
+                numLenBytes++;
+            }
+        }
+
+        byte[] encoded = new byte[2 + numLenBytes + len];
+        encoded[0] = (byte) tag;
+        if (numLenBytes == 0) {
+            encoded[1] = (byte) len;
+        } else {
+            encoded[1] = (byte) (0x80 | numLenBytes);
+            for (int i = 0; i < numLenBytes; i++) {
+                encoded[1 + numLenBytes - i] = (byte) (len >>> (8 * i));
+            }
+        }
+        System.arraycopy(content, 0, encoded, 2 + numLenBytes, len);
+        return ASN1Primitive.fromByteArray(encoded);
+    }
+
+    private static void skipFully(final InputStream in, final long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("unexpected end of CRL file");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+}
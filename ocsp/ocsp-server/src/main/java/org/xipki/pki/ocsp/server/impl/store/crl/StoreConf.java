@@ -95,6 +95,12 @@ class StoreConf {
      */
     private static final String KEY_certs_dir = "certs.dir";
 
+    /*
+     * Folder to save the memory-mapped index of the revoked certificates.
+     * optional, default to the system temporary folder.
+     */
+    private static final String KEY_crlIndex_dir = "crlIndex.dir";
+
     private String crlFile;
 
     /*
@@ -126,6 +132,11 @@ class StoreConf {
      */
     private String certsDir;
 
+    /*
+     * optional, can be null
+     */
+    private String crlIndexDir;
+
     StoreConf(final String propsConf) throws OcspStoreException {
         Properties props = new Properties();
         try {
@@ -140,6 +151,7 @@ class StoreConf {
         this.caCertFile = getRequiredProperty(props, KEY_caCert_file);
         this.issuerCertFile = getOptionalProperty(props, KEY_issuerCert_file);
         this.certsDir = getOptionalProperty(props, KEY_certs_dir);
+        this.crlIndexDir = getOptionalProperty(props, KEY_crlIndex_dir);
 
         String propKey = KEY_useUpdateDatesFromCrl;
         String propValue = props.getProperty(propKey);
@@ -196,6 +208,10 @@ class StoreConf {
         return certsDir;
     }
 
+    String getCrlIndexDir() {
+        return crlIndexDir;
+    }
+
     private String getRequiredProperty(final Properties props, final String propKey)
     throws OcspStoreException {
         String str = props.getProperty(propKey);
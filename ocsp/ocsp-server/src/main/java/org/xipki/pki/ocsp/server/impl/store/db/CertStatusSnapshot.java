@@ -0,0 +1,612 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+import org.xipki.commons.common.util.ParamUtil;
+import org.xipki.commons.security.CertRevocationInfo;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * In-memory copy of the status of all certificates of the issuers known to a
+ * {@link DbCertStatusStore} at the time the snapshot was loaded.
+ *
+ * <p>The status of the certificates of an issuer is held in primitive arrays, and the serial
+ * numbers in one byte array, addressed via an open-addressing hash table. Hence no objects
+ * are kept per certificate. Objects are created only for the certificate found by a lookup.
+ *
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+class CertStatusSnapshot {
+
+    /**
+     * Status of a certificate, created for the result of a lookup.
+     */
+    static class Entry {
+
+        private final long notBeforeInSec;
+
+        private final long notAfterInSec;
+
+        private final String certprofile;
+
+        private final CertRevocationInfo revocationInfo;
+
+        private final byte[] certHash;
+
+        private Entry(final long notBeforeInSec, final long notAfterInSec,
+                final String certprofile, final CertRevocationInfo revocationInfo,
+                final byte[] certHash) {
+            this.notBeforeInSec = notBeforeInSec;
+            this.notAfterInSec = notAfterInSec;
+            this.certprofile = certprofile;
+            this.revocationInfo = revocationInfo;
+            this.certHash = certHash;
+        }
+
+        long getNotBeforeInSec() {
+            return notBeforeInSec;
+        }
+
+        long getNotAfterInSec() {
+            return notAfterInSec;
+        }
+
+        String getCertprofile() {
+            return certprofile;
+        }
+
+        /**
+         * Gets the revocation information.
+         *
+         * @return the revocation information, or {@code null} if the certificate is not revoked.
+         */
+        CertRevocationInfo getRevocationInfo() {
+            return revocationInfo;
+        }
+
+        /**
+         * Gets the certificate hash of the algorithm requested in the lookup.
+         *
+         * @return the certificate hash, or {@code null} if not requested or not available.
+         */
+        byte[] getCertHash() {
+            return certHash;
+        }
+
+    } // class Entry
+
+    /**
+     * Arrays of one issuer. They are replaced as a whole when the capacity is exceeded, and
+     * modified in place otherwise.
+     */
+    private static class Arrays4Issuer {
+
+        private final int capacity;
+
+        /*
+         * index of the record + 1, 0 for an empty slot
+         */
+        private final int[] table;
+
+        private final int[] serialHashes;
+
+        private final int[] serialOffsets;
+
+        private final byte[] serialLengths;
+
+        private byte[] serialData;
+
+        private final long[] notBefores;
+
+        private final long[] notAfters;
+
+        private final long[] revTimes;
+
+        private final long[] invTimes;
+
+        /*
+         * code of the revocation reason, NOT_REVOKED if the certificate is not revoked
+         */
+        private final byte[] reasons;
+
+        /*
+         * index in the certprofiles, -1 if not available
+         */
+        private final int[] profileIds;
+
+        /*
+         * certificate hashes of each algorithm, hashLen bytes per record
+         */
+        private final byte[][] certHashes;
+
+        /*
+         * bit i is set if the certificate hash of algorithm i is available
+         */
+        private final byte[] certHashFlags;
+
+        private Arrays4Issuer(final int capacity, final int[] certHashLens) {
+            this.capacity = capacity;
+            this.table = new int[2 * capacity];
+            this.serialHashes = new int[capacity];
+            this.serialOffsets = new int[capacity];
+            this.serialLengths = new byte[capacity];
+            this.serialData = new byte[8 * capacity];
+            this.notBefores = new long[capacity];
+            this.notAfters = new long[capacity];
+            this.revTimes = new long[capacity];
+            this.invTimes = new long[capacity];
+            this.reasons = new byte[capacity];
+            this.profileIds = new int[capacity];
+            this.certHashes = new byte[certHashLens.length][];
+            for (int i = 0; i < certHashLens.length; i++) {
+                certHashes[i] = new byte[capacity * certHashLens[i]];
+            }
+            this.certHashFlags = new byte[capacity];
+        }
+
+    } // class Arrays4Issuer
+
+    private class IssuerSnapshot {
+
+        private final StampedLock lock = new StampedLock();
+
+        private volatile Arrays4Issuer arrays = new Arrays4Issuer(16, certHashLens);
+
+        private int size;
+
+        private int serialDataSize;
+
+        /*
+         * greatest CERT.LUPDATE (in seconds) of the certificates in this snapshot
+         */
+        private volatile long lastUpdate;
+
+        private Entry get(final BigInteger serialNumber, final int hashIdx) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Entry entry = read(serialNumber, hashIdx);
+                    if (lock.validate(stamp)) {
+                        return entry;
+                    }
+                } catch (RuntimeException ex) {
+                    if (lock.validate(stamp)) {
+                        throw ex;
+                    }
+                    // inconsistent read during a concurrent modification, read again below
+                }
+            }
+
+            stamp = lock.readLock();
+            try {
+                return read(serialNumber, hashIdx);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private Entry read(final BigInteger serialNumber, final int hashIdx) {
+            Arrays4Issuer arr = arrays;
+            int idx = find(arr, serialNumber, serialNumber.hashCode());
+            if (idx == -1) {
+                return null;
+            }
+
+            CertRevocationInfo revInfo = null;
+            int reason = arr.reasons[idx];
+            if (reason != NOT_REVOKED) {
+                long revTime = arr.revTimes[idx];
+                long invTime = arr.invTimes[idx];
+                revInfo = new CertRevocationInfo(reason, new Date(revTime * 1000),
+                        (invTime == 0 || invTime == revTime) ? null : new Date(invTime * 1000));
+            }
+
+            byte[] certHash = null;
+            if (hashIdx != -1 && (arr.certHashFlags[idx] & (1 << hashIdx)) != 0) {
+                int len = certHashLens[hashIdx];
+                certHash = Arrays.copyOfRange(arr.certHashes[hashIdx], idx * len,
+                        (idx + 1) * len);
+            }
+
+            int profileId = arr.profileIds[idx];
+            String[] profiles = certprofiles;
+            String profile = (profileId < 0 || profileId >= profiles.length) ? null
+                    : profiles[profileId];
+            return new Entry(arr.notBefores[idx], arr.notAfters[idx], profile, revInfo,
+                    certHash);
+        }
+
+        private boolean put(final BigInteger serialNumber, final long notBeforeInSec,
+                final long notAfterInSec, final int profileId, final int reason,
+                final long revTimeInSec, final long invTimeInSec, final byte[][] hashes,
+                final long lastUpdateInSec) {
+            long stamp = lock.writeLock();
+            try {
+                if (lastUpdateInSec > lastUpdate) {
+                    lastUpdate = lastUpdateInSec;
+                }
+
+                int hash = serialNumber.hashCode();
+                Arrays4Issuer arr = arrays;
+                int idx = find(arr, serialNumber, hash);
+                boolean changed = false;
+                if (idx == -1) {
+                    if (size == arr.capacity) {
+                        arr = grow(arr);
+                    }
+                    idx = size;
+                    appendSerial(arr, idx, serialNumber, hash);
+                    changed = true;
+                }
+
+                changed |= arr.notBefores[idx] != notBeforeInSec
+                        || arr.notAfters[idx] != notAfterInSec
+                        || arr.profileIds[idx] != profileId
+                        || arr.reasons[idx] != reason
+                        || arr.revTimes[idx] != revTimeInSec
+                        || arr.invTimes[idx] != invTimeInSec;
+                arr.notBefores[idx] = notBeforeInSec;
+                arr.notAfters[idx] = notAfterInSec;
+                arr.profileIds[idx] = profileId;
+                arr.reasons[idx] = (byte) reason;
+                arr.revTimes[idx] = revTimeInSec;
+                arr.invTimes[idx] = invTimeInSec;
+
+                int flags = 0;
+                for (int i = 0; i < certHashLens.length; i++) {
+                    byte[] certHash = (hashes == null) ? null : hashes[i];
+                    if (certHash == null || certHash.length != certHashLens[i]) {
+                        continue;
+                    }
+                    flags |= 1 << i;
+                    System.arraycopy(certHash, 0, arr.certHashes[i], idx * certHashLens[i],
+                            certHashLens[i]);
+                }
+                // hashes are not expected to change, a change is not reported
+                arr.certHashFlags[idx] = (byte) flags;
+
+                if (idx == size) {
+                    // publish the record after all fields have been written
+                    insertIntoTable(arr.table, hash, idx);
+                    size++;
+                }
+                return changed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void appendSerial(final Arrays4Issuer arr, final int idx,
+                final BigInteger serialNumber, final int hash) {
+            int len = (serialNumber.bitLength() + 7) / 8;
+            if (serialDataSize + len > arr.serialData.length) {
+                arr.serialData = Arrays.copyOf(arr.serialData,
+                        Math.max(2 * arr.serialData.length, serialDataSize + len));
+            }
+
+            for (int i = 0; i < len; i++) {
+                arr.serialData[serialDataSize + i] = (byte) byteAt(serialNumber, len - 1 - i);
+            }
+            arr.serialHashes[idx] = hash;
+            arr.serialOffsets[idx] = serialDataSize;
+            arr.serialLengths[idx] = (byte) len;
+            serialDataSize += len;
+        }
+
+        private Arrays4Issuer grow(final Arrays4Issuer arr) {
+            int newCapacity = 2 * arr.capacity;
+            Arrays4Issuer newArr = new Arrays4Issuer(newCapacity, certHashLens);
+            System.arraycopy(arr.serialHashes, 0, newArr.serialHashes, 0, size);
+            System.arraycopy(arr.serialOffsets, 0, newArr.serialOffsets, 0, size);
+            System.arraycopy(arr.serialLengths, 0, newArr.serialLengths, 0, size);
+            newArr.serialData = arr.serialData;
+            System.arraycopy(arr.notBefores, 0, newArr.notBefores, 0, size);
+            System.arraycopy(arr.notAfters, 0, newArr.notAfters, 0, size);
+            System.arraycopy(arr.revTimes, 0, newArr.revTimes, 0, size);
+            System.arraycopy(arr.invTimes, 0, newArr.invTimes, 0, size);
+            System.arraycopy(arr.reasons, 0, newArr.reasons, 0, size);
+            System.arraycopy(arr.profileIds, 0, newArr.profileIds, 0, size);
+            for (int i = 0; i < certHashLens.length; i++) {
+                System.arraycopy(arr.certHashes[i], 0, newArr.certHashes[i], 0,
+                        size * certHashLens[i]);
+            }
+            System.arraycopy(arr.certHashFlags, 0, newArr.certHashFlags, 0, size);
+            for (int i = 0; i < size; i++) {
+                insertIntoTable(newArr.table, newArr.serialHashes[i], i);
+            }
+
+            arrays = newArr;
+            return newArr;
+        }
+
+    } // class IssuerSnapshot
+
+    private static final int NOT_REVOKED = -1;
+
+    private final HashAlgoType[] certHashAlgos;
+
+    private final int[] certHashLens;
+
+    private final Map<Integer, IssuerSnapshot> issuers;
+
+    /*
+     * Certificate profile names are shared among all entries.
+     */
+    private final Map<String, Integer> certprofileIds = new HashMap<>();
+
+    private volatile String[] certprofiles = new String[0];
+
+    /**
+     * Creates an empty snapshot.
+     *
+     * @param certHashAlgos algorithms of the certificate hashes to be kept
+     * @param issuerIds IDs of the issuers whose certificates are covered by the snapshot
+     */
+    CertStatusSnapshot(final Set<HashAlgoType> certHashAlgos, final Set<Integer> issuerIds) {
+        ParamUtil.requireNonNull("certHashAlgos", certHashAlgos);
+        ParamUtil.requireNonNull("issuerIds", issuerIds);
+        this.certHashAlgos = certHashAlgos.toArray(new HashAlgoType[0]);
+        if (this.certHashAlgos.length > 8) {
+            throw new IllegalArgumentException("too many certHashAlgos");
+        }
+
+        this.certHashLens = new int[this.certHashAlgos.length];
+        for (int i = 0; i < certHashLens.length; i++) {
+            certHashLens[i] = this.certHashAlgos[i].getLength();
+        }
+
+        Map<Integer, IssuerSnapshot> map = new HashMap<>();
+        for (Integer issuerId : issuerIds) {
+            map.put(issuerId, new IssuerSnapshot());
+        }
+        this.issuers = Collections.unmodifiableMap(map);
+    }
+
+    HashAlgoType[] getCertHashAlgos() {
+        return certHashAlgos;
+    }
+
+    boolean containsCertHashAlgo(final HashAlgoType hashAlgo) {
+        return indexOf(hashAlgo) != -1;
+    }
+
+    /**
+     * Whether the certificates of the issuer are covered by this snapshot.
+     *
+     * @param issuerId ID of the issuer
+     * @return whether the issuer is covered.
+     */
+    boolean containsIssuer(final int issuerId) {
+        return issuers.containsKey(issuerId);
+    }
+
+    Set<Integer> getIssuerIds() {
+        return issuers.keySet();
+    }
+
+    /**
+     * Gets the status of the certificate.
+     *
+     * @param issuerId ID of the issuer
+     * @param serialNumber serial number of the certificate
+     * @param certHashAlgo algorithm of the requested certificate hash, may be {@code null}
+     * @return the status, or {@code null} if the certificate is not contained.
+     */
+    Entry getEntry(final int issuerId, final BigInteger serialNumber,
+            final HashAlgoType certHashAlgo) {
+        IssuerSnapshot issuer = issuers.get(issuerId);
+        if (issuer == null || serialNumber.signum() != 1) {
+            return null;
+        }
+
+        return issuer.get(serialNumber, (certHashAlgo == null) ? -1 : indexOf(certHashAlgo));
+    }
+
+    /**
+     * Adds or updates the status of a certificate. Certificates of issuers not covered by this
+     * snapshot are ignored.
+     *
+     * @param issuerId ID of the issuer
+     * @param serialNumber positive serial number of the certificate
+     * @param notBeforeInSec notBefore of the certificate
+     * @param notAfterInSec notAfter of the certificate
+     * @param certprofile name of the certificate profile, may be {@code null}
+     * @param revoked whether the certificate is revoked
+     * @param reason code of the revocation reason
+     * @param revTimeInSec revocation time
+     * @param invTimeInSec invalidity time, 0 if not present
+     * @param certHashes certificate hashes in the order of {@link #getCertHashAlgos()}, may be
+     *     {@code null}
+     * @param lastUpdateInSec CERT.LUPDATE of the certificate
+     * @return whether the status has been changed.
+     */
+    boolean putEntry(final int issuerId, final BigInteger serialNumber,
+            final long notBeforeInSec, final long notAfterInSec, final String certprofile,
+            final boolean revoked, final int reason, final long revTimeInSec,
+            final long invTimeInSec, final byte[][] certHashes, final long lastUpdateInSec) {
+        IssuerSnapshot issuer = issuers.get(issuerId);
+        if (issuer == null) {
+            return false;
+        }
+
+        if (serialNumber.signum() != 1 || serialNumber.bitLength() > 8 * 127) {
+            throw new IllegalArgumentException("invalid serialNumber " + serialNumber);
+        }
+
+        if (certHashes != null && certHashes.length != certHashAlgos.length) {
+            throw new IllegalArgumentException("invalid certHashes.length " + certHashes.length);
+        }
+
+        int profileId = (certprofile == null) ? -1 : getCertprofileId(certprofile);
+        return issuer.put(serialNumber, notBeforeInSec, notAfterInSec, profileId,
+                revoked ? reason : NOT_REVOKED, revoked ? revTimeInSec : 0,
+                revoked ? invTimeInSec : 0, certHashes, lastUpdateInSec);
+    }
+
+    /**
+     * Gets the greatest CERT.LUPDATE of the certificates of the issuer in this snapshot.
+     *
+     * @param issuerId ID of the issuer
+     * @return the greatest CERT.LUPDATE in seconds, 0 if not available.
+     */
+    long getLastUpdate(final int issuerId) {
+        IssuerSnapshot issuer = issuers.get(issuerId);
+        return (issuer == null) ? 0 : issuer.lastUpdate;
+    }
+
+    /**
+     * Raises the greatest CERT.LUPDATE of the issuer, e.g. to the one read from the database
+     * before the snapshot has been loaded.
+     *
+     * @param issuerId ID of the issuer
+     * @param lastUpdateInSec CERT.LUPDATE in seconds
+     */
+    void updateLastUpdate(final int issuerId, final long lastUpdateInSec) {
+        IssuerSnapshot issuer = issuers.get(issuerId);
+        if (issuer == null) {
+            return;
+        }
+
+        long stamp = issuer.lock.writeLock();
+        try {
+            if (lastUpdateInSec > issuer.lastUpdate) {
+                issuer.lastUpdate = lastUpdateInSec;
+            }
+        } finally {
+            issuer.lock.unlockWrite(stamp);
+        }
+    }
+
+    private synchronized int getCertprofileId(final String certprofile) {
+        Integer id = certprofileIds.get(certprofile);
+        if (id == null) {
+            String[] profiles = Arrays.copyOf(certprofiles, certprofiles.length + 1);
+            id = profiles.length - 1;
+            profiles[id] = certprofile;
+            certprofileIds.put(certprofile, id);
+            certprofiles = profiles;
+        }
+        return id;
+    }
+
+    private int indexOf(final HashAlgoType hashAlgo) {
+        for (int i = 0; i < certHashAlgos.length; i++) {
+            if (certHashAlgos[i] == hashAlgo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the record without allocating objects.
+     *
+     * @return index of the record, or -1 if not found.
+     */
+    private static int find(final Arrays4Issuer arr, final BigInteger serialNumber,
+            final int hash) {
+        int[] table = arr.table;
+        int mask = table.length - 1;
+        int len = (serialNumber.bitLength() + 7) / 8;
+        for (int i = 0, slot = spread(hash) & mask; i < table.length;
+                i++, slot = (slot + 1) & mask) {
+            int idx = table[slot] - 1;
+            if (idx == -1) {
+                return -1;
+            }
+
+            if (idx >= arr.capacity || arr.serialHashes[idx] != hash
+                    || arr.serialLengths[idx] != len) {
+                continue;
+            }
+
+            int off = arr.serialOffsets[idx];
+            if (off + len > arr.serialData.length) {
+                // inconsistent concurrent read, detected by the caller
+                return -1;
+            }
+
+            boolean match = true;
+            for (int j = 0; j < len && match; j++) {
+                match = (arr.serialData[off + j] & 0xFF) == byteAt(serialNumber, len - 1 - j);
+            }
+            if (match) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private static void insertIntoTable(final int[] table, final int hash, final int idx) {
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = idx + 1;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Gets a byte of the magnitude without allocating an array.
+     *
+     * @param value the positive number
+     * @param index index of the byte, 0 for the least significant byte
+     * @return the unsigned value of the byte.
+     */
+    private static int byteAt(final BigInteger value, final int index) {
+        int bitOffset = 8 * index;
+        int ret = 0;
+        for (int i = 7; i >= 0; i--) {
+            ret = (ret << 1) | (value.testBit(bitOffset + i) ? 1 : 0);
+        }
+        return ret;
+    }
+
+}
@@ -44,6 +44,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -52,6 +54,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -67,9 +70,11 @@ import org.xipki.commons.datasource.springframework.dao.DataAccessException;
 import org.xipki.commons.security.CertRevocationInfo;
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.commons.security.util.X509Util;
+import org.xipki.pki.ocsp.api.CertIdKey;
 import org.xipki.pki.ocsp.api.CertStatusInfo;
 import org.xipki.pki.ocsp.api.CertprofileOption;
 import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
+import org.xipki.pki.ocsp.api.OcspCertStatusChangeListener;
 import org.xipki.pki.ocsp.api.OcspStore;
 import org.xipki.pki.ocsp.api.OcspStoreException;
 
@@ -106,17 +111,73 @@ public class DbCertStatusStore extends OcspStore {
 
     } // class SimpleIssuerEntry
 
+    private static class CertStatusRecord {
+
+        private final long notBeforeInSec;
+
+        private final long notAfterInSec;
+
+        private final String certprofile;
+
+        private final CertRevocationInfo revocationInfo;
+
+        private final byte[] certHash;
+
+        CertStatusRecord(final long notBeforeInSec, final long notAfterInSec,
+                final String certprofile, final CertRevocationInfo revocationInfo,
+                final byte[] certHash) {
+            this.notBeforeInSec = notBeforeInSec;
+            this.notAfterInSec = notAfterInSec;
+            this.certprofile = certprofile;
+            this.revocationInfo = revocationInfo;
+            this.certHash = certHash;
+        }
+
+    } // class CertStatusRecord
+
+    /**
+     * Greatest CERT.LUPDATE (in seconds) already checked for an issuer, and the certificates
+     * already reported with exactly this LUPDATE.
+     */
+    private static class LastUpdateWatermark {
+
+        private final long lastUpdate;
+
+        private final Set<BigInteger> serialNumbers;
+
+        LastUpdateWatermark(final long lastUpdate, final Set<BigInteger> serialNumbers) {
+            this.lastUpdate = lastUpdate;
+            this.serialNumbers = serialNumbers;
+        }
+
+    } // class LastUpdateWatermark
+
     private class StoreUpdateService implements Runnable {
 
         @Override
         public void run() {
             initIssuerStore();
+            if (snapshotEnabled) {
+                updateSnapshot();
+            } else {
+                checkCertStatusChanges();
+            }
         }
 
     } // class StoreUpdateService
 
     private static final Logger LOG = LoggerFactory.getLogger(DbCertStatusStore.class);
 
+    private static final int SNAPSHOT_BATCH_SIZE = 10000;
+
+    private static final int MAX_SERIALS_PER_QUERY = 100;
+
+    /**
+     * Allowed skew (in ms) between the clock of this host and the one of the host of the
+     * CA, which sets CERT.LUPDATE.
+     */
+    private static final long ALLOWED_CLOCK_SKEW_MS = 5000;
+
     private String sqlCs;
 
     private Map<HashAlgoType, String> sqlCsMap;
@@ -133,6 +194,32 @@ public class DbCertStatusStore extends OcspStore {
 
     private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+    /**
+     * Greatest CERT.LUPDATE (in seconds) already checked for each issuer. It is read from the
+     * database, so that the clock of this host is not involved.
+     */
+    private final Map<Integer, LastUpdateWatermark> lastUpdateWatermarks =
+            new ConcurrentHashMap<>();
+
+    private long updateIntervalMs;
+
+    private Set<HashAlgoType> certHashAlgos;
+
+    private boolean snapshotEnabled;
+
+    private String sqlSnapshot;
+
+    private volatile CertStatusSnapshot snapshot;
+
+    private volatile boolean snapshotReloadRequired;
+
+    private long snapshotReloadIntervalMs;
+
+    /*
+     * Time (in ms) when the current snapshot has been loaded.
+     */
+    private volatile long snapshotLoadTime;
+
     private synchronized void initIssuerStore() {
         try {
             if (initialized) {
@@ -169,7 +256,7 @@ public class DbCertStatusStore extends OcspStore {
                         for (Integer id : newIds) {
                             IssuerEntry entry = issuerStore.getIssuerForId(id);
                             SimpleIssuerEntry newEntry = newIssuers.get(id);
-                            if (newEntry.match(entry)) {
+                            if (!newEntry.match(entry)) {
                                 issuersUnchanged = false;
                                 break;
                             }
@@ -225,19 +312,297 @@ public class DbCertStatusStore extends OcspStore {
 
                 initialized = false;
                 this.issuerStore = new IssuerStore(caInfos);
+                this.snapshotReloadRequired = true;
                 LOG.info("Updated CertStore: {}", name);
                 initializationFailed = false;
                 initialized = true;
+                notifyStoreChanged();
             } finally {
                 releaseDbResources(ps, rs);
             }
         } catch (Exception ex) {
             LogUtil.error(LOG, ex, "could not executing initIssuerStore()");
+            if (snapshotEnabled && issuerStore != null && !initializationFailed) {
+                // keep on answering from the snapshot while the database is unavailable
+                return;
+            }
             initializationFailed = true;
             initialized = true;
         }
     } // method initIssuerStore
 
+    /**
+     * Notifies the listeners about the certificates changed since the last check. The table
+     * CERT is not polled if nobody listens to the changes of single certificates.
+     */
+    private synchronized void checkCertStatusChanges() {
+        if (!hasCertStatusChangeListeners()) {
+            lastUpdateWatermarks.clear();
+            return;
+        }
+
+        IssuerStore tmpIssuerStore = issuerStore;
+        if (tmpIssuerStore == null) {
+            return;
+        }
+
+        lastUpdateWatermarks.keySet().retainAll(tmpIssuerStore.getIds());
+        final String sql = "SELECT SN,LUPDATE FROM CERT WHERE IID=? AND LUPDATE>=?";
+        try {
+            List<BigInteger> serials = new LinkedList<>();
+            for (Integer issuerId : tmpIssuerStore.getIds()) {
+                LastUpdateWatermark watermark = lastUpdateWatermarks.get(issuerId);
+                if (watermark == null) {
+                    // new issuer, the listeners have been notified about the store change
+                    lastUpdateWatermarks.put(issuerId, new LastUpdateWatermark(
+                            getMaxLastUpdate(issuerId), Collections.<BigInteger>emptySet()));
+                    continue;
+                }
+
+                long newLastUpdate = watermark.lastUpdate;
+                Set<BigInteger> newSerials = new HashSet<>();
+                PreparedStatement ps = borrowPreparedStatement(sql);
+                ResultSet rs = null;
+                try {
+                    ps.setInt(1, issuerId);
+                    // LUPDATE is of precision second, an entry may be updated in the same
+                    // second after the last check. The entries of this second which have
+                    // already been reported are skipped.
+                    ps.setLong(2, watermark.lastUpdate);
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+                        long lastUpdate = rs.getLong("LUPDATE");
+                        if (lastUpdate > newLastUpdate) {
+                            newLastUpdate = lastUpdate;
+                            newSerials.clear();
+                        }
+                        if (lastUpdate == newLastUpdate) {
+                            newSerials.add(serialNumber);
+                        }
+
+                        if (lastUpdate != watermark.lastUpdate
+                                || !watermark.serialNumbers.contains(serialNumber)) {
+                            serials.add(serialNumber);
+                        }
+                    }
+                } catch (SQLException ex) {
+                    throw datasource.translate(sql, ex);
+                } finally {
+                    releaseDbResources(ps, rs);
+                }
+                lastUpdateWatermarks.put(issuerId,
+                        new LastUpdateWatermark(newLastUpdate, newSerials));
+            }
+
+            notifyCertStatusChanged(serials);
+        } catch (Exception ex) {
+            LogUtil.error(LOG, ex, "could not check the changed certificates");
+        }
+    } // method checkCertStatusChanges
+
+    private synchronized void initLastUpdateWatermarks() {
+        IssuerStore tmpIssuerStore = issuerStore;
+        if (tmpIssuerStore == null) {
+            return;
+        }
+
+        lastUpdateWatermarks.keySet().retainAll(tmpIssuerStore.getIds());
+        for (Integer issuerId : tmpIssuerStore.getIds()) {
+            if (lastUpdateWatermarks.containsKey(issuerId)) {
+                continue;
+            }
+
+            try {
+                lastUpdateWatermarks.put(issuerId, new LastUpdateWatermark(
+                        getMaxLastUpdate(issuerId), Collections.<BigInteger>emptySet()));
+            } catch (DataAccessException ex) {
+                LogUtil.error(LOG, ex, "could not read the last update of issuer " + issuerId);
+            }
+        }
+    } // method initLastUpdateWatermarks
+
+    private long getMaxLastUpdate(final int issuerId) throws DataAccessException {
+        final String sql = "SELECT MAX(LUPDATE) FROM CERT WHERE IID=?";
+        PreparedStatement ps = borrowPreparedStatement(sql);
+        ResultSet rs = null;
+        try {
+            ps.setInt(1, issuerId);
+            rs = ps.executeQuery();
+            // 0 if there is no certificate
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException ex) {
+            throw datasource.translate(sql, ex);
+        } finally {
+            releaseDbResources(ps, rs);
+        }
+    }
+
+    @Override
+    public void addCertStatusChangeListener(final OcspCertStatusChangeListener listener) {
+        super.addCertStatusChangeListener(listener);
+        if (!snapshotEnabled) {
+            // changes are reported relative to the time the first listener is registered
+            initLastUpdateWatermarks();
+        }
+    }
+
+    @Override
+    public long getChangeNotificationDelay() {
+        // a change is detected within one update interval
+        return Math.max(1, updateIntervalMs - ALLOWED_CLOCK_SKEW_MS);
+    }
+
+    /**
+     * Loads the status of all certificates into a new snapshot.
+     *
+     * @return whether the snapshot has been loaded successfully.
+     */
+    private boolean loadSnapshot() {
+        long start = System.currentTimeMillis();
+        snapshotReloadRequired = false;
+        IssuerStore tmpIssuerStore = issuerStore;
+        if (tmpIssuerStore == null) {
+            snapshotReloadRequired = true;
+            return false;
+        }
+
+        CertStatusSnapshot newSnapshot = new CertStatusSnapshot(certHashAlgos,
+                tmpIssuerStore.getIds());
+
+        final String sql = sqlSnapshot + " WHERE CERT.ID>=? AND CERT.ID<?";
+        try {
+            // certificates changed while loading are applied by the next update, since their
+            // LUPDATE is not less than the current one.
+            for (Integer issuerId : newSnapshot.getIssuerIds()) {
+                newSnapshot.updateLastUpdate(issuerId, getMaxLastUpdate(issuerId));
+            }
+
+            long minId = datasource.getMin(null, "CERT", "ID");
+            long maxId = datasource.getMax(null, "CERT", "ID");
+
+            PreparedStatement ps = borrowPreparedStatement(sql);
+            ResultSet rs = null;
+            int num = 0;
+            try {
+                for (long id = minId; id <= maxId; id += SNAPSHOT_BATCH_SIZE) {
+                    ps.setLong(1, id);
+                    ps.setLong(2, id + SNAPSHOT_BATCH_SIZE);
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        if (readSnapshotEntry(rs, newSnapshot, false) != null) {
+                            num++;
+                        }
+                    }
+                    rs.close();
+                    rs = null;
+                }
+            } catch (SQLException ex) {
+                throw datasource.translate(sql, ex);
+            } finally {
+                releaseDbResources(ps, rs);
+            }
+
+            this.snapshot = newSnapshot;
+            this.snapshotLoadTime = start;
+            LOG.info("loaded status of {} certificates of CertStore {} into memory", num, name);
+            return true;
+        } catch (Exception ex) {
+            snapshotReloadRequired = true;
+            LogUtil.error(LOG, ex, "could not load the status of certificates into memory");
+            return false;
+        }
+    } // method loadSnapshot
+
+    /**
+     * Applies the certificates changed since the last synchronization to the snapshot and
+     * notifies the listeners.
+     */
+    private void updateSnapshot() {
+        CertStatusSnapshot tmpSnapshot = snapshot;
+        // deleted certificates are not detected via LUPDATE, but by the periodic reload
+        if (tmpSnapshot == null || snapshotReloadRequired
+                || System.currentTimeMillis() - snapshotLoadTime >= snapshotReloadIntervalMs) {
+            if (loadSnapshot() && tmpSnapshot != null) {
+                notifyStoreChanged();
+            }
+            return;
+        }
+
+        final String sql = sqlSnapshot + " WHERE CERT.IID=? AND CERT.LUPDATE>=?";
+        try {
+            List<BigInteger> serials = new LinkedList<>();
+            for (Integer issuerId : tmpSnapshot.getIssuerIds()) {
+                PreparedStatement ps = borrowPreparedStatement(sql);
+                ResultSet rs = null;
+                try {
+                    ps.setInt(1, issuerId);
+                    // LUPDATE is of precision second and may be set by several hosts, hence
+                    // the entries of the last seconds are read again. Unchanged entries are
+                    // not reported.
+                    ps.setLong(2, tmpSnapshot.getLastUpdate(issuerId)
+                            - ALLOWED_CLOCK_SKEW_MS / 1000);
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        BigInteger serialNumber = readSnapshotEntry(rs, tmpSnapshot, true);
+                        if (serialNumber != null) {
+                            serials.add(serialNumber);
+                        }
+                    }
+                } catch (SQLException ex) {
+                    throw datasource.translate(sql, ex);
+                } finally {
+                    releaseDbResources(ps, rs);
+                }
+            }
+
+            if (!serials.isEmpty()) {
+                LOG.debug("updated status of {} certificates of CertStore {} in memory",
+                        serials.size(), name);
+                notifyCertStatusChanged(serials);
+            }
+        } catch (Exception ex) {
+            LogUtil.error(LOG, ex, "could not update the status of certificates in memory");
+        }
+    } // method updateSnapshot
+
+    /**
+     * Reads a certificate into the snapshot.
+     *
+     * @param rs the result set
+     * @param snapshot the snapshot
+     * @param followLastUpdate whether the greatest LUPDATE of the snapshot is raised
+     * @return the serial number if the status in the snapshot has been changed, {@code null}
+     *     otherwise.
+     */
+    private static BigInteger readSnapshotEntry(final ResultSet rs,
+            final CertStatusSnapshot snapshot, final boolean followLastUpdate)
+    throws SQLException {
+        int issuerId = rs.getInt("IID");
+        if (!snapshot.containsIssuer(issuerId)) {
+            return null;
+        }
+
+        BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+        HashAlgoType[] hashAlgos = snapshot.getCertHashAlgos();
+        byte[][] certHashes = null;
+        if (hashAlgos.length > 0) {
+            certHashes = new byte[hashAlgos.length][];
+            for (int i = 0; i < hashAlgos.length; i++) {
+                String b64CertHash = rs.getString(hashAlgos[i].getShortName());
+                certHashes[i] = (b64CertHash == null) ? null : Base64.decode(b64CertHash);
+            }
+        }
+
+        boolean revoked = rs.getBoolean("REV");
+        boolean changed = snapshot.putEntry(issuerId, serialNumber, rs.getLong("NBEFORE"),
+                rs.getLong("NAFTER"), rs.getString("PN"), revoked,
+                revoked ? rs.getInt("RR") : 0, revoked ? rs.getLong("RT") : 0,
+                revoked ? rs.getLong("RIT") : 0, certHashes,
+                followLastUpdate ? rs.getLong("LUPDATE") : 0);
+        return changed ? serialNumber : null;
+    } // method readSnapshotEntry
+
     private Map<HashAlgoType, IssuerHashNameAndKey> getIssuerHashAndKeys(byte[] encodedCert)
     throws CertificateEncodingException {
         byte[] encodedName;
@@ -271,156 +636,310 @@ public class DbCertStatusStore extends OcspStore {
             return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
         }
 
-        // wait for max. 0.5 second
-        int num = 5;
-        while (!initialized && (num-- > 0)) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-            }
-        }
+        waitForInitialization();
 
-        if (!initialized) {
-            throw new OcspStoreException("initialization of CertStore is still in process");
+        HashAlgoType certHashAlgo = null;
+        if (includeCertHash) {
+            certHashAlgo = (certHashAlg == null) ? hashAlgo : certHashAlg;
         }
 
-        if (initializationFailed) {
-            throw new OcspStoreException("initialization of CertStore failed");
+        Date thisUpdate = new Date();
+
+        IssuerEntry issuer = issuerStore.getIssuerForFp(hashAlgo, issuerNameHash, issuerKeyHash);
+        if (issuer == null) {
+            return CertStatusInfo.getIssuerUnknownCertStatusInfo(thisUpdate, null);
         }
 
-        String sql;
-        HashAlgoType certHashAlgo = null;
-        if (includeCertHash) {
-            certHashAlgo = (certHashAlg == null) ? hashAlgo : certHashAlg;
-            sql = sqlCsMap.get(certHashAlgo);
+        CertStatusRecord record;
+        CertStatusSnapshot tmpSnapshot = snapshot;
+        if (isSnapshotUsable(tmpSnapshot, issuer.getId(), certHashAlgo)) {
+            // answer from the in-memory snapshot without accessing the database
+            record = getRecord(tmpSnapshot, issuer.getId(), serialNumber, certHashAlgo);
         } else {
-            sql = sqlCs;
+            String sql = (certHashAlgo == null) ? sqlCs : sqlCsMap.get(certHashAlgo);
+            try {
+                PreparedStatement ps = borrowPreparedStatement(sql);
+                ResultSet rs = null;
+                try {
+                    ps.setInt(1, issuer.getId());
+                    ps.setString(2, serialNumber.toString(16));
+                    rs = ps.executeQuery();
+                    record = rs.next() ? readRecord(rs, certHashAlgo) : null;
+                } catch (SQLException ex) {
+                    throw datasource.translate(sql, ex);
+                } finally {
+                    releaseDbResources(ps, rs);
+                }
+            } catch (DataAccessException ex) {
+                throw new OcspStoreException(ex.getMessage(), ex);
+            }
         }
 
-        try {
-            Date thisUpdate = new Date();
+        return buildCertStatusInfo(time, thisUpdate, issuer, record, certHashAlgo,
+                certprofileOption);
+    } // method getCertStatus
 
-            IssuerEntry issuer = issuerStore.getIssuerForFp(hashAlgo, issuerNameHash,
-                    issuerKeyHash);
+    @Override
+    public List<CertStatusInfo> getCertStatuses(final Date time, final List<CertIdKey> certIds,
+            final boolean includeCertHash, final HashAlgoType certHashAlg,
+            final CertprofileOption certprofileOption) throws OcspStoreException {
+        ParamUtil.requireNonNull("time", time);
+        ParamUtil.requireNonNull("certIds", certIds);
+
+        waitForInitialization();
+
+        final int n = certIds.size();
+        CertStatusInfo[] ret = new CertStatusInfo[n];
+        IssuerEntry[] issuers = new IssuerEntry[n];
+        Date thisUpdate = new Date();
+        CertStatusSnapshot tmpSnapshot = snapshot;
+
+        // indexes of the certificates to be read from the database, grouped by the issuer
+        // and the hash algorithm of certificate hash
+        Map<Integer, Map<HashAlgoType, List<Integer>>> groups = new HashMap<>();
+
+        for (int i = 0; i < n; i++) {
+            CertIdKey certId = certIds.get(i);
+            if (certId.getSerialNumber().signum() != 1) { // non-positive serial number
+                ret[i] = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, null);
+                continue;
+            }
+
+            IssuerEntry issuer = issuerStore.getIssuerForFp(certId.getHashAlgo(),
+                    certId.getIssuerNameHash(), certId.getIssuerKeyHash());
             if (issuer == null) {
-                return CertStatusInfo.getIssuerUnknownCertStatusInfo(thisUpdate, null);
+                ret[i] = CertStatusInfo.getIssuerUnknownCertStatusInfo(thisUpdate, null);
+                continue;
             }
+            issuers[i] = issuer;
 
-            ResultSet rs = null;
-            CertStatusInfo certStatusInfo = null;
+            HashAlgoType certHashAlgo = null;
+            if (includeCertHash) {
+                certHashAlgo = (certHashAlg == null) ? certId.getHashAlgo() : certHashAlg;
+            }
 
-            boolean unknown = true;
-            boolean ignore = false;
-            String certprofile = null;
-            String b64CertHash = null;
-            boolean revoked = false;
-            int reason = 0;
-            long revocationTime = 0;
-            long invalidatityTime = 0;
+            if (isSnapshotUsable(tmpSnapshot, issuer.getId(), certHashAlgo)) {
+                CertStatusRecord record = getRecord(tmpSnapshot, issuer.getId(),
+                        certId.getSerialNumber(), certHashAlgo);
+                ret[i] = buildCertStatusInfo(time, thisUpdate, issuer, record, certHashAlgo,
+                        certprofileOption);
+                continue;
+            }
 
-            PreparedStatement ps = borrowPreparedStatement(sql);
+            Map<HashAlgoType, List<Integer>> issuerGroup = groups.get(issuer.getId());
+            if (issuerGroup == null) {
+                issuerGroup = new HashMap<>();
+                groups.put(issuer.getId(), issuerGroup);
+            }
 
-            try {
-                int idx = 1;
-                ps.setInt(idx++, issuer.getId());
-                ps.setString(idx++, serialNumber.toString(16));
+            List<Integer> indexes = issuerGroup.get(certHashAlgo);
+            if (indexes == null) {
+                indexes = new LinkedList<>();
+                issuerGroup.put(certHashAlgo, indexes);
+            }
+            indexes.add(i);
+        }
 
-                rs = ps.executeQuery();
+        try {
+            for (Integer issuerId : groups.keySet()) {
+                Map<HashAlgoType, List<Integer>> issuerGroup = groups.get(issuerId);
+                for (HashAlgoType certHashAlgo : issuerGroup.keySet()) {
+                    List<Integer> indexes = issuerGroup.get(certHashAlgo);
+                    Set<BigInteger> serials = new HashSet<>();
+                    for (Integer idx : indexes) {
+                        serials.add(certIds.get(idx).getSerialNumber());
+                    }
 
-                if (rs.next()) {
-                    unknown = false;
+                    Map<BigInteger, CertStatusRecord> records = readRecords(issuerId, serials,
+                            certHashAlgo);
+                    for (Integer idx : indexes) {
+                        CertStatusRecord record = records.get(
+                                certIds.get(idx).getSerialNumber());
+                        ret[idx] = buildCertStatusInfo(time, thisUpdate, issuers[idx], record,
+                                certHashAlgo, certprofileOption);
+                    }
+                }
+            }
+        } catch (DataAccessException ex) {
+            throw new OcspStoreException(ex.getMessage(), ex);
+        }
 
-                    long timeInSec = time.getTime() / 1000;
-                    long notBeforeInSec = rs.getLong("NBEFORE");
-                    long notAfterInSec = rs.getLong("NAFTER");
+        return Arrays.asList(ret);
+    } // method getCertStatuses
 
-                    if (!ignore && ignoreExpiredCert && timeInSec > notAfterInSec) {
-                        ignore = true;
-                    }
+    /**
+     * Reads the status of several certificates of the same issuer, using one query for up to
+     * {@link #MAX_SERIALS_PER_QUERY} certificates.
+     */
+    private Map<BigInteger, CertStatusRecord> readRecords(final int issuerId,
+            final Set<BigInteger> serials, final HashAlgoType certHashAlgo)
+    throws DataAccessException {
+        Map<BigInteger, CertStatusRecord> records = new HashMap<>();
 
-                    if (!ignore && ignoreNotYetValidCert && timeInSec < notBeforeInSec) {
-                        ignore = true;
-                    }
+        List<BigInteger> serialList = new ArrayList<>(serials);
+        final int size = serialList.size();
+        for (int from = 0; from < size; from += MAX_SERIALS_PER_QUERY) {
+            int to = Math.min(size, from + MAX_SERIALS_PER_QUERY);
 
-                    certprofile = rs.getString("PN");
-                    if (!ignore) {
-                        ignore = (certprofile != null) && (certprofileOption != null)
-                                && !certprofileOption.include(certprofile);
-                    }
+            StringBuilder sb = new StringBuilder(200 + 2 * (to - from));
+            sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT,RIT,PN");
+            if (certHashAlgo == null) {
+                sb.append(" FROM CERT WHERE IID=? AND SN IN (");
+            } else {
+                sb.append(",").append(certHashAlgo.getShortName());
+                sb.append(" FROM CERT INNER JOIN CHASH ON CERT.ID=CHASH.CID");
+                sb.append(" WHERE CERT.IID=? AND CERT.SN IN (");
+            }
+            for (int i = from; i < to; i++) {
+                sb.append((i == from) ? "?" : ",?");
+            }
+            sb.append(")");
+            final String sql = sb.toString();
 
-                    if (!ignore) {
-                        if (certHashAlgo != null) {
-                            b64CertHash = rs.getString(certHashAlgo.getShortName());
-                        }
+            PreparedStatement ps = borrowPreparedStatement(sql);
+            ResultSet rs = null;
+            try {
+                int idx = 1;
+                ps.setInt(idx++, issuerId);
+                for (int i = from; i < to; i++) {
+                    ps.setString(idx++, serialList.get(i).toString(16));
+                }
 
-                        revoked = rs.getBoolean("REV");
-                        if (revoked) {
-                            reason = rs.getInt("RR");
-                            revocationTime = rs.getLong("RT");
-                            invalidatityTime = rs.getLong("RIT");
-                        }
-                    }
-                } // end if (rs.next())
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+                    records.put(serialNumber, readRecord(rs, certHashAlgo));
+                }
             } catch (SQLException ex) {
                 throw datasource.translate(sql, ex);
             } finally {
                 releaseDbResources(ps, rs);
             }
+        }
 
-            if (unknown) {
-                if (unknownSerialAsGood) {
-                    certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
-                            thisUpdate, null, null);
-                } else {
-                    certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, null);
-                }
+        return records;
+    } // method readRecords
+
+    private CertStatusInfo buildCertStatusInfo(final Date time, final Date thisUpdate,
+            final IssuerEntry issuer, final CertStatusRecord record,
+            final HashAlgoType certHashAlgo, final CertprofileOption certprofileOption) {
+        CertStatusInfo certStatusInfo;
+        if (record == null) {
+            if (unknownSerialAsGood) {
+                certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
+                        thisUpdate, null, null);
             } else {
-                if (ignore) {
-                    certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, null);
-                } else {
-                    byte[] certHash = null;
-                    if (b64CertHash != null) {
-                        certHash = Base64.decode(b64CertHash);
-                    }
+                certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, null);
+            }
+        } else {
+            long timeInSec = time.getTime() / 1000;
+            boolean ignore = (ignoreExpiredCert && timeInSec > record.notAfterInSec)
+                    || (ignoreNotYetValidCert && timeInSec < record.notBeforeInSec);
+
+            String certprofile = record.certprofile;
+            if (!ignore) {
+                ignore = (certprofile != null) && (certprofileOption != null)
+                        && !certprofileOption.include(certprofile);
+            }
 
-                    if (revoked) {
-                        Date invTime = null;
-                        if (invalidatityTime != 0 && invalidatityTime != revocationTime) {
-                            invTime = new Date(invalidatityTime * 1000);
-                        }
-                        CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-                                new Date(revocationTime * 1000), invTime);
-                        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-                                certHashAlgo, certHash, thisUpdate, null, certprofile);
-                    } else {
-                        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-                                certHash, thisUpdate, null, certprofile);
-                    }
+            if (ignore) {
+                certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, null);
+            } else if (record.revocationInfo != null) {
+                certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(record.revocationInfo,
+                        certHashAlgo, record.certHash, thisUpdate, null, certprofile);
+            } else {
+                certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+                        record.certHash, thisUpdate, null, certprofile);
+            }
+        }
+
+        if (includeArchiveCutoff) {
+            if (retentionInterval != 0) {
+                Date date;
+                // expired certificate remains in status store for ever
+                if (retentionInterval < 0) {
+                    date = issuer.getNotBefore();
+                } else {
+                    long nowInMs = System.currentTimeMillis();
+                    long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+                            nowInMs - DAY * retentionInterval);
+                    date = new Date(dateInMs);
                 }
+
+                certStatusInfo.setArchiveCutOff(date);
             }
+        }
 
-            if (includeArchiveCutoff) {
-                if (retentionInterval != 0) {
-                    Date date;
-                    // expired certificate remains in status store for ever
-                    if (retentionInterval < 0) {
-                        date = issuer.getNotBefore();
-                    } else {
-                        long nowInMs = System.currentTimeMillis();
-                        long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                                nowInMs - DAY * retentionInterval);
-                        date = new Date(dateInMs);
-                    }
+        return certStatusInfo;
+    } // method buildCertStatusInfo
 
-                    certStatusInfo.setArchiveCutOff(date);
-                }
+    private void waitForInitialization() throws OcspStoreException {
+        // wait for max. 0.5 second
+        int num = 5;
+        while (!initialized && (num-- > 0)) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
             }
+        }
 
-            return certStatusInfo;
-        } catch (DataAccessException ex) {
-            throw new OcspStoreException(ex.getMessage(), ex);
+        if (!initialized) {
+            throw new OcspStoreException("initialization of CertStore is still in process");
         }
-    } // method getCertStatus
+
+        if (initializationFailed) {
+            throw new OcspStoreException("initialization of CertStore failed");
+        }
+    }
+
+    /**
+     * Whether the snapshot can answer the request. Issuers added after the snapshot has been
+     * loaded are answered from the database until the snapshot is reloaded.
+     */
+    private static boolean isSnapshotUsable(final CertStatusSnapshot snapshot,
+            final int issuerId, final HashAlgoType certHashAlgo) {
+        return snapshot != null && snapshot.containsIssuer(issuerId)
+                && (certHashAlgo == null || snapshot.containsCertHashAlgo(certHashAlgo));
+    }
+
+    private static CertStatusRecord getRecord(final CertStatusSnapshot snapshot,
+            final int issuerId, final BigInteger serialNumber, final HashAlgoType certHashAlgo) {
+        CertStatusSnapshot.Entry entry = snapshot.getEntry(issuerId, serialNumber,
+                certHashAlgo);
+        if (entry == null) {
+            return null;
+        }
+
+        return new CertStatusRecord(entry.getNotBeforeInSec(), entry.getNotAfterInSec(),
+                entry.getCertprofile(), entry.getRevocationInfo(), entry.getCertHash());
+    }
+
+    private static CertStatusRecord readRecord(final ResultSet rs,
+            final HashAlgoType certHashAlgo) throws SQLException {
+        byte[] certHash = null;
+        if (certHashAlgo != null) {
+            String b64CertHash = rs.getString(certHashAlgo.getShortName());
+            if (b64CertHash != null) {
+                certHash = Base64.decode(b64CertHash);
+            }
+        }
+
+        CertRevocationInfo revInfo = null;
+        if (rs.getBoolean("REV")) {
+            int reason = rs.getInt("RR");
+            long revocationTime = rs.getLong("RT");
+            long invalidatityTime = rs.getLong("RIT");
+
+            Date invTime = null;
+            if (invalidatityTime != 0 && invalidatityTime != revocationTime) {
+                invTime = new Date(invalidatityTime * 1000);
+            }
+            revInfo = new CertRevocationInfo(reason, new Date(revocationTime * 1000), invTime);
+        }
+
+        return new CertStatusRecord(rs.getLong("NBEFORE"), rs.getLong("NAFTER"),
+                rs.getString("PN"), revInfo, certHash);
+    }
 
     /**
      * Borrow Prepared Statement.
@@ -468,6 +987,7 @@ public class DbCertStatusStore extends OcspStore {
             final Set<HashAlgoType> certHashAlgos) throws OcspStoreException {
         ParamUtil.requireNonNull("conf", conf);
         this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+        this.certHashAlgos = ParamUtil.requireNonNull("certHashAlgos", certHashAlgos);
 
         sqlCs = datasource.buildSelectFirstSql(
                 "NBEFORE,NAFTER,REV,RR,RT,RIT,PN FROM CERT WHERE IID=? AND SN=?", 1);
@@ -500,15 +1020,36 @@ public class DbCertStatusStore extends OcspStore {
             throw new OcspStoreException(ex.getMessage(), ex);
         } // end try
 
+        this.snapshotEnabled = storeConf.isSnapshotEnabled();
+        if (snapshotEnabled) {
+            StringBuilder sb = new StringBuilder(200);
+            sb.append("SELECT IID,SN,NBEFORE,NAFTER,REV,RR,RT,RIT,PN,LUPDATE");
+            for (HashAlgoType hashAlgo : certHashAlgos) {
+                sb.append(",").append(hashAlgo.getShortName());
+            }
+            sb.append(" FROM CERT");
+            if (!certHashAlgos.isEmpty()) {
+                sb.append(" LEFT OUTER JOIN CHASH ON CERT.ID=CHASH.CID");
+            }
+            this.sqlSnapshot = sb.toString();
+        }
+
         initIssuerStore();
+        if (snapshotEnabled && !initializationFailed) {
+            loadSnapshot();
+        }
 
+        int updateInterval = snapshotEnabled ? storeConf.getSnapshotUpdateInterval() : 60;
+        this.updateIntervalMs = updateInterval * 1000L;
+        this.snapshotReloadIntervalMs = 1000L * Math.max(updateInterval,
+                storeConf.getSnapshotReloadInterval());
         if (this.scheduledThreadPoolExecutor != null) {
             this.scheduledThreadPoolExecutor.shutdownNow();
         }
         StoreUpdateService storeUpdateService = new StoreUpdateService();
         this.scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
-        this.scheduledThreadPoolExecutor.scheduleAtFixedRate(storeUpdateService, 60, 60,
-                TimeUnit.SECONDS);
+        this.scheduledThreadPoolExecutor.scheduleAtFixedRate(storeUpdateService, updateInterval,
+                updateInterval, TimeUnit.SECONDS);
     }
 
     @Override
@@ -527,7 +1068,9 @@ public class DbCertStatusStore extends OcspStore {
 
     @Override
     public Set<IssuerHashNameAndKey> getIssuerHashNameAndKeys() {
-        return issuerStore.getIssuerHashNameAndKeys();
+        IssuerStore tmpIssuerStore = issuerStore;
+        return (tmpIssuerStore == null) ? Collections.emptySet()
+                : tmpIssuerStore.getIssuerHashNameAndKeys();
     }
 
     @Override
@@ -36,12 +36,15 @@ package org.xipki.pki.ocsp.server.impl.store.db;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.xipki.commons.security.HashAlgoType;
 import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
+import org.xipki.pki.ocsp.server.impl.store.IssuerHashIndex;
 
 /**
  * @author Lijun Liao
@@ -54,22 +57,32 @@ public class IssuerStore {
 
     private final List<IssuerEntry> entries;
 
+    private final Map<Integer, IssuerEntry> idMap;
+
+    private final IssuerHashIndex<IssuerEntry> hashIndex;
+
     public IssuerStore(final List<IssuerEntry> entries) {
-        this.entries = new ArrayList<>(entries.size());
-        Set<Integer> idSet = new HashSet<>(entries.size());
+        this.idMap = new HashMap<>(entries.size() * 4 / 3 + 1);
+        IssuerHashIndex.Builder<IssuerEntry> indexBuilder = new IssuerHashIndex.Builder<>();
 
         for (IssuerEntry entry : entries) {
-            for (IssuerEntry existingEntry : this.entries) {
-                if (existingEntry.getId() == entry.getId()) {
-                    throw new IllegalArgumentException(
-                            "issuer with the same id " + entry.getId() + " already available");
+            if (idMap.containsKey(entry.getId())) {
+                throw new IllegalArgumentException(
+                        "issuer with the same id " + entry.getId() + " already available");
+            }
+            idMap.put(entry.getId(), entry);
+
+            for (IssuerHashNameAndKey issuerHash : entry.getIssuerHashNameAndKeys()) {
+                // the first issuer wins, as in a linear search
+                if (indexBuilder.get(issuerHash) == null) {
+                    indexBuilder.put(issuerHash, entry);
                 }
             }
-            this.entries.add(entry);
-            idSet.add(entry.getId());
         }
 
-        this.ids = Collections.unmodifiableSet(idSet);
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.ids = Collections.unmodifiableSet(new HashSet<>(idMap.keySet()));
+        this.hashIndex = indexBuilder.build();
     }
 
     public int getSize() {
@@ -87,24 +100,12 @@ public class IssuerStore {
     }
 
     public IssuerEntry getIssuerForId(final int id) {
-        for (IssuerEntry entry : entries) {
-            if (entry.getId() == id) {
-                return entry;
-            }
-        }
-
-        return null;
+        return idMap.get(id);
     }
 
     public IssuerEntry getIssuerForFp(final HashAlgoType hashAlgo, final byte[] issuerNameHash,
             final byte[] issuerKeyHash) {
-        for (IssuerEntry entry : entries) {
-            if (entry.matchHash(hashAlgo, issuerNameHash, issuerKeyHash)) {
-                return entry;
-            }
-        }
-
-        return null;
+        return hashIndex.get(hashAlgo, issuerNameHash, issuerKeyHash);
     }
 
     public Set<IssuerHashNameAndKey> getIssuerHashNameAndKeys() {
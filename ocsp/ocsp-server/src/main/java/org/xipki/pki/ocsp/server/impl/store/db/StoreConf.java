@@ -54,10 +54,39 @@ class StoreConf {
 
     private static final String KEY_cacerts_excludes = "cacerts.excludes";
 
+    /*
+     * Whether the status of all certificates is kept in memory. The default value is false.
+     *
+     * optional
+     */
+    private static final String KEY_snapshot_enabled = "snapshot.enabled";
+
+    /*
+     * Interval in seconds to synchronize the in-memory status with the database.
+     * The default value is 60.
+     *
+     * optional
+     */
+    private static final String KEY_snapshot_updateInterval = "snapshot.updateInterval";
+
+    /*
+     * Interval in seconds to reload the in-memory status completely. Deleted certificates are
+     * only detected by the reload. The default value is 3600.
+     *
+     * optional
+     */
+    private static final String KEY_snapshot_reloadInterval = "snapshot.reloadInterval";
+
     private final Set<String> caCertsIncludes = new HashSet<>();
 
     private final Set<String> caCertsExcludes = new HashSet<>();
 
+    private boolean snapshotEnabled;
+
+    private int snapshotUpdateInterval = 60;
+
+    private int snapshotReloadInterval = 3600;
+
     StoreConf(final String propsConf) throws OcspStoreException {
         Properties props = new Properties();
         try {
@@ -81,6 +110,50 @@ class StoreConf {
                 caCertsExcludes.add(st.nextToken());
             }
         }
+
+        String propKey = KEY_snapshot_enabled;
+        str = props.getProperty(propKey);
+        if (str != null) {
+            str = str.trim();
+            if ("true".equalsIgnoreCase(str)) {
+                this.snapshotEnabled = true;
+            } else if ("false".equalsIgnoreCase(str)) {
+                this.snapshotEnabled = false;
+            } else {
+                throw new OcspStoreException("invalid property " + propKey + ": '" + str + "'");
+            }
+        }
+
+        propKey = KEY_snapshot_updateInterval;
+        str = props.getProperty(propKey);
+        if (str != null) {
+            str = str.trim();
+            try {
+                this.snapshotUpdateInterval = Integer.parseInt(str);
+            } catch (NumberFormatException ex) {
+                throw new OcspStoreException("invalid property " + propKey + ": '" + str + "'");
+            }
+
+            if (snapshotUpdateInterval < 1) {
+                throw new OcspStoreException("invalid property " + propKey + ": '" + str + "'");
+            }
+        }
+
+        propKey = KEY_snapshot_reloadInterval;
+        str = props.getProperty(propKey);
+        if (str != null) {
+            str = str.trim();
+            try {
+                this.snapshotReloadInterval = Integer.parseInt(str);
+            } catch (NumberFormatException ex) {
+                throw new OcspStoreException("invalid property " + propKey + ": '" + str + "'");
+            }
+
+            if (snapshotReloadInterval < snapshotUpdateInterval) {
+                throw new OcspStoreException("invalid property " + propKey + ": '" + str
+                        + "', must not be less than " + KEY_snapshot_updateInterval);
+            }
+        }
     }
 
     Set<String> getCaCertsIncludes() {
@@ -91,4 +164,16 @@ class StoreConf {
         return caCertsExcludes;
     }
 
+    boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    int getSnapshotUpdateInterval() {
+        return snapshotUpdateInterval;
+    }
+
+    int getSnapshotReloadInterval() {
+        return snapshotReloadInterval;
+    }
+
 }
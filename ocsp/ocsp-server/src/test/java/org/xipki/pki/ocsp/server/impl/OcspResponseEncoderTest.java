@@ -0,0 +1,243 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class OcspResponseEncoderTest {
+
+    /**
+     * {@link ContentSigner} returning a constant signature, so that the encodings can be
+     * compared byte for byte.
+     */
+    private static class ConstantContentSigner implements ContentSigner {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        private byte[] signedData;
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return SIG_ALGID;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            outputStream.reset();
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            signedData = outputStream.toByteArray();
+            return SIGNATURE;
+        }
+
+    } // class ConstantContentSigner
+
+    private static final AlgorithmIdentifier SIG_ALGID = new AlgorithmIdentifier(
+            PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+
+    private static final byte[] SIGNATURE = new byte[256];
+
+    private static final Date PRODUCED_AT = new Date(1475000000000L);
+
+    private static final Date THIS_UPDATE = new Date(1474990000000L);
+
+    private static final Date NEXT_UPDATE = new Date(1475090000000L);
+
+    private static final Date REVOCATION_TIME = new Date(1470000000000L);
+
+    static {
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            SIGNATURE[i] = (byte) (i * 7 + 1);
+        }
+    }
+
+    @Test
+    public void testGood() throws Exception {
+        check(SingleResponseInfo.STATUS_GOOD, -1, NEXT_UPDATE, 0);
+    }
+
+    @Test
+    public void testGoodWithoutNextUpdate() throws Exception {
+        check(SingleResponseInfo.STATUS_GOOD, -1, null, 0);
+    }
+
+    @Test
+    public void testRevokedWithReason() throws Exception {
+        check(SingleResponseInfo.STATUS_REVOKED, CRLReason.keyCompromise, NEXT_UPDATE, 0);
+    }
+
+    @Test
+    public void testRevokedWithoutReason() throws Exception {
+        check(SingleResponseInfo.STATUS_REVOKED, -1, NEXT_UPDATE, 0);
+    }
+
+    @Test
+    public void testRevokedWithoutNextUpdate() throws Exception {
+        check(SingleResponseInfo.STATUS_REVOKED, CRLReason.superseded, null, 0);
+    }
+
+    @Test
+    public void testUnknown() throws Exception {
+        check(SingleResponseInfo.STATUS_UNKNOWN, -1, NEXT_UPDATE, 0);
+    }
+
+    @Test
+    public void testUnknownWithoutNextUpdate() throws Exception {
+        check(SingleResponseInfo.STATUS_UNKNOWN, -1, null, 0);
+    }
+
+    @Test
+    public void testNonceLengths() throws Exception {
+        // the lengths of the nonce, the extension and the ResponseData cross the
+        // boundaries of the short and long form of the DER length
+        int[] nonceLens = {1, 16, 100, 119, 120, 121, 122, 123, 124, 125, 126, 127, 128, 129,
+            200, 255, 256, 300};
+        for (int nonceLen : nonceLens) {
+            check(SingleResponseInfo.STATUS_GOOD, -1, NEXT_UPDATE, nonceLen);
+            check(SingleResponseInfo.STATUS_REVOKED, CRLReason.cACompromise, null, nonceLen);
+            check(SingleResponseInfo.STATUS_UNKNOWN, -1, NEXT_UPDATE, nonceLen);
+        }
+    }
+
+    @Test
+    public void testReuseBuffer() throws Exception {
+        // a long ResponseData followed by a shorter one in the same thread
+        check(SingleResponseInfo.STATUS_GOOD, -1, NEXT_UPDATE, 3000);
+        check(SingleResponseInfo.STATUS_GOOD, -1, null, 0);
+        check(SingleResponseInfo.STATUS_REVOKED, CRLReason.keyCompromise, NEXT_UPDATE, 20);
+    }
+
+    private static void check(final int status, final int reason, final Date nextUpdate,
+            final int nonceLen) throws Exception {
+        CertificateID certId = new CertificateID(new CertID(
+                new AlgorithmIdentifier(HashAlgoType.SHA1.getOid(), DERNull.INSTANCE),
+                new DEROctetString(new byte[20]), new DEROctetString(new byte[] {1, 2, 3}),
+                new ASN1Integer(BigInteger.valueOf(0x123456789L))));
+        RespID respId = new RespID(new X500Name("CN=OCSP Responder,O=example"));
+
+        Extension nonceExtn = null;
+        if (nonceLen > 0) {
+            byte[] nonce = new byte[nonceLen];
+            Arrays.fill(nonce, (byte) 0x5A);
+            nonceExtn = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+                    new DEROctetString(nonce));
+        }
+
+        // expected: built by BouncyCastle
+        CertificateStatus bcStatus;
+        if (status == SingleResponseInfo.STATUS_GOOD) {
+            bcStatus = CertificateStatus.GOOD;
+        } else if (status == SingleResponseInfo.STATUS_UNKNOWN) {
+            bcStatus = new UnknownStatus();
+        } else {
+            bcStatus = new RevokedStatus(new RevokedInfo(new ASN1GeneralizedTime(REVOCATION_TIME),
+                    (reason < 0) ? null : CRLReason.lookup(reason)));
+        }
+
+        BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(respId);
+        builder.addResponse(certId, bcStatus, THIS_UPDATE, nextUpdate, null);
+        if (nonceExtn != null) {
+            builder.setResponseExtensions(new Extensions(nonceExtn));
+        }
+
+        ConstantContentSigner signer = new ConstantContentSigner();
+        BasicOCSPResp basicResp = builder.build(signer, null, PRODUCED_AT);
+        OCSPResp ocspResp = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResp);
+
+        // actual: written by the OcspResponseEncoder
+        SingleResponseInfo singleResponse = new SingleResponseInfo(certId, status,
+                (status == SingleResponseInfo.STATUS_REVOKED) ? REVOCATION_TIME : null, reason,
+                null, null, null, null, THIS_UPDATE, nextUpdate);
+        List<byte[]> responseExtensions = (nonceExtn == null) ? null
+                : Collections.singletonList(nonceExtn.getEncoded(ASN1Encoding.DER));
+
+        OcspResponseEncoder.ResponseDataBuffer responseData =
+                OcspResponseEncoder.encodeResponseData(
+                        respId.toASN1Primitive().getEncoded(ASN1Encoding.DER),
+                        PRODUCED_AT.getTime(), singleResponse, responseExtensions);
+
+        String desc = "status " + status + ", reason " + reason + ", nextUpdate "
+                + (nextUpdate != null) + ", nonce length " + nonceLen;
+        Assert.assertArrayEquals("ResponseData (" + desc + ")", signer.signedData,
+                responseData.toByteArray());
+
+        byte[] encoded = OcspResponseEncoder.encodeOcspResponse(responseData,
+                SIG_ALGID.getEncoded(ASN1Encoding.DER), SIGNATURE, null);
+        Assert.assertArrayEquals("OCSPResponse (" + desc + ")", ocspResp.getEncoded(), encoded);
+    }
+
+}
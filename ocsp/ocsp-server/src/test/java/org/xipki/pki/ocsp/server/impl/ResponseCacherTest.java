@@ -0,0 +1,258 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.commons.datasource.DataSourceWrapper;
+import org.xipki.commons.security.CertRevocationInfo;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.CertStatusInfo;
+import org.xipki.pki.ocsp.api.CertprofileOption;
+import org.xipki.pki.ocsp.api.IssuerHashNameAndKey;
+import org.xipki.pki.ocsp.api.OcspStore;
+import org.xipki.pki.ocsp.server.impl.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.pki.ocsp.server.impl.jaxb.ResponseCacheType;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class ResponseCacherTest {
+
+    private static class DummyStore extends OcspStore {
+
+        private final long changeNotificationDelay;
+
+        DummyStore(final String name, final long changeNotificationDelay) {
+            setName(name);
+            this.changeNotificationDelay = changeNotificationDelay;
+        }
+
+        @Override
+        public long getChangeNotificationDelay() {
+            return changeNotificationDelay;
+        }
+
+        @Override
+        public Set<IssuerHashNameAndKey> getIssuerHashNameAndKeys() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean canResolveIssuer(final HashAlgoType hashAlgo,
+                final byte[] issuerNameHash, final byte[] issuerKeyHash) {
+            return false;
+        }
+
+        @Override
+        public CertStatusInfo getCertStatus(final Date time, final HashAlgoType hashAlgo,
+                final byte[] issuerNameHash, final byte[] issuerKeyHash,
+                final BigInteger serialNumber, final boolean includeCertHash,
+                final HashAlgoType certHashAlg, final CertprofileOption certprofileOption) {
+            return null;
+        }
+
+        @Override
+        public void init(final String conf, final DataSourceWrapper datasource,
+                final Set<HashAlgoType> certHashAlgos) {
+        }
+
+        @Override
+        public CertRevocationInfo getCaRevocationInfo(final HashAlgoType hashAlgo,
+                final byte[] issuerNameHash, final byte[] issuerKeyHash) {
+            return null;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public boolean isHealthy() {
+            return true;
+        }
+
+    } // class DummyStore
+
+    private static final long MAX_AGE_MS = 300 * 1000L;
+
+    private static final long NOW = 1000000000L;
+
+    private final byte[] issuerNameHash = new byte[20];
+
+    private final byte[] issuerKeyHash = new byte[20];
+
+    private DummyStore store;
+
+    private ResponseCacher cacher;
+
+    @Before
+    public void init() throws Exception {
+        Arrays.fill(issuerKeyHash, (byte) 1);
+        store = new DummyStore("store1", 0);
+        cacher = newCacher(1000);
+    }
+
+    @Test
+    public void testMiss() {
+        Assert.assertNull("empty cache", cacher.get(key(1), NOW));
+
+        put(cacher, store, 1, cacher.getVersion(), NOW);
+        Assert.assertNull("other serial number", cacher.get(key(2), NOW));
+        Assert.assertNull("other issuer", cacher.get(new ResponseCacher.CacheKey(null,
+                HashAlgoType.SHA1, issuerKeyHash, issuerNameHash, BigInteger.ONE), NOW));
+        Assert.assertNull("other hash algorithm", cacher.get(new ResponseCacher.CacheKey(null,
+                HashAlgoType.SHA256, issuerNameHash, issuerKeyHash, BigInteger.ONE), NOW));
+    }
+
+    @Test
+    public void testHit() {
+        put(cacher, store, 1, cacher.getVersion(), NOW);
+        ResponseCacher.CacheEntry entry = cacher.get(key(1), NOW + 1000);
+        Assert.assertNotNull("cached response", entry);
+        Assert.assertArrayEquals("cached response", response(1), entry.getEncodedResponse());
+        Assert.assertEquals("certificate status", "good", entry.getCertStatusText());
+    }
+
+    @Test
+    public void testExpiryByMaxAge() {
+        put(cacher, store, 1, cacher.getVersion(), NOW);
+        Assert.assertNotNull("before maxAge", cacher.get(key(1), NOW + MAX_AGE_MS - 1));
+        Assert.assertNull("after maxAge", cacher.get(key(1), NOW + MAX_AGE_MS));
+        Assert.assertEquals("size after expiry", 0, cacher.size());
+    }
+
+    @Test
+    public void testExpiryByNextUpdate() {
+        ResponseCacheInfo cacheInfo = new ResponseCacheInfo(NOW);
+        cacheInfo.setNextUpdate(NOW + 60 * 1000L);
+        cacher.put(key(1), null, store, response(1), cacheInfo, "good", null,
+                cacher.getVersion(), NOW);
+        Assert.assertNotNull("before nextUpdate", cacher.get(key(1), NOW + 60 * 1000L - 1));
+        Assert.assertNull("after nextUpdate", cacher.get(key(1), NOW + 60 * 1000L));
+    }
+
+    @Test
+    public void testExpiryByChangeNotificationDelay() {
+        DummyStore pollingStore = new DummyStore("store2", 55 * 1000L);
+        put(cacher, pollingStore, 1, cacher.getVersion(), NOW);
+        Assert.assertNotNull("before the next poll", cacher.get(key(1), NOW + 55 * 1000L - 1));
+        Assert.assertNull("after the next poll", cacher.get(key(1), NOW + 55 * 1000L));
+
+        DummyStore fastPollingStore = new DummyStore("store3", 1000L);
+        put(cacher, fastPollingStore, 2, cacher.getVersion(), NOW);
+        Assert.assertNull("too short lifetime", cacher.get(key(2), NOW));
+    }
+
+    @Test
+    public void testCertStatusChanged() {
+        DummyStore store2 = new DummyStore("store2", 0);
+        put(cacher, store, 1, cacher.getVersion(), NOW);
+        put(cacher, store, 2, cacher.getVersion(), NOW);
+        put(cacher, store2, 3, cacher.getVersion(), NOW);
+
+        cacher.certStatusChanged(store, Arrays.asList(BigInteger.ONE, BigInteger.valueOf(3)));
+        Assert.assertNull("changed serial", cacher.get(key(1), NOW));
+        Assert.assertNotNull("unchanged serial", cacher.get(key(2), NOW));
+        Assert.assertNotNull("serial of other store", cacher.get(key(3), NOW));
+    }
+
+    @Test
+    public void testStoreChanged() {
+        DummyStore store2 = new DummyStore("store2", 0);
+        put(cacher, store, 1, cacher.getVersion(), NOW);
+        put(cacher, store2, 2, cacher.getVersion(), NOW);
+
+        cacher.storeChanged(store);
+        Assert.assertNull("entry of changed store", cacher.get(key(1), NOW));
+        Assert.assertNotNull("entry of other store", cacher.get(key(2), NOW));
+    }
+
+    @Test
+    public void testResponseReadBeforeInvalidation() {
+        long version = cacher.getVersion();
+        cacher.certStatusChanged(store, Arrays.asList(BigInteger.ONE));
+        put(cacher, store, 1, version, NOW);
+        Assert.assertNull("response read before invalidation", cacher.get(key(1), NOW));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ResponseCacher smallCacher = newCacher(10);
+        for (int i = 1; i <= 10; i++) {
+            put(smallCacher, store, i, smallCacher.getVersion(), NOW + i);
+        }
+        // serial number 1 is now the most recently used one
+        Assert.assertNotNull(smallCacher.get(key(1), NOW + 100));
+
+        put(smallCacher, store, 11, smallCacher.getVersion(), NOW + 200);
+        Assert.assertEquals("size after eviction", 9, smallCacher.size());
+        Assert.assertNotNull("recently used entry", smallCacher.get(key(1), NOW + 300));
+        Assert.assertNotNull("new entry", smallCacher.get(key(11), NOW + 300));
+        Assert.assertNull("least recently used entry", smallCacher.get(key(2), NOW + 300));
+    }
+
+    private ResponseCacher newCacher(final int maxEntries) throws Exception {
+        ResponseCacheType conf = new ResponseCacheType();
+        conf.setMaxEntries(maxEntries);
+        conf.setMaxAge((int) (MAX_AGE_MS / 1000));
+        return new ResponseCacher(new OcspServer(), conf);
+    }
+
+    private ResponseCacher.CacheKey key(final long serialNumber) {
+        return new ResponseCacher.CacheKey(null, HashAlgoType.SHA1, issuerNameHash,
+                issuerKeyHash, BigInteger.valueOf(serialNumber));
+    }
+
+    private void put(final ResponseCacher cacher, final OcspStore store,
+            final long serialNumber, final long version, final long now) {
+        cacher.put(key(serialNumber), null, store, response(serialNumber),
+                new ResponseCacheInfo(now), "good", null, version, now);
+    }
+
+    private static byte[] response(final long serialNumber) {
+        return BigInteger.valueOf(serialNumber).toByteArray();
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.commons.security.BatchContentSigner;
+import org.xipki.commons.security.DefaultConcurrentContentSigner;
+import org.xipki.commons.security.exception.NoIdleSignerException;
+import org.xipki.pki.ocsp.server.impl.jaxb.BatchSigningType;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class SigningCoalescerTest {
+
+    /**
+     * Signs with SHA256withECDSA and records the signed batches. The first batch is blocked
+     * until {@link #release} is counted down, if {@link #blockFirstBatch} is set.
+     */
+    private static class RecordingBatchSigner implements BatchContentSigner {
+
+        private final List<List<String>> batches = new ArrayList<>();
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final boolean blockFirstBatch;
+
+        RecordingBatchSigner(final boolean blockFirstBatch) {
+            this.blockFirstBatch = blockFirstBatch;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA256);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            outputStream.reset();
+            return outputStream;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return getSignatures(new byte[][]{outputStream.toByteArray()})[0];
+        }
+
+        @Override
+        public byte[][] getSignatures(final byte[][] data) {
+            if (blockFirstBatch && entered.getCount() > 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeCryptoException("interrupted");
+                }
+            }
+
+            List<String> batch = new ArrayList<>(data.length);
+            byte[][] signatures = new byte[data.length][];
+            try {
+                Signature sig = Signature.getInstance("SHA256withECDSA");
+                for (int i = 0; i < data.length; i++) {
+                    batch.add(new String(data[i], StandardCharsets.UTF_8));
+                    sig.initSign(keyPair.getPrivate());
+                    sig.update(data[i]);
+                    signatures[i] = sig.sign();
+                }
+            } catch (Exception ex) {
+                throw new RuntimeCryptoException(ex.getMessage());
+            }
+
+            synchronized (this) {
+                batches.add(batch);
+            }
+            return signatures;
+        }
+
+        @Override
+        public boolean supportsBatchSigning() {
+            return true;
+        }
+
+        synchronized List<List<String>> getBatches() {
+            return new ArrayList<>(batches);
+        }
+
+    } // class RecordingBatchSigner
+
+    private static final long TIMEOUT = 10000; // 10 seconds
+
+    private static KeyPair keyPair;
+
+    private final List<SigningCoalescer> coalescers = new ArrayList<>();
+
+    private final List<RecordingBatchSigner> signers = new ArrayList<>();
+
+    @BeforeClass
+    public static void generateKeyPair() throws Exception {
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+        kpGen.initialize(256);
+        keyPair = kpGen.generateKeyPair();
+    }
+
+    @After
+    public void shutdown() {
+        for (RecordingBatchSigner signer : signers) {
+            signer.release.countDown();
+        }
+        for (SigningCoalescer coalescer : coalescers) {
+            coalescer.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneBatch() throws Exception {
+        final int num = 8;
+        RecordingBatchSigner signer = new RecordingBatchSigner(false);
+        // the batch is closed as soon as it is full
+        SigningCoalescer coalescer = newCoalescer(signer, num, 10000000, 100);
+
+        Map<String, Object> results = new ConcurrentHashMap<>();
+        List<Thread> callers = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            callers.add(sign(coalescer, "data-" + i, (int) TIMEOUT, results));
+        }
+        joinAll(callers);
+
+        List<String> batch = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            String data = "data-" + i;
+            assertValidSignature(data, results.get(data));
+            batch.add(data);
+        }
+
+        List<List<String>> batches = signer.getBatches();
+        Assert.assertEquals("number of batches", 1, batches.size());
+        List<String> signed = new ArrayList<>(batches.get(0));
+        Collections.sort(signed);
+        Assert.assertEquals("batch", batch, signed);
+    }
+
+    @Test
+    public void testTimedOutEntrySkipped() throws Exception {
+        RecordingBatchSigner signer = new RecordingBatchSigner(true);
+        SigningCoalescer coalescer = newCoalescer(signer, 1, 1, 100);
+
+        Map<String, Object> results = new ConcurrentHashMap<>();
+        Thread first = sign(coalescer, "first", (int) TIMEOUT, results);
+        Assert.assertTrue("first batch not signed",
+                signer.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // the only dispatcher is blocked in the first batch
+        long start = System.currentTimeMillis();
+        try {
+            coalescer.sign(getBytes("timedout"), 50);
+            Assert.fail("NoIdleSignerException expected");
+        } catch (NoIdleSignerException ex) {
+            // expected
+        }
+        Assert.assertTrue("waited too long", System.currentTimeMillis() - start < TIMEOUT / 2);
+
+        signer.release.countDown();
+        joinAll(Arrays.asList(first));
+        assertValidSignature("first", results.get("first"));
+
+        assertValidSignature("next", coalescer.sign(getBytes("next"), (int) TIMEOUT));
+
+        List<List<String>> expectedBatches = new ArrayList<>();
+        expectedBatches.add(Arrays.asList("first"));
+        expectedBatches.add(Arrays.asList("next"));
+        Assert.assertEquals("batches", expectedBatches, signer.getBatches());
+    }
+
+    @Test
+    public void testFullQueueRejected() throws Exception {
+        RecordingBatchSigner signer = new RecordingBatchSigner(true);
+        SigningCoalescer coalescer = newCoalescer(signer, 1, 1, 1);
+
+        Map<String, Object> results = new ConcurrentHashMap<>();
+        Thread first = sign(coalescer, "first", (int) TIMEOUT, results);
+        Assert.assertTrue("first batch not signed",
+                signer.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // fills the queue while the only dispatcher is blocked in the first batch
+        Thread second = sign(coalescer, "second", (int) TIMEOUT, results);
+        awaitTimedWaiting(second);
+
+        try {
+            coalescer.sign(getBytes("rejected"), (int) TIMEOUT);
+            Assert.fail("NoIdleSignerException expected");
+        } catch (NoIdleSignerException ex) {
+            Assert.assertEquals("message", "signing queue is full", ex.getMessage());
+        }
+
+        signer.release.countDown();
+        joinAll(Arrays.asList(first, second));
+        assertValidSignature("first", results.get("first"));
+        assertValidSignature("second", results.get("second"));
+
+        List<List<String>> expectedBatches = new ArrayList<>();
+        expectedBatches.add(Arrays.asList("first"));
+        expectedBatches.add(Arrays.asList("second"));
+        Assert.assertEquals("batches", expectedBatches, signer.getBatches());
+    }
+
+    private SigningCoalescer newCoalescer(final RecordingBatchSigner signer,
+            final int maxBatchSize, final int maxDelay, final int queueSize) throws Exception {
+        BatchSigningType conf = new BatchSigningType();
+        conf.setMaxBatchSize(maxBatchSize);
+        conf.setMaxDelay(maxDelay);
+        conf.setQueueSize(queueSize);
+
+        List<ContentSigner> contentSigners = new ArrayList<>(1);
+        contentSigners.add(signer);
+        SigningCoalescer coalescer = new SigningCoalescer(
+                new DefaultConcurrentContentSigner(contentSigners), conf);
+        signers.add(signer);
+        coalescers.add(coalescer);
+        coalescer.start();
+        return coalescer;
+    }
+
+    /**
+     * Signs the data in a new thread, the result is either the signature or the exception.
+     */
+    private static Thread sign(final SigningCoalescer coalescer, final String data,
+            final int timeout, final Map<String, Object> results) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.put(data, coalescer.sign(getBytes(data), timeout));
+                } catch (Exception ex) {
+                    results.put(data, ex);
+                }
+            }
+        }, "caller-" + data);
+        thread.start();
+        return thread;
+    }
+
+    private static void assertValidSignature(final String data, final Object signature)
+    throws GeneralSecurityException {
+        if (!(signature instanceof byte[])) {
+            Assert.fail("no signature for " + data + ": " + signature);
+        }
+
+        Signature sig = Signature.getInstance("SHA256withECDSA");
+        sig.initVerify(keyPair.getPublic());
+        sig.update(getBytes(data));
+        Assert.assertTrue("invalid signature for " + data, sig.verify((byte[]) signature));
+    }
+
+    private static void awaitTimedWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("thread " + thread.getName() + " is not waiting");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void joinAll(final List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+            Assert.assertFalse("thread " + thread.getName() + " not completed",
+                    thread.isAlive());
+        }
+    }
+
+    private static byte[] getBytes(final String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.commons.audit.internal.AuditServiceRegisterImpl;
+import org.xipki.commons.security.HashAlgoType;
+import org.xipki.pki.ocsp.api.CertStatus;
+import org.xipki.pki.ocsp.api.CertStatusInfo;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CrlCertStatusStoreTest {
+
+    private static final X500Name CA_NAME = new X500Name("CN=CRL Test CA,O=xipki");
+
+    private final long now = System.currentTimeMillis() / 1000 * 1000;
+
+    private File dir;
+
+    private KeyPair caKeyPair;
+
+    private ContentSigner caSigner;
+
+    private byte[] encodedCaCert;
+
+    private CrlCertStatusStore store;
+
+    @Before
+    public void init() throws Exception {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        dir = File.createTempFile("crlstore-test-", "");
+        dir.delete();
+        dir.mkdirs();
+
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+        kpGen.initialize(1024);
+        caKeyPair = kpGen.generateKeyPair();
+        caSigner = new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate());
+        encodedCaCert = issueCert(BigInteger.ONE, CA_NAME);
+        write("ca.der", encodedCaCert);
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        if (store != null) {
+            store.shutdown();
+        }
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    for (File child : file.listFiles()) {
+                        child.delete();
+                    }
+                }
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFullCrl() throws Exception {
+        write("ca.crl", buildFullCrl());
+        initStore(false, false);
+
+        assertStatus(CertStatus.REVOKED, 11);
+        assertStatus(CertStatus.REVOKED, 12);
+        assertStatus(CertStatus.UNKNOWN, 13);
+    }
+
+    @Test
+    public void testRemoveFromCrlOverIndexOnlyBase() throws Exception {
+        write("ca.crl", buildFullCrl());
+        write("ca-delta.crl", buildDeltaCrl());
+        initStore(true, false);
+
+        assertStatus(CertStatus.REVOKED, 11);
+        // contained only in the index of the full CRL, removed by the delta CRL
+        assertStatus(CertStatus.UNKNOWN, 12);
+        assertStatus(CertStatus.UNKNOWN, 13);
+        // revoked by the delta CRL
+        assertStatus(CertStatus.REVOKED, 14);
+    }
+
+    @Test
+    public void testRemoveFromCrlOverKnownCert() throws Exception {
+        write("ca.crl", buildFullCrl());
+        write("ca-delta.crl", buildDeltaCrl());
+        new File(dir, "certs").mkdirs();
+        write("certs/12.der", issueCert(BigInteger.valueOf(12), new X500Name("CN=12")));
+        initStore(true, true);
+
+        assertStatus(CertStatus.REVOKED, 11);
+        // known certificate removed by the delta CRL
+        assertStatus(CertStatus.GOOD, 12);
+        assertStatus(CertStatus.REVOKED, 14);
+    }
+
+    private void initStore(final boolean withDeltaCrl, final boolean withCertsDir)
+    throws Exception {
+        StringBuilder conf = new StringBuilder();
+        conf.append("crl.file=").append(path("ca.crl")).append("\n");
+        conf.append("caCert.file=").append(path("ca.der")).append("\n");
+        conf.append("crlIndex.dir=").append(path("index")).append("\n");
+        if (withDeltaCrl) {
+            conf.append("deltaCrl.file=").append(path("ca-delta.crl")).append("\n");
+        }
+        if (withCertsDir) {
+            conf.append("certs.dir=").append(path("certs")).append("\n");
+        }
+
+        store = new CrlCertStatusStore();
+        store.setName("test");
+        store.setAuditServiceRegister(new AuditServiceRegisterImpl());
+        store.init(conf.toString(), null, Collections.<HashAlgoType>emptySet());
+    }
+
+    private void assertStatus(final CertStatus expected, final long serial) throws Exception {
+        org.bouncycastle.asn1.x509.Certificate caCert =
+                org.bouncycastle.asn1.x509.Certificate.getInstance(encodedCaCert);
+        byte[] nameHash = HashAlgoType.SHA1.hash(caCert.getSubject().getEncoded());
+        byte[] keyHash = HashAlgoType.SHA1.hash(
+                caCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes());
+
+        CertStatusInfo info = store.getCertStatus(new Date(), HashAlgoType.SHA1, nameHash,
+                keyHash, BigInteger.valueOf(serial), false, null, null);
+        Assert.assertEquals("status of " + serial, expected, info.getCertStatus());
+    }
+
+    private byte[] buildFullCrl() throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(CA_NAME, new Date(now - 2000));
+        builder.addCRLEntry(BigInteger.valueOf(11), new Date(now - 5000),
+                CRLReason.keyCompromise);
+        builder.addCRLEntry(BigInteger.valueOf(12), new Date(now - 5000),
+                CRLReason.certificateHold);
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+        return builder.build(caSigner).getEncoded();
+    }
+
+    private byte[] buildDeltaCrl() throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(CA_NAME, new Date(now - 1000));
+        builder.addCRLEntry(BigInteger.valueOf(12), new Date(now - 1000),
+                CRLReason.removeFromCRL);
+        builder.addCRLEntry(BigInteger.valueOf(14), new Date(now - 1000),
+                CRLReason.superseded);
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(2));
+        builder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(1));
+        return builder.build(caSigner).getEncoded();
+    }
+
+    private byte[] issueCert(final BigInteger serial, final X500Name subject)
+    throws Exception {
+        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(CA_NAME, serial,
+                new Date(now - 3600 * 1000L), new Date(now + 3600 * 1000L), subject,
+                SubjectPublicKeyInfo.getInstance(caKeyPair.getPublic().getEncoded()));
+        return builder.build(caSigner).getEncoded();
+    }
+
+    private String path(final String name) {
+        return new File(dir, name).getPath();
+    }
+
+    private void write(final String name, final byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.security.CertRevocationInfo;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CrlSerialIndexTest {
+
+    private static final int[] REASONS = {0, 1, 2, 3, 4, 5, 6, 9, 10};
+
+    @Test
+    public void testLookup() throws Exception {
+        Random random = new Random(1);
+        List<BigInteger> serials = new ArrayList<>();
+        serials.add(BigInteger.ONE);
+        serials.add(BigInteger.valueOf(255));
+        serials.add(BigInteger.valueOf(256));
+        serials.add(BigInteger.ONE.shiftLeft(64).add(BigInteger.valueOf(3)));
+        serials.add(BigInteger.ONE.shiftLeft(159).subtract(BigInteger.ONE));
+        while (serials.size() < 500) {
+            BigInteger serial = new BigInteger(1 + random.nextInt(159), random)
+                    .add(BigInteger.TEN);
+            if (!serials.contains(serial)) {
+                serials.add(serial);
+            }
+        }
+
+        File file = File.createTempFile("crl-index-test-", CrlSerialIndex.FILE_SUFFIX);
+        try {
+            CrlSerialIndex.Builder builder = new CrlSerialIndex.Builder(file, new byte[20], 20,
+                    serials.size());
+            for (int i = 0; i < serials.size(); i++) {
+                long invTime = (i % 2 == 0) ? CrlSerialIndex.NO_TIME : 2000L * i;
+                builder.add(serials.get(i), 1000L * i, invTime, REASONS[i % REASONS.length]);
+            }
+            CrlSerialIndex index = builder.build();
+            Assert.assertEquals("size", serials.size(), index.size());
+
+            for (int i = 0; i < serials.size(); i++) {
+                BigInteger serial = serials.get(i);
+                long pos = index.indexOf(serial);
+                Assert.assertTrue("found " + serial, pos >= 0);
+                Assert.assertEquals("revocationTime", 1000L * i, index.getRevocationTime(pos));
+                Assert.assertEquals("invalidityTime",
+                        (i % 2 == 0) ? CrlSerialIndex.NO_TIME : 2000L * i,
+                        index.getInvalidityTime(pos));
+                Assert.assertEquals("reason", REASONS[i % REASONS.length], index.getReason(pos));
+
+                CertRevocationInfo revInfo = index.getRevocationInfo(serial);
+                Assert.assertEquals("reason", REASONS[i % REASONS.length],
+                        revInfo.getReason().getCode());
+                Assert.assertEquals("invalidityTime", i % 2 == 0,
+                        revInfo.getInvalidityTime() == null);
+            }
+
+            Assert.assertEquals("zero", -1, index.indexOf(BigInteger.ZERO));
+            Assert.assertEquals("negative", -1, index.indexOf(BigInteger.ONE.negate()));
+            Assert.assertEquals("not contained", -1, index.indexOf(BigInteger.valueOf(2)));
+            Assert.assertEquals("too long", -1, index.indexOf(BigInteger.ONE.shiftLeft(160)));
+            Assert.assertNull("not contained", index.getRevocationInfo(BigInteger.valueOf(2)));
+        } finally {
+            file.delete();
+        }
+    }
+
+}
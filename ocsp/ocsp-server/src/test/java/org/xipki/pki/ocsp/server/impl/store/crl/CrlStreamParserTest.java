@@ -0,0 +1,219 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.crl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CrlStreamParserTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=CRL Test CA,O=xipki");
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void initKeyPair() throws Exception {
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+        kpGen.initialize(1024);
+        keyPair = kpGen.generateKeyPair();
+    }
+
+    @Test
+    public void testEmptyCrl() throws Exception {
+        assertParsedCrl(buildCrl(0, false), false);
+    }
+
+    @Test
+    public void testOneEntry() throws Exception {
+        assertParsedCrl(buildCrl(1, true), false);
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        assertParsedCrl(buildCrl(1000, true), false);
+    }
+
+    @Test
+    public void testPemEncodedCrl() throws Exception {
+        assertParsedCrl(buildCrl(10, true), true);
+    }
+
+    @Test
+    public void testInvalidSignature() throws Exception {
+        byte[] encoded = buildCrl(10, true);
+        encoded[encoded.length - 1] ^= 0x01;
+
+        File file = writeTmpFile(encoded);
+        try {
+            CrlStreamParser parser = new CrlStreamParser(file);
+            try {
+                Assert.assertFalse("signature valid",
+                        parser.verifySignature(keyPair.getPublic()));
+            } finally {
+                parser.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertParsedCrl(final byte[] encoded, final boolean pem)
+    throws Exception {
+        X509CRL expected = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(
+                new ByteArrayInputStream(encoded));
+
+        byte[] content = encoded;
+        if (pem) {
+            String b64 = Base64.toBase64String(encoded);
+            StringBuilder sb = new StringBuilder("-----BEGIN X509 CRL-----\n");
+            for (int i = 0; i < b64.length(); i += 64) {
+                sb.append(b64.substring(i, Math.min(b64.length(), i + 64))).append('\n');
+            }
+            sb.append("-----END X509 CRL-----\n");
+            content = sb.toString().getBytes("UTF-8");
+        }
+
+        File file = writeTmpFile(content);
+        try {
+            CrlStreamParser parser = new CrlStreamParser(file);
+            try {
+                Assert.assertTrue("signature valid",
+                        parser.verifySignature(keyPair.getPublic()));
+                Assert.assertEquals("issuer", ISSUER, parser.getIssuer());
+                Assert.assertEquals("thisUpdate", expected.getThisUpdate(),
+                        parser.getThisUpdate());
+                Assert.assertEquals("nextUpdate", expected.getNextUpdate(),
+                        parser.getNextUpdate());
+                Assert.assertEquals("CRLNumber", BigInteger.valueOf(2),
+                        parser.getNumberExtensionValue(Extension.cRLNumber));
+                Assert.assertNull("DeltaCRLIndicator",
+                        parser.getNumberExtensionValue(Extension.deltaCRLIndicator));
+
+                int num = 0;
+                CrlStreamParser.RevokedCertsIterator it = parser.revokedCertificates();
+                try {
+                    while (it.hasNext()) {
+                        CRLEntry entry = it.next();
+                        BigInteger serial = entry.getUserCertificate().getValue();
+                        X509CRLEntry expectedEntry = expected.getRevokedCertificate(serial);
+                        Assert.assertNotNull("entry " + serial, expectedEntry);
+                        Assert.assertEquals("revocationDate", expectedEntry.getRevocationDate(),
+                                entry.getRevocationDate().getDate());
+                        num++;
+                    }
+                } finally {
+                    it.close();
+                }
+
+                int expectedNum = (expected.getRevokedCertificates() == null) ? 0
+                        : expected.getRevokedCertificates().size();
+                Assert.assertEquals("number of revoked certificates", expectedNum, num);
+            } finally {
+                parser.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] buildCrl(final int numEntries, final boolean withNextUpdate)
+    throws Exception {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, new Date(now));
+        if (withNextUpdate) {
+            builder.setNextUpdate(new Date(now + 24L * 3600 * 1000));
+        }
+
+        for (int i = 0; i < numEntries; i++) {
+            BigInteger serial = BigInteger.valueOf(i + 1).shiftLeft(8 * (i % 20));
+            Date revocationDate = new Date(now - (i + 1) * 1000L);
+            if (i % 3 == 0) {
+                builder.addCRLEntry(serial, revocationDate, CRLReason.keyCompromise);
+            } else {
+                ExtensionsGenerator extnGen = new ExtensionsGenerator();
+                extnGen.addExtension(Extension.reasonCode, false,
+                        CRLReason.lookup(CRLReason.superseded));
+                extnGen.addExtension(Extension.invalidityDate, false,
+                        new DERGeneralizedTime(new Date(now - (i + 2) * 1000L)));
+                builder.addCRLEntry(serial, revocationDate, extnGen.generate());
+            }
+        }
+
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(2));
+        return builder.build(new JcaContentSignerBuilder("SHA256withRSA")
+                .build(keyPair.getPrivate())).getEncoded();
+    }
+
+    private static File writeTmpFile(final byte[] content) throws IOException {
+        File file = File.createTempFile("crl-test-", ".crl");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ * Copyright (c) 2013 - 2016 Lijun Liao
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ *
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * THE AUTHOR LIJUN LIAO. LIJUN LIAO DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the XiPKI software without
+ * disclosing the source code of your own applications.
+ *
+ * For more information, please contact Lijun Liao at this
+ * address: lijun.liao@gmail.com
+ */
+
+package org.xipki.pki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.commons.security.HashAlgoType;
+
+/**
+ * @author Lijun Liao
+ * @since 2.1.1
+ */
+
+public class CertStatusSnapshotTest {
+
+    @Test
+    public void testPutAndGet() {
+        CertStatusSnapshot snapshot = new CertStatusSnapshot(
+                Collections.singleton(HashAlgoType.SHA1), new HashSet<>(Arrays.asList(1, 2)));
+
+        Random random = new Random(1);
+        BigInteger[] serials = new BigInteger[1000];
+        for (int i = 0; i < serials.length; i++) {
+            serials[i] = new BigInteger(1 + random.nextInt(159), random).add(BigInteger.ONE)
+                    .shiftLeft(10).add(BigInteger.valueOf(i));
+            byte[] certHash = HashAlgoType.SHA1.hash(serials[i].toByteArray());
+            Assert.assertTrue("new entry", snapshot.putEntry(1, serials[i], i, i + 100,
+                    "profile" + (i % 3), i % 2 == 0, 1, 1000 + i, 0, new byte[][]{certHash},
+                    10));
+        }
+
+        for (int i = 0; i < serials.length; i++) {
+            CertStatusSnapshot.Entry entry = snapshot.getEntry(1, serials[i], HashAlgoType.SHA1);
+            Assert.assertNotNull("entry " + i, entry);
+            Assert.assertEquals("notBefore", i, entry.getNotBeforeInSec());
+            Assert.assertEquals("notAfter", i + 100, entry.getNotAfterInSec());
+            Assert.assertEquals("certprofile", "profile" + (i % 3), entry.getCertprofile());
+            Assert.assertArrayEquals("certHash", HashAlgoType.SHA1.hash(serials[i].toByteArray()),
+                    entry.getCertHash());
+            if (i % 2 == 0) {
+                Assert.assertEquals("revocationTime", (1000L + i) * 1000,
+                        entry.getRevocationInfo().getRevocationTime().getTime());
+                Assert.assertNull("invalidityTime", entry.getRevocationInfo().getInvalidityTime());
+            } else {
+                Assert.assertNull("revocationInfo", entry.getRevocationInfo());
+            }
+
+            // certificate of another issuer
+            Assert.assertNull("other issuer", snapshot.getEntry(2, serials[i], null));
+        }
+
+        Assert.assertNull("not contained", snapshot.getEntry(1, BigInteger.ONE, null));
+        Assert.assertNull("without certHash",
+                snapshot.getEntry(1, serials[0], null).getCertHash());
+        Assert.assertEquals("lastUpdate", 10, snapshot.getLastUpdate(1));
+    }
+
+    @Test
+    public void testUpdate() {
+        CertStatusSnapshot snapshot = new CertStatusSnapshot(
+                Collections.<HashAlgoType>emptySet(), Collections.singleton(1));
+        BigInteger serial = BigInteger.valueOf(0x1234567);
+
+        Assert.assertTrue("new entry", snapshot.putEntry(1, serial, 1, 2, null, false, 0, 0, 0,
+                null, 5));
+        Assert.assertFalse("unchanged entry", snapshot.putEntry(1, serial, 1, 2, null, false,
+                0, 0, 0, null, 6));
+        Assert.assertTrue("revoked entry", snapshot.putEntry(1, serial, 1, 2, null, true, 1,
+                100, 90, null, 7));
+
+        CertStatusSnapshot.Entry entry = snapshot.getEntry(1, serial, null);
+        Assert.assertEquals("reason", 1, entry.getRevocationInfo().getReason().getCode());
+        Assert.assertEquals("invalidityTime", 90000,
+                entry.getRevocationInfo().getInvalidityTime().getTime());
+        Assert.assertEquals("lastUpdate", 7, snapshot.getLastUpdate(1));
+
+        snapshot.updateLastUpdate(1, 3);
+        Assert.assertEquals("lastUpdate", 7, snapshot.getLastUpdate(1));
+    }
+
+    @Test
+    public void testUncoveredIssuer() {
+        CertStatusSnapshot snapshot = new CertStatusSnapshot(
+                Collections.<HashAlgoType>emptySet(), Collections.singleton(1));
+        Assert.assertFalse("contains issuer", snapshot.containsIssuer(2));
+        Assert.assertFalse("uncovered issuer", snapshot.putEntry(2, BigInteger.TEN, 1, 2, null,
+                false, 0, 0, 0, null, 5));
+        Assert.assertNull("uncovered issuer", snapshot.getEntry(2, BigInteger.TEN, null));
+    }
+
+    @Test
+    public void testConcurrentReadDuringGrowth() throws Exception {
+        final CertStatusSnapshot snapshot = new CertStatusSnapshot(
+                Collections.<HashAlgoType>emptySet(), Collections.singleton(1));
+        final int num = 50000;
+        snapshot.putEntry(1, BigInteger.ONE, 1, 2, "p", false, 0, 0, 0, null, 1);
+
+        final boolean[] failed = new boolean[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < num; i++) {
+                    CertStatusSnapshot.Entry entry = snapshot.getEntry(1, BigInteger.ONE, null);
+                    if (entry == null || entry.getNotAfterInSec() != 2) {
+                        failed[0] = true;
+                        return;
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 2; i < num; i++) {
+            snapshot.putEntry(1, BigInteger.valueOf(i), i, i + 1, "p", false, 0, 0, 0, null, 1);
+        }
+        reader.join();
+
+        Assert.assertFalse("inconsistent read", failed[0]);
+        Assert.assertEquals("last entry", num, snapshot.getEntry(1,
+                BigInteger.valueOf(num - 1), null).getNotAfterInSec());
+    }
+
+}